@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two csv result files of the benchmarks (see {@link BenchmarkRunner})
+ *
+ * Benchmarks are matched by name, mode and parameters. A benchmark regressed if its
+ * score got worse by more than the threshold (lower throughput or higher time).
+ * Exits with status 1 if any benchmark regressed so it can be used in a build.
+ *
+ * Usage: BenchmarkCompare baseline.csv current.csv [threshold percent, default 10]
+ */
+public class BenchmarkCompare {
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkCompare baseline.csv current.csv [threshold percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+
+        int regressions = 0;
+        System.out.println(String.format("%-80s %14s %14s %9s", "Benchmark", "Baseline", "Current", "Change"));
+        for (Result result : current.values()) {
+            Result base = baseline.get(result.key);
+            if (base == null) {
+                System.out.println(String.format("%-80s %14s %14.3f %9s  new", result.key, "", result.score, ""));
+                continue;
+            }
+            double change = 100 * (result.score - base.score) / base.score;
+            // throughput should go up, everything else is a time that should go down
+            double worse = result.isThroughput() ? -change : change;
+            String flag = "";
+            if (!result.unit.equals(base.unit)) {
+                flag = "  units differ (" + base.unit + ")";
+            } else if (worse > threshold) {
+                flag = "  REGRESSION";
+                regressions++;
+            }
+            System.out.println(String.format("%-80s %14.3f %14.3f %+8.1f%% %s%s",
+                            result.key, base.score, result.score, change, result.unit, flag));
+        }
+        for (Result base : baseline.values()) {
+            if (!current.containsKey(base.key)) {
+                System.out.println(String.format("%-80s %14.3f %14s %9s  removed", base.key, base.score, "", ""));
+            }
+        }
+
+        System.out.println(regressions + " regression(s) over " + threshold + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    static Map<String, Result> read(String filename) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        List<String> header = split(lines.get(0));
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        if (score < 0 || unit < 0) {
+            throw new IOException(filename + " is not a JMH csv result file");
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            StringBuilder key = new StringBuilder(fields.get(0)).append(" ").append(fields.get(1));
+            for (int i = unit + 1; i < fields.size(); i++) {
+                if (!fields.get(i).isEmpty()) {
+                    key.append(" ").append(header.get(i).replace("Param: ", "")).append("=").append(fields.get(i));
+                }
+            }
+            Result result = new Result(key.toString(), fields.get(1), Double.parseDouble(fields.get(score)),
+                            fields.get(unit));
+            results.put(result.key, result);
+        }
+        return results;
+    }
+
+    // splits a csv line with optionally quoted fields
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static class Result {
+        final String key;
+        final String mode;
+        final double score;
+        final String unit;
+
+        Result(String key, String mode, double score, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+        }
+
+        boolean isThroughput() {
+            return mode.equals("thrpt");
+        }
+    }
+}
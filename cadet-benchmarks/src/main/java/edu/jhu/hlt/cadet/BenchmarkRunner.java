@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Runs the benchmarks with the JMH command line and saves the results as csv
+ *
+ * Unless -rf or -rff is given, the results are written to jmh-result.csv in the
+ * working directory so that runs can be compared with {@link BenchmarkCompare}.
+ */
+public class BenchmarkRunner {
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.csv";
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf") && !options.contains("-rff")) {
+            options.addAll(0, Arrays.asList("-rf", "csv", "-rff", DEFAULT_RESULT_FILE));
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
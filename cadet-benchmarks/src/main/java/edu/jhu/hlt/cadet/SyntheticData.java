@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.jhu.hlt.cadet.fetch.NonsenseGenerator;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.Section;
+import edu.jhu.hlt.concrete.Sentence;
+import edu.jhu.hlt.concrete.TextSpan;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.section.SectionFactory;
+import edu.jhu.hlt.concrete.sentence.SentenceFactory;
+import edu.jhu.hlt.concrete.util.ConcreteException;
+import edu.jhu.hlt.concrete.uuid.AnalyticUUIDGeneratorFactory;
+import edu.jhu.hlt.concrete.uuid.AnalyticUUIDGeneratorFactory.AnalyticUUIDGenerator;
+import edu.jhu.hlt.tift.Tokenizer;
+
+/**
+ * Builds communications and search results for the benchmarks
+ *
+ * Communications have nonsense news text split into sentences with whitespace
+ * tokenizations, like the ones the mock fetch provider returns. The text is random
+ * so the sizes vary a little between runs; the search results are seeded.
+ */
+public class SyntheticData {
+    // search results point at sentences of this many communications
+    private static final int SENTENCES_PER_COMM = 20;
+
+    private final RandomConcreteFactory factory = new RandomConcreteFactory();
+    private final NonsenseGenerator generator = NonsenseGenerator.getInstance();
+    private final Random random = new Random(42);
+
+    /**
+     * Create a communication with a headline section and a passage section
+     *
+     * @param id  communication id
+     * @param numSentences  number of sentences in the passage
+     */
+    public Communication communication(String id, int numSentences) {
+        Communication comm = factory.communication();
+        comm.setId(id);
+        AnalyticUUIDGenerator uuidGen = new AnalyticUUIDGeneratorFactory(comm).create();
+
+        StringBuilder text = new StringBuilder(generator.makeHeadline());
+        try {
+            comm.addToSectionList(section(uuidGen, text.toString(), 0, "title"));
+            for (int i = 0; i < numSentences; i++) {
+                text.append("\n\n");
+                int start = text.length();
+                String sentence = generator.makeSentence(false) + ".";
+                text.append(sentence);
+                comm.addToSectionList(section(uuidGen, sentence, start, "passage"));
+            }
+        } catch (ConcreteException e) {
+            throw new RuntimeException("Failed to create communication " + id, e);
+        }
+        comm.setText(text.toString());
+
+        return comm;
+    }
+
+    /**
+     * Create the results of a sentence search
+     *
+     * @param numItems  number of result items in descending score order
+     */
+    public SearchResult searchResult(int numItems) {
+        SearchQuery query = new SearchQuery();
+        query.setType(SearchType.SENTENCES);
+        query.setName("benchmark");
+        query.setUserId("annotator");
+        query.setRawQuery(generator.makeHeadline());
+        query.setTerms(Arrays.asList(query.getRawQuery().split(" ")));
+        query.setLabels(Arrays.asList("benchmark", "synthetic"));
+
+        SearchResult results = new SearchResult(new UUID(java.util.UUID.randomUUID().toString()), query);
+        double score = 100;
+        for (int i = 0; i < numItems; i++) {
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId("comm" + (i / SENTENCES_PER_COMM));
+            item.setSentenceId(new UUID(java.util.UUID.randomUUID().toString()));
+            score -= random.nextDouble() / numItems;
+            item.setScore(score);
+            results.addToSearchResultItems(item);
+        }
+        return results;
+    }
+
+    private static Section section(AnalyticUUIDGenerator uuidGen, String text, int start, String kind)
+                    throws ConcreteException {
+        TextSpan span = new TextSpan(start, start + text.length());
+        Section section = new SectionFactory(uuidGen).fromTextSpan(span, kind);
+        Sentence sentence = new SentenceFactory(uuidGen).create();
+        sentence.setTextSpan(span);
+        sentence.setTokenization(Tokenizer.WHITESPACE.tokenizeToConcrete(text, start));
+        section.addToSentenceList(sentence);
+        return section;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.feedback.store.sql;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.cadet.SyntheticData;
+import edu.jhu.hlt.cadet.feedback.store.FeedbackException;
+import edu.jhu.hlt.concrete.search.SearchResult;
+
+/**
+ * Cost of converting search results to and from the feedback records of the sql
+ * feedback store.
+ *
+ * create builds a feedback item per result and serializes the results into the
+ * record's blob; getSearchResults deserializes the blob when feedback is queried.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedbackRecordBenchmark {
+    @Param({"100", "1000"})
+    public int size;
+
+    private SearchResult results;
+    private FeedbackRecord record;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        results = new SyntheticData().searchResult(size);
+        record = FeedbackRecord.create(results);
+    }
+
+    @Benchmark
+    public FeedbackRecord create() {
+        return FeedbackRecord.create(results);
+    }
+
+    @Benchmark
+    public SearchResult getSearchResults() throws FeedbackException {
+        return record.getSearchResults();
+    }
+}
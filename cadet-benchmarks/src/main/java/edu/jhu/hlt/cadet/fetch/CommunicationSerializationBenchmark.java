@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.cadet.SyntheticData;
+import edu.jhu.hlt.concrete.Communication;
+
+/**
+ * Compact protocol serialization of communications as done by the file and pack
+ * fetch providers, the file store provider and the fetch cache.
+ *
+ * The communications have a sentence per section with a whitespace tokenization.
+ * The sizes are a short news item and a long article.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommunicationSerializationBenchmark {
+    @Param({"10", "100"})
+    public int sentences;
+
+    private final TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+    private final TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+    private Communication comm;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TException {
+        comm = new SyntheticData().communication("comm0", sentences);
+        bytes = serializer.serialize(comm);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws TException {
+        return serializer.serialize(comm);
+    }
+
+    @Benchmark
+    public Communication deserialize() throws TException {
+        Communication result = new Communication();
+        deserializer.deserialize(result, bytes);
+        return result;
+    }
+}
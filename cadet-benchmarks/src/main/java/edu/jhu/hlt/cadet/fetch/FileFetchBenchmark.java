@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+
+/**
+ * Fetch throughput from a directory with one file per communication compared to a
+ * communication pack of the same communications.
+ *
+ * Every call fetches a page of randomly chosen communications. The files are in the
+ * page cache after warmup so this measures the open/stat overhead rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileFetchBenchmark {
+    @Param({"10000"})
+    public int size;
+
+    @Param({"100"})
+    public int page;
+
+    @Param({"files", "pack"})
+    public String layout;
+
+    private Path directory;
+    private FetchProvider provider;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TException {
+        directory = Files.createTempDirectory("cadet-fetch");
+        Path files = Files.createDirectory(directory.resolve("files"));
+        Path pack = directory.resolve("pack");
+
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+        try (CommunicationPackWriter writer = new CommunicationPackWriter(pack,
+                        CommunicationPackWriter.DEFAULT_SEGMENT_SIZE)) {
+            for (int i = 0; i < size; i++) {
+                Communication comm = factory.communication();
+                comm.setId("comm" + i);
+                byte[] bytes = serializer.serialize(comm);
+                Files.write(files.resolve(comm.getId() + "." + FileFetchProvider.EXTENSION), bytes);
+                writer.add(comm.getId(), bytes);
+            }
+        }
+
+        if (layout.equals("pack")) {
+            provider = new PackFetchProvider();
+            provider.init(ConfigFactory.parseString("cadet.files.pack.dir = \"" + pack + "\""));
+        } else {
+            provider = new FileFetchProvider();
+            provider.init(ConfigFactory.parseString("cadet.files.data.dir = \"" + files + "\""));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        provider.close();
+        Files.walk(directory).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+
+    @Benchmark
+    public FetchResult fetch() throws TException {
+        FetchRequest request = new FetchRequest();
+        for (int i = 0; i < page; i++) {
+            request.addToCommunicationIds("comm" + random.nextInt(size));
+        }
+        return provider.fetch(request);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+
+/**
+ * Latency of a 200 communication fetch from a directory of 5k files as the
+ * FileFetchProvider reads with more threads.
+ *
+ * Point java.io.tmpdir at network storage to see the effect of per-file latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelFileFetchBenchmark {
+    @Param({"5000"})
+    public int size;
+
+    @Param({"200"})
+    public int page;
+
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    private Path directory;
+    private FileFetchProvider provider;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TException {
+        directory = Files.createTempDirectory("cadet-files");
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+        for (int i = 0; i < size; i++) {
+            Communication comm = factory.communication();
+            comm.setId("comm" + i);
+            Files.write(directory.resolve(comm.getId() + "." + FileFetchProvider.EXTENSION),
+                            serializer.serialize(comm));
+        }
+
+        provider = new FileFetchProvider();
+        provider.init(ConfigFactory.parseString("cadet.files { data.dir = \"" + directory
+                        + "\", fetch_threads = " + threads + " }"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        provider.close();
+        Files.walk(directory).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+
+    @Benchmark
+    public FetchResult fetch() throws TException {
+        // walk through the corpus so consecutive calls read different files
+        FetchRequest request = new FetchRequest();
+        for (int i = 0; i < page; i++) {
+            request.addToCommunicationIds("comm" + next);
+            next = (next + 1) % size;
+        }
+        return provider.fetch(request);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.logging;
+
+import org.slf4j.helpers.MarkerIgnoringBase;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Logger with the production levels (INFO and above on, DEBUG and TRACE off)
+ *
+ * Enabled messages are formatted and kept instead of written so that a benchmark
+ * pays for building them without filling the console.
+ */
+class InfoLogger extends MarkerIgnoringBase {
+    private static final long serialVersionUID = 1L;
+
+    private volatile String lastMessage;
+
+    InfoLogger() {
+        name = "bench";
+    }
+
+    private void log(String msg) {
+        lastMessage = msg;
+    }
+
+    private void log(String format, Object... args) {
+        lastMessage = MessageFormatter.arrayFormat(format, args).getMessage();
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return false;
+    }
+
+    @Override
+    public void trace(String msg) {}
+
+    @Override
+    public void trace(String format, Object arg) {}
+
+    @Override
+    public void trace(String format, Object arg1, Object arg2) {}
+
+    @Override
+    public void trace(String format, Object... arguments) {}
+
+    @Override
+    public void trace(String msg, Throwable t) {}
+
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    @Override
+    public void debug(String msg) {}
+
+    @Override
+    public void debug(String format, Object arg) {}
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {}
+
+    @Override
+    public void debug(String format, Object... arguments) {}
+
+    @Override
+    public void debug(String msg, Throwable t) {}
+
+    @Override
+    public boolean isInfoEnabled() {
+        return true;
+    }
+
+    @Override
+    public void info(String msg) {
+        log(msg);
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        log(format, arg);
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        log(format, arg1, arg2);
+    }
+
+    @Override
+    public void info(String format, Object... arguments) {
+        log(format, arguments);
+    }
+
+    @Override
+    public void info(String msg, Throwable t) {
+        log(msg);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return true;
+    }
+
+    @Override
+    public void warn(String msg) {
+        log(msg);
+    }
+
+    @Override
+    public void warn(String format, Object arg) {
+        log(format, arg);
+    }
+
+    @Override
+    public void warn(String format, Object... arguments) {
+        log(format, arguments);
+    }
+
+    @Override
+    public void warn(String format, Object arg1, Object arg2) {
+        log(format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(String msg, Throwable t) {
+        log(msg);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return true;
+    }
+
+    @Override
+    public void error(String msg) {
+        log(msg);
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        log(format, arg);
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        log(format, arg1, arg2);
+    }
+
+    @Override
+    public void error(String format, Object... arguments) {
+        log(format, arguments);
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+        log(msg);
+    }
+}
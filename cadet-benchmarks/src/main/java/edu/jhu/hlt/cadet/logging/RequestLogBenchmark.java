@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchResult;
+
+/**
+ * Cost of logging a 1000 communication fetch result with INFO on and DEBUG off.
+ *
+ * eagerLogging is the way the fetch handler used to log: the messages are built
+ * for every communication before the logger drops them. lazyLogging goes through
+ * RequestLog and only builds the summary line. lazyDetail is the per communication
+ * part on its own, which allocates nothing (RequestLogTest checks this, -prof gc
+ * shows it as gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestLogBenchmark {
+    private static final Logger logger = new InfoLogger();
+
+    @Param({"1000"})
+    public int size;
+
+    private FetchResult results;
+    private RequestLog requestLog;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Communication> comms = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Communication comm = new Communication();
+            comm.setId("communication_" + i);
+            comms.add(comm);
+        }
+        results = new FetchResult();
+        results.setCommunications(comms);
+        requestLog = new RequestLog(logger, "Fetch");
+    }
+
+    @Benchmark
+    public void eagerLogging() {
+        logger.info("Fetch: returning " + results.getCommunicationsSize() + " communications");
+        for (Communication comm : results.getCommunications()) {
+            logger.debug("CommId: " + comm.getId());
+        }
+    }
+
+    @Benchmark
+    public void lazyLogging() {
+        long start = System.nanoTime();
+        if (requestLog.sampleDetail()) {
+            for (Communication comm : results.getCommunications()) {
+                logger.debug("CommId: {}", comm.getId());
+            }
+        }
+        requestLog.summary(start, size, results.getCommunicationsSize(), "communications");
+    }
+
+    @Benchmark
+    public boolean lazyDetail() {
+        boolean sampled = requestLog.sampleDetail();
+        if (sampled) {
+            for (Communication comm : results.getCommunications()) {
+                logger.debug("CommId: {}", comm.getId());
+            }
+        }
+        return sampled;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording a metric on the request path.
+ *
+ * The single benchmarks record from one thread and the contended groups from 8
+ * threads on the same counter or histogram, like the handler threads of a busy
+ * broker. timedCall is the full pattern used by the handlers: two nanoTime() calls
+ * and a histogram record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final Counter counter = registry.counter("bench_total", "Benchmark counter");
+    private final Histogram histogram = registry.histogram("bench_seconds", "Benchmark latency");
+    private long value = 12345;
+
+    @Benchmark
+    public void counterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        // vary the value so different buckets are hit
+        value = (value * 6364136223846793005L + 1442695040888963407L) >>> 40;
+        histogram.record(value);
+    }
+
+    @Benchmark
+    public void timedCall() {
+        long start = System.nanoTime();
+        histogram.recordSince(start);
+    }
+
+    @Benchmark
+    @Group("contendedCounter")
+    @GroupThreads(8)
+    public void contendedCounterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Group("contendedHistogram")
+    @GroupThreads(8)
+    public void contendedHistogramRecord(Values values) {
+        histogram.record(values.next());
+    }
+
+    /**
+     * Per-thread pseudo random latencies around 1 ms
+     */
+    @State(Scope.Thread)
+    public static class Values {
+        private long seed = System.nanoTime();
+
+        long next() {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            return (seed >>> 44) + 500000;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+/**
+ * 100 annotators pulling chunks from one large sentence session.
+ *
+ * Each iteration starts a new session and every thread pulls a batch of chunks from it,
+ * so the score is the time for the whole batch with all annotators contending.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 50)
+@Measurement(iterations = 10, batchSize = 50)
+@Threads(100)
+@Fork(1)
+public class AnnotationSessionBenchmark {
+    private static final int CHUNK_SIZE = 5;
+
+    // 100 threads x 50 chunks x 5 items never drains the session
+    @Param({"50000"})
+    public int size;
+
+    private SearchResult results;
+    private AnnotationSession session;
+
+    @Setup(Level.Trial)
+    public void createResults() {
+        results = new SearchResult(new UUID("benchmark"), new SearchQuery());
+        for (int i = 0; i < size; i++) {
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId("comm" + (i / 20));
+            item.setSentenceId(new UUID("sentence" + i));
+            results.addToSearchResultItems(item);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startSession() {
+        session = new AnnotationSession(results, TimeUnit.HOURS.toMillis(1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopSession() {
+        session.close();
+    }
+
+    @Benchmark
+    public List<AnnotationUnitIdentifier> getNext() {
+        return session.getNext(CHUNK_SIZE);
+    }
+}
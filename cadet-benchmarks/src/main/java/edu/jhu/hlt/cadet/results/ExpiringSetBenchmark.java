@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+/**
+ * Cost of ExpiringSet.expire() with 100k items out for annotation.
+ *
+ * The clock is driven by the benchmark: expireNone measures the common case of a
+ * check where nothing is due and expireBatch advances one tick per call so that
+ * a batch of the oldest items expires while as many new ones are added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpiringSetBenchmark {
+    private static final long TIME_TO_LIVE = 100;
+
+    @Param({"100000"})
+    public int size;
+
+    private ExpiringSet set;
+    private long now;
+    private int batch;
+    private int counter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        now = 0;
+        counter = 0;
+        batch = (int) (size / TIME_TO_LIVE);
+        set = new ExpiringSet(TIME_TO_LIVE, () -> now);
+        // spread the items over one time to live so they expire a batch per tick
+        for (long t = 0; t < TIME_TO_LIVE; t++) {
+            now = t;
+            addBatch();
+        }
+    }
+
+    private void addBatch() {
+        for (int i = 0; i < batch; i++) {
+            set.add(new AnnotationUnitIdentifier("item" + counter++));
+        }
+    }
+
+    @Benchmark
+    public Set<AnnotationUnitIdentifier> expireNone() {
+        return set.expire();
+    }
+
+    @Benchmark
+    public Set<AnnotationUnitIdentifier> expireBatch() {
+        now++;
+        addBatch();
+        return set.expire();
+    }
+}
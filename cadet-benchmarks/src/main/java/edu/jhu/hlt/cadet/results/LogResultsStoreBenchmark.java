@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Measures the startup time of the LogResultsStore when it rebuilds its indexes
+ * from a snapshot compared to replaying every record in the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LogResultsStoreBenchmark {
+    private static final int NUM_USERS = 100;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"snapshot", "log"})
+    public String replay;
+
+    private Config config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ServicesException {
+        String dir = Files.createTempDirectory("cadet-log").toString();
+        config = ConfigFactory.empty()
+                        .withValue("cadet.results.log.dir", ConfigValueFactory.fromAnyRef(dir))
+                        .withValue("cadet.results.log.snapshot_interval", ConfigValueFactory.fromAnyRef("1d"));
+
+        LogResultsStore store = new LogResultsStore();
+        store.init(config);
+        AnnotationTaskType[] tasks = AnnotationTaskType.values();
+        for (int i = 0; i < size; i++) {
+            store.add(createResult("r" + i, "user" + (i % NUM_USERS)), tasks[i % tasks.length]);
+        }
+        if (replay.equals("snapshot")) {
+            store.close();
+        }
+        // otherwise the store is left open like after a crash so startup reads the whole log
+    }
+
+    private static SearchResult createResult(String id, String user) {
+        SearchQuery query = new SearchQuery();
+        query.setUserId(user);
+        query.setRawQuery("query " + id);
+        query.setType(SearchType.COMMUNICATIONS);
+        return new SearchResult(new UUID(id), query);
+    }
+
+    @Benchmark
+    public LogResultsStore startup() {
+        // not closed so that the next iteration starts from the same files
+        LogResultsStore store = new LogResultsStore();
+        store.init(config);
+        return store;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Compares the scanning MemoryResultsStore with the IndexedResultsStore
+ * for the lookups behind the results page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResultsStoreBenchmark {
+    private static final int NUM_USERS = 100;
+    private static final int LIMIT = 20;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"memory", "indexed"})
+    public String type;
+
+    private ResultsStore store;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ServicesException {
+        store = type.equals("memory") ? new MemoryResultsStore() : new IndexedResultsStore();
+        AnnotationTaskType[] tasks = AnnotationTaskType.values();
+        for (int i = 0; i < size; i++) {
+            store.add(createResult("r" + i, "user" + (i % NUM_USERS)), tasks[i % tasks.length]);
+        }
+    }
+
+    private static SearchResult createResult(String id, String user) {
+        SearchQuery query = new SearchQuery();
+        query.setUserId(user);
+        query.setRawQuery("query " + id);
+        return new SearchResult(new UUID(id), query);
+    }
+
+    @Benchmark
+    public List<SearchResult> getByTask() {
+        return store.getByTask(AnnotationTaskType.NER, LIMIT);
+    }
+
+    @Benchmark
+    public List<SearchResult> getByUser() {
+        return store.getByUser(AnnotationTaskType.NER, "user" + (counter++ % NUM_USERS), LIMIT);
+    }
+
+    @Benchmark
+    public ResultsStore.Item getLatest() {
+        return store.getLatest("user" + (counter++ % NUM_USERS));
+    }
+
+    @Benchmark
+    public ResultsStore.Item getByID() {
+        return store.getByID(new UUID("r" + (counter++ % size)));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+/**
+ * Applying a new ranking from the active learner to a large session.
+ *
+ * baselineFullSort is the full sort as it was applied before RankQueue: the rank index
+ * and the boxed set of available ranks were rebuilt under the session lock.
+ * Run with "-prof gc" to see the allocation per sort update (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortUpdateBenchmark {
+    @Param({"100000"})
+    public int size;
+
+    @Param({"100"})
+    public int topK;
+
+    private AnnotationSession session;
+    private BaselineQueue baseline;
+    private List<List<AnnotationUnitIdentifier>> fullSorts = new ArrayList<>();
+    private List<List<AnnotationUnitIdentifier>> deltaSorts = new ArrayList<>();
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SearchResult results = new SearchResult(new UUID("benchmark"), new SearchQuery());
+        for (int i = 0; i < size; i++) {
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId("comm" + (i / 20));
+            item.setSentenceId(new UUID("sentence" + i));
+            results.addToSearchResultItems(item);
+        }
+        session = new AnnotationSession(results, TimeUnit.HOURS.toMillis(1));
+        session.getNext(size / 10);
+
+        Random random = new Random(7);
+        List<AnnotationUnitIdentifier> units = session.getOrderedItems();
+        baseline = new BaselineQueue(units);
+        baseline.poll(size / 10);
+        for (int i = 0; i < 8; i++) {
+            List<AnnotationUnitIdentifier> sort = new ArrayList<>(units);
+            Collections.shuffle(sort, random);
+            fullSorts.add(sort);
+            deltaSorts.add(new ArrayList<>(sort.subList(0, topK)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public boolean fullSort() {
+        return session.updateSort(fullSorts.get(counter++ & 7));
+    }
+
+    @Benchmark
+    public boolean deltaSort() {
+        return session.updateSort(deltaSorts.get(counter++ & 7));
+    }
+
+    @Benchmark
+    public boolean baselineFullSort() {
+        List<AnnotationUnitIdentifier> list = fullSorts.get(counter++ & 7);
+        synchronized(baseline) {
+            if (list.size() != baseline.units.length) {
+                return false;
+            }
+            baseline.reorder(list);
+            return true;
+        }
+    }
+
+    /**
+     * The queue that a session used before RankQueue
+     */
+    private static class BaselineQueue {
+        private AnnotationUnitIdentifier[] units;
+        private Map<AnnotationUnitIdentifier, Integer> ranks;
+        private TreeSet<Integer> available = new TreeSet<>();
+
+        BaselineQueue(List<AnnotationUnitIdentifier> ordered) {
+            setOrder(ordered);
+            for (int rank = 0; rank < units.length; rank++) {
+                available.add(rank);
+            }
+        }
+
+        void poll(int n) {
+            for (int i = 0; i < n && !available.isEmpty(); i++) {
+                available.pollFirst();
+            }
+        }
+
+        void reorder(List<AnnotationUnitIdentifier> ordered) {
+            List<AnnotationUnitIdentifier> availableUnits = new ArrayList<>(available.size());
+            for (int rank : available) {
+                availableUnits.add(units[rank]);
+            }
+            setOrder(ordered);
+            available = new TreeSet<>();
+            for (AnnotationUnitIdentifier unit : availableUnits) {
+                available.add(ranks.get(unit));
+            }
+        }
+
+        private void setOrder(List<AnnotationUnitIdentifier> ordered) {
+            units = ordered.toArray(new AnnotationUnitIdentifier[ordered.size()]);
+            ranks = new HashMap<>(units.length * 2);
+            for (int rank = 0; rank < units.length; rank++) {
+                ranks.putIfAbsent(units[rank], rank);
+            }
+        }
+    }
+}
@@ -22,6 +22,11 @@ public class CadetConfig {
     public static final String LEARN_HOST = "cadet.learn.host";
     public static final String LEARN_PORT = "cadet.learn.port";
     public static final String LEARN_PROVIDER = "cadet.learn.provider";
+    public static final String LEARN_PATHNAME = "cadet.learn";
+    // annotations are sent to the learner in batches by the BatchingActiveLearningClient
+    public static final String LEARN_BATCH_DELEGATE = "cadet.learn.batch.delegate";
+    public static final String LEARN_BATCH_SIZE = "cadet.learn.batch.size";
+    public static final String LEARN_BATCH_INTERVAL = "cadet.learn.batch.interval";
 
     /**
      * Search
@@ -33,6 +38,29 @@ public class CadetConfig {
     public static final String SEARCH_HOST_CUSTOM = "host";
     public static final String SEARCH_PORT_CUSTOM = "port";
     public static final String SEARCH_PROVIDER_CUSTOM = "provider";
+    // other "host:port" servers of the same search service
+    public static final String SEARCH_REPLICAS_CUSTOM = "replicas";
+    // time to wait for a search before giving up
+    public static final String SEARCH_DEADLINE_CUSTOM = "deadline";
+    // send a second request to another replica when the first is slow
+    public static final String SEARCH_HEDGE_CUSTOM = "hedge.enabled";
+    // fixed hedge delay (otherwise the hedge.percentile of recent search latencies)
+    public static final String SEARCH_HEDGE_DELAY_CUSTOM = "hedge.delay";
+    public static final String SEARCH_HEDGE_PERCENTILE_CUSTOM = "hedge.percentile";
+    // settings for the caching search provider (relative to the provider name path)
+    public static final String SEARCH_CACHE_DELEGATE = "cache.delegate";
+    public static final String SEARCH_CACHE_TTL = "cache.ttl";
+    public static final String SEARCH_CACHE_STALE = "cache.stale";
+    public static final String SEARCH_CACHE_MAX_ENTRIES = "cache.max_entries";
+    public static final String SEARCH_CACHE_MAX_BYTES = "cache.max_bytes";
+    public static final String SEARCH_CACHE_IGNORE_CASE = "cache.ignore_case";
+    // searching several providers at once (see FederatedSearchProvider)
+    public static final String SEARCH_FEDERATED = "cadet.search.federated";
+    public static final String SEARCH_FEDERATED_NAME = "name";
+    public static final String SEARCH_FEDERATED_PROVIDERS = "providers";
+    public static final String SEARCH_FEDERATED_DEADLINE = "deadline";
+    // number of federated searches expected at once (threads per provider)
+    public static final String SEARCH_FEDERATED_CONCURRENCY = "concurrency";
 
     /**
      * Fetch
@@ -42,6 +70,14 @@ public class CadetConfig {
     public static final String FETCH_PROVIDER = "cadet.fetch.provider";
     public static final String FETCH_PATHNAME = "cadet.fetch";
     public static final String DEPRECATED_FETCH_PATHNAME = "cadet.retrieve";
+    // requests larger than this are split into sub-batches fetched in parallel (0 to never split)
+    public static final String FETCH_BATCH_SIZE = "cadet.fetch.batch_size";
+    public static final String FETCH_BATCH_TIMEOUT = "cadet.fetch.batch_timeout";
+    // fewest sub-batches (as a fraction) that must finish to return a partial result
+    public static final String FETCH_BATCH_MIN_FRACTION = "cadet.fetch.batch_min_fraction";
+    // settings for the caching fetch provider
+    public static final String FETCH_CACHE_DELEGATE = "cadet.fetch.cache.delegate";
+    public static final String FETCH_CACHE_MAX_BYTES = "cadet.fetch.cache.max_bytes";
 
     /**
      * Store
@@ -58,6 +94,36 @@ public class CadetConfig {
     public static final String FEEDBACK_DIR = "cadet.feedback.dump_dir";
     public static final String FEEDBACK_STORE = "cadet.feedback.store";
 
+    /**
+     * Request logging of the fetch and search handlers
+     */
+    // log the items of one request in this many at DEBUG
+    public static final String REQUEST_LOG_DETAIL_SAMPLE = "cadet.request_log.detail_sample";
+
+    /**
+     * Thrift client pools (relative to the provider's path, e.g. "cadet.fetch.pool.size")
+     */
+    public static final String POOL_SIZE = "pool.size";
+    public static final String POOL_TIMEOUT = "pool.timeout";
+    public static final String POOL_MIN_IDLE = "pool.min_idle";
+    public static final String POOL_MAX_IDLE_TIME = "pool.max_idle_time";
+    public static final String POOL_PROBE_INTERVAL = "pool.probe_interval";
+    // time the background maintenance waits to connect or for a probe to answer
+    public static final String POOL_PROBE_TIMEOUT = "pool.probe_timeout";
+
+    /**
+     * Circuit breakers of the thrift client pools (relative to the provider's path)
+     */
+    public static final String BREAKER_ENABLED = "breaker.enabled";
+    // fraction of the recent calls that must fail to open the breaker
+    public static final String BREAKER_FAILURE_RATE = "breaker.failure_rate";
+    // number of recent calls that the failure rate is computed over
+    public static final String BREAKER_WINDOW = "breaker.window";
+    // fewest calls in the window before the breaker can open
+    public static final String BREAKER_MIN_CALLS = "breaker.min_calls";
+    // time the breaker stays open before the service is probed
+    public static final String BREAKER_OPEN_TIME = "breaker.open_time";
+
     /**
      * Results server
      */
@@ -67,6 +133,27 @@ public class CadetConfig {
     public static final String RESULTS_BASE = "cadet.results";
     public static final String RESULTS_CHUNK_SIZE = "chunk_size";
     public static final String RESULTS_ANNOTATION_DEADLINE = "deadline";
+    public static final String RESULTS_SESSION_IDLE_TIMEOUT = "session_idle_timeout";
+    // limits for the bounded results store (relative to the results path)
+    public static final String RESULTS_MAX_ENTRIES = "max_entries";
+    public static final String RESULTS_MAX_BYTES = "max_bytes";
+    public static final String RESULTS_MAX_AGE = "max_age";
+    public static final String RESULTS_SPILL_DIR = "spill_dir";
+    // settings for the log backed results and session stores (relative to the results path)
+    public static final String RESULTS_LOG_DIR = "log.dir";
+    public static final String RESULTS_LOG_SEGMENT_SIZE = "log.segment_size";
+    public static final String RESULTS_LOG_SNAPSHOT_INTERVAL = "log.snapshot_interval";
+    public static final String RESULTS_LOG_SNAPSHOT_RECORDS = "log.snapshot_records";
+    public static final String RESULTS_LOG_SYNC = "log.sync";
+    // asynchronous annotation submission (relative to the results path)
+    public static final String RESULTS_PIPELINE_ENABLED = "pipeline.enabled";
+    public static final String RESULTS_PIPELINE_DURABLE = "pipeline.durable";
+    public static final String RESULTS_PIPELINE_CAPACITY = "pipeline.capacity";
+    public static final String RESULTS_PIPELINE_THREADS = "pipeline.threads";
+    public static final String RESULTS_PIPELINE_ENQUEUE_TIMEOUT = "pipeline.enqueue_timeout";
+    public static final String RESULTS_PIPELINE_MAX_ATTEMPTS = "pipeline.max_attempts";
+    public static final String RESULTS_PIPELINE_BACKOFF = "pipeline.backoff";
+    public static final String RESULTS_PIPELINE_MAX_BACKOFF = "pipeline.max_backoff";
 
     /**
      * Summarization server
@@ -74,9 +161,20 @@ public class CadetConfig {
     public static final String SUMMARIZATION_HOST = "cadet.summarization.host";
     public static final String SUMMARIZATION_PORT = "cadet.summarization.port";
     public static final String SUMMARIZATION_PROVIDER = "cadet.summarization.provider";
+    public static final String SUMMARIZATION_PATHNAME = "cadet.summarization";
 
     /**
      * File based system (rather than accumulo based)
      */
     public static final String FILES_DATA_DIR = "cadet.files.data.dir";
+    // number of files the file fetch provider reads at once (1 to read on the request thread)
+    public static final String FILES_FETCH_THREADS = "cadet.files.fetch_threads";
+    // file store provider settings
+    // durability of each write: "none" (default), "flush" (file data reaches the disk) or "fsync" (also the rename)
+    public static final String FILES_STORE_DURABILITY = "cadet.files.store.durability";
+    // queue writes and save them in batches in the background
+    public static final String FILES_STORE_WRITE_BEHIND = "cadet.files.store.write_behind";
+    public static final String FILES_STORE_FLUSH_INTERVAL = "cadet.files.store.flush_interval";
+    // directory of a communication pack (see CommunicationPack)
+    public static final String FILES_PACK_DIR = "cadet.files.pack.dir";
 }
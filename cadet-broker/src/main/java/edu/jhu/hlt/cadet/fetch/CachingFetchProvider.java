@@ -0,0 +1,329 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.Counter;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.cadet.store.FileStoreProvider;
+import edu.jhu.hlt.cadet.store.StoreProvider;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.services.NotImplementedException;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Caches communications from another fetch provider
+ *
+ * The delegate is named by cadet.fetch.cache.delegate and is initialized with the same config.
+ * Communications are kept compact serialized so that cadet.fetch.cache.max_bytes bounds the
+ * memory used and every caller gets its own copy. Concurrent requests for a communication that
+ * is not cached share a single fetch from the delegate.
+ */
+public class CachingFetchProvider implements FetchProvider {
+    private static Logger logger = LoggerFactory.getLogger(CachingFetchProvider.class);
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private FetchProvider delegate;
+    private CommunicationCache cache;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // shared by all fetch caches
+    private final Counter hitMetric = MetricsRegistry.getShared().counter("cadet_cache_requests_total",
+                    "Lookups in the fetch and search caches", "cache", "fetch", "result", "hit");
+    private final Counter missMetric = MetricsRegistry.getShared().counter("cadet_cache_requests_total",
+                    "Lookups in the fetch and search caches", "cache", "fetch", "result", "miss");
+
+    @Override
+    public void init(Config config) {
+        String delegateName = config.getString(CadetConfig.FETCH_CACHE_DELEGATE);
+        try {
+            delegate = (FetchProvider) Class.forName(delegateName).getConstructor().newInstance();
+        } catch (ClassNotFoundException | IllegalAccessException | InvocationTargetException
+                        | InstantiationException | NoSuchMethodException ex) {
+            throw new RuntimeException("Cannot construct " + delegateName, ex);
+        }
+        delegate.init(config);
+
+        long maxBytes = DEFAULT_MAX_BYTES;
+        if (config.hasPath(CadetConfig.FETCH_CACHE_MAX_BYTES)) {
+            maxBytes = config.getBytes(CadetConfig.FETCH_CACHE_MAX_BYTES);
+        }
+        init(delegate, maxBytes);
+    }
+
+    /**
+     * Initialize with a delegate that has already been initialized
+     *
+     * @param delegate  fetch provider to cache
+     * @param maxBytes  maximum size of the cached communications
+     */
+    public void init(FetchProvider delegate, long maxBytes) {
+        this.delegate = delegate;
+        cache = new CommunicationCache(maxBytes);
+        logger.info("CachingFetchProvider DELEGATE: " + delegate.getClass().getName());
+        logger.info("CachingFetchProvider MAX BYTES: " + maxBytes);
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        metrics.gauge("cadet_cache_bytes", "Size of the cached values", this::getCachedBytes, "cache", "fetch");
+        metrics.gauge("cadet_cache_entries", "Number of cached values", this::getCachedCount, "cache", "fetch");
+        metrics.counter("cadet_cache_evictions_total", "Values evicted to stay under the size bound",
+                        this::getEvictionCount, "cache", "fetch");
+    }
+
+    @Override
+    public void close() {
+        logger.info("Fetch cache: hit ratio " + getHitRatio() + ", " + getCachedBytes() + " bytes in "
+                        + cache.size() + " communications");
+        delegate.close();
+    }
+
+    @Override
+    public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
+        Map<String, byte[]> found = new HashMap<>();
+        Map<String, CompletableFuture<byte[]>> owned = new LinkedHashMap<>();
+        Map<String, CompletableFuture<byte[]>> waiting = new HashMap<>();
+        for (String id : request.getCommunicationIds()) {
+            if (found.containsKey(id) || owned.containsKey(id) || waiting.containsKey(id)) {
+                continue;
+            }
+            byte[] value = cache.get(id);
+            if (value != null) {
+                hits.incrementAndGet();
+                hitMetric.increment();
+                found.put(id, value);
+                continue;
+            }
+            misses.incrementAndGet();
+            missMetric.increment();
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            CompletableFuture<byte[]> existing = inFlight.putIfAbsent(id, future);
+            if (existing == null) {
+                owned.put(id, future);
+            } else {
+                waiting.put(id, existing);
+            }
+        }
+
+        if (!owned.isEmpty()) {
+            fetchMissing(request, owned, found);
+        }
+        for (Map.Entry<String, CompletableFuture<byte[]>> entry : waiting.entrySet()) {
+            found.put(entry.getKey(), await(entry.getValue()));
+        }
+
+        FetchResult results = new FetchResult();
+        results.setCommunications(new ArrayList<>(request.getCommunicationIdsSize()));
+        TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+        for (String id : request.getCommunicationIds()) {
+            byte[] value = found.get(id);
+            if (value != null) {
+                Communication comm = new Communication();
+                deserializer.deserialize(comm, value);
+                results.addToCommunications(comm);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Fetch the communications this request is responsible for and share them with waiting requests
+     */
+    private void fetchMissing(FetchRequest request, Map<String, CompletableFuture<byte[]>> owned,
+                    Map<String, byte[]> found) throws ServicesException, TException {
+        FetchRequest missing = new FetchRequest(request);
+        missing.setCommunicationIds(new ArrayList<>(owned.keySet()));
+        try {
+            FetchResult results = delegate.fetch(missing);
+            TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+            Map<String, byte[]> fetched = new HashMap<>();
+            if (results.isSetCommunications()) {
+                for (Communication comm : results.getCommunications()) {
+                    fetched.put(comm.getId(), serializer.serialize(comm));
+                }
+            }
+            for (Map.Entry<String, CompletableFuture<byte[]>> entry : owned.entrySet()) {
+                String id = entry.getKey();
+                byte[] value = fetched.get(id);
+                cacheIfCurrent(id, entry.getValue(), value);
+                if (value != null) {
+                    found.put(id, value);
+                }
+                entry.getValue().complete(value);
+            }
+        } catch (TException | RuntimeException e) {
+            for (Map.Entry<String, CompletableFuture<byte[]>> entry : owned.entrySet()) {
+                inFlight.remove(entry.getKey(), entry.getValue());
+                entry.getValue().completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cache a fetched communication unless it was invalidated during the fetch
+     *
+     * The in-flight entry is removed and the value cached under the map's lock for the ID,
+     * which invalidate() also takes, so an invalidation cannot land between the two.
+     */
+    private void cacheIfCurrent(String id, CompletableFuture<byte[]> future, byte[] value) {
+        inFlight.computeIfPresent(id, (key, current) -> {
+            if (current != future) {
+                return current;
+            }
+            if (value != null) {
+                cache.put(id, value);
+            }
+            return null;
+        });
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws ServicesException, TException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TException) {
+                throw (TException) e.getCause();
+            }
+            throw new ServicesException("Fetch failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicesException("Interrupted while waiting for fetch");
+        }
+    }
+
+    /**
+     * Drop a communication from the cache so the next fetch goes to the delegate
+     */
+    public void invalidate(String communicationId) {
+        inFlight.compute(communicationId, (key, current) -> {
+            cache.invalidate(communicationId);
+            return null;
+        });
+    }
+
+    /**
+     * Wrap a store provider so that storing a communication drops it from this cache
+     *
+     * A write behind FileStoreProvider also drops the communication once it is written.
+     * The wrapper does not init or close the store provider.
+     */
+    public StoreProvider invalidateOnStore(StoreProvider storeProvider) {
+        if (storeProvider instanceof FileStoreProvider) {
+            ((FileStoreProvider) storeProvider).addFlushListener(this::invalidate);
+        }
+        return new InvalidatingStoreProvider(storeProvider);
+    }
+
+    /**
+     * Get the fraction of requested communications that were found in the cache
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getCachedBytes() {
+        return cache.getBytes();
+    }
+
+    public int getCachedCount() {
+        return cache.size();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public long getCommunicationCount() throws NotImplementedException, TException {
+        return delegate.getCommunicationCount();
+    }
+
+    @Override
+    public List<String> getCommunicationIDs(long offset, long count) throws NotImplementedException, TException {
+        return delegate.getCommunicationIDs(offset, count);
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return delegate.alive();
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return delegate.about();
+    }
+
+    private class InvalidatingStoreProvider implements StoreProvider {
+        private final StoreProvider storeProvider;
+
+        private InvalidatingStoreProvider(StoreProvider storeProvider) {
+            this.storeProvider = storeProvider;
+        }
+
+        @Override
+        public void init(Config config) {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public void store(Communication communication) throws TException {
+            try {
+                storeProvider.store(communication);
+            } finally {
+                invalidate(communication.getId());
+            }
+        }
+
+        @Override
+        public boolean alive() throws TException {
+            return storeProvider.alive();
+        }
+
+        @Override
+        public ServiceInfo about() throws TException {
+            return storeProvider.about();
+        }
+    }
+}
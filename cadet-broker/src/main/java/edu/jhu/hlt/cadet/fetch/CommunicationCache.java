@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte bounded cache of serialized communications with W-TinyLFU style eviction.
+ *
+ * New entries go into a small LRU window. Entries pushed out of the window compete
+ * with the least recently used entry of the main area and the one that has been
+ * requested more often (according to a frequency sketch) stays. The main area is
+ * split into probation and protected segments so that entries read more than once
+ * are not pushed out by a burst of one-off reads.
+ * Thread safe.
+ */
+class CommunicationCache {
+    private final long windowMax;
+    private final long mainMax;
+    private final long protectedMax;
+
+    // access ordered so the first entry is the least recently used
+    private final LinkedHashMap<String, byte[]> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowBytes = 0;
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    private long evictions = 0;
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    /**
+     * @param maxBytes  maximum total size of the cached values
+     */
+    CommunicationCache(long maxBytes) {
+        windowMax = Math.max(maxBytes / 100, 1);
+        mainMax = Math.max(maxBytes - windowMax, 0);
+        protectedMax = mainMax * 4 / 5;
+    }
+
+    /**
+     * Get a value and record the access
+     *
+     * @return value or null if not cached
+     */
+    synchronized byte[] get(String id) {
+        sketch.increment(id);
+        byte[] value = window.get(id);
+        if (value != null) {
+            return value;
+        }
+        value = protectedSegment.get(id);
+        if (value != null) {
+            return value;
+        }
+        value = probation.remove(id);
+        if (value != null) {
+            // promote and push the least recently used protected entries back to probation
+            probationBytes -= value.length;
+            protectedSegment.put(id, value);
+            protectedBytes += value.length;
+            Iterator<Map.Entry<String, byte[]>> iter = protectedSegment.entrySet().iterator();
+            while (protectedBytes > protectedMax && iter.hasNext()) {
+                Map.Entry<String, byte[]> entry = iter.next();
+                iter.remove();
+                protectedBytes -= entry.getValue().length;
+                probation.put(entry.getKey(), entry.getValue());
+                probationBytes += entry.getValue().length;
+            }
+        }
+        return value;
+    }
+
+    synchronized void put(String id, byte[] value) {
+        invalidate(id);
+        if (value.length > windowMax + mainMax) {
+            return;
+        }
+        window.put(id, value);
+        windowBytes += value.length;
+
+        Iterator<Map.Entry<String, byte[]>> iter = window.entrySet().iterator();
+        while (windowBytes > windowMax && iter.hasNext()) {
+            Map.Entry<String, byte[]> candidate = iter.next();
+            iter.remove();
+            windowBytes -= candidate.getValue().length;
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    synchronized void invalidate(String id) {
+        byte[] value;
+        if ((value = window.remove(id)) != null) {
+            windowBytes -= value.length;
+        } else if ((value = probation.remove(id)) != null) {
+            probationBytes -= value.length;
+        } else if ((value = protectedSegment.remove(id)) != null) {
+            protectedBytes -= value.length;
+        }
+    }
+
+    synchronized long getBytes() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    synchronized int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    synchronized boolean contains(String id) {
+        return window.containsKey(id) || probation.containsKey(id) || protectedSegment.containsKey(id);
+    }
+
+    /**
+     * Move an entry from the window into probation, evicting until the main area fits
+     */
+    private void admit(String candidate, byte[] value) {
+        probation.put(candidate, value);
+        probationBytes += value.length;
+        boolean candidatePresent = true;
+        while (probationBytes + protectedBytes > mainMax) {
+            String victim = firstKey(probation);
+            if (victim == null || victim.equals(candidate)) {
+                victim = firstKey(protectedSegment);
+            }
+            if (victim == null) {
+                evict(candidate);
+                return;
+            }
+            if (candidatePresent && sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                evict(candidate);
+                candidatePresent = false;
+            } else {
+                evict(victim);
+            }
+        }
+    }
+
+    private void evict(String id) {
+        invalidate(id);
+        evictions++;
+    }
+
+    private static String firstKey(LinkedHashMap<String, byte[]> map) {
+        // iterating does not count as an access in an access ordered map
+        Iterator<String> iter = map.keySet().iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters that are halved periodically so old popularity fades
+     */
+    static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int WIDTH = 1 << 14;
+        private static final int SAMPLE_SIZE = 10 * WIDTH;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters = new byte[DEPTH][WIDTH];
+        private int additions = 0;
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(hash, i);
+                if (counters[i][index] < 15) {
+                    counters[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= SAMPLE_SIZE) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = 15;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, counters[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private static int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            h ^= h >>> 16;
+            return h & (WIDTH - 1);
+        }
+    }
+}
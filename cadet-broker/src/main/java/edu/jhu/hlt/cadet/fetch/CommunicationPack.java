@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import edu.jhu.hlt.concrete.Communication;
+
+/**
+ * Read only corpus of communications packed into a few large files
+ *
+ * A pack directory holds segment files (segment-N.pack) of compact serialized
+ * communications written back to back and an index file (index.idx) of communication
+ * IDs in sorted order with the segment, offset and length of each one.
+ * The index is loaded into memory and the segments are memory mapped so reading a
+ * communication is a binary search and a copy out of the page cache.
+ * Thread safe.
+ *
+ * @see CommunicationPackWriter
+ */
+public class CommunicationPack {
+    static final String INDEX_FILE = "index.idx";
+    static final int MAGIC = 0x4350414b; // CPAK
+    static final int VERSION = 1;
+
+    private final String[] ids;
+    private final int[] segments;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final MappedByteBuffer[] buffers;
+
+    /**
+     * Open a pack directory
+     *
+     * @param directory  directory with the index and segment files
+     * @throws IOException if the pack is missing or corrupt
+     */
+    public CommunicationPack(Path directory) throws IOException {
+        int numSegments;
+        try (InputStream in = Files.newInputStream(directory.resolve(INDEX_FILE));
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16))) {
+            if (data.readInt() != MAGIC) {
+                throw new IOException(directory + " is not a communication pack");
+            }
+            int version = data.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown communication pack version " + version);
+            }
+            numSegments = data.readInt();
+            int count = data.readInt();
+            ids = new String[count];
+            segments = new int[count];
+            offsets = new long[count];
+            lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = data.readUTF();
+                segments[i] = data.readInt();
+                offsets[i] = data.readLong();
+                lengths[i] = data.readInt();
+            }
+        }
+
+        buffers = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            // the mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, i), StandardOpenOption.READ)) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+    }
+
+    static Path segmentPath(Path directory, int segment) {
+        return directory.resolve("segment-" + segment + ".pack");
+    }
+
+    /**
+     * Get the number of communications
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean contains(String id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Get the serialized communication
+     *
+     * @return compact serialized bytes or null if the ID is not in the pack
+     */
+    public byte[] getBytes(String id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            return null;
+        }
+        ByteBuffer buffer = buffers[segments[index]].duplicate();
+        buffer.position((int) offsets[index]);
+        byte[] bytes = new byte[lengths[index]];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Get a communication
+     *
+     * @return communication or null if the ID is not in the pack
+     * @throws TException if the communication cannot be deserialized
+     */
+    public Communication get(String id) throws TException {
+        byte[] bytes = getBytes(id);
+        if (bytes == null) {
+            return null;
+        }
+        Communication comm = new Communication();
+        new TDeserializer(new TCompactProtocol.Factory()).deserialize(comm, bytes);
+        return comm;
+    }
+
+    /**
+     * Get a page of communication IDs in sorted order
+     *
+     * @param offset  zero-based offset
+     * @param count  maximum number of IDs
+     */
+    public List<String> getIds(long offset, long count) {
+        return IdPages.get(ids, offset, count);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import edu.jhu.hlt.concrete.Communication;
+
+/**
+ * Builds a communication pack
+ *
+ * Communications are appended to the current segment until it reaches the segment size.
+ * The index is written on close. If an ID is added more than once, the last one is kept.
+ * Not thread safe.
+ *
+ * @see CommunicationPack
+ */
+public class CommunicationPackWriter implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final List<Entry> entries = new ArrayList<>();
+    private final TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+    private OutputStream out;
+    private int segment = -1;
+    private long position = 0;
+
+    /**
+     * @param directory  directory for the pack (created if missing)
+     * @param segmentSize  maximum size of a segment file in bytes (at most 2GB)
+     */
+    public CommunicationPackWriter(Path directory, long segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 byte and 2GB");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        if (Files.exists(directory.resolve(CommunicationPack.INDEX_FILE))) {
+            throw new IOException("A communication pack already exists in " + directory);
+        }
+    }
+
+    public void add(Communication comm) throws IOException {
+        try {
+            add(comm.getId(), serializer.serialize(comm));
+        } catch (TException e) {
+            throw new IOException("Unable to serialize " + comm.getId(), e);
+        }
+    }
+
+    /**
+     * Add a communication that has already been serialized with the compact protocol
+     */
+    public void add(String id, byte[] bytes) throws IOException {
+        if (bytes.length > segmentSize) {
+            throw new IOException("Communication " + id + " is larger than the segment size");
+        }
+        if (out == null || position + bytes.length > segmentSize) {
+            nextSegment();
+        }
+        out.write(bytes);
+        entries.add(new Entry(id, segment, position, bytes.length, entries.size()));
+        position += bytes.length;
+    }
+
+    /**
+     * Get the number of communications added (including duplicates)
+     */
+    public int getCount() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+
+        entries.sort(Comparator.comparing((Entry e) -> e.id).thenComparingInt(e -> e.sequence));
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            if (i + 1 < entries.size() && entries.get(i + 1).id.equals(entries.get(i).id)) {
+                continue;
+            }
+            unique.add(entries.get(i));
+        }
+
+        Path tmp = directory.resolve(CommunicationPack.INDEX_FILE + ".tmp");
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmp), 1 << 16))) {
+            data.writeInt(CommunicationPack.MAGIC);
+            data.writeInt(CommunicationPack.VERSION);
+            data.writeInt(segment + 1);
+            data.writeInt(unique.size());
+            for (Entry entry : unique) {
+                data.writeUTF(entry.id);
+                data.writeInt(entry.segment);
+                data.writeLong(entry.offset);
+                data.writeInt(entry.length);
+            }
+        }
+        Files.move(tmp, directory.resolve(CommunicationPack.INDEX_FILE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void nextSegment() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        segment++;
+        position = 0;
+        out = new BufferedOutputStream(Files.newOutputStream(CommunicationPack.segmentPath(directory, segment)),
+                        1 << 16);
+    }
+
+    private static class Entry {
+        private final String id;
+        private final int segment;
+        private final long offset;
+        private final int length;
+        private final int sequence;
+
+        private Entry(String id, int segment, long offset, int length, int sequence) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.sequence = sequence;
+        }
+    }
+}
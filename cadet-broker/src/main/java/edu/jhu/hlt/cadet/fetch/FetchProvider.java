@@ -20,6 +20,10 @@ public interface FetchProvider extends Provider {
     /**
      * Fetch communications
      *
+     * The results can have fewer communications than were requested: unknown IDs are
+     * left out and a provider may return a partial result when part of a request
+     * failed (see RemoteFetchProvider). Callers should match communications by ID.
+     *
      * @param request  a request object with IDs to fetch
      * @return fetch results with a list of communications
      */
@@ -7,7 +7,14 @@ package edu.jhu.hlt.cadet.fetch;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
@@ -16,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import com.typesafe.config.Config;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.store.FileStoreProvider;
 import edu.jhu.hlt.concrete.Communication;
 import edu.jhu.hlt.concrete.access.FetchRequest;
 import edu.jhu.hlt.concrete.access.FetchResult;
@@ -29,18 +37,28 @@ import edu.jhu.hlt.concrete.util.ConcreteException;
  * Assumes communications are stored as <comm id>.concrete
  * The concrete communications must be serialized with compact protocol.
  * Requires that the config parameter be set: files.data.dir
+ *
+ * The files of a request are read and deserialized in parallel by a pool of
+ * files.fetch_threads threads (default 8) that is shared by all requests. A request
+ * has at most that many reads queued or running at a time, so a request for many
+ * communications does not fill the pool's queue ahead of other requests. Communications
+ * saved to the same directory by a write behind FileStoreProvider are read from its
+ * queue until they are written.
  */
 public class FileFetchProvider implements FetchProvider {
     private static Logger logger = LoggerFactory.getLogger(FileFetchProvider.class);
 
     public static final String EXTENSION = "concrete";
 
+    private static final int DEFAULT_THREADS = 8;
+
     private String directory;
-    private final CompactCommunicationSerializer serializer;
+    private final ThreadLocal<CompactCommunicationSerializer> serializer =
+                    ThreadLocal.withInitial(CompactCommunicationSerializer::new);
+    private ExecutorService executor;
+    private int threads;
 
-    public FileFetchProvider() {
-        serializer = new CompactCommunicationSerializer();
-    }
+    public FileFetchProvider() {}
 
     @Override
     public void init(Config config) {
@@ -59,28 +77,93 @@ public class FileFetchProvider implements FetchProvider {
         if (!file.isDirectory()) {
             throw new RuntimeException(directory + " is not a directory");
         }
+
+        threads = DEFAULT_THREADS;
+        if (config.hasPath(CadetConfig.FILES_FETCH_THREADS)) {
+            threads = config.getInt(CadetConfig.FILES_FETCH_THREADS);
+        }
+        if (threads > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "cadet-file-fetch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
 
     @Override
     public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
-      FetchResult results = new FetchResult();
-
-        for (String id : request.getCommunicationIds()) {
-            String path = directory + id + "." + EXTENSION;
-            try {
-                Communication comm = serializer.fromPath(Paths.get(path));
-                results.addToCommunications(comm);
-            } catch (ConcreteException e) {
-                logger.warn("Unable to read " + path, e);
+        FetchResult results = new FetchResult();
+        results.setCommunications(new ArrayList<>(request.getCommunicationIdsSize()));
+
+        if (executor == null || request.getCommunicationIdsSize() < 2) {
+            for (String id : request.getCommunicationIds()) {
+                Communication comm = read(id);
+                if (comm != null) {
+                    results.addToCommunications(comm);
+                }
             }
+            return results;
+        }
+
+        List<Future<Communication>> futures = new ArrayList<>(request.getCommunicationIdsSize());
+        Semaphore outstanding = new Semaphore(threads);
+        try {
+            for (String id : request.getCommunicationIds()) {
+                outstanding.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        return read(id);
+                    } finally {
+                        outstanding.release();
+                    }
+                }));
+            }
+            for (Future<Communication> future : futures) {
+                Communication comm = future.get();
+                if (comm != null) {
+                    results.addToCommunications(comm);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new ServicesException("Interrupted while reading communications");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new ServicesException("Unable to read communications: " + e.getCause().getMessage());
         }
 
         return results;
     }
 
+    /**
+     * Read a communication file
+     *
+     * @return communication or null if the file cannot be read
+     */
+    private Communication read(String id) {
+        String path = directory + id + "." + EXTENSION;
+        try {
+            byte[] pending = FileStoreProvider.getPendingWrite(directory, id);
+            if (pending != null) {
+                return serializer.get().fromBytes(pending);
+            }
+            return serializer.get().fromPath(Paths.get(path));
+        } catch (ConcreteException e) {
+            logger.warn("Unable to read " + path, e);
+            return null;
+        }
+    }
+
     @Override
     public long getCommunicationCount() throws NotImplementedException, TException {
         throw new NotImplementedException("File-based provider does not support iteration");
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pages of a sorted array of communication IDs for getCommunicationIDs()
+ */
+public final class IdPages {
+
+    private IdPages() {}
+
+    /**
+     * Get a copy of a page of IDs
+     *
+     * @param ids  IDs in the order they are paged
+     * @param offset  zero-based offset (past the end gives an empty page)
+     * @param count  maximum number of IDs (clients pass Long.MAX_VALUE for every ID)
+     */
+    public static List<String> get(String[] ids, long offset, long count) {
+        int from = (int) Math.min(Math.max(offset, 0), ids.length);
+        // clamped before adding so a huge count cannot overflow
+        int to = from + (int) Math.min(Math.max(count, 0), ids.length - from);
+        return new ArrayList<>(Arrays.asList(ids).subList(from, to));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.services.NotImplementedException;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Serves communications from a communication pack built with the pack tool
+ * Requires that the config parameter be set: files.pack.dir
+ */
+public class PackFetchProvider implements FetchProvider {
+    private static Logger logger = LoggerFactory.getLogger(PackFetchProvider.class);
+
+    private CommunicationPack pack;
+
+    @Override
+    public void init(Config config) {
+        if (!config.hasPath(CadetConfig.FILES_PACK_DIR)) {
+            throw new RuntimeException("Directory is not set in config: " + CadetConfig.FILES_PACK_DIR);
+        }
+        String directory = config.getString(CadetConfig.FILES_PACK_DIR);
+        try {
+            pack = new CommunicationPack(Paths.get(directory));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open communication pack in " + directory, e);
+        }
+        logger.info("PackFetchProvider: " + pack.size() + " communications in " + directory);
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
+        FetchResult results = new FetchResult();
+        results.setCommunications(new ArrayList<>(request.getCommunicationIdsSize()));
+
+        for (String id : request.getCommunicationIds()) {
+            try {
+                Communication comm = pack.get(id);
+                if (comm == null) {
+                    logger.warn("Communication " + id + " is not in the pack");
+                } else {
+                    results.addToCommunications(comm);
+                }
+            } catch (TException e) {
+                logger.warn("Unable to read " + id, e);
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public long getCommunicationCount() throws NotImplementedException, TException {
+        return pack.size();
+    }
+
+    @Override
+    public List<String> getCommunicationIDs(long offset, long count) throws NotImplementedException, TException {
+        return pack.getIds(offset, count);
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return true;
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo(this.getClass().getSimpleName(), "1.0.0");
+    }
+
+}
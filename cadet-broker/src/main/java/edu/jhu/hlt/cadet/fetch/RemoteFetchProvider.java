@@ -8,14 +8,30 @@ package edu.jhu.hlt.cadet.fetch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TTransportException;
 
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.Counter;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.cadet.pool.CircuitBreaker;
 import edu.jhu.hlt.cadet.pool.ClientPool;
 import edu.jhu.hlt.cadet.pool.PoolConfig;
 import edu.jhu.hlt.cadet.pool.ServiceConfig;
@@ -28,6 +44,16 @@ import edu.jhu.hlt.concrete.services.ServicesException;
 
 /**
  * Fetch documents from a remote service that implements the FetchCommunicationService thrift service
+ *
+ * When cadet.fetch.batch_size is set, requests for more communications than that are
+ * split into sub-batches that are fetched in parallel over the client pool. The results
+ * are merged in request order. A sub-batch fails when its call fails or does not finish
+ * within cadet.fetch.batch_timeout of a worker picking it up, so time spent queued behind
+ * other sub-batches does not count. By default any failed sub-batch fails the fetch.
+ * With cadet.fetch.batch_min_fraction below 1 the failed sub-batches are left out of the
+ * result and logged as long as at least that fraction of them (and at least one) finished.
+ * The batch timeout is also the socket timeout of the clients so that late calls end and
+ * give their threads and clients back.
  */
 public class RemoteFetchProvider implements FetchProvider {
     private static Logger logger = LoggerFactory.getLogger(RemoteFetchProvider.class);
@@ -36,7 +62,14 @@ public class RemoteFetchProvider implements FetchProvider {
     private int port;
 
     private ClientPool<Client> clientPool;
-    private Object clientLock = new Object();
+
+    private int batchSize = 0;
+    private long batchTimeout = 60000; // in milliseconds
+    private double batchMinFraction = 1;
+    private ExecutorService batchExecutor;
+    private final AtomicLong numPartialResults = new AtomicLong();
+    private final Counter partialMetric = MetricsRegistry.getShared().counter("cadet_fetch_partial_results_total",
+                    "Split fetches that returned without some of their sub-batches");
 
     @Override
     public void init(Config config) {
@@ -46,34 +79,187 @@ public class RemoteFetchProvider implements FetchProvider {
         logger.info("RemoteFetchProvider HOST: " + host);
         logger.info("RemoteFetchProvider PORT: " + port);
 
-        // default to 10 clients and wait up to 1 second
-        PoolConfig pc = new PoolConfig(10, 1000L);
-        ServiceConfig sc = new ServiceConfig(host, port);
-        clientPool = new ClientPool<Client>(pc, sc,
-                        transport -> new Client(new TCompactProtocol(transport)));
+        // defaults to 10 clients and waiting up to 1 second
+        Config fetchConfig = config.hasPath(CadetConfig.FETCH_PATHNAME)
+                        ? config.getConfig(CadetConfig.FETCH_PATHNAME) : ConfigFactory.empty();
+        PoolConfig pc = config.hasPath(CadetConfig.FETCH_PATHNAME)
+                        ? PoolConfig.fromConfig(fetchConfig)
+                        : new PoolConfig(10, 1000L);
+        if (config.hasPath(CadetConfig.FETCH_BATCH_SIZE)) {
+            batchSize = config.getInt(CadetConfig.FETCH_BATCH_SIZE);
+        }
+        if (config.hasPath(CadetConfig.FETCH_BATCH_TIMEOUT)) {
+            batchTimeout = config.getDuration(CadetConfig.FETCH_BATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        if (config.hasPath(CadetConfig.FETCH_BATCH_MIN_FRACTION)) {
+            batchMinFraction = config.getDouble(CadetConfig.FETCH_BATCH_MIN_FRACTION);
+        }
+
+        // a sub-batch that is given up on must not hold its thread and client forever
+        ServiceConfig sc = batchSize > 0
+                        ? new ServiceConfig(host, port, (int) Math.min(batchTimeout, Integer.MAX_VALUE))
+                        : new ServiceConfig(host, port);
+        String name = "fetch " + host + ":" + port;
+        clientPool = new ClientPool<Client>(name, pc, sc,
+                        transport -> new Client(new TCompactProtocol(transport)), Client::alive,
+                        CircuitBreaker.fromConfig(name, fetchConfig));
+        clientPool.start();
+
+        if (batchSize > 0) {
+            logger.info("RemoteFetchProvider BATCH SIZE: " + batchSize);
+            AtomicInteger threadCount = new AtomicInteger();
+            batchExecutor = Executors.newFixedThreadPool(pc.getSize(), r -> {
+                Thread thread = new Thread(r, "cadet-fetch-batch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
     public void close() {
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
         clientPool.close();
     }
 
     @Override
     public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
-        FetchResult results = null;
+        if (batchSize > 0 && request.getCommunicationIdsSize() > batchSize) {
+            return fetchBatches(request);
+        }
+        return fetchBatch(request);
+    }
 
-        synchronized(clientLock) {
-            Client client = getClient();
+    /**
+     * Get the number of split requests that returned without some of their sub-batches
+     */
+    public long getPartialResultCount() {
+        return numPartialResults.get();
+    }
+
+    private FetchResult fetchBatches(FetchRequest request) throws ServicesException, TException {
+        List<String> ids = request.getCommunicationIds();
+        List<Batch> batches = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            FetchRequest batchRequest = new FetchRequest(request);
+            batchRequest.setCommunicationIds(
+                            new ArrayList<>(ids.subList(start, Math.min(start + batchSize, ids.size()))));
+            Batch batch = new Batch(batchRequest);
+            batch.future = batchExecutor.submit(batch);
+            batches.add(batch);
+        }
+
+        FetchResult results = new FetchResult();
+        results.setCommunications(new ArrayList<>(ids.size()));
+        int numMissing = 0;
+        Exception failure = null;
+        for (Batch batch : batches) {
             try {
-                results = client.fetch(request);
-                clientPool.returnClient(client);
-            } catch (TException ex) {
-                logger.warn("client failed for fetch");
-                clientPool.invalidateClient(client);
-                throw ex;
+                FetchResult batchResults = batch.await();
+                if (batchResults.isSetCommunications()) {
+                    results.getCommunications().addAll(batchResults.getCommunications());
+                }
+                continue;
+            } catch (ExecutionException e) {
+                if (isTimeout(e.getCause())) {
+                    failure = new ServicesException("Fetch batch timed out after " + batchTimeout + " ms");
+                } else {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            } catch (TimeoutException e) {
+                // the late call ends at the socket timeout and gives its client back
+                batch.future.cancel(false);
+                failure = new ServicesException("Fetch batch timed out after " + batchTimeout + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batches.forEach(b -> b.future.cancel(false));
+                throw new ServicesException("Interrupted while fetching");
+            }
+            numMissing++;
+        }
+
+        int numDone = batches.size() - numMissing;
+        if (numDone == 0 || numDone < batchMinFraction * batches.size()) {
+            if (numDone > 0) {
+                logger.warn("Only " + numDone + " of " + batches.size() + " fetch batches finished");
+            }
+            if (failure instanceof TException) {
+                throw (TException) failure;
             }
+            throw new ServicesException("Fetch failed: " + failure.getMessage());
+        }
+        if (numMissing > 0) {
+            numPartialResults.incrementAndGet();
+            partialMetric.increment();
+            logger.warn("Returning partial fetch results: " + numMissing + " of " + batches.size()
+                            + " batches failed (last error: " + failure.getMessage() + ")");
         }
+        return results;
+    }
 
+    /**
+     * A sub-batch whose timeout starts when a worker picks it up
+     */
+    private class Batch implements Callable<FetchResult> {
+        private final FetchRequest request;
+        private volatile boolean started = false;
+        private volatile long startTime;
+        private Future<FetchResult> future;
+
+        Batch(FetchRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public FetchResult call() throws TException {
+            startTime = System.nanoTime();
+            started = true;
+            return fetchBatch(request);
+        }
+
+        /**
+         * Wait for the result until the batch timeout has passed since the batch started
+         */
+        FetchResult await() throws ExecutionException, InterruptedException, TimeoutException {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(batchTimeout);
+            while (true) {
+                boolean running = started;
+                long remaining = running ? startTime + timeout - System.nanoTime() : timeout;
+                try {
+                    return future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (running) {
+                        throw e;
+                    }
+                    // still queued or only just started, so wait again from its start
+                }
+            }
+        }
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return e instanceof TTransportException
+                        && ((TTransportException) e).getType() == TTransportException.TIMED_OUT;
+    }
+
+    private FetchResult fetchBatch(FetchRequest request) throws ServicesException, TException {
+        FetchResult results;
+        Client client = getClient();
+        try {
+            results = client.fetch(request);
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for fetch");
+            clientPool.releaseClient(client, ex);
+            throw ex;
+        }
         return results;
     }
 
@@ -86,7 +272,7 @@ public class RemoteFetchProvider implements FetchProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for fetch");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return count;
@@ -101,7 +287,7 @@ public class RemoteFetchProvider implements FetchProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for fetch");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return ids;
@@ -116,7 +302,7 @@ public class RemoteFetchProvider implements FetchProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for fetch");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return result;
@@ -131,7 +317,7 @@ public class RemoteFetchProvider implements FetchProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for fetch");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return info;
@@ -7,6 +7,8 @@ package edu.jhu.hlt.cadet.learn;
 
 import java.util.List;
 
+import org.apache.thrift.TException;
+
 import edu.jhu.hlt.cadet.Provider;
 import edu.jhu.hlt.concrete.UUID;
 import edu.jhu.hlt.concrete.learn.Annotation;
@@ -43,6 +45,17 @@ public interface ActiveLearningClient extends Provider {
      */
     public void addAnnotations(UUID sessionId, List<Annotation> annotations);
 
+    /**
+     * Send annotations to the active learner and fail if it did not get them
+     *
+     * For callers that retry, where addAnnotations() may log and drop a failure.
+     *
+     * @param sessionId  session identifier
+     * @param annotations  list of annotations
+     * @throws TException if the annotations did not reach the learner
+     */
+    public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException;
+
     /**
      * Shutdown and clean up any resources
      */
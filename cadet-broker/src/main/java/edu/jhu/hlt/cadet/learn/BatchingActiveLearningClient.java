@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.learn;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.cadet.results.TimerWheel;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.Annotation;
+import edu.jhu.hlt.concrete.learn.AnnotationTask;
+
+/**
+ * Sends annotations to another active learning client in batches
+ *
+ * Annotations are held per session until cadet.learn.batch.size have accumulated or
+ * cadet.learn.batch.interval has passed since the first of them arrived. Stopping a
+ * session sends what is held for it first. The delegate is named by
+ * cadet.learn.batch.delegate (the remote client by default) and is initialized with
+ * the same config.
+ *
+ * Held annotations are only in memory, so annotations held when the process dies are
+ * lost. deliverAnnotations() does not hold its annotations: it sends what is held for the
+ * session and then its own and throws if they fail, so the annotation pipeline only
+ * counts them as delivered once the learner has them and retries them otherwise.
+ *
+ * Batches are sent with the delegate's deliverAnnotations() and one that fails is
+ * dropped as a whole. Dropped batches are counted and logged. The learner only uses
+ * annotations to rank the remaining items, and the store stage still saves every
+ * annotation.
+ */
+public class BatchingActiveLearningClient implements ActiveLearningClient {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingActiveLearningClient.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_INTERVAL = 2000;
+    static final int SEND_LOCK_STRIPES = 64;
+
+    private ActiveLearningClient delegate;
+    private int batchSize;
+    private long interval;
+    // sends the batches that are due so the RPC does not run on the timer thread
+    private ExecutorService sender;
+    private final Map<UUID, Batch> batches = new HashMap<>();
+    // held while a batch is sent so the batches of a session arrive in order
+    // (striped by session so a slow send only holds up the sessions sharing its lock)
+    private final Object[] sendLocks = new Object[SEND_LOCK_STRIPES];
+    private final AtomicLong numBatches = new AtomicLong();
+    private final AtomicLong numAnnotations = new AtomicLong();
+    private final AtomicLong numDroppedBatches = new AtomicLong();
+    private final AtomicLong numDroppedAnnotations = new AtomicLong();
+
+    @Override
+    public void init(Config config) {
+        String delegateName = RemoteActiveLearningClient.class.getName();
+        if (config.hasPath(CadetConfig.LEARN_BATCH_DELEGATE)) {
+            delegateName = config.getString(CadetConfig.LEARN_BATCH_DELEGATE);
+        }
+        ActiveLearningClient client;
+        try {
+            client = (ActiveLearningClient) Class.forName(delegateName).getConstructor().newInstance();
+        } catch (ClassNotFoundException | IllegalAccessException | InvocationTargetException
+                        | InstantiationException | NoSuchMethodException ex) {
+            throw new RuntimeException("Cannot construct " + delegateName, ex);
+        }
+        client.init(config);
+
+        int size = DEFAULT_BATCH_SIZE;
+        if (config.hasPath(CadetConfig.LEARN_BATCH_SIZE)) {
+            size = config.getInt(CadetConfig.LEARN_BATCH_SIZE);
+        }
+        long time = DEFAULT_INTERVAL;
+        if (config.hasPath(CadetConfig.LEARN_BATCH_INTERVAL)) {
+            time = config.getDuration(CadetConfig.LEARN_BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        init(client, size, time);
+    }
+
+    /**
+     * Initialize with a delegate that has already been initialized
+     *
+     * @param delegate  client that receives the batches
+     * @param batchSize  number of annotations that triggers a send
+     * @param interval  longest time in ms that an annotation is held
+     */
+    public void init(ActiveLearningClient delegate, int batchSize, long interval) {
+        if (batchSize < 1 || interval < 1) {
+            throw new IllegalArgumentException("Batch size and interval must be positive");
+        }
+        for (int i = 0; i < sendLocks.length; i++) {
+            sendLocks[i] = new Object();
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.interval = interval;
+        sender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cadet-learn-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        metrics.gauge("cadet_learn_held_annotations", "Annotations waiting to be sent to the learner",
+                        this::getHeldCount);
+        metrics.counter("cadet_learn_batches_total", "Batches sent to the learner", this::getBatchCount);
+        metrics.counter("cadet_learn_batched_annotations_total", "Annotations sent to the learner in batches",
+                        this::getAnnotationCount);
+        metrics.counter("cadet_learn_dropped_batches_total", "Batches that failed to be sent to the learner",
+                        this::getDroppedBatchCount);
+        metrics.counter("cadet_learn_dropped_annotations_total", "Annotations in batches that failed to be sent",
+                        this::getDroppedAnnotationCount);
+        logger.info("BatchingActiveLearningClient DELEGATE: " + delegate.getClass().getName());
+        logger.info("BatchingActiveLearningClient SIZE: " + batchSize + " INTERVAL: " + interval + " ms");
+    }
+
+    @Override
+    public boolean start(UUID sessionId, AnnotationTask task) {
+        return delegate.start(sessionId, task);
+    }
+
+    @Override
+    public void stop(UUID sessionId) {
+        flush(sessionId);
+        delegate.stop(sessionId);
+    }
+
+    @Override
+    public void addAnnotations(UUID sessionId, List<Annotation> annotations) {
+        boolean full;
+        synchronized (batches) {
+            Batch batch = batches.get(sessionId);
+            if (batch == null) {
+                batch = new Batch();
+                batch.timeout = TimerWheel.getShared().schedule(() -> flushLater(sessionId),
+                                interval, TimeUnit.MILLISECONDS);
+                batches.put(sessionId, batch);
+            }
+            batch.annotations.addAll(annotations);
+            full = batch.annotations.size() >= batchSize;
+        }
+        if (full) {
+            flush(sessionId);
+        }
+    }
+
+    @Override
+    public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+        synchronized (sendLocks[Math.floorMod(sessionId.hashCode(), sendLocks.length)]) {
+            flush(sessionId);
+            delegate.deliverAnnotations(sessionId, annotations);
+            numBatches.incrementAndGet();
+            numAnnotations.addAndGet(annotations.size());
+        }
+    }
+
+    /**
+     * Send the annotations held for a session
+     *
+     * @param sessionId  session identifier
+     */
+    public void flush(UUID sessionId) {
+        synchronized (sendLocks[Math.floorMod(sessionId.hashCode(), sendLocks.length)]) {
+            Batch batch;
+            synchronized (batches) {
+                batch = batches.remove(sessionId);
+            }
+            if (batch == null) {
+                return;
+            }
+            batch.timeout.cancel();
+            try {
+                delegate.deliverAnnotations(sessionId, batch.annotations);
+            } catch (TException | RuntimeException e) {
+                numDroppedBatches.incrementAndGet();
+                numDroppedAnnotations.addAndGet(batch.annotations.size());
+                logger.error("Dropped " + batch.annotations.size() + " annotations for session "
+                                + sessionId.getUuidString() + " that the learner did not take", e);
+                return;
+            }
+            numBatches.incrementAndGet();
+            numAnnotations.addAndGet(batch.annotations.size());
+        }
+    }
+
+    private void flushLater(UUID sessionId) {
+        try {
+            sender.execute(() -> flush(sessionId));
+        } catch (RejectedExecutionException e) {
+            // closed and already flushed
+        }
+    }
+
+    /**
+     * Send the annotations held for every session
+     */
+    public void flushAll() {
+        List<UUID> sessions;
+        synchronized (batches) {
+            sessions = new ArrayList<>(batches.keySet());
+        }
+        for (UUID sessionId : sessions) {
+            flush(sessionId);
+        }
+    }
+
+    /**
+     * Number of annotations waiting to be sent
+     */
+    public int getHeldCount() {
+        synchronized (batches) {
+            int count = 0;
+            for (Batch batch : batches.values()) {
+                count += batch.annotations.size();
+            }
+            return count;
+        }
+    }
+
+    public long getBatchCount() {
+        return numBatches.get();
+    }
+
+    public long getAnnotationCount() {
+        return numAnnotations.get();
+    }
+
+    /**
+     * Number of batches dropped because the delegate failed to send them
+     */
+    public long getDroppedBatchCount() {
+        return numDroppedBatches.get();
+    }
+
+    public long getDroppedAnnotationCount() {
+        return numDroppedAnnotations.get();
+    }
+
+    @Override
+    public void close() {
+        sender.shutdown();
+        flushAll();
+        logger.info("Sent " + getAnnotationCount() + " annotations to the learner in " + getBatchCount()
+                        + " batches and dropped " + getDroppedAnnotationCount());
+        delegate.close();
+    }
+
+    private static class Batch {
+        final List<Annotation> annotations = new ArrayList<>();
+        TimerWheel.Timeout timeout;
+    }
+}
@@ -85,6 +85,11 @@ public class FullMockActiveLearningClient implements ActiveLearningClient {
         logger.info("Adding " + annotations.size() + " annotations for session " + sessionId.getUuidString());
     }
 
+    @Override
+    public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+        addAnnotations(sessionId, annotations);
+    }
+
     private class SortCreator implements Runnable {
 
         private boolean stopFlag = false;
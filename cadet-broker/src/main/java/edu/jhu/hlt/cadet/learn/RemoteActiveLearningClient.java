@@ -11,20 +11,30 @@ import java.util.List;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.typesafe.config.Config;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.pool.ClientPool;
+import edu.jhu.hlt.cadet.pool.PoolConfig;
+import edu.jhu.hlt.cadet.pool.PoolStats;
+import edu.jhu.hlt.cadet.pool.ServiceConfig;
 import edu.jhu.hlt.concrete.UUID;
-import edu.jhu.hlt.concrete.learn.ActiveLearnerServerService;
+import edu.jhu.hlt.concrete.learn.ActiveLearnerServerService.Client;
 import edu.jhu.hlt.concrete.learn.Annotation;
 import edu.jhu.hlt.concrete.learn.AnnotationTask;
 import edu.jhu.hlt.concrete.services.AsyncContactInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
 
+/**
+ * Client for a remote active learner that implements the ActiveLearnerServerService thrift service
+ *
+ * Connections are pooled and kept open between calls (see cadet.learn.pool).
+ * Failures are logged rather than thrown as learning is an optional add-on, except by
+ * deliverAnnotations() whose caller retries them.
+ */
 public class RemoteActiveLearningClient implements ActiveLearningClient {
     private static final Logger logger = LoggerFactory.getLogger(RemoteActiveLearningClient.class);
 
@@ -32,9 +42,7 @@ public class RemoteActiveLearningClient implements ActiveLearningClient {
     private String learnerHost;
     private int learnerPort;
 
-    private TFramedTransport transport;
-    private TCompactProtocol protocol;
-    private ActiveLearnerServerService.Client client;
+    private ClientPool<Client> clientPool;
 
     @Override
     public void init(Config config) {
@@ -53,53 +61,94 @@ public class RemoteActiveLearningClient implements ActiveLearningClient {
         learnerHost = config.getString(CadetConfig.LEARN_HOST);
         learnerPort = config.getInt(CadetConfig.LEARN_PORT);
 
-        transport = new TFramedTransport(new TSocket(learnerHost, learnerPort), Integer.MAX_VALUE);
-        protocol = new TCompactProtocol(transport);
-        client = new ActiveLearnerServerService.Client(protocol);
+        // defaults to 10 clients and waiting up to 1 second
+        PoolConfig pc = config.hasPath(CadetConfig.LEARN_PATHNAME)
+                        ? PoolConfig.fromConfig(config.getConfig(CadetConfig.LEARN_PATHNAME))
+                        : new PoolConfig(10, 1000L);
+        ServiceConfig sc = new ServiceConfig(learnerHost, learnerPort);
+        clientPool = new ClientPool<Client>("learn " + learnerHost + ":" + learnerPort, pc, sc,
+                        transport -> new Client(new TCompactProtocol(transport)), Client::alive);
+        clientPool.start();
     }
 
     @Override
     public boolean start(UUID sessionId, AnnotationTask task) {
+        Client client = getClient();
+        if (client == null) {
+            return false;
+        }
         boolean success = false;
         try {
-            transport.open();
             success = client.start(sessionId, task, sortReceiverInfo);
+            clientPool.returnClient(client);
         } catch (TException e) {
             logger.warn("Unable to connect to the remote learner", e);
-        } finally {
-            transport.close();
+            clientPool.releaseClient(client, e);
         }
         return success;
     }
 
     @Override
     public void stop(UUID sessionId) {
+        Client client = getClient();
+        if (client == null) {
+            return;
+        }
         try {
-            transport.open();
             client.stop(sessionId);
+            clientPool.returnClient(client);
         } catch (TException e) {
             logger.warn("Unable to connect to the remote learner", e);
-        } finally {
-            transport.close();
+            clientPool.releaseClient(client, e);
         }
     }
 
     @Override
     public void addAnnotations(UUID sessionId, List<Annotation> annotations) {
         try {
-            transport.open();
+            deliverAnnotations(sessionId, annotations);
+        } catch (TException e) {
+            logger.warn("Unable to send annotations to the remote learner", e);
+        }
+    }
+
+    @Override
+    public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+        Client client = clientPool.borrowClient();
+        if (client == null) {
+            throw new ServicesException("No thrift clients available for the remote learner");
+        }
+        try {
             client.addAnnotations(sessionId, annotations);
+            clientPool.returnClient(client);
         } catch (TException e) {
-            logger.warn("Unable to connect to the remote learner", e);
-        } finally {
-            transport.close();
+            clientPool.releaseClient(client, e);
+            throw e;
         }
     }
 
     @Override
     public void close() {
-        if (transport.isOpen()) {
-            transport.close();
+        clientPool.close();
+    }
+
+    /**
+     * Get the statistics of the connection pool
+     */
+    public PoolStats getPoolStats() {
+        return clientPool.getStats();
+    }
+
+    private Client getClient() {
+        try {
+            Client client = clientPool.borrowClient();
+            if (client == null) {
+                logger.warn("No thrift clients available for the remote learner");
+            }
+            return client;
+        } catch (ServicesException e) {
+            logger.warn("Unable to connect to the remote learner", e);
+            return null;
         }
     }
 
@@ -7,6 +7,7 @@ package edu.jhu.hlt.cadet.learn;
 
 import java.util.List;
 
+import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +44,11 @@ public class SimpleMockActiveLearningClient implements ActiveLearningClient {
         logger.info("Adding " + annotations.size() + " annotations for session " + sessionId.getUuidString());
     }
 
+    @Override
+    public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+        addAnnotations(sessionId, annotations);
+    }
+
     @Override
     public void close() {}
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * Request logging for a thrift handler
+ *
+ * Each request gets one summary line at INFO with its size and time. The items of a
+ * request (ids, results) are logged at DEBUG only for a sample of the requests: the
+ * caller checks sampleDetail() before building any of those messages. Nothing is
+ * formatted or allocated for a level that is disabled.
+ */
+public class RequestLog {
+    private final Logger logger;
+    private final String name;
+    private volatile int sampleRate = 1;
+    private final AtomicLong numRequests = new AtomicLong();
+
+    /**
+     * @param logger  logger of the handler
+     * @param name  name of the request type that starts each summary line (e.g. Fetch)
+     */
+    public RequestLog(Logger logger, String name) {
+        this.logger = logger;
+        this.name = name;
+    }
+
+    /**
+     * Log the items of one request in every sampleRate (1 for every request)
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Check whether the items of the current request should be logged at DEBUG
+     */
+    public boolean sampleDetail() {
+        if (!logger.isDebugEnabled()) {
+            return false;
+        }
+        int rate = sampleRate;
+        return rate == 1 || numRequests.getAndIncrement() % rate == 0;
+    }
+
+    /**
+     * Log a request that returned some of the items requested
+     *
+     * @param startNanos  System.nanoTime() when the request started
+     * @param requested  number of items requested
+     * @param returned  number of items returned
+     * @param unit  name of the items
+     */
+    public void summary(long startNanos, int requested, int returned, String unit) {
+        if (logger.isInfoEnabled()) {
+            logger.info(name + ": " + returned + " of " + requested + " " + unit + " in " + millis(startNanos) + " ms");
+        }
+    }
+
+    /**
+     * Log a request for a subject such as a query
+     *
+     * @param startNanos  System.nanoTime() when the request started
+     * @param returned  number of items returned
+     * @param unit  name of the items
+     * @param subject  what was requested
+     */
+    public void summary(long startNanos, int returned, String unit, String subject) {
+        if (logger.isInfoEnabled()) {
+            logger.info(name + ": " + returned + " " + unit + " for \"" + subject + "\" in "
+                            + millis(startNanos) + " ms");
+        }
+    }
+
+    private static double millis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000 / 1000.0;
+    }
+}
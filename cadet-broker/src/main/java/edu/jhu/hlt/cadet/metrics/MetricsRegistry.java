@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named metrics of the broker that can be written in the Prometheus text format
+ *
+ * Metrics with the same name form a family that shares a type and help text and is
+ * told apart by labels (given as name, value pairs). Looking up a metric creates it
+ * if needed, so callers should keep the returned counter or histogram in a field
+ * and record on it directly. Histograms are written as summaries with the 50th, 90th
+ * and 99th percentiles. Metrics whose names end in _seconds are recorded in nanoseconds
+ * and written in seconds.
+ */
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static MetricsRegistry shared;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Get the registry shared by the handlers and providers
+     */
+    public static synchronized MetricsRegistry getShared() {
+        if (shared == null) {
+            shared = new MetricsRegistry();
+        }
+        return shared;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(labelString(labels),
+                        k -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "summary").metrics.computeIfAbsent(labelString(labels),
+                        k -> new Histogram());
+    }
+
+    /**
+     * Get the latency histogram of a method of a thrift handler
+     */
+    public Histogram requestLatency(String handler, String method) {
+        return histogram("cadet_request_seconds", "Time to handle a request", "handler", handler, "method", method);
+    }
+
+    /**
+     * Register a counter that is kept elsewhere (replaces one with the same labels)
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").metrics.put(labelString(labels), value);
+    }
+
+    /**
+     * Register a value that can go up and down (replaces one with the same labels)
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labelString(labels), value);
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format
+     */
+    public void write(PrintWriter out) {
+        for (Family family : families.values()) {
+            out.println("# HELP " + family.name + " " + family.help);
+            out.println("# TYPE " + family.name + " " + family.type);
+            boolean seconds = family.name.endsWith("_seconds");
+            for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    out.println(family.name + braces(labels) + " " + ((Counter) metric).get());
+                } else if (metric instanceof LongSupplier) {
+                    out.println(family.name + braces(labels) + " "
+                                    + format(((LongSupplier) metric).getAsLong(), seconds));
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    for (double q : QUANTILES) {
+                        String quantile = "quantile=\"" + q + "\"";
+                        out.println(family.name + braces(labels.isEmpty() ? quantile : labels + "," + quantile)
+                                        + " " + format(histogram.getPercentile(q * 100), seconds));
+                    }
+                    out.println(family.name + "_sum" + braces(labels) + " " + format(histogram.getSum(), seconds));
+                    out.println(family.name + "_count" + braces(labels) + " " + histogram.getCount());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + " not a " + type);
+        }
+        return family;
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"")
+              .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+              .append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String format(long value, boolean seconds) {
+        return seconds ? Double.toString(value / NANOS_PER_SECOND) : Long.toString(value);
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        // metrics by label string
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.pool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+
+/**
+ * Tracks the calls to a service and fails fast while it is unhealthy
+ *
+ * The breaker is closed while the service works. When at least min_calls of the last
+ * window calls have been made and failure_rate of them failed, it opens and requests
+ * are refused without contacting the service. After open_time it is half open: the
+ * pool probes the service and a single trial request is let through, either of which
+ * closes the breaker on success or opens it again on failure.
+ *
+ * Breakers register by name so their states can be listed for administrators, and
+ * their state is exported as the cadet_breaker_state metric.
+ */
+public class CircuitBreaker {
+    private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final double DEFAULT_FAILURE_RATE = 0.5;
+    private static final int DEFAULT_WINDOW = 20;
+    private static final int DEFAULT_MIN_CALLS = 10;
+    private static final long DEFAULT_OPEN_TIME = 10000L;
+    private static final int MAX_TRANSITIONS = 20;
+
+    private static final Map<String, CircuitBreaker> registry = new ConcurrentSkipListMap<>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final double failureRate;
+    private final int minCalls;
+    private final long openTime; // in milliseconds
+
+    // outcomes of the most recent calls (true for a failure)
+    private final boolean[] window;
+    private int numCalls;
+    private int numFailures;
+    private int next;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialAllowed;
+    private final Deque<Transition> transitions = new ArrayDeque<>();
+
+    /**
+     * @param name  name of the service
+     * @param failureRate  fraction of failed calls in the window that opens the breaker
+     * @param window  number of recent calls to track
+     * @param minCalls  fewest calls in the window before the breaker can open
+     * @param openTime  time to refuse requests before trying the service in milliseconds
+     */
+    public CircuitBreaker(String name, double failureRate, int window, int minCalls, long openTime) {
+        if (failureRate <= 0 || failureRate > 1 || window < 1 || openTime < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings for " + name);
+        }
+        this.name = name;
+        this.failureRate = failureRate;
+        this.window = new boolean[window];
+        this.minCalls = Math.max(1, Math.min(minCalls, window));
+        this.openTime = openTime;
+    }
+
+    /**
+     * Create a breaker from a provider's config block
+     *
+     * Reads the optional breaker.enabled, breaker.failure_rate, breaker.window,
+     * breaker.min_calls and breaker.open_time settings.
+     *
+     * @param name  name of the service
+     * @param config  config rooted at the provider (e.g. cadet.fetch)
+     * @return breaker or null if disabled
+     */
+    public static CircuitBreaker fromConfig(String name, Config config) {
+        if (config.hasPath(CadetConfig.BREAKER_ENABLED) && !config.getBoolean(CadetConfig.BREAKER_ENABLED)) {
+            return null;
+        }
+        double failureRate = config.hasPath(CadetConfig.BREAKER_FAILURE_RATE)
+                        ? config.getDouble(CadetConfig.BREAKER_FAILURE_RATE) : DEFAULT_FAILURE_RATE;
+        int window = config.hasPath(CadetConfig.BREAKER_WINDOW)
+                        ? config.getInt(CadetConfig.BREAKER_WINDOW) : DEFAULT_WINDOW;
+        int minCalls = config.hasPath(CadetConfig.BREAKER_MIN_CALLS)
+                        ? config.getInt(CadetConfig.BREAKER_MIN_CALLS) : DEFAULT_MIN_CALLS;
+        long openTime = config.hasPath(CadetConfig.BREAKER_OPEN_TIME)
+                        ? config.getDuration(CadetConfig.BREAKER_OPEN_TIME, TimeUnit.MILLISECONDS)
+                        : DEFAULT_OPEN_TIME;
+        return new CircuitBreaker(name, failureRate, window, minCalls, openTime);
+    }
+
+    /**
+     * Get the registered breakers sorted by name
+     */
+    public static List<CircuitBreaker> getRegistered() {
+        return new ArrayList<>(registry.values());
+    }
+
+    /**
+     * List the breaker so administrators can see it (replaces one with the same name)
+     */
+    public void register() {
+        registry.put(name, this);
+        MetricsRegistry.getShared().gauge("cadet_breaker_state",
+                        "Circuit breaker state (0 closed, 1 open, 2 half open)", () -> state.ordinal(),
+                        "service", name);
+    }
+
+    public void unregister() {
+        registry.remove(name, this);
+    }
+
+    /**
+     * Check whether a request may go to the service
+     */
+    public boolean allowRequest() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.HALF_OPEN && trialAllowed) {
+                trialAllowed = false;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED, "trial request succeeded");
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * @return true if the failure opened the breaker
+     */
+    public synchronized boolean recordFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN, "trial request failed");
+            return true;
+        }
+        if (state == State.OPEN) {
+            return false;
+        }
+        record(true);
+        if (numCalls >= minCalls && numFailures >= failureRate * numCalls) {
+            transition(State.OPEN, numFailures + " of the last " + numCalls + " calls failed");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Let a trial request through if the breaker has been open for the open time
+     *
+     * @return true if the breaker is half open
+     */
+    public synchronized boolean halfOpen() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openTime) {
+            transition(State.HALF_OPEN, "open for " + openTime + " ms");
+        }
+        if (state == State.HALF_OPEN) {
+            trialAllowed = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Close the breaker after the service answered a probe
+     */
+    public synchronized void close(String reason) {
+        if (state != State.CLOSED) {
+            transition(State.CLOSED, reason);
+        }
+    }
+
+    /**
+     * Open the breaker again after the service failed a probe
+     */
+    public synchronized void open(String reason) {
+        if (state != State.OPEN) {
+            transition(State.OPEN, reason);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the time in ms that the breaker stays open before the service is tried
+     */
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Get the fraction of the recent calls that failed (0 if none were made)
+     */
+    public synchronized double getFailureRate() {
+        return numCalls == 0 ? 0 : (double) numFailures / numCalls;
+    }
+
+    /**
+     * Get the most recent state changes, oldest first
+     */
+    public synchronized List<Transition> getTransitions() {
+        return new ArrayList<>(transitions);
+    }
+
+    private void record(boolean failure) {
+        if (numCalls == window.length) {
+            if (window[next]) {
+                numFailures--;
+            }
+        } else {
+            numCalls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            numFailures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void transition(State to, String reason) {
+        Transition t = new Transition(System.currentTimeMillis(), state, to, reason);
+        if (to == State.CLOSED) {
+            logger.info("Circuit breaker for " + name + ": " + t);
+        } else {
+            logger.warn("Circuit breaker for " + name + ": " + t);
+        }
+        if (to == State.OPEN) {
+            openedAt = t.getTime();
+        }
+        // the calls before a state change say nothing about the service after it
+        numCalls = 0;
+        numFailures = 0;
+        next = 0;
+        trialAllowed = false;
+        state = to;
+        transitions.addLast(t);
+        if (transitions.size() > MAX_TRANSITIONS) {
+            transitions.removeFirst();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + state + " failure_rate=" + String.format("%.2f", getFailureRate());
+    }
+
+    /**
+     * Change of state of a breaker
+     */
+    public static class Transition {
+        private final long time;
+        private final State from;
+        private final State to;
+        private final String reason;
+
+        Transition(long time, State from, State to, String reason) {
+            this.time = time;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+        }
+
+        /**
+         * Get the time of the change in ms since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public State getFrom() {
+            return from;
+        }
+
+        public State getTo() {
+            return to;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to + " (" + reason + ")";
+        }
+    }
+}
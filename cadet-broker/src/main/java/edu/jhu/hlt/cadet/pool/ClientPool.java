@@ -5,10 +5,19 @@
  */
 package edu.jhu.hlt.cadet.pool;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
 import org.apache.thrift.TServiceClient;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
@@ -18,73 +27,418 @@ import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.concrete.services.ServicesException;
 
+/**
+ * Pool of thrift clients for one service
+ *
+ * Idle clients are handed out most recently used first so that clients beyond the
+ * minimum idle count age out when load drops. After start() is called, a background
+ * task closes clients that have been idle too long, probes the idle clients so that
+ * sockets broken by a service restart are dropped before they are borrowed, and
+ * opens clients to keep the minimum idle count. The background connections and probes
+ * wait at most pool.probe_timeout for the service so that a hung service cannot hold
+ * up the maintenance of the other pools, which share a few threads.
+ *
+ * With a circuit breaker, returned clients count as successful calls and invalidated
+ * clients (or failed connections) as failures. Providers should hand clients whose
+ * call threw to releaseClient() so that only transport errors count as failures.
+ * While the breaker is open, borrowing fails immediately instead of waiting on a dead
+ * service, and the service is probed by the maintenance until it answers.
+ *
+ * The pool counters are registered as metrics labelled with the name of the pool, which
+ * should tell apart pools for different roles on one server (e.g. "fetch host:port").
+ */
 public class ClientPool<T extends TServiceClient> {
     private static Logger logger = LoggerFactory.getLogger(ClientPool.class);
 
-    private final LinkedBlockingDeque<T> pool;
-    private int numCreatedClients = 0;
+    // how often a waiting borrower checks whether it can open a client instead
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int MAINTAINER_THREADS = 4;
+
+    // maintenance for all pools runs on a few daemon threads
+    private static final AtomicInteger maintainerCount = new AtomicInteger();
+    private static final ScheduledExecutorService maintainer = Executors.newScheduledThreadPool(MAINTAINER_THREADS,
+                    r -> {
+                        Thread thread = new Thread(r, "cadet-pool-maintainer-" + maintainerCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    private final LinkedBlockingDeque<Idle<T>> pool;
+    // sockets of the open clients so their timeouts can be changed for probes
+    private final Map<T, TSocket> sockets = new ConcurrentHashMap<>();
+    private final AtomicInteger numCreatedClients = new AtomicInteger();
     private final PoolConfig config;
     private final ServiceConfig service;
     private final Function<TTransport, T> factory;
+    private final ClientProbe<T> probe;
+    private final PoolStats stats;
+    private final CircuitBreaker breaker;
+    private ScheduledFuture<?> maintenance;
+    private ScheduledFuture<?> recovery;
+    private long lastProbe = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    public ClientPool(String name, PoolConfig config, ServiceConfig service, Function<TTransport, T> factory) {
+        this(name, config, service, factory, null);
+    }
+
+    /**
+     * @param name  name of the pool for its metrics
+     * @param config  pool settings
+     * @param service  host and port of the service
+     * @param factory  creates a client from an open transport
+     * @param probe  liveness check for idle clients (null for none)
+     */
+    public ClientPool(String name, PoolConfig config, ServiceConfig service, Function<TTransport, T> factory,
+                    ClientProbe<T> probe) {
+        this(name, config, service, factory, probe, null);
+    }
 
-    public ClientPool(PoolConfig config, ServiceConfig service, Function<TTransport, T> factory) {
+    /**
+     * @param name  name of the pool for its metrics
+     * @param config  pool settings
+     * @param service  host and port of the service
+     * @param factory  creates a client from an open transport
+     * @param probe  liveness check for idle clients and an open breaker (null for none)
+     * @param breaker  circuit breaker for the service (null for none)
+     */
+    public ClientPool(String name, PoolConfig config, ServiceConfig service, Function<TTransport, T> factory,
+                    ClientProbe<T> probe, CircuitBreaker breaker) {
         this.config = config;
         this.service = service;
         this.factory = factory;
-        pool = new LinkedBlockingDeque<T>();
+        this.probe = probe;
+        this.breaker = breaker;
+        pool = new LinkedBlockingDeque<Idle<T>>();
+
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        stats = new PoolStats(metrics.histogram("cadet_pool_wait_seconds", "Time to borrow a thrift client",
+                        "service", name));
+        metrics.counter("cadet_pool_borrowed_total", "Thrift clients borrowed", stats::getBorrowCount,
+                        "service", name);
+        metrics.counter("cadet_pool_timeouts_total", "Borrows that gave up waiting for a thrift client",
+                        stats::getTimeoutCount, "service", name);
+        metrics.counter("cadet_pool_created_total", "Thrift clients opened", stats::getCreatedCount,
+                        "service", name);
+        metrics.counter("cadet_pool_invalidated_total", "Thrift clients closed because they failed or went idle",
+                        stats::getInvalidatedCount, "service", name);
+        metrics.counter("cadet_pool_rejected_total", "Borrows refused by the circuit breaker",
+                        stats::getRejectedCount, "service", name);
+        metrics.gauge("cadet_pool_clients", "Open thrift clients", numCreatedClients::get, "service", name);
+        metrics.gauge("cadet_pool_idle", "Idle thrift clients", () -> pool.size(), "service", name);
+    }
+
+    /**
+     * Open the minimum idle clients and start the background maintenance
+     *
+     * A service that cannot be reached is logged rather than thrown so that
+     * the pool can recover once the service is up.
+     */
+    public synchronized void start() {
+        if (maintenance != null || closed) {
+            return;
+        }
+        if (breaker != null) {
+            breaker.register();
+        }
+        fill();
+        long period = config.getMaxIdleTime();
+        if (probe != null && config.getProbeInterval() > 0) {
+            period = period > 0 ? Math.min(period, config.getProbeInterval()) : config.getProbeInterval();
+        }
+        if (period > 0) {
+            maintenance = maintainer.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
      * Borrow a thrift client from the pool
      *
      * @return thrift client or null if none are available within the specified timeout
-     * @throws ServicesException if the service is unavailable
+     * @throws ServicesException if the service is unavailable or its circuit breaker is open
      */
     public T borrowClient() throws ServicesException {
-        T client = pool.pollFirst();
-        if (client == null) {
-            if (numCreatedClients < config.getSize()) {
-                // create a client
-                client = createClient();
-                numCreatedClients++;
-            } else {
-                // wait on client to be returned
-                try {
-                    client = pool.pollFirst(config.getTimeout(), TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    // swallow exception
-                    logger.info("Ran out of clients for " + this.getClass().getCanonicalName());
+        if (breaker != null && !breaker.allowRequest()) {
+            stats.recordReject();
+            throw new ServicesException("Circuit breaker open for " + service.getHost() + ":" + service.getPort());
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getTimeout());
+        try {
+            Idle<T> idle = pool.pollFirst();
+            while (idle == null) {
+                if (reserve()) {
+                    T client;
+                    try {
+                        client = createClient(service.getSocketTimeout());
+                    } catch (ServicesException e) {
+                        recordFailure();
+                        throw e;
+                    }
+                    stats.recordBorrow(System.nanoTime() - start);
+                    return client;
                 }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    stats.recordTimeout();
+                    logger.info("Ran out of clients for " + service.getHost() + ":" + service.getPort());
+                    return null;
+                }
+                // a slot can free up without a client being returned so wait in slices
+                idle = pool.pollFirst(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
             }
+            stats.recordBorrow(System.nanoTime() - start);
+            return idle.client;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.recordTimeout();
+            return null;
         }
-
-        return client;
     }
 
     public void returnClient(T client) {
-        pool.addFirst(client);
+        if (breaker != null) {
+            breaker.recordSuccess();
+        }
+        if (closed) {
+            discard(client);
+            return;
+        }
+        pool.addFirst(new Idle<T>(client));
     }
 
     public void invalidateClient(T client) {
-        closeTransport(client);
-        numCreatedClients--;
+        discard(client);
+        recordFailure();
+    }
+
+    /**
+     * Give back a client whose call threw an exception
+     *
+     * Exceptions declared by the service (e.g. ServicesException) and application
+     * exceptions were answered by a working service over a usable connection, so the
+     * client is returned. Transport errors invalidate the client and count against the
+     * breaker. Any other error (e.g. a protocol error) leaves the connection in an
+     * unknown state so the client is dropped without blaming the service.
+     */
+    public void releaseClient(T client, TException cause) {
+        if (cause instanceof TTransportException) {
+            invalidateClient(client);
+        } else if (cause instanceof TBase || cause instanceof TApplicationException) {
+            returnClient(client);
+        } else {
+            discard(client);
+        }
     }
 
     public void close() {
-        T client = null;
-        while ((client = pool.poll()) != null) {
-            closeTransport(client);
+        closed = true;
+        synchronized (this) {
+            if (maintenance != null) {
+                maintenance.cancel(false);
+            }
+            if (recovery != null) {
+                recovery.cancel(false);
+            }
+        }
+        if (breaker != null) {
+            breaker.unregister();
         }
+        Idle<T> idle = null;
+        while ((idle = pool.poll()) != null) {
+            discard(idle.client);
+        }
+    }
+
+    public PoolStats getStats() {
+        return stats;
     }
 
-    private T createClient() throws ServicesException {
-        return factory.apply(getTransport(service));
+    /**
+     * @return circuit breaker of the service or null if it has none
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Get the number of clients that are open (idle or borrowed)
+     */
+    public int getClientCount() {
+        return numCreatedClients.get();
+    }
+
+    public int getIdleCount() {
+        return pool.size();
     }
 
-    private TTransport getTransport(ServiceConfig service) throws ServicesException {
-        TSocket socket = new TSocket(service.getHost(), service.getPort());
+    /**
+     * Evict clients idle too long, probe idle clients and top up to the minimum idle count
+     */
+    void maintain() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean probeDue = probe != null && config.getProbeInterval() > 0
+                        && now - lastProbe >= config.getProbeInterval();
+        if (probeDue) {
+            lastProbe = now;
+        }
+
+        // visit each idle client once from least recently used; putting the kept ones
+        // back at the front keeps the order after a full pass
+        int count = pool.size();
+        for (int i = 0; i < count; i++) {
+            Idle<T> idle = pool.pollLast();
+            if (idle == null) {
+                break;
+            }
+            if (config.getMaxIdleTime() > 0 && now - idle.lastUsed > config.getMaxIdleTime()
+                            && numCreatedClients.get() > config.getMinIdle()) {
+                discard(idle.client);
+            } else if (probeDue && !isAlive(idle.client)) {
+                logger.info("Dropping dead client for " + service.getHost() + ":" + service.getPort());
+                discard(idle.client);
+            } else {
+                pool.addFirst(idle);
+            }
+        }
+
+        fill();
+    }
+
+    private void recordFailure() {
+        if (breaker != null && breaker.recordFailure()) {
+            // the idle clients are most likely connected to the failed service
+            Idle<T> idle = null;
+            while ((idle = pool.poll()) != null) {
+                discard(idle.client);
+            }
+            scheduleRecovery();
+        }
+    }
+
+    private synchronized void scheduleRecovery() {
+        if (closed || (recovery != null && !recovery.isDone())) {
+            return;
+        }
+        recovery = maintainer.schedule(this::recover, breaker.getOpenTime(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Half open the breaker and probe the service to close it again
+     */
+    void recover() {
+        synchronized (this) {
+            recovery = null;
+        }
+        if (closed || !breaker.halfOpen()) {
+            return;
+        }
+        if (probe == null || !reserve()) {
+            // wait for the trial request to close or open the breaker
+            scheduleRecovery();
+            return;
+        }
+        T client;
+        try {
+            client = createClient(getProbeTimeout());
+        } catch (ServicesException e) {
+            breaker.open("probe failed: " + e.getMessage());
+            scheduleRecovery();
+            return;
+        }
+        if (isAlive(client)) {
+            breaker.close("probe succeeded");
+            setTimeout(client, service.getSocketTimeout());
+            returnClient(client);
+        } else {
+            discard(client);
+            breaker.open("probe failed");
+            scheduleRecovery();
+        }
+    }
+
+    private void fill() {
+        while (!closed && pool.size() < config.getMinIdle() && reserve()) {
+            try {
+                T client = createClient(getProbeTimeout());
+                setTimeout(client, service.getSocketTimeout());
+                pool.addLast(new Idle<T>(client));
+            } catch (ServicesException e) {
+                logger.warn(e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private boolean isAlive(T client) {
+        setTimeout(client, getProbeTimeout());
+        try {
+            return probe.alive(client);
+        } catch (TException | RuntimeException e) {
+            return false;
+        } finally {
+            setTimeout(client, service.getSocketTimeout());
+        }
+    }
+
+    private int getProbeTimeout() {
+        return (int) config.getProbeTimeout();
+    }
+
+    private void setTimeout(T client, int timeout) {
+        TSocket socket = sockets.get(client);
+        if (socket != null) {
+            socket.setTimeout(timeout);
+        }
+    }
+
+    /**
+     * Take a slot for a new client if the pool is not full
+     */
+    private boolean reserve() {
+        int current;
+        do {
+            current = numCreatedClients.get();
+            if (current >= config.getSize()) {
+                return false;
+            }
+        } while (!numCreatedClients.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void discard(T client) {
+        sockets.remove(client);
+        closeTransport(client);
+        numCreatedClients.decrementAndGet();
+        stats.recordInvalidate();
+    }
+
+    /**
+     * Create a client in a slot that has already been reserved
+     *
+     * @param timeout  time in ms to wait to connect and for each read (0 to wait forever)
+     */
+    private T createClient(int timeout) throws ServicesException {
+        try {
+            TSocket socket = new TSocket(service.getHost(), service.getPort(), timeout);
+            T client = factory.apply(getTransport(socket));
+            sockets.put(client, socket);
+            stats.recordCreate();
+            return client;
+        } catch (ServicesException | RuntimeException e) {
+            numCreatedClients.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private TTransport getTransport(TSocket socket) throws ServicesException {
         TTransport transport = new TFramedTransport(socket, Integer.MAX_VALUE);
         try {
             transport.open();
@@ -104,4 +458,13 @@ public class ClientPool<T extends TServiceClient> {
             }
         }
     }
+
+    private static class Idle<T> {
+        private final T client;
+        private final long lastUsed = System.currentTimeMillis();
+
+        private Idle(T client) {
+            this.client = client;
+        }
+    }
 }
@@ -0,0 +1,15 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.pool;
+
+import org.apache.thrift.TException;
+
+/**
+ * Liveness check for an idle pooled client (usually the service's alive() call)
+ */
+public interface ClientProbe<T> {
+    boolean alive(T client) throws TException;
+}
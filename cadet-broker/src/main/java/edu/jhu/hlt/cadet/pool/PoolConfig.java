@@ -5,13 +5,81 @@
  */
 package edu.jhu.hlt.cadet.pool;
 
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+
 public class PoolConfig {
+    private static final int DEFAULT_SIZE = 10;
+    private static final long DEFAULT_TIMEOUT = 1000L;
+    private static final long DEFAULT_MAX_IDLE_TIME = 5 * 60 * 1000L;
+    private static final long DEFAULT_PROBE_INTERVAL = 30 * 1000L;
+    private static final long DEFAULT_PROBE_TIMEOUT = 5 * 1000L;
+
     private final int size;
     private final long timeout; // in milliseconds
+    private final int minIdle;
+    private final long maxIdleTime; // in milliseconds
+    private final long probeInterval; // in milliseconds
+    private final long probeTimeout; // in milliseconds
 
     public PoolConfig(int size, long timeout) {
+        this(size, timeout, 0, DEFAULT_MAX_IDLE_TIME, DEFAULT_PROBE_INTERVAL);
+    }
+
+    public PoolConfig(int size, long timeout, int minIdle, long maxIdleTime, long probeInterval) {
+        this(size, timeout, minIdle, maxIdleTime, probeInterval, DEFAULT_PROBE_TIMEOUT);
+    }
+
+    /**
+     * @param size  maximum number of clients
+     * @param timeout  maximum time to wait for a client in milliseconds
+     * @param minIdle  number of clients to open at start and keep open when idle
+     * @param maxIdleTime  time after which an idle client above minIdle is closed in milliseconds
+     * @param probeInterval  time between liveness checks of idle clients in milliseconds (0 for none)
+     * @param probeTimeout  time to wait for the service when connecting or probing in the
+     *                      background in milliseconds
+     */
+    public PoolConfig(int size, long timeout, int minIdle, long maxIdleTime, long probeInterval,
+                    long probeTimeout) {
+        if (probeTimeout < 1 || probeTimeout > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid probe timeout " + probeTimeout);
+        }
         this.size = size;
         this.timeout = timeout;
+        this.minIdle = Math.min(minIdle, size);
+        this.maxIdleTime = maxIdleTime;
+        this.probeInterval = probeInterval;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * Create the pool settings from a provider's config block
+     *
+     * Reads the optional pool.size, pool.timeout, pool.min_idle, pool.max_idle_time,
+     * pool.probe_interval and pool.probe_timeout settings.
+     *
+     * @param config  config rooted at the provider (e.g. cadet.fetch)
+     */
+    public static PoolConfig fromConfig(Config config) {
+        int size = config.hasPath(CadetConfig.POOL_SIZE)
+                        ? config.getInt(CadetConfig.POOL_SIZE) : DEFAULT_SIZE;
+        long timeout = config.hasPath(CadetConfig.POOL_TIMEOUT)
+                        ? config.getDuration(CadetConfig.POOL_TIMEOUT, TimeUnit.MILLISECONDS) : DEFAULT_TIMEOUT;
+        int minIdle = config.hasPath(CadetConfig.POOL_MIN_IDLE)
+                        ? config.getInt(CadetConfig.POOL_MIN_IDLE) : 0;
+        long maxIdleTime = config.hasPath(CadetConfig.POOL_MAX_IDLE_TIME)
+                        ? config.getDuration(CadetConfig.POOL_MAX_IDLE_TIME, TimeUnit.MILLISECONDS)
+                        : DEFAULT_MAX_IDLE_TIME;
+        long probeInterval = config.hasPath(CadetConfig.POOL_PROBE_INTERVAL)
+                        ? config.getDuration(CadetConfig.POOL_PROBE_INTERVAL, TimeUnit.MILLISECONDS)
+                        : DEFAULT_PROBE_INTERVAL;
+        long probeTimeout = config.hasPath(CadetConfig.POOL_PROBE_TIMEOUT)
+                        ? config.getDuration(CadetConfig.POOL_PROBE_TIMEOUT, TimeUnit.MILLISECONDS)
+                        : DEFAULT_PROBE_TIMEOUT;
+        return new PoolConfig(size, timeout, minIdle, maxIdleTime, probeInterval, probeTimeout);
     }
 
     public int getSize() {
@@ -21,4 +89,20 @@ public class PoolConfig {
     public long getTimeout() {
         return timeout;
     }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    public long getProbeTimeout() {
+        return probeTimeout;
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.jhu.hlt.cadet.metrics.Histogram;
+
+/**
+ * Counters for a client pool
+ *
+ * Borrow wait times are kept in the pool's cadet_pool_wait_seconds histogram so the
+ * percentiles here are the ones exported as metrics.
+ */
+public class PoolStats {
+    private final Histogram waits;
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public PoolStats() {
+        this(new Histogram());
+    }
+
+    /**
+     * @param waits  histogram of borrow wait times in nanoseconds
+     */
+    PoolStats(Histogram waits) {
+        this.waits = waits;
+    }
+
+    void recordBorrow(long waitNanos) {
+        borrowed.incrementAndGet();
+        waits.record(waitNanos);
+    }
+
+    void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    void recordCreate() {
+        created.incrementAndGet();
+    }
+
+    void recordInvalidate() {
+        invalidated.incrementAndGet();
+    }
+
+    void recordReject() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * Get the number of successful borrows
+     */
+    public long getBorrowCount() {
+        return borrowed.get();
+    }
+
+    /**
+     * Get the number of borrows that gave up waiting for a client
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Get the number of clients closed because they failed, were idle too long or failed a probe
+     */
+    public long getInvalidatedCount() {
+        return invalidated.get();
+    }
+
+    /**
+     * Get the number of borrows refused because the circuit breaker was open
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get an upper bound on the borrow wait time at a percentile
+     *
+     * @param percentile  value between 0 and 100
+     * @return wait time in microseconds (0 if nothing has been borrowed)
+     */
+    public long getWaitPercentile(double percentile) {
+        return waits.getPercentile(percentile) / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "borrowed=" + getBorrowCount() + " timeouts=" + getTimeoutCount()
+                        + " created=" + getCreatedCount() + " invalidated=" + getInvalidatedCount()
+                        + " rejected=" + getRejectedCount()
+                        + " wait_p50=" + getWaitPercentile(50) + "us wait_p99=" + getWaitPercentile(99) + "us";
+    }
+}
@@ -8,10 +8,21 @@ package edu.jhu.hlt.cadet.pool;
 public class ServiceConfig {
     private final String host;
     private final int port;
+    private final int socketTimeout;
 
     public ServiceConfig(String host, int port) {
+        this(host, port, 0);
+    }
+
+    /**
+     * @param host  host name of the service
+     * @param port  port of the service
+     * @param socketTimeout  time in ms to wait to connect and for each read (0 to wait forever)
+     */
+    public ServiceConfig(String host, int port, int socketTimeout) {
         this.host = host;
         this.port = port;
+        this.socketTimeout = socketTimeout;
     }
 
     public String getHost() {
@@ -21,4 +32,8 @@ public class ServiceConfig {
     public int getPort() {
         return port;
     }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
 }
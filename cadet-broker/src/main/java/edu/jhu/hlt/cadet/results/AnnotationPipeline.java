@@ -0,0 +1,710 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.cadet.results.TimerWheel.Timeout;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Delivers submitted annotations to the store and the active learner in the background.
+ *
+ * Every stage has its own worker threads. Work is routed to a worker by a key (the
+ * communication for the store, the session for the learner) so updates to the same item
+ * are delivered in the order they were submitted. A failed delivery is retried with
+ * exponential backoff and given up after pipeline.max_attempts. While it waits for its
+ * retry, later work with the same key is held behind it and the worker carries on with
+ * other keys.
+ *
+ * At most pipeline.capacity submissions are in flight. When the pipeline is full, submit()
+ * waits up to pipeline.enqueue_timeout and then rejects the annotation so the client can
+ * try again rather than piling up work in memory.
+ *
+ * The submission is appended to a segment log under cadet.results.log.dir and forced to
+ * disk before submit() returns, and deliveries that had not completed are resumed on the
+ * next start. The pipeline does not start without the log unless pipeline.durable is set
+ * to false, in which case queued annotations are lost if the broker stops.
+ */
+public class AnnotationPipeline implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(AnnotationPipeline.class);
+
+    public static final String STORE_STAGE = "store";
+    public static final String LEARN_STAGE = "learn";
+
+    private static final int DEFAULT_CAPACITY = 1000;
+    private static final int DEFAULT_THREADS = 2;
+    private static final long DEFAULT_ENQUEUE_TIMEOUT = 5000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private static final long DEFAULT_BACKOFF = 100;
+    private static final long DEFAULT_MAX_BACKOFF = 30 * 1000;
+    private static final long DRAIN_TIMEOUT = 10 * 1000;
+
+    private static final byte VERSION = 1;
+    private static final byte ENQUEUE = 1;
+    private static final byte DONE = 2;
+
+    /**
+     * Delivers one annotation to a downstream service
+     */
+    public interface Handler {
+        void deliver(UUID sessionId, AnnotationUnitIdentifier unitId, Communication communication)
+                        throws TException;
+    }
+
+    /**
+     * How work is assigned to the workers of a stage
+     */
+    public enum Route {
+        COMMUNICATION,
+        SESSION
+    }
+
+    private final int capacity;
+    private final int threads;
+    private final long enqueueTimeout;
+    private final int maxAttempts;
+    private final long backoff;
+    private final long maxBackoff;
+    private final LogSettings logSettings;
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final ConcurrentMap<Long, Submission> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextSeq = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private Semaphore permits;
+    private SegmentLog log;
+    private SnapshotScheduler snapshots;
+    private volatile boolean running;
+
+    /**
+     * @param results  config rooted at cadet.results
+     */
+    public AnnotationPipeline(Config results) {
+        capacity = results.hasPath(CadetConfig.RESULTS_PIPELINE_CAPACITY)
+                        ? results.getInt(CadetConfig.RESULTS_PIPELINE_CAPACITY) : DEFAULT_CAPACITY;
+        threads = results.hasPath(CadetConfig.RESULTS_PIPELINE_THREADS)
+                        ? results.getInt(CadetConfig.RESULTS_PIPELINE_THREADS) : DEFAULT_THREADS;
+        enqueueTimeout = results.hasPath(CadetConfig.RESULTS_PIPELINE_ENQUEUE_TIMEOUT)
+                        ? results.getDuration(CadetConfig.RESULTS_PIPELINE_ENQUEUE_TIMEOUT, TimeUnit.MILLISECONDS)
+                        : DEFAULT_ENQUEUE_TIMEOUT;
+        maxAttempts = results.hasPath(CadetConfig.RESULTS_PIPELINE_MAX_ATTEMPTS)
+                        ? results.getInt(CadetConfig.RESULTS_PIPELINE_MAX_ATTEMPTS) : DEFAULT_MAX_ATTEMPTS;
+        backoff = results.hasPath(CadetConfig.RESULTS_PIPELINE_BACKOFF)
+                        ? results.getDuration(CadetConfig.RESULTS_PIPELINE_BACKOFF, TimeUnit.MILLISECONDS)
+                        : DEFAULT_BACKOFF;
+        maxBackoff = results.hasPath(CadetConfig.RESULTS_PIPELINE_MAX_BACKOFF)
+                        ? results.getDuration(CadetConfig.RESULTS_PIPELINE_MAX_BACKOFF, TimeUnit.MILLISECONDS)
+                        : DEFAULT_MAX_BACKOFF;
+        if (capacity < 1 || threads < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Annotation pipeline capacity, threads and attempts must be positive");
+        }
+        // the client is told the annotation is saved so keeping it only in memory must be asked for
+        boolean durable = !results.hasPath(CadetConfig.RESULTS_PIPELINE_DURABLE)
+                        || results.getBoolean(CadetConfig.RESULTS_PIPELINE_DURABLE);
+        if (durable && !results.hasPath(CadetConfig.RESULTS_LOG_DIR)) {
+            throw new RuntimeException("The annotation pipeline needs " + CadetConfig.RESULTS_BASE + "."
+                            + CadetConfig.RESULTS_LOG_DIR + " unless " + CadetConfig.RESULTS_BASE + "."
+                            + CadetConfig.RESULTS_PIPELINE_DURABLE + " is false");
+        }
+        logSettings = durable ? LogSettings.fromResults(results) : null;
+    }
+
+    /**
+     * Add a stage that every submission passes through
+     *
+     * Stages must be added before the pipeline is started.
+     *
+     * @param name  name used in logs and metrics
+     * @param handler  delivers the annotation
+     * @param route  work with the same key is delivered in order
+     */
+    public synchronized void addStage(String name, Handler handler, Route route) {
+        if (running) {
+            throw new IllegalStateException("Cannot add a stage to a running pipeline");
+        }
+        stages.put(name, new Stage(name, handler, route));
+    }
+
+    /**
+     * Resume any logged work and start the workers
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (logSettings != null) {
+            openLog();
+        }
+        permits = new Semaphore(capacity - pending.size());
+        running = true;
+        for (Stage stage : stages.values()) {
+            stage.start();
+        }
+        registerMetrics();
+        if (!pending.isEmpty()) {
+            logger.info("Resuming delivery of " + pending.size() + " annotations");
+            for (Submission submission : pending.values()) {
+                dispatch(submission);
+            }
+        }
+    }
+
+    /**
+     * Queue an annotation for every stage
+     *
+     * Returns once the annotation is queued (and logged if durable).
+     *
+     * @throws ServicesException if the pipeline stayed full for the enqueue timeout
+     */
+    public void submit(UUID sessionId, AnnotationUnitIdentifier unitId, Communication communication)
+                    throws ServicesException {
+        if (!running) {
+            throw new ServicesException("Annotation pipeline is not running");
+        }
+        try {
+            if (!permits.tryAcquire(enqueueTimeout, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new ServicesException("Too many annotations are waiting to be saved. Please try again.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicesException("Interrupted while queueing the annotation");
+        }
+
+        Submission submission = new Submission(nextSeq.getAndIncrement(), sessionId, unitId,
+                        communication, stages.keySet());
+        // added before it is logged so that a concurrent snapshot cannot miss it
+        pending.put(submission.seq, submission);
+        if (log != null) {
+            try {
+                // the client is told the annotation is saved so it must reach the disk
+                log.append(encodeEnqueue(submission), true);
+                snapshots.appended();
+            } catch (TException | IOException e) {
+                pending.remove(submission.seq);
+                permits.release();
+                logger.warn("Failed to log annotation for " + communication.getId(), e);
+                throw new ServicesException("Unable to queue the annotated communication");
+            }
+        }
+        dispatch(submission);
+    }
+
+    /**
+     * Wait for all queued work to be delivered or given up
+     *
+     * @return true if nothing is pending
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!pending.isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting work, wait briefly for the queues to drain and stop the workers
+     *
+     * Undelivered work is kept in the log when durable.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            if (!drain(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warn("Stopping annotation pipeline with " + pending.size() + " annotations pending");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Stage stage : stages.values()) {
+            stage.stop();
+        }
+        if (log != null) {
+            snapshots.cancel();
+            snapshot();
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close annotation log", e);
+            }
+            log = null;
+        }
+    }
+
+    /**
+     * Write a snapshot of the pending work and drop the log segments it replaces
+     */
+    public synchronized void snapshot() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.snapshot(sink -> {
+                for (Submission submission : pending.values()) {
+                    try {
+                        sink.add(encodeEnqueue(submission));
+                    } catch (TException e) {
+                        throw new IOException("Unable to serialize annotation " + submission.seq, e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to write annotation snapshot", e);
+        }
+    }
+
+    public Collection<Stage> getStages() {
+        return Collections.unmodifiableCollection(stages.values());
+    }
+
+    public Stage getStage(String name) {
+        return stages.get(name);
+    }
+
+    /**
+     * Number of submissions that have not been through every stage
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Annotations of a session that have not been through every stage
+     *
+     * @param sessionId  session identifier
+     */
+    public List<AnnotationUnitIdentifier> getPending(UUID sessionId) {
+        List<AnnotationUnitIdentifier> units = new ArrayList<>();
+        for (Submission submission : pending.values()) {
+            if (submission.sessionId.equals(sessionId)) {
+                units.add(submission.unitId);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Number of submissions turned away because the pipeline was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        metrics.gauge("cadet_pipeline_pending", "Annotations that have not been through every stage",
+                        () -> pending.size());
+        metrics.counter("cadet_pipeline_rejected_total", "Annotations turned away because the pipeline was full",
+                        rejected::get);
+        for (Stage stage : stages.values()) {
+            String name = stage.getName();
+            metrics.gauge("cadet_pipeline_depth", "Annotations waiting for a worker", stage::getDepth,
+                            "stage", name);
+            metrics.gauge("cadet_pipeline_parked", "Annotations waiting for a retry of their key",
+                            stage::getParkedCount, "stage", name);
+            metrics.counter("cadet_pipeline_processed_total", "Annotations delivered", stage::getProcessedCount,
+                            "stage", name);
+            metrics.counter("cadet_pipeline_retries_total", "Deliveries that failed and were retried",
+                            stage::getRetryCount, "stage", name);
+            metrics.counter("cadet_pipeline_failures_total", "Annotations given up after the last attempt",
+                            stage::getFailedCount, "stage", name);
+            metrics.gauge("cadet_pipeline_max_latency_seconds", "Longest time from submission to delivery",
+                            () -> TimeUnit.MILLISECONDS.toNanos(stage.getMaxLatency()), "stage", name);
+        }
+    }
+
+    private void dispatch(Submission submission) {
+        for (String name : submission.remaining()) {
+            stages.get(name).enqueue(submission);
+        }
+    }
+
+    private void complete(Submission submission, String stage) {
+        if (submission.finish(stage)) {
+            pending.remove(submission.seq);
+            permits.release();
+        }
+        if (log != null) {
+            try {
+                log.append(encodeDone(submission.seq, stage));
+                snapshots.appended();
+            } catch (TException | IOException e) {
+                // the annotation will be delivered again after a restart
+                logger.warn("Failed to log delivery of annotation " + submission.seq, e);
+            }
+        }
+    }
+
+    private void openLog() {
+        try {
+            log = logSettings.open("annotations");
+            long count = log.replay(record -> apply(record));
+            logger.info("Loaded " + pending.size() + " pending annotations from " + count + " records");
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open annotation log in " + logSettings.directory, e);
+        }
+
+        // the stages may have changed since the work was logged
+        for (Submission submission : new ArrayList<>(pending.values())) {
+            for (String name : submission.remaining()) {
+                if (!stages.containsKey(name)) {
+                    logger.warn("Dropping " + name + " of annotation " + submission.seq + " as the stage is gone");
+                    if (submission.finish(name)) {
+                        pending.remove(submission.seq);
+                    }
+                    try {
+                        log.append(encodeDone(submission.seq, name));
+                    } catch (TException | IOException e) {
+                        logger.warn("Failed to log dropped annotation " + submission.seq, e);
+                    }
+                }
+            }
+        }
+
+        snapshots = new SnapshotScheduler(this::snapshot, logSettings);
+    }
+
+    private void apply(byte[] record) throws IOException {
+        TProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(record));
+        try {
+            byte version = protocol.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown annotation record version " + version);
+            }
+            byte type = protocol.readByte();
+            long seq = protocol.readI64();
+            nextSeq.accumulateAndGet(seq + 1, Math::max);
+            if (type == DONE) {
+                String stage = protocol.readString();
+                Submission submission = pending.get(seq);
+                if (submission != null && submission.finish(stage)) {
+                    pending.remove(seq);
+                }
+                return;
+            }
+
+            int numStages = protocol.readI32();
+            Set<String> remaining = new HashSet<>();
+            for (int i = 0; i < numStages; i++) {
+                remaining.add(protocol.readString());
+            }
+            UUID sessionId = new UUID();
+            sessionId.read(protocol);
+            AnnotationUnitIdentifier unitId = new AnnotationUnitIdentifier();
+            unitId.read(protocol);
+            Communication communication = new Communication();
+            communication.read(protocol);
+            // a snapshot can hold newer state than the record that queued the annotation
+            pending.putIfAbsent(seq, new Submission(seq, sessionId, unitId, communication, remaining));
+        } catch (TException e) {
+            throw new IOException("Unable to read annotation record", e);
+        }
+    }
+
+    private static byte[] encodeEnqueue(Submission submission) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(ENQUEUE);
+        protocol.writeI64(submission.seq);
+        Set<String> remaining = submission.remaining();
+        protocol.writeI32(remaining.size());
+        for (String stage : remaining) {
+            protocol.writeString(stage);
+        }
+        submission.sessionId.write(protocol);
+        submission.unitId.write(protocol);
+        submission.communication.write(protocol);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeDone(long seq, String stage) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(DONE);
+        protocol.writeI64(seq);
+        protocol.writeString(stage);
+        return out.toByteArray();
+    }
+
+    /**
+     * One annotation and the stages it has not completed
+     */
+    private static class Submission {
+        final long seq;
+        final UUID sessionId;
+        final AnnotationUnitIdentifier unitId;
+        final Communication communication;
+        final long queuedAt = System.nanoTime();
+        private final Set<String> remaining;
+
+        Submission(long seq, UUID sessionId, AnnotationUnitIdentifier unitId,
+                        Communication communication, Collection<String> stages) {
+            this.seq = seq;
+            this.sessionId = sessionId;
+            this.unitId = unitId;
+            this.communication = communication;
+            this.remaining = new HashSet<>(stages);
+        }
+
+        synchronized Set<String> remaining() {
+            return new HashSet<>(remaining);
+        }
+
+        /**
+         * @return true if this was the last stage
+         */
+        synchronized boolean finish(String stage) {
+            return remaining.remove(stage) && remaining.isEmpty();
+        }
+    }
+
+    /**
+     * Queues and workers for delivering to one service
+     */
+    public class Stage {
+        private final String name;
+        private final Handler handler;
+        private final Route route;
+        private final List<BlockingQueue<Submission>> queues = new ArrayList<>();
+        private final List<Thread> workers = new ArrayList<>();
+        private final AtomicInteger parkedCount = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        Stage(String name, Handler handler, Route route) {
+            this.name = name;
+            this.handler = handler;
+            this.route = route;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Number of annotations waiting for a worker
+         */
+        public int getDepth() {
+            int depth = 0;
+            for (BlockingQueue<Submission> queue : queues) {
+                depth += queue.size();
+            }
+            return depth;
+        }
+
+        /**
+         * Number of annotations waiting for a retry, including those held behind it
+         */
+        public int getParkedCount() {
+            return parkedCount.get();
+        }
+
+        public long getProcessedCount() {
+            return processed.get();
+        }
+
+        public long getRetryCount() {
+            return retries.get();
+        }
+
+        /**
+         * Number of annotations given up after the last attempt
+         */
+        public long getFailedCount() {
+            return failures.get();
+        }
+
+        /**
+         * Average time in ms from submission to delivery
+         */
+        public double getAverageLatency() {
+            long count = processed.get() + failures.get();
+            return count == 0 ? 0 : totalLatency.get() / (double) count;
+        }
+
+        /**
+         * Longest time in ms from submission to delivery
+         */
+        public long getMaxLatency() {
+            return maxLatency.get();
+        }
+
+        private void start() {
+            for (int i = 0; i < threads; i++) {
+                // the permits bound the queues except for work resumed from the log
+                BlockingQueue<Submission> queue = new LinkedBlockingQueue<>();
+                Thread worker = new Thread(() -> work(queue), "cadet-pipeline-" + name + "-" + i);
+                worker.setDaemon(true);
+                queues.add(queue);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        private void stop() {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private String key(Submission submission) {
+            return route == Route.SESSION ? submission.sessionId.getUuidString() : submission.communication.getId();
+        }
+
+        private void enqueue(Submission submission) {
+            queues.get(Math.floorMod(key(submission).hashCode(), queues.size())).add(submission);
+        }
+
+        private void work(BlockingQueue<Submission> queue) {
+            // keys waiting for a retry, only used by this worker
+            Map<String, Parked> parked = new HashMap<>();
+            try {
+                while (true) {
+                    Submission submission = queue.take();
+                    String key = key(submission);
+                    Parked keyState = parked.get(key);
+                    if (keyState != null && keyState.waiting.peekFirst() != submission) {
+                        // held until the delivery ahead of it is done
+                        keyState.waiting.addLast(submission);
+                        parkedCount.incrementAndGet();
+                        continue;
+                    }
+
+                    int before = 0;
+                    if (keyState == null) {
+                        keyState = new Parked();
+                        keyState.waiting.add(submission);
+                    } else {
+                        before = keyState.waiting.size();
+                    }
+                    boolean isParked = deliver(keyState, queue);
+                    parkedCount.addAndGet((isParked ? keyState.waiting.size() : 0) - before);
+                    if (isParked) {
+                        parked.put(key, keyState);
+                    } else {
+                        parked.remove(key);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutting down
+            } finally {
+                for (Parked keyState : parked.values()) {
+                    keyState.timeout.cancel();
+                }
+            }
+        }
+
+        /**
+         * Deliver the work of one key in order until none is left or a delivery failed
+         *
+         * A failed delivery is put back on the worker's queue by the timer when its
+         * backoff is over.
+         *
+         * @return true if the key is waiting for a retry
+         */
+        private boolean deliver(Parked keyState, BlockingQueue<Submission> queue) {
+            while (!keyState.waiting.isEmpty()) {
+                Submission submission = keyState.waiting.peekFirst();
+                try {
+                    handler.deliver(submission.sessionId, submission.unitId, submission.communication);
+                    processed.incrementAndGet();
+                } catch (TException | RuntimeException e) {
+                    if (keyState.attempt < maxAttempts) {
+                        retries.incrementAndGet();
+                        long delay = keyState.delay;
+                        logger.warn("Failed " + name + " of " + submission.communication.getId()
+                                        + ", retrying in " + delay + " ms: " + e.getMessage());
+                        keyState.attempt++;
+                        keyState.delay = Math.min(delay * 2, maxBackoff);
+                        keyState.timeout = TimerWheel.getShared().schedule(() -> queue.add(submission),
+                                        delay, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+                    failures.incrementAndGet();
+                    logger.error("Giving up on " + name + " of " + submission.communication.getId()
+                                    + " after " + keyState.attempt + " attempts", e);
+                }
+
+                keyState.waiting.pollFirst();
+                keyState.attempt = 1;
+                keyState.delay = backoff;
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submission.queuedAt);
+                totalLatency.addAndGet(latency);
+                maxLatency.accumulateAndGet(latency, Math::max);
+                complete(submission, name);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The work of one key that is held while its first delivery waits for a retry
+     */
+    private class Parked {
+        final Deque<Submission> waiting = new ArrayDeque<>();
+        int attempt = 1;
+        long delay = backoff;
+        Timeout timeout;
+    }
+}
@@ -5,17 +5,19 @@
  */
 package edu.jhu.hlt.cadet.results;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.jhu.hlt.cadet.results.TimerWheel.Timeout;
 import edu.jhu.hlt.concrete.Communication;
 import edu.jhu.hlt.concrete.UUID;
 import edu.jhu.hlt.concrete.learn.Annotation;
@@ -33,16 +35,21 @@ public class AnnotationSession {
 
     private final UUID id;
     private final SearchResult searchResults;
-    private List<AnnotationUnitIdentifier> orderedItems;
-    private Set<AnnotationUnitIdentifier> availableItems;
+    // items in sort order and the ones that are available to hand out
+    private final RankQueue queue;
     private ExpiringSet outForAnnotationItems;
     private Set<AnnotationUnitIdentifier> completedItems;
     private Set<Annotation> annotations;
-    private Object orderedItemsLock = new Object();
     private Object annotationLock = new Object();
     private Object bookkeepingLock = new Object();
+    // keeps sorts in the order they reach the listener
+    private Object sortLock = new Object();
+    private volatile Listener listener;
     private long timeToLive;
-    private GarbageCollector gc = new GarbageCollector();
+    private final TimerWheel timer;
+    private final Set<ExpiryTask> expiryTasks = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+    private volatile long lastActivity = System.currentTimeMillis();
 
     /**
      * Create an annotations session
@@ -51,30 +58,83 @@ public class AnnotationSession {
      * @param deadline  time until incomplete items are returned to the queue in milliseconds
      */
     public AnnotationSession(SearchResult results, long deadline) {
-        id = UUIDFactory.newUUID();
+        this(UUIDFactory.newUUID(), results, deadline, createOrderedItems(results),
+                        new HashSet<AnnotationUnitIdentifier>(), new HashSet<Annotation>(), TimerWheel.getShared());
+    }
+
+    /**
+     * Recreate an annotation session from its saved state
+     *
+     * Items that were out for annotation are available again.
+     *
+     * @param id  identifier of the session
+     * @param results  a search result with documents/sentences to be annotated
+     * @param deadline  time until incomplete items are returned to the queue in milliseconds
+     * @param ordered  annotation units in the order they are provided by getNext()
+     * @param completed  annotation units that have been annotated
+     * @param annotations  annotations that have not been retrieved
+     */
+    AnnotationSession(UUID id, SearchResult results, long deadline, List<AnnotationUnitIdentifier> ordered,
+                    Set<AnnotationUnitIdentifier> completed, Set<Annotation> annotations) {
+        this(id, results, deadline, ordered, completed, annotations, TimerWheel.getShared());
+    }
+
+    AnnotationSession(UUID id, SearchResult results, long deadline, List<AnnotationUnitIdentifier> ordered,
+                    Set<AnnotationUnitIdentifier> completed, Set<Annotation> annotations, TimerWheel timer) {
+        this.id = id;
+        this.timer = timer;
         searchResults = results;
         timeToLive = deadline;
-        annotations = new HashSet<Annotation>();
+        this.annotations = annotations;
 
-        availableItems = new HashSet<AnnotationUnitIdentifier>();
         outForAnnotationItems = new ExpiringSet(timeToLive);
-        completedItems = new HashSet<AnnotationUnitIdentifier>();
+        completedItems = completed;
+
+        queue = new RankQueue(ordered);
+        completedItems.stream().forEach(item -> queue.remove(item));
+    }
 
-        if (searchResults.getSearchResultItemsIterator().next().isSetSentenceId()) {
-            orderedItems = searchResults.getSearchResultItems().stream()
+    private static List<AnnotationUnitIdentifier> createOrderedItems(SearchResult results) {
+        if (results.getSearchResultItemsIterator().next().isSetSentenceId()) {
+            return results.getSearchResultItems().stream()
                                 .map(entry -> createAUI(entry.getCommunicationId(), entry.getSentenceId()))
                                 .collect(Collectors.toList());
         } else {
-            orderedItems = searchResults.getSearchResultItems().stream()
+            return results.getSearchResultItems().stream()
                                 .map(entry -> new AnnotationUnitIdentifier(entry.getCommunicationId()))
                                 .collect(Collectors.toList());
         }
-        orderedItems.stream().forEach(item -> availableItems.add(item));
-        gc.start();
     }
 
+    /**
+     * Set the listener that is told about changes to the session (null to remove it)
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Cancel the pending expiry of items that are out for annotation
+     */
     public void close() {
-        gc.stop();
+        closed = true;
+        for (ExpiryTask task : expiryTasks) {
+            Timeout timeout = task.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        expiryTasks.clear();
+    }
+
+    /**
+     * Get the time since an annotator last used the session in milliseconds
+     *
+     * Only getNext() and addAnnotation() count as use. The learner keeps pushing
+     * sorts to a session that nobody is annotating.
+     */
+    public long getIdleTime() {
+        return System.currentTimeMillis() - lastActivity;
     }
 
     /**
@@ -85,20 +145,74 @@ public class AnnotationSession {
         return id;
     }
 
+    /**
+     * Get the search result being annotated
+     */
+    SearchResult getSearchResults() {
+        return searchResults;
+    }
+
+    /**
+     * Get the time until incomplete items are returned to the queue in milliseconds
+     */
+    long getDeadline() {
+        return timeToLive;
+    }
+
+    /**
+     * Get a copy of the annotation units in the order they are provided by getNext()
+     */
+    List<AnnotationUnitIdentifier> getOrderedItems() {
+        synchronized(bookkeepingLock) {
+            return queue.toList();
+        }
+    }
+
+    /**
+     * Get a copy of the annotation units that have been annotated
+     */
+    Set<AnnotationUnitIdentifier> getCompletedItems() {
+        synchronized(bookkeepingLock) {
+            return new HashSet<>(completedItems);
+        }
+    }
+
     /**
      * Update the order of the data to be provided by getNext()
      *
+     * The list can have every item in the session or just the items whose rank changed
+     * at the top of the sort. In the second case the rest keep their relative order.
+     * A full list may repeat a unit that is repeated in the search results. Only its
+     * first rank counts, the same as when the session was created.
+     *
      * @param list  a sorted list of annotation unit identifiers
      * @return true if the update succeeded
      */
     public boolean updateSort(List<AnnotationUnitIdentifier> list) {
-        if (list.size() == orderedItems.size()) {
-            synchronized(orderedItemsLock) {
-                orderedItems = list;
+        synchronized(sortLock) {
+            boolean updated;
+            if (list.size() == searchResults.getSearchResultItemsSize() && list.size() != queue.size()) {
+                list = new ArrayList<>(new LinkedHashSet<>(list));
             }
-            return true;
-        } else {
-            return false;
+            if (list.size() == queue.size()) {
+                // a full sort is built before taking the lock so getNext() is not held up by it
+                RankQueue.Order order = queue.prepareOrder(list);
+                updated = order != null;
+                if (updated) {
+                    synchronized(bookkeepingLock) {
+                        queue.reorder(order);
+                    }
+                }
+            } else {
+                synchronized(bookkeepingLock) {
+                    updated = queue.moveToTop(list);
+                }
+            }
+            Listener current = listener;
+            if (updated && current != null) {
+                current.sorted(this, list);
+            }
+            return updated;
         }
     }
 
@@ -109,19 +223,14 @@ public class AnnotationSession {
      * @return list of annotation unit identifiers
      */
     public List<AnnotationUnitIdentifier> getNext(int chunkSize) {
+        lastActivity = System.currentTimeMillis();
         List<AnnotationUnitIdentifier> chunk = null;
         synchronized(bookkeepingLock) {
-            synchronized(orderedItemsLock) {
-                chunk =  orderedItems.stream()
-                            .filter(entry -> availableItems.contains(entry))
-                            .limit(chunkSize)
-                            .collect(Collectors.toList());
-            }
-
-            chunk.stream().forEach(entry -> {
-                outForAnnotationItems.add(entry);
-                availableItems.remove(entry);
-            });
+            chunk = queue.poll(chunkSize);
+            outForAnnotationItems.addAll(chunk);
+        }
+        if (!chunk.isEmpty()) {
+            scheduleExpiry();
         }
         return chunk;
     }
@@ -133,15 +242,20 @@ public class AnnotationSession {
      * @param communication  communication object that holds the annotation
      */
     public void addAnnotation(AnnotationUnitIdentifier unitId, Communication communication) {
+        lastActivity = System.currentTimeMillis();
         synchronized(bookkeepingLock) {
             completedItems.add(unitId);
             outForAnnotationItems.remove(unitId);
             // just in case the annotation came in after the item was made
             // available again due to a timeout
-            availableItems.remove(unitId);
+            queue.remove(unitId);
         }
         synchronized(annotationLock) {
             annotations.add(new Annotation(unitId, communication));
+            Listener current = listener;
+            if (current != null) {
+                current.annotated(this, unitId, communication);
+            }
         }
     }
 
@@ -157,37 +271,59 @@ public class AnnotationSession {
             data = new HashSet<>(annotations);
             if (clear) {
                 annotations.clear();
+                Listener current = listener;
+                if (current != null) {
+                    current.annotationsCleared(this);
+                }
             }
         }
         return data;
     }
 
+    private void scheduleExpiry() {
+        ExpiryTask task = new ExpiryTask();
+        expiryTasks.add(task);
+        // items expire once they have been out for longer than the time to live
+        task.timeout = timer.schedule(task, timeToLive + 1, TimeUnit.MILLISECONDS);
+        if (closed) {
+            task.timeout.cancel();
+        }
+    }
+
     protected static AnnotationUnitIdentifier createAUI(String commId, UUID sentId) {
         AnnotationUnitIdentifier aui = new AnnotationUnitIdentifier(commId);
         aui.setSentenceId(sentId);
         return aui;
     }
 
-    private class GarbageCollector extends TimerTask {
+    /**
+     * Told about each change to the sort order, completed items and annotations of a session
+     *
+     * Calls for one session are made in the order the changes were applied.
+     */
+    interface Listener {
+        void sorted(AnnotationSession session, List<AnnotationUnitIdentifier> list);
 
-        private static final long TEN_SECONDS = 10 * 1000L;
-        private Timer timer = new Timer();
+        void annotated(AnnotationSession session, AnnotationUnitIdentifier unitId, Communication communication);
 
-        public void start() {
-            timer.scheduleAtFixedRate(this, new Date(), TEN_SECONDS);
-        }
+        void annotationsCleared(AnnotationSession session);
+    }
 
-        public void stop() {
-            timer.cancel();
-        }
+    /**
+     * Returns the items of one chunk to the queue if they are still out at the deadline
+     */
+    private class ExpiryTask implements Runnable {
+        private volatile Timeout timeout;
 
         @Override
         public void run() {
+            expiryTasks.remove(this);
+            if (closed) {
+                return;
+            }
             synchronized(bookkeepingLock) {
-                Set<AnnotationUnitIdentifier> expired = outForAnnotationItems.expire();
-                expired.stream().forEach(item -> availableItems.add(item));
+                queue.addAll(outForAnnotationItems.expire());
             }
         }
-
     }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.Provider;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+
+/**
+ * Indexed results store that keeps a bounded number of search results in memory.
+ *
+ * When the store goes over max_entries or max_bytes (under cadet.results), the least
+ * recently used search results are dropped from the heap, and results that have not been
+ * used for max_age are dropped as well. The indexes still hold a small entry for every
+ * search result so lookups are unchanged and a dropped search result is read back from
+ * the spill file on demand.
+ *
+ * When a limit is set, each search result is written to the spill file with the compact
+ * protocol once as it is added, which also gives its size, so dropping it later does not
+ * serialize it again. A limit that is not set (or is 0) is not enforced.
+ *
+ * Listing by task or user returns at most max_entries search results, also when no limit
+ * or a larger one is asked for, so one call cannot read the whole history back onto the
+ * heap. Results read back while listing are dropped again as the list is built.
+ */
+public class BoundedResultsStore extends IndexedResultsStore implements Provider {
+    private static Logger logger = LoggerFactory.getLogger(BoundedResultsStore.class);
+
+    private int maxEntries = 0;
+    private long maxBytes = 0;
+    private long maxAge = 0;
+    private File spillDir = new File(System.getProperty("java.io.tmpdir"));
+
+    // access ordered so iteration starts at the least recently used resident entry
+    private final LinkedHashMap<BoundedEntry, Boolean> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicInteger residentCount = new AtomicInteger();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final Object spillLock = new Object();
+    private File spillFile;
+    private volatile FileChannel spillChannel;
+    private boolean closed = false;
+
+    @Override
+    public void init(Config config) {
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        metrics.counter("cadet_results_evictions_total", "Search results dropped from memory to the spill file",
+                        evictions::get);
+        metrics.counter("cadet_results_reloads_total", "Search results read back from the spill file",
+                        reloads::get);
+        metrics.gauge("cadet_results_resident", "Search results held in memory", residentCount::get);
+        metrics.gauge("cadet_results_resident_bytes", "Serialized size of the search results held in memory",
+                        residentBytes::get);
+
+        if (!config.hasPath(CadetConfig.RESULTS_BASE)) {
+            return;
+        }
+        Config results = config.getConfig(CadetConfig.RESULTS_BASE);
+        if (results.hasPath(CadetConfig.RESULTS_MAX_ENTRIES)) {
+            maxEntries = results.getInt(CadetConfig.RESULTS_MAX_ENTRIES);
+        }
+        if (results.hasPath(CadetConfig.RESULTS_MAX_BYTES)) {
+            maxBytes = results.getBytes(CadetConfig.RESULTS_MAX_BYTES);
+        }
+        if (results.hasPath(CadetConfig.RESULTS_MAX_AGE)) {
+            maxAge = results.getDuration(CadetConfig.RESULTS_MAX_AGE, TimeUnit.NANOSECONDS);
+        }
+        if (results.hasPath(CadetConfig.RESULTS_SPILL_DIR)) {
+            spillDir = new File(results.getString(CadetConfig.RESULTS_SPILL_DIR));
+        }
+        if (!spillDir.isDirectory()) {
+            throw new RuntimeException(spillDir + " is not a directory");
+        }
+        logger.info("Results store limits: entries=" + maxEntries + " bytes=" + maxBytes
+                        + " age=" + TimeUnit.NANOSECONDS.toSeconds(maxAge) + "s spill=" + spillDir);
+    }
+
+    @Override
+    public void close() {
+        logger.info("Results store evicted " + evictions.get() + " and reloaded " + reloads.get());
+        synchronized(spillLock) {
+            closed = true;
+            if (spillChannel != null) {
+                try {
+                    spillChannel.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close " + spillFile, e);
+                }
+                spillChannel = null;
+                if (!spillFile.delete()) {
+                    logger.warn("Failed to delete " + spillFile);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Item getByID(UUID id) {
+        Item item = super.getByID(id);
+        evict();
+        return item;
+    }
+
+    @Override
+    public Item getLatest(String userId) {
+        Item item = super.getLatest(userId);
+        evict();
+        return item;
+    }
+
+    @Override
+    public List<SearchResult> getByTask(AnnotationTaskType taskType, int limit) {
+        List<SearchResult> results = super.getByTask(taskType, capLimit(limit));
+        evict();
+        return results;
+    }
+
+    @Override
+    public List<SearchResult> getByUser(AnnotationTaskType taskType, String userId, int limit) {
+        List<SearchResult> results = super.getByUser(taskType, userId, capLimit(limit));
+        evict();
+        return results;
+    }
+
+    /**
+     * Limit a listing to max_entries (a limit of 0 asks for every search result)
+     */
+    private int capLimit(int limit) {
+        if (maxEntries > 0 && (limit <= 0 || limit > maxEntries)) {
+            return maxEntries;
+        }
+        return limit;
+    }
+
+    /**
+     * Get the number of search results that have been dropped from memory
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of search results that have been read back from disk
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * Get the number of search results currently held in memory
+     */
+    public int getResidentCount() {
+        return residentCount.get();
+    }
+
+    /**
+     * Get the serialized size of the search results currently held in memory (0 without limits)
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    @Override
+    protected Entry createEntry(Item item, long sequence) {
+        return new BoundedEntry(item, sequence);
+    }
+
+    @Override
+    protected Item resolve(Entry entry) {
+        BoundedEntry bEntry = (BoundedEntry) entry;
+        Item item = entry.item;
+        if (item != null) {
+            touch(bEntry);
+            return item;
+        }
+        synchronized(bEntry) {
+            if (bEntry.item == null) {
+                bEntry.item = reload(bEntry);
+                admit(bEntry);
+                reloads.incrementAndGet();
+            }
+            item = bEntry.item;
+        }
+        // a listing can read back many results so stay within the limits as it goes
+        evict();
+        return item;
+    }
+
+    @Override
+    protected void added(Entry entry) {
+        BoundedEntry bEntry = (BoundedEntry) entry;
+        synchronized(bEntry) {
+            if (bEntry.size < 0 && bEntry.item != null) {
+                bEntry.size = 0;
+                if (isLimited()) {
+                    try {
+                        byte[] data = serialize(bEntry.item.results);
+                        bEntry.size = data.length;
+                        bEntry.offset = write(data);
+                        bEntry.length = data.length;
+                    } catch (TException | IOException e) {
+                        // spill() tries again when the entry is dropped
+                        logger.warn("Unable to spill search result " + bEntry.item.results.getUuid(), e);
+                    }
+                }
+                admit(bEntry);
+            }
+        }
+        evict();
+    }
+
+    private boolean isLimited() {
+        return maxEntries > 0 || maxBytes > 0 || maxAge > 0;
+    }
+
+    private void admit(BoundedEntry entry) {
+        synchronized(resident) {
+            entry.accessed = System.nanoTime();
+            resident.put(entry, Boolean.TRUE);
+        }
+        residentCount.incrementAndGet();
+        residentBytes.addAndGet(entry.size);
+    }
+
+    /**
+     * Move a resident entry to the most recently used end
+     */
+    private void touch(BoundedEntry entry) {
+        synchronized(resident) {
+            if (resident.get(entry) != null) {
+                entry.accessed = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Drop the least recently used resident entries until the store is within its limits
+     */
+    private void evict() {
+        while (true) {
+            BoundedEntry entry;
+            synchronized(resident) {
+                Iterator<BoundedEntry> it = resident.keySet().iterator();
+                if (!it.hasNext()) {
+                    return;
+                }
+                entry = it.next();
+                if (!isOverLimit(entry)) {
+                    return;
+                }
+                it.remove();
+            }
+            if (!spill(entry)) {
+                // keep it in memory and try again on the next call
+                synchronized(resident) {
+                    resident.put(entry, Boolean.TRUE);
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean isOverLimit(BoundedEntry eldest) {
+        if (maxEntries > 0 && residentCount.get() > maxEntries) {
+            return true;
+        }
+        if (maxBytes > 0 && residentBytes.get() > maxBytes) {
+            return true;
+        }
+        return maxAge > 0 && System.nanoTime() - eldest.accessed > maxAge;
+    }
+
+    private boolean spill(BoundedEntry entry) {
+        synchronized(entry) {
+            Item item = entry.item;
+            if (entry.offset < 0) {
+                try {
+                    byte[] data = serialize(item.results);
+                    entry.offset = write(data);
+                    entry.length = data.length;
+                } catch (TException | IOException e) {
+                    logger.warn("Failed to spill search result " + item.results.getUuid(), e);
+                    return false;
+                }
+            }
+            entry.tasks = item.tasks;
+            entry.timestamp = item.timestamp;
+            entry.item = null;
+        }
+        residentCount.decrementAndGet();
+        residentBytes.addAndGet(-entry.size);
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    private Item reload(BoundedEntry entry) {
+        SearchResult results = new SearchResult();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            FileChannel channel = spillChannel;
+            if (channel == null) {
+                throw new IllegalStateException("Results store is closed, cannot read back search results");
+            }
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + spillFile);
+                }
+            }
+            new TDeserializer(new TCompactProtocol.Factory()).deserialize(results, buffer.array());
+        } catch (TException | IOException e) {
+            // the spill file is private to this store so this means it was damaged
+            throw new IllegalStateException("Failed to reload search result from " + spillFile, e);
+        }
+
+        Item item = new Item(results, entry.tasks.iterator().next());
+        item.tasks = entry.tasks;
+        item.timestamp = entry.timestamp;
+        entry.tasks = null;
+        entry.timestamp = null;
+        return item;
+    }
+
+    private static byte[] serialize(SearchResult results) throws TException {
+        return new TSerializer(new TCompactProtocol.Factory()).serialize(results);
+    }
+
+    private long write(byte[] data) throws IOException {
+        synchronized(spillLock) {
+            if (closed) {
+                throw new IOException("Results store is closed");
+            }
+            if (spillChannel == null) {
+                spillFile = File.createTempFile("cadet-results", ".spill", spillDir);
+                spillFile.deleteOnExit();
+                spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+            }
+            long offset = spillChannel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                spillChannel.write(buffer, offset + buffer.position());
+            }
+            return offset;
+        }
+    }
+
+    private static class BoundedEntry extends Entry {
+        // compact serialized size of the search result (-1 until first added)
+        long size = -1;
+        // System.nanoTime() of the last use while resident
+        long accessed;
+        // location in the spill file (search results are written at most once)
+        long offset = -1;
+        int length;
+        // kept while the item is spilled
+        Set<AnnotationTaskType> tasks;
+        Instant timestamp;
+
+        BoundedEntry(Item item, long sequence) {
+            super(item, sequence);
+        }
+    }
+}
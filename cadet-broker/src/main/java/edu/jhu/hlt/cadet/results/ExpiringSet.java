@@ -6,11 +6,12 @@
 package edu.jhu.hlt.cadet.results;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.LongSupplier;
 
 import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
 
@@ -18,12 +19,17 @@ import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
  * Passive expiring set
  *
  * Call expire() to remove elements that have been in the too long.
+ *
+ * Every item has the same time to live so insertion order is also deadline order.
+ * Items are kept in insertion order and expire() stops at the first item that has
+ * not expired, so its cost depends on the number of expired items rather than the size.
  */
 public class ExpiringSet implements Set<AnnotationUnitIdentifier> {
 
-    private final Set<AnnotationUnitIdentifier> data = new HashSet<>();
-    private final Map<AnnotationUnitIdentifier, Long> timestamps = new HashMap<>();
+    // oldest item first
+    private final LinkedHashMap<AnnotationUnitIdentifier, Long> timestamps = new LinkedHashMap<>();
     private final long timeToLive;
+    private final LongSupplier clock;
 
     /**
      * Create a set that can passively expire items
@@ -31,28 +37,42 @@ public class ExpiringSet implements Set<AnnotationUnitIdentifier> {
      * @param timeToLive  time the item remains in set in milliseconds
      */
     public ExpiringSet(long timeToLive) {
+        this(timeToLive, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a set that can passively expire items
+     *
+     * @param timeToLive  time the item remains in set in milliseconds
+     * @param clock  source of the current time in milliseconds
+     */
+    public ExpiringSet(long timeToLive, LongSupplier clock) {
         this.timeToLive = timeToLive;
+        this.clock = clock;
     }
 
     public Set<AnnotationUnitIdentifier> expire() {
         long currentTime = getTime();
         Set<AnnotationUnitIdentifier> expired = new HashSet<>();
-        for (AnnotationUnitIdentifier item : timestamps.keySet()) {
-            if ((currentTime - timestamps.get(item)) > timeToLive) {
-                expired.add(item);
-                remove(item);
+        Iterator<Map.Entry<AnnotationUnitIdentifier, Long>> iter = timestamps.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<AnnotationUnitIdentifier, Long> entry = iter.next();
+            if ((currentTime - entry.getValue()) <= timeToLive) {
+                break;
             }
+            expired.add(entry.getKey());
+            iter.remove();
         }
         return expired;
     }
 
     @Override
     public boolean add(AnnotationUnitIdentifier item) {
-        boolean isNewItem = data.add(item);
-        if (isNewItem) {
-            timestamps.put(item, getTime());
+        if (timestamps.containsKey(item)) {
+            return false;
         }
-        return isNewItem;
+        timestamps.put(item, getTime());
+        return true;
     }
 
     @Override
@@ -66,37 +86,32 @@ public class ExpiringSet implements Set<AnnotationUnitIdentifier> {
 
     @Override
     public void clear() {
-        data.clear();
         timestamps.clear();
     }
 
     @Override
     public boolean contains(Object o) {
-        return data.contains(o);
+        return timestamps.containsKey(o);
     }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        return data.containsAll(c);
+        return timestamps.keySet().containsAll(c);
     }
 
     @Override
     public boolean isEmpty() {
-        return data.isEmpty();
+        return timestamps.isEmpty();
     }
 
     @Override
     public Iterator<AnnotationUnitIdentifier> iterator() {
-        return data.iterator();
+        return timestamps.keySet().iterator();
     }
 
     @Override
     public boolean remove(Object o) {
-        boolean isInSet = data.remove(o);
-        if (isInSet) {
-            timestamps.remove(o);
-        }
-        return isInSet;
+        return timestamps.remove(o) != null;
     }
 
     @Override
@@ -110,32 +125,26 @@ public class ExpiringSet implements Set<AnnotationUnitIdentifier> {
 
     @Override
     public boolean retainAll(Collection<?> c) {
-        boolean isModified = data.retainAll(c);
-        for (AnnotationUnitIdentifier item : timestamps.keySet()) {
-            if (!data.contains(item)) {
-                timestamps.remove(item);
-            }
-        }
-        return isModified;
+        return timestamps.keySet().retainAll(c);
     }
 
     @Override
     public int size() {
-        return data.size();
+        return timestamps.size();
     }
 
     @Override
     public Object[] toArray() {
-        return data.toArray();
+        return timestamps.keySet().toArray();
     }
 
     @Override
     public <T> T[] toArray(T[] a) {
-        return data.toArray(a);
+        return timestamps.keySet().toArray(a);
     }
 
     protected long getTime() {
-        return System.currentTimeMillis();
+        return clock.getAsLong();
     }
 
 }
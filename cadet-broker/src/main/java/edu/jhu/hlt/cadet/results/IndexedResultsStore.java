@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * In-memory results store with time ordered indexes by user and by annotation task.
+ *
+ * Latest and top-N lookups walk an index from the newest entry and stop at the limit
+ * so they do not depend on the total number of registered search results.
+ * Readers never take a lock. Writers only lock the entry being updated.
+ */
+public class IndexedResultsStore implements ResultsStore {
+
+    private final Map<UUID, Entry> data = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final TimeIndex all = new TimeIndex();
+    private final Map<AnnotationTaskType, TimeIndex> byTask = new ConcurrentHashMap<>();
+    private final Map<String, TimeIndex> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Map<AnnotationTaskType, TimeIndex>> byUserTask = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(SearchResult results, AnnotationTaskType taskType) throws ServicesException {
+        Entry entry = data.computeIfAbsent(results.getUuid(),
+                        id -> createEntry(new Item(results, taskType), sequence.incrementAndGet()));
+        synchronized(entry) {
+            if (!entry.indexed) {
+                all.put(entry);
+                if (entry.userId != null) {
+                    byUser.computeIfAbsent(entry.userId, u -> new TimeIndex()).put(entry);
+                }
+                entry.indexed = true;
+            } else {
+                // unexpected behavior will be caused if apps reuse UUIDs for search results
+                resolve(entry).addTask(taskType);
+            }
+
+            byTask.computeIfAbsent(taskType, t -> new TimeIndex()).put(entry);
+            if (entry.userId != null) {
+                byUserTask.computeIfAbsent(entry.userId, u -> new ConcurrentHashMap<>())
+                          .computeIfAbsent(taskType, t -> new TimeIndex()).put(entry);
+            }
+        }
+        added(entry);
+    }
+
+    @Override
+    public Item getByID(UUID id) {
+        Entry entry = data.get(id);
+        return entry == null ? null : resolve(entry);
+    }
+
+    @Override
+    public Item getLatest(String userId) {
+        TimeIndex index = byUser.get(userId);
+        if (index == null) {
+            return null;
+        }
+        Entry entry = index.first();
+        return entry == null ? null : resolve(entry);
+    }
+
+    @Override
+    public List<SearchResult> getByTask(AnnotationTaskType taskType, int limit) {
+        TimeIndex index = byTask.get(taskType);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.latest(limit);
+    }
+
+    @Override
+    public List<SearchResult> getByUser(AnnotationTaskType taskType, String userId, int limit) {
+        Map<AnnotationTaskType, TimeIndex> tasks = byUserTask.get(userId);
+        if (tasks == null) {
+            return Collections.emptyList();
+        }
+        TimeIndex index = tasks.get(taskType);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.latest(limit);
+    }
+
+    /**
+     * Get the number of search results in the store
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Get every search result in the store from the oldest to the newest
+     */
+    protected Iterable<Item> items() {
+        return () -> all.map.descendingMap().values().stream().map(entry -> resolve(entry)).iterator();
+    }
+
+    /**
+     * Create the entry that the indexes hold for a new search result
+     *
+     * @param item  results item object
+     * @param sequence  registration order of the item
+     * @return entry for the indexes
+     */
+    protected Entry createEntry(Item item, long sequence) {
+        return new Entry(item, sequence);
+    }
+
+    /**
+     * Get the item for an entry
+     *
+     * @param entry  an entry from the indexes
+     * @return results item object
+     */
+    protected Item resolve(Entry entry) {
+        return entry.item;
+    }
+
+    /**
+     * Called after a search result has been added and indexed
+     *
+     * @param entry  the entry that was added or updated
+     */
+    protected void added(Entry entry) {}
+
+    protected static class Entry {
+        protected volatile Item item;
+        // breaks ties between items registered in the same instant
+        protected final long sequence;
+        protected final String userId;
+        private boolean indexed = false;
+
+        protected Entry(Item item, long sequence) {
+            this.item = item;
+            this.sequence = sequence;
+            this.userId = item.userId;
+        }
+    }
+
+    /**
+     * Entries keyed by registration order with the newest entry first
+     */
+    private class TimeIndex {
+        private final ConcurrentSkipListMap<Long, Entry> map =
+                        new ConcurrentSkipListMap<>(Collections.reverseOrder());
+
+        void put(Entry entry) {
+            map.put(entry.sequence, entry);
+        }
+
+        Entry first() {
+            Map.Entry<Long, Entry> entry = map.firstEntry();
+            return entry == null ? null : entry.getValue();
+        }
+
+        List<SearchResult> latest(int limit) {
+            if (limit == 0) {
+                limit = Integer.MAX_VALUE;
+            }
+            List<SearchResult> results = new ArrayList<>(Math.min(limit, 64));
+            for (Entry entry : map.values()) {
+                if (results.size() >= limit) {
+                    break;
+                }
+                results.add(resolve(entry).results);
+            }
+            return results;
+        }
+    }
+}
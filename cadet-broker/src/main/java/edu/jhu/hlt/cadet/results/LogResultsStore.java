@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.Provider;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Indexed results store that survives restarts.
+ *
+ * Every add is appended to a segment log under cadet.results.log.dir as a compact protocol
+ * record. A snapshot of all search results is written every log.snapshot_interval, after
+ * log.snapshot_records adds and on close, so startup reads the snapshot and at most about
+ * log.snapshot_records records added since then.
+ */
+public class LogResultsStore extends IndexedResultsStore implements Provider {
+    private static Logger logger = LoggerFactory.getLogger(LogResultsStore.class);
+
+    private static final byte VERSION = 1;
+
+    private SegmentLog log;
+    private SnapshotScheduler snapshots;
+    private boolean closed = false;
+
+    @Override
+    public void init(Config config) {
+        LogSettings settings = new LogSettings(config);
+        try {
+            log = settings.open("results");
+            long start = System.currentTimeMillis();
+            long count = log.replay(record -> apply(record));
+            logger.info("Loaded " + size() + " search results from " + count + " records in "
+                            + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open results log in " + settings.directory, e);
+        }
+
+        snapshots = new SnapshotScheduler(this::snapshot, settings);
+    }
+
+    @Override
+    public void close() {
+        if (log == null) {
+            return;
+        }
+        snapshots.cancel();
+        snapshot();
+        synchronized(this) {
+            closed = true;
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close results log", e);
+            }
+        }
+    }
+
+    @Override
+    public void add(SearchResult results, AnnotationTaskType taskType) throws ServicesException {
+        // the memory update comes first so that a concurrent snapshot either includes
+        // this search result or is started before the record is appended
+        super.add(results, taskType);
+        try {
+            Instant timestamp = getByID(results.getUuid()).timestamp;
+            log.append(encode(results, Collections.singleton(taskType), timestamp));
+            snapshots.appended();
+        } catch (TException | IOException e) {
+            logger.warn("Failed to log search result " + results.getUuid().getUuidString(), e);
+            throw new ServicesException("Unable to save search result: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a snapshot of all search results and drop the log segments it replaces
+     */
+    public synchronized void snapshot() {
+        if (closed) {
+            return;
+        }
+        try {
+            log.snapshot(sink -> {
+                for (Item item : items()) {
+                    try {
+                        sink.add(encode(item.results, item.tasks, item.timestamp));
+                    } catch (TException e) {
+                        throw new IOException("Unable to serialize " + item.results.getUuid().getUuidString(), e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to write results snapshot", e);
+        }
+    }
+
+    private void apply(byte[] record) throws IOException {
+        TProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(record));
+        try {
+            byte version = protocol.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown results record version " + version);
+            }
+            Instant timestamp = Instant.ofEpochMilli(protocol.readI64());
+            int numTasks = protocol.readI32();
+            List<AnnotationTaskType> tasks = new ArrayList<>(numTasks);
+            for (int i = 0; i < numTasks; i++) {
+                tasks.add(AnnotationTaskType.findByValue(protocol.readI32()));
+            }
+            SearchResult results = new SearchResult();
+            results.read(protocol);
+
+            boolean isNew = getByID(results.getUuid()) == null;
+            for (AnnotationTaskType task : tasks) {
+                super.add(results, task);
+            }
+            if (isNew) {
+                getByID(results.getUuid()).timestamp = timestamp;
+            }
+        } catch (TException e) {
+            throw new IOException("Unable to read results record", e);
+        }
+    }
+
+    private static byte[] encode(SearchResult results, Collection<AnnotationTaskType> tasks, Instant timestamp)
+                    throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        List<AnnotationTaskType> taskList = new ArrayList<>(tasks);
+        protocol.writeByte(VERSION);
+        protocol.writeI64(timestamp.toEpochMilli());
+        protocol.writeI32(taskList.size());
+        for (AnnotationTaskType task : taskList) {
+            protocol.writeI32(task.getValue());
+        }
+        results.write(protocol);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.Provider;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.Annotation;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+/**
+ * Session store that survives restarts.
+ *
+ * Sessions being added and removed are appended to a segment log under cadet.results.log.dir
+ * along with every change to their bookkeeping (sorts, annotations and clearing of retrieved
+ * annotations). The snapshot written every log.snapshot_interval, after log.snapshot_records
+ * records and on close compacts these into one record per session. Items that were out for
+ * annotation are made available again after a restart.
+ */
+public class LogSessionStore extends MemorySessionStore implements Provider, AnnotationSession.Listener {
+    private static Logger logger = LoggerFactory.getLogger(LogSessionStore.class);
+
+    private static final byte VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SORT = 3;
+    private static final byte ANNOTATE = 4;
+    private static final byte CLEAR = 5;
+
+    private SegmentLog log;
+    private SnapshotScheduler snapshots;
+    private boolean closed = false;
+
+    @Override
+    public void init(Config config) {
+        LogSettings settings = new LogSettings(config);
+        try {
+            log = settings.open("sessions");
+            long start = System.currentTimeMillis();
+            long count = log.replay(record -> apply(record));
+            logger.info("Loaded " + list().size() + " sessions from " + count + " records in "
+                            + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open session log in " + settings.directory, e);
+        }
+        for (AnnotationSession session : list()) {
+            session.setListener(this);
+        }
+
+        snapshots = new SnapshotScheduler(this::snapshot, settings);
+    }
+
+    @Override
+    public void close() {
+        if (log == null) {
+            return;
+        }
+        snapshots.cancel();
+        snapshot();
+        synchronized(this) {
+            closed = true;
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close session log", e);
+            }
+        }
+    }
+
+    @Override
+    public void add(AnnotationSession session) {
+        // a change logged before the PUT record is also in the state the PUT record holds
+        session.setListener(this);
+        super.add(session);
+        append(() -> encodePut(session), session.getId());
+    }
+
+    @Override
+    public void remove(UUID id) {
+        AnnotationSession session = get(id);
+        if (session != null) {
+            session.setListener(null);
+        }
+        super.remove(id);
+        append(() -> encodeRemove(id), id);
+    }
+
+    @Override
+    public void sorted(AnnotationSession session, List<AnnotationUnitIdentifier> list) {
+        append(() -> encodeSort(session.getId(), list), session.getId());
+    }
+
+    @Override
+    public void annotated(AnnotationSession session, AnnotationUnitIdentifier unitId, Communication communication) {
+        append(() -> encodeAnnotate(session.getId(), unitId, communication), session.getId());
+    }
+
+    @Override
+    public void annotationsCleared(AnnotationSession session) {
+        append(() -> encodeClear(session.getId()), session.getId());
+    }
+
+    /**
+     * Write a snapshot of all sessions and drop the log segments it replaces
+     */
+    public synchronized void snapshot() {
+        if (closed) {
+            return;
+        }
+        try {
+            log.snapshot(sink -> {
+                for (AnnotationSession session : list()) {
+                    try {
+                        sink.add(encodePut(session));
+                    } catch (TException e) {
+                        throw new IOException("Unable to serialize session " + session.getId().getUuidString(), e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to write session snapshot", e);
+        }
+    }
+
+    private void append(Encoder encoder, UUID id) {
+        try {
+            log.append(encoder.encode());
+            snapshots.appended();
+        } catch (TException | IOException e) {
+            // the session is still usable but will not survive a restart
+            logger.warn("Failed to log session " + id.getUuidString(), e);
+        }
+    }
+
+    private void apply(byte[] record) throws IOException {
+        TProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(record));
+        try {
+            byte version = protocol.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown session record version " + version);
+            }
+            byte type = protocol.readByte();
+            UUID id = new UUID();
+            id.read(protocol);
+            if (type != PUT) {
+                applyChange(type, id, protocol);
+                return;
+            }
+
+            long deadline = protocol.readI64();
+            SearchResult results = new SearchResult();
+            results.read(protocol);
+            List<AnnotationUnitIdentifier> ordered = readUnits(protocol, new ArrayList<>());
+            Set<AnnotationUnitIdentifier> completed = readUnits(protocol, new HashSet<>());
+            int numAnnotations = protocol.readI32();
+            Set<Annotation> annotations = new HashSet<>();
+            for (int i = 0; i < numAnnotations; i++) {
+                Annotation annotation = new Annotation();
+                annotation.read(protocol);
+                annotations.add(annotation);
+            }
+
+            // a snapshot can hold newer state than the record that created the session
+            if (get(id) == null) {
+                super.add(new AnnotationSession(id, results, deadline, ordered, completed, annotations));
+            }
+        } catch (TException e) {
+            throw new IOException("Unable to read session record", e);
+        }
+    }
+
+    /**
+     * Apply a record that changes an existing session
+     *
+     * A record can also be in the snapshot that was read before it, so applying it
+     * twice must leave the session as it was after the first time.
+     */
+    private void applyChange(byte type, UUID id, TProtocol protocol) throws TException, IOException {
+        AnnotationSession session = get(id);
+        switch (type) {
+        case REMOVE:
+            if (session != null) {
+                session.close();
+                super.remove(id);
+            }
+            break;
+        case SORT:
+            List<AnnotationUnitIdentifier> list = readUnits(protocol, new ArrayList<>());
+            if (session != null) {
+                session.updateSort(list);
+            }
+            break;
+        case ANNOTATE:
+            AnnotationUnitIdentifier unitId = new AnnotationUnitIdentifier();
+            unitId.read(protocol);
+            Communication communication = null;
+            if (protocol.readBool()) {
+                communication = new Communication();
+                communication.read(protocol);
+            }
+            if (session != null) {
+                session.addAnnotation(unitId, communication);
+            }
+            break;
+        case CLEAR:
+            if (session != null) {
+                session.getAnnotations(true);
+            }
+            break;
+        default:
+            throw new IOException("Unknown session record type " + type);
+        }
+    }
+
+    private static <T extends Collection<AnnotationUnitIdentifier>> T readUnits(TProtocol protocol, T units)
+                    throws TException {
+        int size = protocol.readI32();
+        for (int i = 0; i < size; i++) {
+            AnnotationUnitIdentifier unit = new AnnotationUnitIdentifier();
+            unit.read(protocol);
+            units.add(unit);
+        }
+        return units;
+    }
+
+    private static void writeUnits(TProtocol protocol, Collection<AnnotationUnitIdentifier> units)
+                    throws TException {
+        protocol.writeI32(units.size());
+        for (AnnotationUnitIdentifier unit : units) {
+            unit.write(protocol);
+        }
+    }
+
+    private static byte[] encodePut(AnnotationSession session) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(PUT);
+        session.getId().write(protocol);
+        protocol.writeI64(session.getDeadline());
+        session.getSearchResults().write(protocol);
+        writeUnits(protocol, session.getOrderedItems());
+        writeUnits(protocol, session.getCompletedItems());
+        Set<Annotation> annotations = session.getAnnotations(false);
+        protocol.writeI32(annotations.size());
+        for (Annotation annotation : annotations) {
+            annotation.write(protocol);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeRemove(UUID id) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(REMOVE);
+        id.write(protocol);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeSort(UUID id, List<AnnotationUnitIdentifier> list) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(SORT);
+        id.write(protocol);
+        writeUnits(protocol, list);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeAnnotate(UUID id, AnnotationUnitIdentifier unitId, Communication communication)
+                    throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(ANNOTATE);
+        id.write(protocol);
+        unitId.write(protocol);
+        protocol.writeBool(communication != null);
+        if (communication != null) {
+            communication.write(protocol);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeClear(UUID id) throws TException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+        protocol.writeByte(VERSION);
+        protocol.writeByte(CLEAR);
+        id.write(protocol);
+        return out.toByteArray();
+    }
+
+    private interface Encoder {
+        byte[] encode() throws TException;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+
+/**
+ * Settings shared by the log backed results and session stores
+ */
+class LogSettings {
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long DEFAULT_SNAPSHOT_RECORDS = 100000;
+
+    final File directory;
+    final long segmentSize;
+    final long snapshotInterval;
+    final long snapshotRecords;
+    final boolean sync;
+
+    /**
+     * @param config  application config
+     */
+    LogSettings(Config config) {
+        String dirPath = CadetConfig.RESULTS_BASE + "." + CadetConfig.RESULTS_LOG_DIR;
+        if (!config.hasPath(dirPath)) {
+            throw new RuntimeException("Directory is not set in config: " + dirPath);
+        }
+        Config results = config.getConfig(CadetConfig.RESULTS_BASE);
+        directory = new File(results.getString(CadetConfig.RESULTS_LOG_DIR));
+        segmentSize = results.hasPath(CadetConfig.RESULTS_LOG_SEGMENT_SIZE)
+                        ? results.getBytes(CadetConfig.RESULTS_LOG_SEGMENT_SIZE) : DEFAULT_SEGMENT_SIZE;
+        snapshotInterval = results.hasPath(CadetConfig.RESULTS_LOG_SNAPSHOT_INTERVAL)
+                        ? results.getDuration(CadetConfig.RESULTS_LOG_SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS)
+                        : DEFAULT_SNAPSHOT_INTERVAL;
+        snapshotRecords = results.hasPath(CadetConfig.RESULTS_LOG_SNAPSHOT_RECORDS)
+                        ? results.getLong(CadetConfig.RESULTS_LOG_SNAPSHOT_RECORDS) : DEFAULT_SNAPSHOT_RECORDS;
+        sync = results.hasPath(CadetConfig.RESULTS_LOG_SYNC) && results.getBoolean(CadetConfig.RESULTS_LOG_SYNC);
+    }
+
+    /**
+     * Settings for a component that is only handed the cadet.results block
+     *
+     * @param results  config rooted at cadet.results
+     */
+    static LogSettings fromResults(Config results) {
+        return new LogSettings(results.atPath(CadetConfig.RESULTS_BASE));
+    }
+
+    /**
+     * Open the log for one store
+     *
+     * @param name  sub-directory of the log directory
+     */
+    SegmentLog open(String name) throws IOException {
+        return new SegmentLog(new File(directory, name), segmentSize, sync);
+    }
+}
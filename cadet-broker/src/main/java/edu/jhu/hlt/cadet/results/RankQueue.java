@@ -0,0 +1,266 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+/**
+ * Annotation units in sort order with the subset that is available to hand out.
+ *
+ * Every unit keeps its rank in the sort so a unit that is made available again goes
+ * back to its original place. Taking the next n units is O(n) plus a scan of the bit
+ * set over the ranks that are not available, which starts at the lowest available rank
+ * and covers 64 ranks per word. A unit that appears more than once in the first sort
+ * is kept at its first rank. Not thread safe except for prepareOrder().
+ */
+class RankQueue {
+    // each unit has a fixed id (its position in the first sort) and the map is never changed
+    private final AnnotationUnitIdentifier[] units;
+    private final Map<AnnotationUnitIdentifier, Integer> ids;
+    private int[] idAtRank;
+    private int[] rankOfId;
+    private BitSet available;
+    // no rank below this one is available
+    private int first = 0;
+
+    /**
+     * @param ordered  annotation units in sort order (all are available, repeats are dropped)
+     */
+    RankQueue(List<AnnotationUnitIdentifier> ordered) {
+        ids = new HashMap<>(ordered.size() * 2);
+        List<AnnotationUnitIdentifier> distinct = new ArrayList<>(ordered.size());
+        for (AnnotationUnitIdentifier unit : ordered) {
+            if (ids.putIfAbsent(unit, distinct.size()) == null) {
+                distinct.add(unit);
+            }
+        }
+        units = distinct.toArray(new AnnotationUnitIdentifier[distinct.size()]);
+        idAtRank = new int[units.length];
+        rankOfId = new int[units.length];
+        for (int id = 0; id < units.length; id++) {
+            idAtRank[id] = id;
+            rankOfId[id] = id;
+        }
+        available = new BitSet(units.length);
+        available.set(0, units.length);
+    }
+
+    /**
+     * Get the number of distinct units in the sort
+     */
+    int size() {
+        return units.length;
+    }
+
+    /**
+     * Remove and return the first available units
+     *
+     * @param n  maximum number of units
+     */
+    List<AnnotationUnitIdentifier> poll(int n) {
+        List<AnnotationUnitIdentifier> chunk = new ArrayList<>(Math.min(n, units.length));
+        int rank = available.nextSetBit(first);
+        while (rank >= 0 && chunk.size() < n) {
+            chunk.add(units[idAtRank[rank]]);
+            available.clear(rank);
+            rank = available.nextSetBit(rank + 1);
+        }
+        first = rank < 0 ? units.length : rank;
+        return chunk;
+    }
+
+    /**
+     * Make a unit available again at its rank
+     *
+     * @return false if the unit is not in the sort
+     */
+    boolean add(AnnotationUnitIdentifier unit) {
+        Integer id = ids.get(unit);
+        if (id == null) {
+            return false;
+        }
+        int rank = rankOfId[id];
+        available.set(rank);
+        first = Math.min(first, rank);
+        return true;
+    }
+
+    /**
+     * Make a set of units available again
+     */
+    void addAll(Collection<AnnotationUnitIdentifier> units) {
+        for (AnnotationUnitIdentifier unit : units) {
+            add(unit);
+        }
+    }
+
+    /**
+     * Stop a unit from being handed out
+     */
+    void remove(AnnotationUnitIdentifier unit) {
+        Integer id = ids.get(unit);
+        if (id != null) {
+            available.clear(rankOfId[id]);
+        }
+    }
+
+    boolean isAvailable(AnnotationUnitIdentifier unit) {
+        Integer id = ids.get(unit);
+        return id != null && available.get(rankOfId[id]);
+    }
+
+    /**
+     * Build a full sort without changing the queue
+     *
+     * Only reads state that never changes, so it can run without the lock that guards
+     * the queue. The result is applied with reorder().
+     *
+     * @param ordered  every annotation unit of this sort in the new order
+     * @return null if the list is not the units of this sort
+     */
+    Order prepareOrder(List<AnnotationUnitIdentifier> ordered) {
+        int n = units.length;
+        if (ordered.size() != n) {
+            return null;
+        }
+        Order order = new Order(n);
+        BitSet seen = new BitSet(n);
+        int rank = 0;
+        for (AnnotationUnitIdentifier unit : ordered) {
+            Integer id = ids.get(unit);
+            if (id == null || seen.get(id)) {
+                return null;
+            }
+            seen.set(id);
+            order.idAtRank[rank] = id;
+            order.rankOfId[id] = rank;
+            rank++;
+        }
+        return order;
+    }
+
+    /**
+     * Replace the sort with one built by prepareOrder() while keeping the same units available
+     *
+     * Takes time linear in the number of available units and does not allocate.
+     */
+    void reorder(Order order) {
+        BitSet next = order.available;
+        for (int rank = available.nextSetBit(0); rank >= 0; rank = available.nextSetBit(rank + 1)) {
+            next.set(order.rankOfId[idAtRank[rank]]);
+        }
+        idAtRank = order.idAtRank;
+        rankOfId = order.rankOfId;
+        available = next;
+        first = 0;
+    }
+
+    /**
+     * Move units to the top of the sort
+     *
+     * The units in the list take ranks 0 to k-1 in the order given and the other units
+     * keep their relative order after them, so a list with every unit is a full sort.
+     * A shorter list only touches ranks up to the largest old rank of a moved unit and
+     * is not copied.
+     *
+     * @param top  distinct annotation units from this sort
+     * @return false if the list has unknown or repeated units (the sort is unchanged)
+     */
+    boolean moveToTop(List<AnnotationUnitIdentifier> top) {
+        int k = top.size();
+        if (k == 0 || k > units.length) {
+            return false;
+        }
+        if (k == units.length) {
+            Order order = prepareOrder(top);
+            if (order == null) {
+                return false;
+            }
+            reorder(order);
+            return true;
+        }
+
+        int[] topIds = new int[k];
+        int[] oldRanks = new int[k];
+        for (int i = 0; i < k; i++) {
+            Integer id = ids.get(top.get(i));
+            if (id == null) {
+                return false;
+            }
+            topIds[i] = id;
+            oldRanks[i] = rankOfId[id];
+        }
+        boolean[] wasAvailable = new boolean[k];
+        for (int i = 0; i < k; i++) {
+            wasAvailable[i] = available.get(oldRanks[i]);
+        }
+        Arrays.sort(oldRanks);
+        for (int i = 1; i < k; i++) {
+            if (oldRanks[i] == oldRanks[i - 1]) {
+                return false;
+            }
+        }
+
+        // shift the units that did not move to higher ranks, walking from the largest
+        // moved rank toward the top so that nothing is overwritten before it is read
+        int write = oldRanks[k - 1];
+        int moved = k - 1;
+        for (int read = oldRanks[k - 1]; read >= 0; read--) {
+            if (moved >= 0 && oldRanks[moved] == read) {
+                moved--;
+                continue;
+            }
+            if (write != read) {
+                idAtRank[write] = idAtRank[read];
+                available.set(write, available.get(read));
+                rankOfId[idAtRank[write]] = write;
+            }
+            write--;
+        }
+
+        for (int i = 0; i < k; i++) {
+            idAtRank[i] = topIds[i];
+            available.set(i, wasAvailable[i]);
+            rankOfId[topIds[i]] = i;
+        }
+        first = 0;
+        return true;
+    }
+
+    /**
+     * Get a copy of the units in sort order
+     */
+    List<AnnotationUnitIdentifier> toList() {
+        List<AnnotationUnitIdentifier> list = new ArrayList<>(units.length);
+        for (int id : idAtRank) {
+            list.add(units[id]);
+        }
+        return list;
+    }
+
+    /**
+     * A full sort built outside the queue's lock
+     */
+    static class Order {
+        private final int[] idAtRank;
+        private final int[] rankOfId;
+        private final BitSet available;
+
+        private Order(int size) {
+            idAtRank = new int[size];
+            rankOfId = new int[size];
+            available = new BitSet(size);
+        }
+    }
+}
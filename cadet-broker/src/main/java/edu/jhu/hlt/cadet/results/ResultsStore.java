@@ -6,9 +6,9 @@
 package edu.jhu.hlt.cadet.results;
 
 import java.time.Instant;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.jhu.hlt.concrete.UUID;
 import edu.jhu.hlt.concrete.search.SearchResult;
@@ -69,7 +69,8 @@ public interface ResultsStore {
 
         public Item(SearchResult results, AnnotationTaskType taskType) {
             this.results = results;
-            this.tasks = new HashSet<AnnotationTaskType>();
+            // safe to copy while another thread adds a task
+            this.tasks = ConcurrentHashMap.newKeySet();
             this.tasks.add(taskType);
             this.timestamp = Instant.now();
             this.userId = results.getSearchQuery().getUserId();
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of records split into numbered segment files with periodic snapshots.
+ *
+ * A snapshot numbered N holds the full state as of when segment N was started so
+ * only the snapshot and the segments from N onward are read on startup. Older segments
+ * are deleted once the snapshot is in place.
+ *
+ * Every record is framed with its length and a CRC32. A record torn by a crash can only
+ * be at the end of the last segment, so replay cuts that segment back to its last whole
+ * record. A bad record anywhere else fails the replay rather than leaving the state
+ * without it.
+ */
+public class SegmentLog implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(SegmentLog.class);
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.snap");
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+    private final long segmentSize;
+    private final boolean sync;
+
+    private final Object writeLock = new Object();
+    private long segment = -1;
+    private FileChannel channel;
+
+    /**
+     * Create a log in a directory
+     *
+     * @param directory  directory for the segments and snapshots (created if needed)
+     * @param segmentSize  size in bytes at which a new segment is started
+     * @param sync  force every record to the disk before returning from append
+     */
+    public SegmentLog(File directory, long segmentSize, boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        Files.createDirectories(directory.toPath());
+    }
+
+    /**
+     * Read the latest snapshot and the segments written after it
+     *
+     * Must be called once before any records are appended.
+     *
+     * @param handler  called for every record in order
+     * @return number of records read
+     */
+    public long replay(RecordHandler handler) throws IOException {
+        long snapshot = latest(SNAPSHOT);
+        long count = 0;
+        if (snapshot >= 0) {
+            count += read(snapshotFile(snapshot), handler, false);
+        }
+        List<Long> segments = list(SEGMENT);
+        long last = segments.isEmpty() ? -1 : segments.get(segments.size() - 1);
+        for (long index : segments) {
+            if (index >= snapshot) {
+                count += read(segmentFile(index), handler, index == last);
+            }
+        }
+
+        synchronized(writeLock) {
+            // never append to a segment that may end with a torn record
+            roll(Math.max(last, snapshot) + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Append a record to the current segment
+     *
+     * @param record  serialized record
+     */
+    public void append(byte[] record) throws IOException {
+        append(record, sync);
+    }
+
+    /**
+     * Append a record to the current segment
+     *
+     * @param record  serialized record
+     * @param force  write the record to the device before returning even if the log does not sync
+     */
+    public void append(byte[] record, boolean force) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + record.length);
+        buffer.putInt(record.length);
+        buffer.putInt(checksum(record));
+        buffer.put(record);
+        buffer.flip();
+        synchronized(writeLock) {
+            if (channel == null) {
+                throw new IOException("Log in " + directory + " is not open");
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            if (channel.position() >= segmentSize) {
+                roll(segment + 1);
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot and drop the segments that it replaces
+     *
+     * A new segment is started first so that records appended while the snapshot is
+     * being written are kept. Those records may also be in the snapshot so applying
+     * a record twice must have no further effect.
+     *
+     * @param writer  writes the full state as records
+     */
+    public void snapshot(SnapshotWriter writer) throws IOException {
+        long index;
+        synchronized(writeLock) {
+            index = segment + 1;
+            roll(index);
+        }
+
+        File tmp = new File(directory, "snapshot-" + index + ".tmp");
+        long count;
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            Sink sink = new Sink(out);
+            writer.write(sink);
+            out.flush();
+            fos.getChannel().force(false);
+            count = sink.count;
+        }
+        Files.move(tmp.toPath(), snapshotFile(index).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (long old : list(SNAPSHOT)) {
+            if (old < index) {
+                Files.deleteIfExists(snapshotFile(old).toPath());
+            }
+        }
+        for (long old : list(SEGMENT)) {
+            if (old < index) {
+                Files.deleteIfExists(segmentFile(old).toPath());
+            }
+        }
+        logger.info("Wrote snapshot " + index + " with " + count + " records in " + directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized(writeLock) {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private void roll(long index) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+        segment = index;
+        channel = FileChannel.open(segmentFile(index).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private long read(File file, RecordHandler handler, boolean allowTornTail) throws IOException {
+        long count = 0;
+        // end of the last whole record
+        long position = 0;
+        boolean torn = false;
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16);
+                        DataInputStream in = new DataInputStream(is)) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] record;
+                try {
+                    int crc = in.readInt();
+                    if (length < 0) {
+                        throw new IOException("Invalid record length " + length);
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    if (crc != checksum(record)) {
+                        throw new IOException("Checksum mismatch");
+                    }
+                } catch (IOException e) {
+                    if (!allowTornTail) {
+                        throw new IOException("Corrupt record " + count + " in " + file, e);
+                    }
+                    logger.warn("Stopped reading " + file + " after " + count + " records", e);
+                    torn = true;
+                    break;
+                }
+                handler.handle(record);
+                count++;
+                position += HEADER_SIZE + length;
+            }
+        }
+        if (torn) {
+            // drop the torn record so the segment is whole once it is no longer the last one
+            try (FileChannel truncate = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                truncate.truncate(position);
+                truncate.force(false);
+            }
+        }
+        return count;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+
+    private long latest(Pattern pattern) {
+        List<Long> indexes = list(pattern);
+        return indexes.isEmpty() ? -1 : indexes.get(indexes.size() - 1);
+    }
+
+    private List<Long> list(Pattern pattern) {
+        List<Long> indexes = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher m = pattern.matcher(name);
+                if (m.matches()) {
+                    indexes.add(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, "segment-" + index + ".log");
+    }
+
+    private File snapshotFile(long index) {
+        return new File(directory, "snapshot-" + index + ".snap");
+    }
+
+    /**
+     * Receives the records read during replay
+     */
+    public interface RecordHandler {
+        void handle(byte[] record) throws IOException;
+    }
+
+    /**
+     * Writes the full state of a store into a snapshot
+     */
+    public interface SnapshotWriter {
+        void write(Sink sink) throws IOException;
+    }
+
+    /**
+     * Destination for snapshot records
+     */
+    public static class Sink {
+        private final DataOutputStream out;
+        private long count = 0;
+
+        private Sink(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void add(byte[] record) throws IOException {
+            out.writeInt(record.length);
+            out.writeInt(checksum(record));
+            out.write(record);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the snapshots of one log backed store.
+ *
+ * A snapshot is taken every log.snapshot_interval and as soon as log.snapshot_records
+ * records have been appended since the last one, so startup never replays more than
+ * about that many records after the snapshot. The snapshots of all stores run on one
+ * shared thread.
+ */
+class SnapshotScheduler {
+    private static Logger logger = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+    private static ScheduledExecutorService executor;
+
+    private final Runnable snapshot;
+    private final long maxRecords;
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final ScheduledFuture<?> periodic;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param snapshot  writes the snapshot of the store
+     * @param settings  snapshot interval and record limit
+     */
+    SnapshotScheduler(Runnable snapshot, LogSettings settings) {
+        this.snapshot = snapshot;
+        this.maxRecords = settings.snapshotRecords;
+        periodic = getExecutor().scheduleWithFixedDelay(this::run, settings.snapshotInterval,
+                        settings.snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cadet-log-snapshot-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Count a record appended to the log and start a snapshot when there are too many
+     */
+    void appended() {
+        if (maxRecords > 0 && appended.incrementAndGet() >= maxRecords && queued.compareAndSet(false, true)) {
+            try {
+                getExecutor().execute(this::run);
+            } catch (RejectedExecutionException e) {
+                queued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Stop taking snapshots (one that is running is allowed to finish)
+     */
+    void cancel() {
+        cancelled = true;
+        periodic.cancel(false);
+    }
+
+    private void run() {
+        queued.set(false);
+        if (cancelled) {
+            return;
+        }
+        // records appended while the snapshot is written count toward the next one
+        appended.set(0);
+        try {
+            snapshot.run();
+        } catch (RuntimeException e) {
+            // keep the periodic snapshot scheduled
+            logger.warn("Snapshot failed", e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel that runs all of its tasks on one thread.
+ *
+ * Scheduling and cancelling are O(1) and never block. A task runs on the first tick
+ * at or after its deadline so it is late by at most one tick duration. Tasks should
+ * be short since they run on the timer thread.
+ */
+public class TimerWheel {
+    private static Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    private static TimerWheel shared;
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Timeout>[] wheel;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+
+    /**
+     * Get the timer wheel shared by the annotation sessions and the results handler
+     */
+    public static synchronized TimerWheel getShared() {
+        if (shared == null) {
+            shared = new TimerWheel("cadet-timer", 100, TimeUnit.MILLISECONDS, 512);
+        }
+        return shared;
+    }
+
+    /**
+     * Create and start a timer wheel
+     *
+     * @param name  name of the timer thread
+     * @param tickDuration  time between ticks
+     * @param unit  unit of the tick duration
+     * @param wheelSize  number of buckets (rounded up to a power of 2)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+        size = Math.max(size, 1);
+        mask = size - 1;
+        wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+
+        startTime = System.nanoTime();
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Run a task once after a delay
+     *
+     * @param task  task to run on the timer thread
+     * @param delay  time until the task runs
+     * @param unit  unit of the delay
+     * @return handle that can cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(delay, 0)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread without running the remaining tasks
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long tickEnd = startTime + (tick + 1) * tickNanos;
+            long sleepNanos = tickEnd - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            transferPending(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // the first tick that ends at or after the deadline
+            long target = (timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1;
+            target = Math.max(target, tick);
+            timeout.rounds = (target - tick) / wheel.length;
+            wheel[(int) (target & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> iter = bucket.iterator();
+        while (iter.hasNext()) {
+            Timeout timeout = iter.next();
+            if (timeout.cancelled) {
+                iter.remove();
+            } else if (timeout.rounds <= 0) {
+                iter.remove();
+                timeout.expire();
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    /**
+     * Handle for a scheduled task
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevent the task from running if it has not run yet
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Timer task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.Counter;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchCapability;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Caches the results of another search provider
+ *
+ * Configured in the block of a search provider: the delegate is named by cache.delegate
+ * and is initialized with the same config. Queries are keyed on their normalized text,
+ * terms, questions, type, corpus, language, labels, authorizations and k; the user and
+ * name of the query are ignored. Case matters unless cache.ignore_case is set, since
+ * some search services are case sensitive.
+ *
+ * Results are fresh for cache.ttl. For cache.stale after that they are still returned
+ * while a single background search refreshes them. The cache is bounded by
+ * cache.max_entries and cache.max_bytes (least recently used results are dropped).
+ * Concurrent searches for a query that is not cached share one search of the delegate.
+ *
+ * Every caller gets its own copy of the results with a new UUID and its own query so
+ * that results registration and feedback see a distinct search.
+ */
+public class CachingSearchProvider implements SearchProvider {
+    private static Logger logger = LoggerFactory.getLogger(CachingSearchProvider.class);
+
+    private static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+    private static final long DEFAULT_STALE = TimeUnit.MINUTES.toMillis(1);
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private SearchProvider delegate;
+    private long ttlNanos;
+    private long staleNanos;
+    private int maxEntries;
+    private long maxBytes;
+    private boolean ignoreCase = false;
+
+    // access ordered so iteration starts at the least recently used result
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private ExecutorService refresher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // shared by all search caches
+    private final Counter hitMetric = MetricsRegistry.getShared().counter("cadet_cache_requests_total",
+                    "Lookups in the fetch and search caches", "cache", "search", "result", "hit");
+    private final Counter staleHitMetric = MetricsRegistry.getShared().counter("cadet_cache_requests_total",
+                    "Lookups in the fetch and search caches", "cache", "search", "result", "stale");
+    private final Counter missMetric = MetricsRegistry.getShared().counter("cadet_cache_requests_total",
+                    "Lookups in the fetch and search caches", "cache", "search", "result", "miss");
+
+    @Override
+    public void init(Config config) {
+        String delegateName = config.getString(CadetConfig.SEARCH_CACHE_DELEGATE);
+        SearchProvider provider;
+        try {
+            provider = (SearchProvider) Class.forName(delegateName).getConstructor().newInstance();
+        } catch (ClassNotFoundException | IllegalAccessException | InvocationTargetException
+                        | InstantiationException | NoSuchMethodException ex) {
+            throw new RuntimeException("Cannot construct " + delegateName, ex);
+        }
+        provider.init(config);
+
+        long ttl = config.hasPath(CadetConfig.SEARCH_CACHE_TTL)
+                        ? config.getDuration(CadetConfig.SEARCH_CACHE_TTL, TimeUnit.MILLISECONDS) : DEFAULT_TTL;
+        long stale = config.hasPath(CadetConfig.SEARCH_CACHE_STALE)
+                        ? config.getDuration(CadetConfig.SEARCH_CACHE_STALE, TimeUnit.MILLISECONDS) : DEFAULT_STALE;
+        int entries = config.hasPath(CadetConfig.SEARCH_CACHE_MAX_ENTRIES)
+                        ? config.getInt(CadetConfig.SEARCH_CACHE_MAX_ENTRIES) : DEFAULT_MAX_ENTRIES;
+        long bytes = config.hasPath(CadetConfig.SEARCH_CACHE_MAX_BYTES)
+                        ? config.getBytes(CadetConfig.SEARCH_CACHE_MAX_BYTES) : DEFAULT_MAX_BYTES;
+        init(provider, ttl, stale, entries, bytes);
+        if (config.hasPath(CadetConfig.SEARCH_CACHE_IGNORE_CASE)) {
+            setIgnoreCase(config.getBoolean(CadetConfig.SEARCH_CACHE_IGNORE_CASE));
+        }
+    }
+
+    /**
+     * Share results between queries that differ only in case
+     */
+    public void setIgnoreCase(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        logger.info("CachingSearchProvider IGNORE CASE: " + ignoreCase);
+    }
+
+    /**
+     * Initialize with a delegate that has already been initialized
+     *
+     * @param delegate  search provider to cache
+     * @param ttl  time in ms that results are fresh
+     * @param stale  time in ms after the ttl that results are returned while being refreshed
+     * @param maxEntries  maximum number of cached results
+     * @param maxBytes  maximum serialized size of the cached results
+     */
+    public void init(SearchProvider delegate, long ttl, long stale, int maxEntries, long maxBytes) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(stale);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cadet-search-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("CachingSearchProvider DELEGATE: " + delegate.getClass().getName());
+        logger.info("CachingSearchProvider TTL: " + ttl + " ms STALE: " + stale + " ms MAX ENTRIES: "
+                        + maxEntries + " MAX BYTES: " + maxBytes);
+    }
+
+    @Override
+    public void close() {
+        logger.info("Search cache: hit ratio " + getHitRatio() + ", " + getCachedCount() + " results in "
+                        + getCachedBytes() + " bytes");
+        refresher.shutdownNow();
+        delegate.close();
+    }
+
+    @Override
+    public SearchResult search(SearchQuery searchQuery) throws ServicesException, TException {
+        String key = key(searchQuery, ignoreCase);
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+
+        byte[] value = null;
+        if (entry != null) {
+            long age = System.nanoTime() - entry.created;
+            if (age < ttlNanos) {
+                hits.incrementAndGet();
+                hitMetric.increment();
+                value = entry.value;
+            } else if (age < ttlNanos + staleNanos) {
+                staleHits.incrementAndGet();
+                staleHitMetric.increment();
+                value = entry.value;
+                refresh(key, searchQuery);
+            }
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+            missMetric.increment();
+            value = load(key, searchQuery);
+        }
+        return copy(value, searchQuery);
+    }
+
+    /**
+     * Search the delegate unless another search for the same query is running
+     */
+    private byte[] load(String key, SearchQuery searchQuery) throws ServicesException, TException {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        return searchDelegate(key, searchQuery, future);
+    }
+
+    private void refresh(String key, SearchQuery searchQuery) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, future) != null) {
+            return;
+        }
+        SearchQuery query = new SearchQuery(searchQuery);
+        try {
+            refresher.execute(() -> {
+                try {
+                    searchDelegate(key, query, future);
+                } catch (TException | RuntimeException e) {
+                    logger.warn("Failed to refresh cached search: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.cancel(false);
+        }
+    }
+
+    private byte[] searchDelegate(String key, SearchQuery searchQuery, CompletableFuture<byte[]> future)
+                    throws ServicesException, TException {
+        try {
+            SearchResult results = delegate.search(searchQuery);
+            byte[] value = new TSerializer(new TCompactProtocol.Factory()).serialize(results);
+            put(key, value);
+            inFlight.remove(key, future);
+            future.complete(value);
+            return value;
+        } catch (TException | RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void put(String key, byte[] value) {
+        if (value.length > maxBytes) {
+            return;
+        }
+        synchronized (cache) {
+            Entry old = cache.put(key, new Entry(value, System.nanoTime()));
+            if (old != null) {
+                cachedBytes -= old.value.length;
+            }
+            cachedBytes += value.length;
+            Iterator<Entry> it = cache.values().iterator();
+            while ((cache.size() > maxEntries || cachedBytes > maxBytes) && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                cachedBytes -= eldest.value.length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static SearchResult copy(byte[] value, SearchQuery searchQuery) throws TException {
+        SearchResult results = new SearchResult();
+        new TDeserializer(new TCompactProtocol.Factory()).deserialize(results, value);
+        results.setUuid(new UUID(java.util.UUID.randomUUID().toString()));
+        results.setSearchQuery(new SearchQuery(searchQuery));
+        return results;
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws ServicesException, TException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TException) {
+                throw (TException) e.getCause();
+            }
+            throw new ServicesException("Search failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicesException("Interrupted while waiting for search");
+        }
+    }
+
+    /**
+     * Build the cache key of a query
+     *
+     * Text is trimmed and has its white space collapsed. Terms and labels are sorted
+     * as their order does not change the results.
+     *
+     * @param ignoreCase  lower case the text as well
+     */
+    static String key(SearchQuery query, boolean ignoreCase) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(query.isSetType() ? query.getType().name() : "").append('\u0001');
+        sb.append(normalize(query.getRawQuery(), ignoreCase)).append('\u0001');
+        appendList(sb, query.getTerms(), true, ignoreCase);
+        appendList(sb, query.getQuestions(), false, ignoreCase);
+        appendList(sb, query.getLabels(), true, ignoreCase);
+        sb.append(query.isSetCorpus() ? query.getCorpus() : "").append('\u0001');
+        sb.append(query.isSetLang() ? query.getLang() : "").append('\u0001');
+        sb.append(query.isSetK() ? query.getK() : "").append('\u0001');
+        sb.append(query.isSetCommunicationId() ? query.getCommunicationId() : "").append('\u0001');
+        sb.append(query.isSetAuths() ? query.getAuths() : "");
+        return sb.toString();
+    }
+
+    private static void appendList(StringBuilder sb, List<String> values, boolean sort, boolean ignoreCase) {
+        if (values != null) {
+            List<String> normalized = new ArrayList<>(values.size());
+            for (String value : values) {
+                normalized.add(normalize(value, ignoreCase));
+            }
+            if (sort) {
+                normalized.sort(null);
+            }
+            for (String value : normalized) {
+                sb.append(value).append('\u0002');
+            }
+        }
+        sb.append('\u0001');
+    }
+
+    private static String normalize(String text, boolean ignoreCase) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = text.trim().replaceAll("\\s+", " ");
+        return ignoreCase ? normalized.toLowerCase(Locale.ROOT) : normalized;
+    }
+
+    /**
+     * Drop all cached results
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     * Get the fraction of searches that were answered from the cache (fresh or stale)
+     */
+    public double getHitRatio() {
+        long h = hits.get() + staleHits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getCachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return delegate.alive();
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return delegate.about();
+    }
+
+    @Override
+    public List<SearchCapability> getCapabilities() throws ServicesException, TException {
+        return delegate.getCapabilities();
+    }
+
+    @Override
+    public List<String> getCorpora() throws ServicesException, TException {
+        return delegate.getCorpora();
+    }
+
+    private static class Entry {
+        final byte[] value;
+        final long created;
+
+        Entry(byte[] value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchCapability;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Sends a query to several search providers in parallel and merges their results
+ *
+ * Every provider gets the same deadline (cadet.search.federated.deadline) so a search
+ * takes as long as the slowest provider that answers in time. Providers that fail or
+ * miss the deadline are left out of the results unless none answered, in which case
+ * the error is thrown.
+ *
+ * Scores are min-max normalized per provider (providers without scores are scored by
+ * rank) and items that several providers return for the same communication and
+ * sentence are merged by adding their normalized scores. The merged list is cut to the
+ * query's k when it is set.
+ *
+ * Each provider is called on its own pool of concurrency threads
+ * (cadet.search.federated.concurrency, the number of searches expected at once) with
+ * no queue. A call to a provider that already has that many searches running is
+ * left out straight away, so a hung provider, whose socket reads cannot be
+ * interrupted, only ties up its own threads and never delays the other providers.
+ */
+public class FederatedSearchProvider implements SearchProvider {
+    private static Logger logger = LoggerFactory.getLogger(FederatedSearchProvider.class);
+
+    private static final long DEFAULT_DEADLINE = 5000;
+    private static final int DEFAULT_CONCURRENCY = 8;
+
+    private final Map<String, SearchProvider> providers = new LinkedHashMap<>();
+    private long deadline = DEFAULT_DEADLINE;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private final Map<String, ThreadPoolExecutor> executors = new LinkedHashMap<>();
+    private final AtomicLong numPartialResults = new AtomicLong();
+
+    /**
+     * @param config  config rooted at cadet.search.federated
+     */
+    @Override
+    public void init(Config config) {
+        if (config.hasPath(CadetConfig.SEARCH_FEDERATED_DEADLINE)) {
+            deadline = config.getDuration(CadetConfig.SEARCH_FEDERATED_DEADLINE, TimeUnit.MILLISECONDS);
+        }
+        if (config.hasPath(CadetConfig.SEARCH_FEDERATED_CONCURRENCY)) {
+            concurrency = config.getInt(CadetConfig.SEARCH_FEDERATED_CONCURRENCY);
+        }
+        logger.info("FederatedSearchProvider DEADLINE: " + deadline + " ms");
+        logger.info("FederatedSearchProvider CONCURRENCY: " + concurrency);
+    }
+
+    /**
+     * Add a provider to search
+     *
+     * The provider is owned by the caller and is not closed with this provider.
+     */
+    public void addProvider(String name, SearchProvider provider) {
+        providers.put(name, provider);
+        AtomicInteger threadCount = new AtomicInteger();
+        // without a queue a call is rejected when all of the provider's threads are busy
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), r -> {
+                            Thread thread = new Thread(r,
+                                            "cadet-federated-" + name + "-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor previous = executors.put(name, executor);
+        if (previous != null) {
+            previous.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the number of searches that returned without the results of some providers
+     */
+    public long getPartialResultCount() {
+        return numPartialResults.get();
+    }
+
+    @Override
+    public SearchResult search(SearchQuery searchQuery) throws ServicesException, TException {
+        Map<String, Future<SearchResult>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, SearchProvider> entry : providers.entrySet()) {
+            SearchProvider provider = entry.getValue();
+            SearchQuery query = new SearchQuery(searchQuery);
+            try {
+                futures.put(entry.getKey(), executors.get(entry.getKey()).submit(() -> provider.search(query)));
+            } catch (RejectedExecutionException e) {
+                CompletableFuture<SearchResult> busy = new CompletableFuture<>();
+                busy.completeExceptionally(new ServicesException(
+                                concurrency + " searches are already running"));
+                futures.put(entry.getKey(), busy);
+            }
+        }
+
+        Map<String, SearchResult> answered = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        Exception failure = null;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+        for (Map.Entry<String, Future<SearchResult>> entry : futures.entrySet()) {
+            try {
+                long remaining = Math.max(end - System.nanoTime(), 0);
+                answered.put(entry.getKey(), entry.getValue().get(remaining, TimeUnit.NANOSECONDS));
+                continue;
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (TimeoutException e) {
+                // frees the thread if the call can be interrupted or has not started
+                entry.getValue().cancel(true);
+                failure = new ServicesException("Search timed out after " + deadline + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(f -> f.cancel(true));
+                throw new ServicesException("Interrupted while searching");
+            }
+            missing.add(entry.getKey());
+            logger.warn("Federated search: no results from " + entry.getKey() + ": " + failure.getMessage());
+        }
+
+        if (answered.isEmpty()) {
+            if (failure instanceof TException) {
+                throw (TException) failure;
+            }
+            throw new ServicesException("Search failed: "
+                            + (failure == null ? "no search providers" : failure.getMessage()));
+        }
+        if (!missing.isEmpty()) {
+            numPartialResults.incrementAndGet();
+            logger.warn("Returning partial search results without " + String.join(", ", missing));
+        }
+        return merge(searchQuery, answered.values());
+    }
+
+    /**
+     * Merge the results of several providers into a single ranked list
+     */
+    static SearchResult merge(SearchQuery query, Iterable<SearchResult> results) {
+        Map<String, SearchResultItem> merged = new LinkedHashMap<>();
+        String lang = null;
+        for (SearchResult result : results) {
+            if (lang == null && result.isSetLang()) {
+                lang = result.getLang();
+            }
+            List<SearchResultItem> items = result.getSearchResultItems();
+            if (items == null || items.isEmpty()) {
+                continue;
+            }
+            double[] scores = normalize(items);
+            for (int i = 0; i < items.size(); i++) {
+                SearchResultItem item = items.get(i);
+                String key = item.getCommunicationId() + "\t"
+                                + (item.isSetSentenceId() ? item.getSentenceId().getUuidString() : "");
+                SearchResultItem existing = merged.get(key);
+                if (existing == null) {
+                    SearchResultItem copy = new SearchResultItem(item);
+                    copy.setScore(scores[i]);
+                    merged.put(key, copy);
+                } else {
+                    existing.setScore(existing.getScore() + scores[i]);
+                }
+            }
+        }
+
+        // stable so ties keep the provider order
+        List<SearchResultItem> items = new ArrayList<>(merged.values());
+        items.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        if (query.isSetK() && query.getK() > 0 && items.size() > query.getK()) {
+            items = new ArrayList<>(items.subList(0, query.getK()));
+        }
+
+        SearchResult result = new SearchResult(new UUID(java.util.UUID.randomUUID().toString()), query);
+        result.setSearchResultItems(items);
+        if (lang != null) {
+            result.setLang(lang);
+        }
+        return result;
+    }
+
+    /**
+     * Scale the scores of one provider to [0, 1]
+     */
+    private static double[] normalize(List<SearchResultItem> items) {
+        double[] scores = new double[items.size()];
+        boolean scored = true;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (SearchResultItem item : items) {
+            if (!item.isSetScore()) {
+                scored = false;
+                break;
+            }
+            min = Math.min(min, item.getScore());
+            max = Math.max(max, item.getScore());
+        }
+        for (int i = 0; i < scores.length; i++) {
+            if (!scored) {
+                // the results are in rank order
+                scores[i] = 1.0 - (double) i / scores.length;
+            } else if (max > min) {
+                scores[i] = (items.get(i).getScore() - min) / (max - min);
+            } else {
+                scores[i] = 1.0;
+            }
+        }
+        return scores;
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        for (SearchProvider provider : providers.values()) {
+            try {
+                if (provider.alive()) {
+                    return true;
+                }
+            } catch (TException e) {
+                // try the next one
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo("FederatedSearchProvider over " + String.join(", ", providers.keySet()), "1.0.0");
+    }
+
+    @Override
+    public List<SearchCapability> getCapabilities() throws ServicesException, TException {
+        Set<SearchCapability> capabilities = new LinkedHashSet<>();
+        for (SearchProvider provider : providers.values()) {
+            capabilities.addAll(provider.getCapabilities());
+        }
+        return new ArrayList<>(capabilities);
+    }
+
+    @Override
+    public List<String> getCorpora() throws ServicesException, TException {
+        Set<String> corpora = new LinkedHashSet<>();
+        for (SearchProvider provider : providers.values()) {
+            corpora.addAll(provider.getCorpora());
+        }
+        return new ArrayList<>(corpora);
+    }
+}
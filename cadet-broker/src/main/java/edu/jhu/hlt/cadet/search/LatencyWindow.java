@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the most recent requests for estimating percentiles
+ *
+ * The window does not care about the unit. Recording in nanoseconds keeps fast
+ * requests from rounding down to 0.
+ */
+class LatencyWindow {
+    private final long[] samples;
+    private int count;
+    private int next;
+    // total number of latencies recorded
+    private long recorded;
+    // last percentile computed by getCachedPercentile
+    private double cachedPercentile = Double.NaN;
+    private long cachedValue;
+    private long cachedAt;
+
+    /**
+     * @param size  number of recent requests to keep
+     */
+    LatencyWindow(int size) {
+        samples = new long[size];
+    }
+
+    synchronized void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        recorded++;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param percentile  value between 0 and 100
+     * @return latency at the percentile or -1 if nothing has been recorded
+     */
+    long getPercentile(double percentile) {
+        return computePercentile(percentile)[0];
+    }
+
+    /**
+     * Get a percentile that is only recomputed once interval more latencies are recorded
+     *
+     * @param percentile  value between 0 and 100
+     * @param interval  number of new latencies before the percentile is sorted out again
+     * @param min  smallest value to return when something has been recorded
+     * @return latency at the percentile (at least min) or -1 if nothing has been recorded
+     */
+    long getCachedPercentile(double percentile, int interval, long min) {
+        synchronized (this) {
+            if (percentile == cachedPercentile && recorded - cachedAt < interval) {
+                return cachedValue;
+            }
+        }
+        long[] computed = computePercentile(percentile);
+        long value = computed[0] < 0 ? -1 : Math.max(computed[0], min);
+        synchronized (this) {
+            cachedPercentile = percentile;
+            cachedValue = value;
+            cachedAt = computed[1];
+        }
+        return value;
+    }
+
+    /**
+     * @return latency at the percentile (or -1) and the number recorded when it was taken
+     */
+    private long[] computePercentile(double percentile) {
+        long at;
+        long[] sorted;
+        synchronized (this) {
+            at = recorded;
+            if (count == 0) {
+                return new long[] {-1, at};
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return new long[] {sorted[Math.max(0, Math.min(index, sorted.length - 1))], at};
+    }
+}
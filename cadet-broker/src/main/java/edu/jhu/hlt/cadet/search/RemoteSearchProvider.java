@@ -5,7 +5,20 @@
  */
 package edu.jhu.hlt.cadet.search;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,8 +27,10 @@ import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
 
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.pool.CircuitBreaker;
 import edu.jhu.hlt.cadet.pool.ClientPool;
 import edu.jhu.hlt.cadet.pool.PoolConfig;
 import edu.jhu.hlt.cadet.pool.ServiceConfig;
@@ -28,48 +43,293 @@ import edu.jhu.hlt.concrete.services.ServicesException;
 
 /**
  * Submits queries against a remote service that implements the Search thrift service
+ *
+ * The service can have several replicas ("host:port" entries in replicas) that are used
+ * in turn. A deadline bounds the time spent on a search (and each socket read). With
+ * hedging on, a search that has not answered within the hedge delay (fixed or the
+ * hedge.percentile of recent latencies) is also sent to the next replica and the
+ * first answer wins. Replicas whose circuit breaker is open are skipped.
  */
 public class RemoteSearchProvider implements SearchProvider {
     private static Logger logger = LoggerFactory.getLogger(RemoteSearchProvider.class);
 
-    private ClientPool<SearchService.Client> clientPool;
+    private static final int LATENCY_WINDOW = 256;
+    // searches needed before the hedge delay is estimated from their latencies
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    // searches between recomputing the hedge delay from the latencies
+    private static final int HEDGE_DELAY_REFRESH = 16;
+    // shortest hedge delay taken from the latencies so a very fast replica is not always hedged
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final List<ClientPool<SearchService.Client>> clientPools = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    // clients in the pools of all the replicas
+    private int numClients = 0;
+    private long deadline = 0;
+    // settings of the circuit breakers of the replicas
+    private Config breakerConfig = ConfigFactory.empty();
+
+    private boolean hedge = false;
+    private long hedgeDelay = -1;
+    private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+    private ExecutorService hedgeExecutor;
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+    private final AtomicLong numHedges = new AtomicLong();
+    private final AtomicLong numHedgeWins = new AtomicLong();
 
     @Override
     public void init(Config config) {
         logger.info("Using custom SearchProvider settings");
-        init(config.getString(CadetConfig.SEARCH_HOST_CUSTOM),
-             config.getInt(CadetConfig.SEARCH_PORT_CUSTOM));
+        breakerConfig = config;
+        List<ServiceConfig> replicas = new ArrayList<>();
+        replicas.add(new ServiceConfig(config.getString(CadetConfig.SEARCH_HOST_CUSTOM),
+                        config.getInt(CadetConfig.SEARCH_PORT_CUSTOM)));
+        if (config.hasPath(CadetConfig.SEARCH_REPLICAS_CUSTOM)) {
+            for (String replica : config.getStringList(CadetConfig.SEARCH_REPLICAS_CUSTOM)) {
+                int colon = replica.lastIndexOf(':');
+                if (colon < 1) {
+                    throw new RuntimeException("Search replica must be host:port: " + replica);
+                }
+                replicas.add(new ServiceConfig(replica.substring(0, colon),
+                                Integer.parseInt(replica.substring(colon + 1))));
+            }
+        }
+        long timeout = 0;
+        if (config.hasPath(CadetConfig.SEARCH_DEADLINE_CUSTOM)) {
+            timeout = config.getDuration(CadetConfig.SEARCH_DEADLINE_CUSTOM, TimeUnit.MILLISECONDS);
+        }
+        init(replicas, PoolConfig.fromConfig(config), timeout);
+
+        if (config.hasPath(CadetConfig.SEARCH_HEDGE_CUSTOM) && config.getBoolean(CadetConfig.SEARCH_HEDGE_CUSTOM)) {
+            long delay = -1;
+            if (config.hasPath(CadetConfig.SEARCH_HEDGE_DELAY_CUSTOM)) {
+                delay = config.getDuration(CadetConfig.SEARCH_HEDGE_DELAY_CUSTOM, TimeUnit.MILLISECONDS);
+            }
+            double percentile = DEFAULT_HEDGE_PERCENTILE;
+            if (config.hasPath(CadetConfig.SEARCH_HEDGE_PERCENTILE_CUSTOM)) {
+                percentile = config.getDouble(CadetConfig.SEARCH_HEDGE_PERCENTILE_CUSTOM);
+            }
+            enableHedging(delay, percentile);
+        }
     }
 
     public void init(String h, int p) {
-        logger.info("SearchHandler HOST: " + h);
-        logger.info("SearcheHandler PORT: " + p);
-
         // default to 10 clients and wait up to 1 second
-        PoolConfig pc = new PoolConfig(10, 1000L);
-        ServiceConfig sc = new ServiceConfig(h, p);
-        clientPool = new ClientPool<SearchService.Client>(pc, sc,
-                        transport -> new SearchService.Client(new TCompactProtocol(transport)));
+        init(h, p, new PoolConfig(10, 1000L));
+    }
+
+    public void init(String h, int p, PoolConfig pc) {
+        init(Collections.singletonList(new ServiceConfig(h, p)), pc, 0);
+    }
+
+    /**
+     * @param replicas  servers of the search service
+     * @param pc  pool settings for each replica
+     * @param deadline  time in ms to wait for a search (0 to wait forever)
+     */
+    public void init(List<ServiceConfig> replicas, PoolConfig pc, long deadline) {
+        this.deadline = deadline;
+        for (ServiceConfig replica : replicas) {
+            logger.info("SearchHandler HOST: " + replica.getHost());
+            logger.info("SearcheHandler PORT: " + replica.getPort());
+
+            ServiceConfig sc = new ServiceConfig(replica.getHost(), replica.getPort(), (int) deadline);
+            String name = "search " + replica.getHost() + ":" + replica.getPort();
+            CircuitBreaker breaker = CircuitBreaker.fromConfig(name, breakerConfig);
+            ClientPool<SearchService.Client> clientPool = new ClientPool<SearchService.Client>(name, pc, sc,
+                            transport -> new SearchService.Client(new TCompactProtocol(transport)),
+                            SearchService.Client::alive, breaker);
+            clientPool.start();
+            clientPools.add(clientPool);
+            numClients += pc.getSize();
+        }
+        if (deadline > 0) {
+            logger.info("SearchHandler DEADLINE: " + deadline + " ms");
+        }
+    }
+
+    /**
+     * Send slow searches to a second replica
+     *
+     * Hedging stays off when there is only one replica since the hedge would go to the same server.
+     * A hedged search runs on one of as many threads as the replicas have clients, so calls
+     * that hang without a deadline cannot pile up threads. A search that finds no free thread
+     * fails like one that finds no free client.
+     *
+     * @param delay  time in ms before hedging (negative to use the percentile of recent latencies)
+     * @param percentile  percentile of recent latencies to use as the delay
+     */
+    public void enableHedging(long delay, double percentile) {
+        if (clientPools.size() < 2) {
+            logger.warn("Search hedging needs at least two replicas, leaving it off");
+            return;
+        }
+        hedge = true;
+        hedgeDelay = delay;
+        hedgePercentile = percentile;
+        AtomicInteger threadCount = new AtomicInteger();
+        // a thread beyond the number of clients would only wait for a client
+        hedgeExecutor = new ThreadPoolExecutor(0, numClients, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "cadet-search-hedge-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (deadline <= 0) {
+            logger.warn("Search hedging without a deadline: hung searches keep their threads");
+        }
+        logger.info("SearchHandler HEDGE: " + (delay >= 0 ? delay + " ms" : "p" + percentile));
     }
 
     @Override
     public void close() {
-        clientPool.close();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+        for (ClientPool<SearchService.Client> clientPool : clientPools) {
+            clientPool.close();
+        }
     }
 
     @Override
     public SearchResult search(SearchQuery searchQuery) throws ServicesException, TException {
+        long delay = getHedgeDelay();
+        if (delay < 0) {
+            return search(pickReplica(), searchQuery);
+        }
+        return hedgedSearch(searchQuery, delay);
+    }
+
+    /**
+     * Get the number of searches that were sent to a second replica
+     */
+    public long getHedgeCount() {
+        return numHedges.get();
+    }
+
+    /**
+     * Get the number of hedged searches answered by the second replica first
+     */
+    public long getHedgeWinCount() {
+        return numHedgeWins.get();
+    }
+
+    /**
+     * Get the latency in ms of recent searches at a percentile (-1 if none)
+     */
+    public long getLatencyPercentile(double percentile) {
+        long latency = latencies.getPercentile(percentile);
+        return latency < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(latency);
+    }
+
+    /**
+     * @return delay in ns before hedging or -1 to not hedge
+     */
+    private long getHedgeDelay() {
+        if (!hedge) {
+            return -1;
+        }
+        if (hedgeDelay >= 0) {
+            return TimeUnit.MILLISECONDS.toNanos(hedgeDelay);
+        }
+        if (latencies.size() < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        return latencies.getCachedPercentile(hedgePercentile, HEDGE_DELAY_REFRESH, MIN_HEDGE_DELAY_NANOS);
+    }
+
+    private SearchResult hedgedSearch(SearchQuery searchQuery, long delay) throws ServicesException, TException {
+        long start = System.nanoTime();
+        int first = pickReplica();
+        CompletableFuture<SearchResult> primary = searchAsync(first, searchQuery);
+        try {
+            return primary.get(delay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // slow or failed fast: try the next replica as well
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicesException("Interrupted while searching");
+        }
+
+        numHedges.incrementAndGet();
+        CompletableFuture<SearchResult> backup = searchAsync((first + 1) % clientPools.size(), searchQuery);
+        CompletableFuture<SearchResult> winner = firstSuccess(primary, backup);
+        SearchResult results;
+        try {
+            if (deadline > 0) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(deadline) - (System.nanoTime() - start);
+                results = winner.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+            } else {
+                results = winner.get();
+            }
+        } catch (TimeoutException e) {
+            // the late calls return their clients to the pools when they complete
+            throw new ServicesException("Search timed out after " + deadline + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TException) {
+                throw (TException) e.getCause();
+            }
+            throw new ServicesException("Search failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicesException("Interrupted while searching");
+        }
+        if (backup.isDone() && !backup.isCompletedExceptionally() && backup.join() == results) {
+            numHedgeWins.incrementAndGet();
+        }
+        return results;
+    }
+
+    private CompletableFuture<SearchResult> searchAsync(int replica, SearchQuery searchQuery) {
+        SearchQuery query = new SearchQuery(searchQuery);
+        CompletableFuture<SearchResult> future = new CompletableFuture<>();
+        try {
+            hedgeExecutor.execute(() -> {
+                try {
+                    future.complete(search(replica, query));
+                } catch (TException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ServicesException("No threads available for search"));
+        }
+        return future;
+    }
+
+    /**
+     * Complete with the first result or with the last error if all fail
+     */
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(2);
+        for (CompletableFuture<T> future : Arrays.asList(a, b)) {
+            future.whenComplete((result, error) -> {
+                if (error == null) {
+                    winner.complete(result);
+                } else if (remaining.decrementAndGet() == 0) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        return winner;
+    }
+
+    private SearchResult search(int replica, SearchQuery searchQuery) throws ServicesException, TException {
         SearchResult results = null;
 
-        SearchService.Client client = getClient();
+        ClientPool<SearchService.Client> clientPool = clientPools.get(replica);
+        SearchService.Client client = getClient(clientPool);
+        long start = System.nanoTime();
         try {
             results = client.search(searchQuery);
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for search");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
+        latencies.record(System.nanoTime() - start);
 
         if (results == null) {
             throw new ServicesException("Invalid results from search provider");
@@ -81,12 +341,13 @@ public class RemoteSearchProvider implements SearchProvider {
     @Override
     public boolean alive() throws TException {
         boolean result;
-        SearchService.Client client = getClient();
+        ClientPool<SearchService.Client> clientPool = clientPools.get(pickReplica());
+        SearchService.Client client = getClient(clientPool);
         try {
             result = client.alive();
             clientPool.returnClient(client);
         } catch (TException ex) {
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return result;
@@ -95,12 +356,13 @@ public class RemoteSearchProvider implements SearchProvider {
     @Override
     public ServiceInfo about() throws TException {
         ServiceInfo info;
-        SearchService.Client client = getClient();
+        ClientPool<SearchService.Client> clientPool = clientPools.get(pickReplica());
+        SearchService.Client client = getClient(clientPool);
         try {
             info = client.about();
             clientPool.returnClient(client);
         } catch (TException ex) {
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return info;
@@ -109,12 +371,13 @@ public class RemoteSearchProvider implements SearchProvider {
     @Override
     public List<SearchCapability> getCapabilities() throws ServicesException, TException {
         List<SearchCapability> capabilities;
-        SearchService.Client client = getClient();
+        ClientPool<SearchService.Client> clientPool = clientPools.get(pickReplica());
+        SearchService.Client client = getClient(clientPool);
         try {
             capabilities = client.getCapabilities();
             clientPool.returnClient(client);
         } catch (TException ex) {
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return capabilities;
@@ -123,18 +386,33 @@ public class RemoteSearchProvider implements SearchProvider {
     @Override
     public List<String> getCorpora() throws ServicesException, TException {
         List<String> corpora;
-        SearchService.Client client = getClient();
+        ClientPool<SearchService.Client> clientPool = clientPools.get(pickReplica());
+        SearchService.Client client = getClient(clientPool);
         try {
             corpora = client.getCorpora();
             clientPool.returnClient(client);
         } catch (TException ex) {
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return corpora;
     }
 
-    private SearchService.Client getClient() throws ServicesException{
+    private int pickReplica() {
+        int first = Math.floorMod(nextReplica.getAndIncrement(), clientPools.size());
+        for (int i = 0; i < clientPools.size(); i++) {
+            int replica = (first + i) % clientPools.size();
+            CircuitBreaker breaker = clientPools.get(replica).getBreaker();
+            if (breaker == null || breaker.getState() != CircuitBreaker.State.OPEN) {
+                return replica;
+            }
+        }
+        // all are open so the request fails fast
+        return first;
+    }
+
+    private static SearchService.Client getClient(ClientPool<SearchService.Client> clientPool)
+                    throws ServicesException {
         SearchService.Client client = clientPool.borrowClient();
         if (client == null) {
             throw new ServicesException("No thrift clients available for search");
@@ -5,13 +5,26 @@
  */
 package edu.jhu.hlt.cadet.store;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
@@ -20,9 +33,11 @@ import org.slf4j.LoggerFactory;
 import com.typesafe.config.Config;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.concrete.Communication;
 import edu.jhu.hlt.concrete.serialization.CompactCommunicationSerializer;
 import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
 import edu.jhu.hlt.concrete.util.ConcreteException;
 
 /**
@@ -30,13 +45,49 @@ import edu.jhu.hlt.concrete.util.ConcreteException;
  * The concrete communications must be serialized with compact protocol.
  * Requires that the config parameter be set: files.data.dir
  * This overwrites the communication files so must have write access.
+ *
+ * A communication is written to a temporary file that is renamed over the old file
+ * so a crash never leaves a partially written communication. How much is forced to
+ * disk is set by files.store.durability, which defaults to none so that a save does
+ * not wait for the disk. With files.store.write_behind on, store()
+ * only queues the communication and a background thread writes the queue every
+ * files.store.flush_interval. Repeated saves of a communication in one interval
+ * are written once. Until a queued communication is written, FileFetchProvider
+ * reads it from the queue (see getPendingWrite) and a write that fails stays
+ * queued for the next flush. Otherwise a write that fails is thrown as a
+ * ServicesException so that the caller (such as the annotation pipeline) can retry it.
+ *
+ * The saved file keeps the permissions of the file it replaces.
  */
 public class FileStoreProvider implements StoreProvider {
     private static Logger logger = LoggerFactory.getLogger(FileStoreProvider.class);
     public static final String EXTENSION = "concrete";
+    private static final String TMP_EXTENSION = ".tmp";
+
+    // queued communications of the write behind providers by directory
+    private static final Map<Path, Map<String, byte[]>> pendingByDirectory = new ConcurrentHashMap<>();
+
+    public enum Durability {
+        /** leave it to the operating system */
+        NONE,
+        /** force the file contents to disk before the rename */
+        FLUSH,
+        /** also force the directory so the rename survives a crash */
+        FSYNC
+    }
 
     private String directory;
     private final CompactCommunicationSerializer serializer;
+    private Durability durability = Durability.NONE;
+
+    private boolean writeBehind = false;
+    private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> flushListeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService flusher;
+    private final AtomicLong numCoalesced = new AtomicLong();
+    private final AtomicLong numFlushes = new AtomicLong();
+    private volatile long lastFlushTime = 0; // in milliseconds
+    private volatile long maxFlushTime = 0; // in milliseconds
 
     public FileStoreProvider() {
         serializer = new CompactCommunicationSerializer();
@@ -59,10 +110,73 @@ public class FileStoreProvider implements StoreProvider {
         if (!file.isDirectory()) {
             throw new RuntimeException(directory + " is not a directory");
         }
+
+        if (config.hasPath(CadetConfig.FILES_STORE_DURABILITY)) {
+            String mode = config.getString(CadetConfig.FILES_STORE_DURABILITY);
+            try {
+                durability = Durability.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Unknown durability " + mode + " for " + CadetConfig.FILES_STORE_DURABILITY);
+            }
+        }
+        if (config.hasPath(CadetConfig.FILES_STORE_WRITE_BEHIND)) {
+            writeBehind = config.getBoolean(CadetConfig.FILES_STORE_WRITE_BEHIND);
+        }
+        if (writeBehind) {
+            long interval = 1000;
+            if (config.hasPath(CadetConfig.FILES_STORE_FLUSH_INTERVAL)) {
+                interval = config.getDuration(CadetConfig.FILES_STORE_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "cadet-file-store");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+            pendingByDirectory.put(getDirectoryKey(directory), pending);
+            registerMetrics();
+        }
+    }
+
+    /**
+     * Get a communication that a write behind store provider has queued but not written
+     *
+     * @param directory  data directory of the store provider
+     * @param id  communication id
+     * @return compact serialized communication or null if none is queued
+     */
+    public static byte[] getPendingWrite(String directory, String id) {
+        Map<String, byte[]> queue = pendingByDirectory.get(getDirectoryKey(directory));
+        return queue == null ? null : queue.get(id);
+    }
+
+    /**
+     * Call a listener with the id of each communication after it is written by a flush
+     */
+    public void addFlushListener(Consumer<String> listener) {
+        flushListeners.add(listener);
+    }
+
+    private static Path getDirectoryKey(String directory) {
+        return Paths.get(directory).toAbsolutePath().normalize();
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+            pendingByDirectory.remove(getDirectoryKey(directory), pending);
+            if (!pending.isEmpty()) {
+                logger.warn("Unable to write " + pending.size() + " communications: " + pending.keySet());
+            }
+        }
+    }
 
     @Override
     public void store(Communication comm) throws TException {
@@ -83,13 +197,158 @@ public class FileStoreProvider implements StoreProvider {
             return;
         }
 
-        try(OutputStream os = Files.newOutputStream(Paths.get(filename), StandardOpenOption.TRUNCATE_EXISTING);
-                        BufferedOutputStream bos = new BufferedOutputStream(os);) {
-            bos.write(data);
+        if (writeBehind) {
+            if (pending.put(comm.getId(), data) != null) {
+                numCoalesced.incrementAndGet();
+            }
+            return;
+        }
+
+        try {
+            write(comm.getId(), data);
+            if (durability == Durability.FSYNC) {
+                syncDirectory();
+            }
         } catch (IOException e) {
             logger.warn("Failed to write " + comm.getId(), e);
+            throw new ServicesException("Failed to write " + comm.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write every queued communication
+     *
+     * A communication leaves the queue once it is written (unless it was saved again
+     * meanwhile) so it can be read from the queue until then and a failed write is
+     * retried by the next flush.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
             return;
         }
+        long start = System.currentTimeMillis();
+        List<String> ids = new ArrayList<>(pending.keySet());
+        List<String> written = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            byte[] data = pending.get(id);
+            if (data == null) {
+                continue;
+            }
+            try {
+                write(id, data);
+                written.add(id);
+            } catch (IOException e) {
+                logger.warn("Failed to write " + id + ", will retry", e);
+                continue;
+            }
+            pending.remove(id, data);
+        }
+        if (durability == Durability.FSYNC && !written.isEmpty()) {
+            // one directory sync covers every rename in the batch
+            syncDirectory();
+        }
+        for (String id : written) {
+            for (Consumer<String> listener : flushListeners) {
+                listener.accept(id);
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        lastFlushTime = elapsed;
+        maxFlushTime = Math.max(maxFlushTime, elapsed);
+        numFlushes.incrementAndGet();
+        logger.debug("Wrote " + written.size() + " communications in " + elapsed + " ms");
+    }
+
+    /**
+     * Get the number of communications waiting to be written
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of saves that replaced a queued save of the same communication
+     */
+    public long getCoalescedCount() {
+        return numCoalesced.get();
+    }
+
+    public long getFlushCount() {
+        return numFlushes.get();
+    }
+
+    /**
+     * Get how long the last flush of the queue took in milliseconds
+     */
+    public long getLastFlushTime() {
+        return lastFlushTime;
+    }
+
+    public long getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getShared();
+        metrics.gauge("cadet_file_store_queue_depth", "Communications waiting to be written", this::getQueueDepth,
+                        "directory", directory);
+        metrics.counter("cadet_file_store_coalesced_total", "Saves that replaced a queued save",
+                        this::getCoalescedCount, "directory", directory);
+        metrics.counter("cadet_file_store_flushes_total", "Flushes of the write behind queue", this::getFlushCount,
+                        "directory", directory);
+        metrics.gauge("cadet_file_store_last_flush_seconds", "Time the last flush took",
+                        () -> TimeUnit.MILLISECONDS.toNanos(getLastFlushTime()), "directory", directory);
+        metrics.gauge("cadet_file_store_max_flush_seconds", "Longest time a flush took",
+                        () -> TimeUnit.MILLISECONDS.toNanos(getMaxFlushTime()), "directory", directory);
+    }
+
+    private void write(String id, byte[] data) throws IOException {
+        Path target = Paths.get(directory + id + "." + EXTENSION);
+        // unique so that concurrent saves of one communication do not share a file
+        Path tmp = Files.createTempFile(Paths.get(directory), id + ".", TMP_EXTENSION);
+        try {
+            // closed before the rename
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                copyPermissions(target, tmp);
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (durability != Durability.NONE) {
+                    channel.force(false);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Give the temporary file the permissions of the file it replaces
+     *
+     * Temporary files are only readable by their owner, which would otherwise
+     * carry over to the saved communication.
+     */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system
+        } catch (NoSuchFileException e) {
+            // the file was removed so keep the default permissions
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(Paths.get(directory), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can sync a directory
+            logger.debug("Unable to sync " + directory, e);
+        }
     }
 
     @Override
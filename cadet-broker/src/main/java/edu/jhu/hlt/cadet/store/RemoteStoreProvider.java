@@ -11,8 +11,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.pool.CircuitBreaker;
 import edu.jhu.hlt.cadet.pool.ClientPool;
 import edu.jhu.hlt.cadet.pool.PoolConfig;
 import edu.jhu.hlt.cadet.pool.ServiceConfig;
@@ -31,7 +33,6 @@ public class RemoteStoreProvider implements StoreProvider {
     private int port;
 
     private ClientPool<Client> clientPool;
-    private Object clientLock = new Object();
 
     @Override
     public void init(Config config) {
@@ -41,11 +42,18 @@ public class RemoteStoreProvider implements StoreProvider {
         logger.info("RemoteStoreProvider HOST: " + host);
         logger.info("RemoteStoreProvider PORT: " + port);
 
-        // default to 10 clients and wait up to 1 second
-        PoolConfig pc = new PoolConfig(10, 1000L);
+        // defaults to 10 clients and waiting up to 1 second
+        Config storeConfig = config.hasPath(CadetConfig.STORE_PATHNAME)
+                        ? config.getConfig(CadetConfig.STORE_PATHNAME) : ConfigFactory.empty();
+        PoolConfig pc = config.hasPath(CadetConfig.STORE_PATHNAME)
+                        ? PoolConfig.fromConfig(storeConfig)
+                        : new PoolConfig(10, 1000L);
         ServiceConfig sc = new ServiceConfig(host, port);
-        clientPool = new ClientPool<Client>(pc, sc,
-                        transport -> new Client(new TCompactProtocol(transport)));
+        String name = "store " + host + ":" + port;
+        clientPool = new ClientPool<Client>(name, pc, sc,
+                        transport -> new Client(new TCompactProtocol(transport)), Client::alive,
+                        CircuitBreaker.fromConfig(name, storeConfig));
+        clientPool.start();
     }
 
     @Override
@@ -57,16 +65,14 @@ public class RemoteStoreProvider implements StoreProvider {
     public void store(Communication communication) throws TException {
         logger.info("Storing Comm Id: " + communication.getId());
 
-        synchronized(clientLock) {
-            Client client = getClient();
-            try {
-                client.store(communication);
-                clientPool.returnClient(client);
-            } catch (TException ex) {
-                logger.warn("client failed for store");
-                clientPool.invalidateClient(client);
-                throw ex;
-            }
+        Client client = getClient();
+        try {
+            client.store(communication);
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for store");
+            clientPool.releaseClient(client, ex);
+            throw ex;
         }
     }
 
@@ -79,7 +85,7 @@ public class RemoteStoreProvider implements StoreProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for store");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return result;
@@ -94,7 +100,7 @@ public class RemoteStoreProvider implements StoreProvider {
             clientPool.returnClient(client);
         } catch (TException ex) {
             logger.warn("client failed for store");
-            clientPool.invalidateClient(client);
+            clientPool.releaseClient(client, ex);
             throw ex;
         }
         return info;
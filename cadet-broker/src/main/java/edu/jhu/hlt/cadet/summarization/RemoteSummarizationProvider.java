@@ -12,21 +12,27 @@ import java.util.List;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TSocket;
 
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import edu.jhu.hlt.cadet.CadetConfig;
+import edu.jhu.hlt.cadet.pool.CircuitBreaker;
+import edu.jhu.hlt.cadet.pool.ClientPool;
+import edu.jhu.hlt.cadet.pool.PoolConfig;
+import edu.jhu.hlt.cadet.pool.PoolStats;
+import edu.jhu.hlt.cadet.pool.ServiceConfig;
 import edu.jhu.hlt.concrete.services.ServiceInfo;
 import edu.jhu.hlt.concrete.services.ServicesException;
 import edu.jhu.hlt.concrete.summarization.SummarizationCapability;
-import edu.jhu.hlt.concrete.summarization.SummarizationService;
+import edu.jhu.hlt.concrete.summarization.SummarizationService.Client;
 import edu.jhu.hlt.concrete.summarization.SummarizationRequest;
 import edu.jhu.hlt.concrete.summarization.Summary;
 
 /**
  * Summarize document(s) from a remote service that implements the SummarizationService thrift service
+ *
+ * Connections are pooled and kept open between requests (see cadet.summarization.pool).
  */
 public class RemoteSummarizationProvider implements SummarizationProvider {
     private static Logger logger = LoggerFactory.getLogger(RemoteSummarizationProvider.class);
@@ -34,11 +40,7 @@ public class RemoteSummarizationProvider implements SummarizationProvider {
     private String host;
     private int port;
 
-    private TFramedTransport transport;
-    private TCompactProtocol protocol;
-    private SummarizationService.Client client;
-
-    private Object clientLock = new Object();
+    private ClientPool<Client> clientPool;
 
     @Override
     public void init(Config config) {
@@ -48,64 +50,98 @@ public class RemoteSummarizationProvider implements SummarizationProvider {
         logger.info("RemoteSummarizationProvider HOST: " + host);
         logger.info("RemoteSummarizationProvider PORT: " + port);
 
-        transport = new TFramedTransport(new TSocket(host, port), Integer.MAX_VALUE);
-        protocol = new TCompactProtocol(transport);
-        client = new SummarizationService.Client(protocol);
+        // defaults to 10 clients and waiting up to 1 second
+        Config summarizationConfig = config.hasPath(CadetConfig.SUMMARIZATION_PATHNAME)
+                        ? config.getConfig(CadetConfig.SUMMARIZATION_PATHNAME) : ConfigFactory.empty();
+        PoolConfig pc = config.hasPath(CadetConfig.SUMMARIZATION_PATHNAME)
+                        ? PoolConfig.fromConfig(summarizationConfig)
+                        : new PoolConfig(10, 1000L);
+        ServiceConfig sc = new ServiceConfig(host, port);
+        String name = "summarization " + host + ":" + port;
+        clientPool = new ClientPool<Client>(name, pc, sc,
+                        transport -> new Client(new TCompactProtocol(transport)), Client::alive,
+                        CircuitBreaker.fromConfig(name, summarizationConfig));
+        clientPool.start();
     }
 
     @Override
     public void close() {
-        if (transport.isOpen()) {
-            transport.close();
-        }
+        clientPool.close();
     }
 
     @Override
     public Summary summarize(SummarizationRequest query) throws ServicesException, TException {
-        if (!transport.isOpen()) {
-            transport.open();
-        }
-
-        Summary summary = null;
-        synchronized(clientLock) {
+        Summary summary;
+        Client client = getClient();
+        try {
             summary = client.summarize(query);
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for summarize");
+            clientPool.releaseClient(client, ex);
+            throw ex;
         }
-
         return summary;
     }
 
     @Override
     public List<SummarizationCapability> getCapabilities() throws ServicesException, TException {
-        if (!transport.isOpen()) {
-            transport.open();
-        }
-
-        List<SummarizationCapability> capabilities = null;
-        synchronized(clientLock) {
+        List<SummarizationCapability> capabilities;
+        Client client = getClient();
+        try {
             capabilities = client.getCapabilities();
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for summarization capabilities");
+            clientPool.releaseClient(client, ex);
+            throw ex;
         }
-
         return capabilities;
     }
 
     @Override
     public boolean alive() throws TException {
-        logger.info("remoteSummarizationProvider.alive()");
-        if (!transport.isOpen()) {
-            transport.open();
+        boolean result;
+        Client client = getClient();
+        try {
+            result = client.alive();
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for summarization");
+            clientPool.releaseClient(client, ex);
+            throw ex;
         }
-        boolean result = client.alive();
         return result;
     }
 
     @Override
     public ServiceInfo about() throws TException {
-        logger.info("remoteSummarizationProvider.about()");
-        if (!transport.isOpen()) {
-            transport.open();
+        ServiceInfo info;
+        Client client = getClient();
+        try {
+            info = client.about();
+            clientPool.returnClient(client);
+        } catch (TException ex) {
+            logger.warn("client failed for summarization");
+            clientPool.releaseClient(client, ex);
+            throw ex;
         }
-        ServiceInfo info = client.about();
         return info;
     }
 
+    /**
+     * Get the statistics of the connection pool
+     */
+    public PoolStats getPoolStats() {
+        return clientPool.getStats();
+    }
+
+    private Client getClient() throws ServicesException {
+        Client client = clientPool.borrowClient();
+        if (client == null) {
+            throw new ServicesException("No thrift clients available for summarization");
+        }
+        return client;
+    }
+
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.TProcessorFactory;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Thrift server for tests using the framed compact protocol that the providers expect
+ */
+public class ThriftTestServer {
+    private final TServer server;
+    private final int port;
+
+    private ThriftTestServer(TServer server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * Serve on a free port in a background thread
+     */
+    public static ThriftTestServer serve(TProcessor processor) throws TTransportException {
+        return serve(new TProcessorFactory(processor));
+    }
+
+    /**
+     * Serve on a free port in a background thread with a processor created for each connection
+     */
+    public static ThriftTestServer serve(TProcessorFactory processorFactory) throws TTransportException {
+        // port 0 lets the system pick a port so tests running at the same time do not collide
+        TServerSocket socket = new TServerSocket(0);
+        TThreadPoolServer.Args args = new TThreadPoolServer.Args(socket)
+                        .inputTransportFactory(new TFramedTransport.Factory())
+                        .protocolFactory(new TCompactProtocol.Factory())
+                        .outputTransportFactory(new TFramedTransport.Factory())
+                        .processorFactory(processorFactory);
+        TServer server = new TThreadPoolServer(args);
+        new Thread(server::serve).start();
+        return new ThriftTestServer(server, socket.getServerSocket().getLocalPort());
+    }
+
+    /**
+     * Get the port the server is listening on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void stop() {
+        server.stop();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+import edu.jhu.hlt.cadet.store.MockStoreProvider;
+import edu.jhu.hlt.cadet.store.StoreProvider;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class CachingFetchProviderTest {
+    private CountingFetchProvider delegate;
+    private CachingFetchProvider provider;
+
+    /**
+     * Mock fetch provider that counts the communications requested from it
+     */
+    private static class CountingFetchProvider extends MockFetchProvider {
+        private final AtomicInteger requested = new AtomicInteger();
+        private volatile long delay = 0;
+
+        @Override
+        public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
+            requested.addAndGet(request.getCommunicationIdsSize());
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.fetch(request);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        delegate = new CountingFetchProvider();
+        provider = new CachingFetchProvider();
+        provider.init(delegate, 10 * 1024 * 1024);
+    }
+
+    private FetchRequest createRequest(String... ids) {
+        FetchRequest request = new FetchRequest();
+        for (String id : ids) {
+            request.addToCommunicationIds(id);
+        }
+        return request;
+    }
+
+    private List<String> getIds(FetchResult result) {
+        List<String> ids = new ArrayList<>();
+        for (Communication comm : result.getCommunications()) {
+            ids.add(comm.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRepeatedFetchHitsCache() throws TException {
+        FetchResult first = provider.fetch(createRequest("a", "b"));
+        FetchResult second = provider.fetch(createRequest("b", "a", "c"));
+
+        assertEquals(3, delegate.requested.get());
+        assertEquals("b", second.getCommunications().get(0).getId());
+        assertEquals(first.getCommunications().get(0), second.getCommunications().get(1));
+        assertNotSame(first.getCommunications().get(0), second.getCommunications().get(1));
+        assertEquals(2, provider.getHitCount());
+        assertEquals(3, provider.getMissCount());
+        assertEquals(0.4, provider.getHitRatio(), 0.0001);
+        assertEquals(3, provider.getCachedCount());
+        assertTrue(provider.getCachedBytes() > 0);
+    }
+
+    @Test
+    public void testCacheSizeMetrics() throws TException {
+        provider.fetch(createRequest("a", "b"));
+        StringWriter sw = new StringWriter();
+        MetricsRegistry.getShared().write(new PrintWriter(sw));
+        String text = sw.toString();
+        assertTrue(text.contains("cadet_cache_bytes{cache=\"fetch\"} " + provider.getCachedBytes() + "\n"));
+        assertTrue(text.contains("cadet_cache_entries{cache=\"fetch\"} 2\n"));
+        assertTrue(text.contains("cadet_cache_evictions_total{cache=\"fetch\"} 0\n"));
+    }
+
+    @Test
+    public void testDuplicateIdsInRequest() throws TException {
+        FetchResult result = provider.fetch(createRequest("a", "a"));
+        assertEquals(1, delegate.requested.get());
+        assertEquals(2, result.getCommunicationsSize());
+    }
+
+    @Test
+    public void testConcurrentFetchesAreCoalesced() throws Exception {
+        delegate.delay = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<FetchResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> provider.fetch(createRequest("a", "b"))));
+        }
+        for (Future<FetchResult> future : futures) {
+            List<String> ids = getIds(future.get(10, TimeUnit.SECONDS));
+            assertEquals("a", ids.get(0));
+            assertEquals("b", ids.get(1));
+        }
+        executor.shutdown();
+        assertEquals(2, delegate.requested.get());
+    }
+
+    @Test
+    public void testStoreInvalidates() throws TException {
+        StoreProvider store = provider.invalidateOnStore(new MockStoreProvider());
+        FetchResult result = provider.fetch(createRequest("a"));
+        store.store(result.getCommunications().get(0));
+        assertEquals(0, provider.getCachedCount());
+
+        provider.fetch(createRequest("a"));
+        assertEquals(2, delegate.requested.get());
+    }
+
+    @Test
+    public void testInvalidateDuringFetchIsNotCached() throws Exception {
+        delegate.delay = 200;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<FetchResult> future = executor.submit(() -> provider.fetch(createRequest("a")));
+        Thread.sleep(50);
+        provider.invalidate("a");
+
+        assertEquals(1, future.get(10, TimeUnit.SECONDS).getCommunicationsSize());
+        executor.shutdown();
+        assertEquals(0, provider.getCachedCount());
+    }
+
+    @Test
+    public void testInitFromConfig() throws TException {
+        CachingFetchProvider configured = new CachingFetchProvider();
+        configured.init(ConfigFactory.parseString("cadet.fetch.cache { delegate = \""
+                        + MockFetchProvider.class.getName() + "\", max_bytes = 1MB }"));
+        assertEquals(1, configured.fetch(createRequest("a")).getCommunicationsSize());
+        assertEquals(1, configured.getCachedCount());
+        configured.close();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CommunicationCacheTest {
+
+    @Test
+    public void testGetAndInvalidate() {
+        CommunicationCache cache = new CommunicationCache(1000);
+        cache.put("a", new byte[] {1, 2, 3});
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.get("a"));
+        assertEquals(3, cache.getBytes());
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testStaysWithinMaxBytes() {
+        CommunicationCache cache = new CommunicationCache(1000);
+        for (int i = 0; i < 100; i++) {
+            cache.put("c" + i, new byte[50]);
+            assertTrue(cache.getBytes() <= 1000);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testTooLargeIsNotCached() {
+        CommunicationCache cache = new CommunicationCache(100);
+        cache.put("big", new byte[101]);
+        assertFalse(cache.contains("big"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScan() {
+        CommunicationCache cache = new CommunicationCache(1000);
+        for (int i = 0; i < 10; i++) {
+            cache.put("hot" + i, new byte[50]);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        // a scan of items read once should not push out the popular ones
+        for (int i = 0; i < 200; i++) {
+            cache.get("cold" + i);
+            cache.put("cold" + i, new byte[50]);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue("hot" + i, cache.contains("hot" + i));
+        }
+    }
+}
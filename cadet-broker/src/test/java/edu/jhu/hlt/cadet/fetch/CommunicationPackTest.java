@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+
+public class CommunicationPackTest {
+    private Path directory;
+    private List<Communication> comms;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cadet-pack").resolve("pack");
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        comms = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Communication comm = factory.communication();
+            comm.setId("comm" + (19 - i));
+            comms.add(comm);
+        }
+    }
+
+    private CommunicationPack writePack(long segmentSize) throws IOException {
+        try (CommunicationPackWriter writer = new CommunicationPackWriter(directory, segmentSize)) {
+            for (Communication comm : comms) {
+                writer.add(comm);
+            }
+        }
+        return new CommunicationPack(directory);
+    }
+
+    @Test
+    public void testReadBack() throws IOException, TException {
+        // small segments so the communications are spread over several files
+        TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+        int maxSize = 0;
+        for (Communication comm : comms) {
+            maxSize = Math.max(maxSize, serializer.serialize(comm).length);
+        }
+        CommunicationPack pack = writePack(3 * maxSize);
+        assertTrue(Files.exists(CommunicationPack.segmentPath(directory, 1)));
+        assertEquals(20, pack.size());
+        for (Communication comm : comms) {
+            assertEquals(comm, pack.get(comm.getId()));
+        }
+        assertNull(pack.get("missing"));
+        assertFalse(pack.contains("missing"));
+    }
+
+    @Test
+    public void testIdsAreSorted() throws IOException {
+        CommunicationPack pack = writePack(CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        List<String> ids = pack.getIds(0, 100);
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        assertEquals(sorted, ids);
+        assertEquals(Arrays.asList("comm10", "comm11"), pack.getIds(2, 2));
+        assertTrue(pack.getIds(20, 5).isEmpty());
+        assertEquals(ids.subList(2, ids.size()), pack.getIds(2, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testLastDuplicateWins() throws IOException, TException {
+        Communication replacement = new RandomConcreteFactory().communication();
+        replacement.setId("comm3");
+        comms.add(replacement);
+        CommunicationPack pack = writePack(CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        assertEquals(20, pack.size());
+        assertEquals(replacement, pack.get("comm3"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWillNotOverwrite() throws IOException {
+        writePack(CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        new CommunicationPackWriter(directory, CommunicationPackWriter.DEFAULT_SEGMENT_SIZE).close();
+    }
+
+    @Test
+    public void testFetchProvider() throws IOException, TException {
+        writePack(CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        PackFetchProvider provider = new PackFetchProvider();
+        provider.init(ConfigFactory.parseString("cadet.files.pack.dir = \"" + directory + "\""));
+
+        FetchRequest request = new FetchRequest();
+        request.addToCommunicationIds("comm5");
+        request.addToCommunicationIds("missing");
+        request.addToCommunicationIds("comm1");
+        FetchResult result = provider.fetch(request);
+        assertEquals(2, result.getCommunicationsSize());
+        assertEquals("comm5", result.getCommunications().get(0).getId());
+        assertEquals("comm1", result.getCommunications().get(1).getId());
+        assertEquals(20, provider.getCommunicationCount());
+        assertEquals(Arrays.asList("comm0", "comm1"), provider.getCommunicationIDs(0, 2));
+        provider.close();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+
+public class FileFetchProviderTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException, TException {
+        directory = Files.createTempDirectory("cadet-files");
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+        for (int i = 0; i < 50; i++) {
+            Communication comm = factory.communication();
+            comm.setId("comm" + i);
+            Files.write(directory.resolve(comm.getId() + "." + FileFetchProvider.EXTENSION),
+                            serializer.serialize(comm));
+        }
+        Files.write(directory.resolve("corrupt." + FileFetchProvider.EXTENSION), new byte[] {1, 2, 3});
+    }
+
+    private FileFetchProvider createProvider(int threads) {
+        FileFetchProvider provider = new FileFetchProvider();
+        provider.init(ConfigFactory.parseString("cadet.files { data.dir = \"" + directory
+                        + "\", fetch_threads = " + threads + " }"));
+        return provider;
+    }
+
+    private void checkFetch(FileFetchProvider provider) throws TException {
+        FetchRequest request = new FetchRequest();
+        List<String> expected = new ArrayList<>();
+        for (int i = 49; i >= 0; i--) {
+            request.addToCommunicationIds("comm" + i);
+            expected.add("comm" + i);
+            if (i == 25) {
+                request.addToCommunicationIds("corrupt");
+                request.addToCommunicationIds("missing");
+            }
+        }
+
+        FetchResult result = provider.fetch(request);
+        List<String> ids = new ArrayList<>();
+        for (Communication comm : result.getCommunications()) {
+            ids.add(comm.getId());
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void testParallelFetchKeepsOrderAndSkipsBadFiles() throws TException {
+        FileFetchProvider provider = createProvider(4);
+        checkFetch(provider);
+        provider.close();
+    }
+
+    @Test
+    public void testSequentialFetch() throws TException {
+        FileFetchProvider provider = createProvider(1);
+        checkFetch(provider);
+        provider.close();
+    }
+
+    @Test
+    public void testSingleMissingId() throws TException {
+        FileFetchProvider provider = createProvider(4);
+        FetchRequest request = new FetchRequest();
+        request.addToCommunicationIds("missing");
+        assertEquals(0, provider.fetch(request).getCommunicationsSize());
+        provider.close();
+    }
+}
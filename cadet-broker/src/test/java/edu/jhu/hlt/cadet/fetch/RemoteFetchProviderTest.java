@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+
+public class RemoteFetchProviderTest {
+    private static final long delay = 200;
+    private static SlowFetchService service;
+    private static int port;
+
+    private RemoteFetchProvider provider;
+
+    @BeforeClass
+    public static void setUpServer() throws TTransportException {
+        service = new SlowFetchService(delay);
+        port = service.serve();
+    }
+
+    @AfterClass
+    public static void tearDownServer() {
+        service.stop();
+    }
+
+    @Before
+    public void setUp() {
+        provider = createProvider("");
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    private RemoteFetchProvider createProvider(String extra) {
+        RemoteFetchProvider provider = new RemoteFetchProvider();
+        provider.init(ConfigFactory.parseString("cadet.fetch { host = localhost, port = " + port
+                        + ", pool.size = 8, pool.min_idle = 8, pool.timeout = 5s " + extra + " }"));
+        return provider;
+    }
+
+    private FetchRequest createRequest(String... ids) {
+        FetchRequest request = new FetchRequest();
+        for (String id : ids) {
+            request.addToCommunicationIds(id);
+        }
+        return request;
+    }
+
+    private List<String> getIds(FetchResult result) {
+        List<String> ids = new ArrayList<>();
+        for (Communication comm : result.getCommunications()) {
+            ids.add(comm.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        FetchRequest request = new FetchRequest();
+        request.addToCommunicationIds("a");
+        request.addToCommunicationIds("b");
+        FetchResult result = provider.fetch(request);
+        assertEquals(2, result.getCommunicationsSize());
+        assertEquals("a", result.getCommunications().get(0).getId());
+        assertEquals("b", result.getCommunications().get(1).getId());
+    }
+
+    @Test
+    public void testParallelFetches() throws Exception {
+        final int n = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        List<Future<FetchResult>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            FetchRequest request = new FetchRequest();
+            request.addToCommunicationIds("comm" + i);
+            futures.add(executor.submit(() -> provider.fetch(request)));
+        }
+        for (int i = 0; i < n; i++) {
+            FetchResult result = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals("comm" + i, result.getCommunications().get(0).getId());
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+
+        // serialized fetches would take n * delay
+        assertTrue("fetches took " + elapsed + " ms", elapsed < 3 * delay);
+        assertTrue(service.getMaxInFlight() > 1);
+    }
+
+    @Test
+    public void testBatchedFetchKeepsOrder() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 2");
+        try {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 11; i++) {
+                ids.add("comm" + i);
+            }
+            int fetchesBefore = service.getFetchCount();
+            long start = System.nanoTime();
+            FetchResult result = batched.fetch(createRequest(ids.toArray(new String[0])));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(ids, getIds(result));
+            assertEquals(6, service.getFetchCount() - fetchesBefore);
+            assertTrue("batches took " + elapsed + " ms", elapsed < 3 * delay);
+            assertEquals(0, batched.getPartialResultCount());
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testBatchedFetchReturnsPartialResults() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 2, batch_min_fraction = 0");
+        try {
+            FetchResult result = batched.fetch(createRequest("a", "b", "fail1", "c", "d"));
+            List<String> expected = new ArrayList<>();
+            expected.add("a");
+            expected.add("b");
+            expected.add("d");
+            assertEquals(expected, getIds(result));
+            assertEquals(1, batched.getPartialResultCount());
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testBatchedFetchFailsWhenEveryBatchFails() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 1, batch_min_fraction = 0");
+        try {
+            batched.fetch(createRequest("fail1", "fail2"));
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertEquals(0, batched.getPartialResultCount());
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testBatchedFetchFailsUnderMinFraction() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 2, batch_min_fraction = 0.8");
+        try {
+            batched.fetch(createRequest("a", "b", "fail1", "c", "d"));
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertEquals(0, batched.getPartialResultCount());
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testBatchedFetchFailsOnAnyFailedBatchByDefault() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 2");
+        try {
+            batched.fetch(createRequest("a", "b", "fail1", "c", "d"));
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertEquals(0, batched.getPartialResultCount());
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testQueuedBatchesGetTheirOwnTimeout() throws Exception {
+        // 16 batches on 8 threads: the second half waits one delay in the queue
+        RemoteFetchProvider batched = createProvider(", batch_size = 1, batch_timeout = 300ms");
+        try {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                ids.add("comm" + i);
+            }
+            FetchResult result = batched.fetch(createRequest(ids.toArray(new String[0])));
+            assertEquals(ids, getIds(result));
+        } finally {
+            batched.close();
+        }
+    }
+
+    @Test
+    public void testBatchTimeout() throws Exception {
+        RemoteFetchProvider batched = createProvider(", batch_size = 1, batch_timeout = 20ms");
+        try {
+            batched.fetch(createRequest("a", "b"));
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertTrue(e.getMessage().contains("timed out"));
+        } finally {
+            batched.close();
+        }
+    }
+}
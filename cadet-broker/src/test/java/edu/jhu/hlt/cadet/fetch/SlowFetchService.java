@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.fetch;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+
+import edu.jhu.hlt.cadet.ThriftTestServer;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchCommunicationService;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.access.FetchResult;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.services.NotImplementedException;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Fetch service for tests that takes a fixed time to answer each fetch
+ *
+ * Requests for IDs starting with "fail" throw a ServicesException.
+ */
+public class SlowFetchService implements FetchCommunicationService.Iface {
+    private final long delay;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger numFetches = new AtomicInteger();
+    private ThriftTestServer server;
+
+    /**
+     * @param delay  time each fetch takes in milliseconds
+     */
+    public SlowFetchService(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Serve on a free port in a background thread
+     *
+     * @return the port
+     */
+    public int serve() throws TTransportException {
+        server = ThriftTestServer.serve(new FetchCommunicationService.Processor<>(this));
+        return server.getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Get the largest number of fetches that were running at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public int getFetchCount() {
+        return numFetches.get();
+    }
+
+    @Override
+    public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
+        numFetches.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        for (String id : request.getCommunicationIds()) {
+            if (id.startsWith("fail")) {
+                throw new ServicesException("Cannot fetch " + id);
+            }
+        }
+
+        FetchResult result = new FetchResult();
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        for (String id : request.getCommunicationIds()) {
+            Communication comm = factory.communication();
+            comm.setId(id);
+            result.addToCommunications(comm);
+        }
+        return result;
+    }
+
+    @Override
+    public long getCommunicationCount() throws NotImplementedException, TException {
+        throw new NotImplementedException("Slow fetch service does not support iteration");
+    }
+
+    @Override
+    public List<String> getCommunicationIDs(long offset, long count) throws NotImplementedException, TException {
+        throw new NotImplementedException("Slow fetch service does not support iteration");
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo(this.getClass().getSimpleName(), "1.0.0");
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return true;
+    }
+}
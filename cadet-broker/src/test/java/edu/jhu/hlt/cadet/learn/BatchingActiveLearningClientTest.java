@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.learn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.Annotation;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class BatchingActiveLearningClientTest {
+    private static CountingLearnerService learner;
+    private static int port;
+    private final RandomConcreteFactory factory = new RandomConcreteFactory();
+
+    private BatchingActiveLearningClient client;
+    private int startBatches;
+    private int startAnnotations;
+
+    @BeforeClass
+    public static void setUpServer() throws TTransportException {
+        learner = new CountingLearnerService();
+        port = learner.serve();
+    }
+
+    @AfterClass
+    public static void tearDownServer() {
+        learner.stop();
+    }
+
+    @Before
+    public void setUp() {
+        startBatches = learner.getBatchCount();
+        startAnnotations = learner.getAnnotationCount();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+    }
+
+    private BatchingActiveLearningClient createClient(int size, String interval) {
+        Config config = ConfigFactory.parseString("cadet.learn.host = localhost\n"
+                        + "cadet.learn.port = " + port + "\n"
+                        // only passed on to the learner, nothing listens on it
+                        + "cadet.sort.host = localhost\n"
+                        + "cadet.sort.port = 9497\n"
+                        + "cadet.learn.batch.size = " + size + "\n"
+                        + "cadet.learn.batch.interval = " + interval);
+        BatchingActiveLearningClient client = new BatchingActiveLearningClient();
+        client.init(config);
+        return client;
+    }
+
+    private List<Annotation> annotation(String id) {
+        Communication comm = factory.communication();
+        comm.setId(id);
+        return Collections.singletonList(new Annotation(new AnnotationUnitIdentifier(id), comm));
+    }
+
+    private int batches() {
+        return learner.getBatchCount() - startBatches;
+    }
+
+    private int annotations() {
+        return learner.getAnnotationCount() - startAnnotations;
+    }
+
+    @Test
+    public void testFlushesOnSize() {
+        client = createClient(10, "1h");
+        UUID session = new UUID("size");
+        for (int i = 0; i < 25; i++) {
+            client.addAnnotations(session, annotation("comm" + i));
+        }
+
+        assertEquals(2, batches());
+        assertEquals(20, annotations());
+        assertEquals(5, client.getHeldCount());
+    }
+
+    @Test
+    public void testFlushesOnTime() throws InterruptedException {
+        client = createClient(100, "200ms");
+        UUID session = new UUID("time");
+        for (int i = 0; i < 3; i++) {
+            client.addAnnotations(session, annotation("comm" + i));
+        }
+        assertEquals(0, batches());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batches() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, batches());
+        assertEquals(3, annotations());
+        assertEquals(0, client.getHeldCount());
+    }
+
+    @Test
+    public void testStopSendsHeldAnnotations() {
+        client = createClient(100, "1h");
+        UUID first = new UUID("first");
+        UUID second = new UUID("second");
+        int stops = learner.getStopCount();
+        client.addAnnotations(first, annotation("a"));
+        client.addAnnotations(second, annotation("b"));
+        client.addAnnotations(first, annotation("c"));
+
+        client.stop(first);
+
+        // only the stopped session is sent
+        assertEquals(1, batches());
+        assertEquals(2, annotations());
+        assertEquals(stops + 1, learner.getStopCount());
+        assertEquals(1, client.getHeldCount());
+
+        client.flushAll();
+        assertEquals(2, batches());
+        assertEquals(2, client.getBatchCount());
+        assertEquals(3, client.getAnnotationCount());
+    }
+
+    @Test
+    public void testSlowSendDoesNotBlockOtherSessions() throws Exception {
+        UUID slow = new UUID("slow");
+        UUID fast = new UUID("fast");
+        for (int i = 0; stripe(fast) == stripe(slow); i++) {
+            fast = new UUID("fast" + i);
+        }
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ActiveLearningClient delegate = mock(ActiveLearningClient.class);
+        doAnswer(invocation -> {
+            entered.countDown();
+            release.await();
+            return null;
+        }).when(delegate).deliverAnnotations(eq(slow), any());
+        client = new BatchingActiveLearningClient();
+        client.init(delegate, 1, 3600000L);
+
+        Thread sender = new Thread(() -> client.addAnnotations(slow, annotation("a")));
+        sender.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            UUID other = fast;
+            executor.submit(() -> client.addAnnotations(other, annotation("b"))).get(5, TimeUnit.SECONDS);
+            verify(delegate).deliverAnnotations(eq(fast), any());
+        } finally {
+            release.countDown();
+            sender.join();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedSendIsCounted() {
+        // the remote client only reports a failed send through deliverAnnotations()
+        ActiveLearningClient delegate = new SimpleMockActiveLearningClient() {
+            @Override
+            public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+                throw new ServicesException("learner is gone");
+            }
+        };
+        client = new BatchingActiveLearningClient();
+        client.init(delegate, 2, 3600000L);
+
+        UUID session = new UUID("failed");
+        client.addAnnotations(session, annotation("a"));
+        client.addAnnotations(session, annotation("b"));
+
+        assertEquals(1, client.getDroppedBatchCount());
+        assertEquals(2, client.getDroppedAnnotationCount());
+        assertEquals(0, client.getBatchCount());
+        assertEquals(0, client.getHeldCount());
+    }
+
+    private static int stripe(UUID sessionId) {
+        return Math.floorMod(sessionId.hashCode(), BatchingActiveLearningClient.SEND_LOCK_STRIPES);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.learn;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+
+import edu.jhu.hlt.cadet.ThriftTestServer;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.ActiveLearnerServerService;
+import edu.jhu.hlt.concrete.learn.Annotation;
+import edu.jhu.hlt.concrete.learn.AnnotationTask;
+import edu.jhu.hlt.concrete.services.AsyncContactInfo;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+
+/**
+ * Active learner for tests that counts the calls it receives
+ */
+public class CountingLearnerService implements ActiveLearnerServerService.Iface {
+    private final AtomicInteger numBatches = new AtomicInteger();
+    private final AtomicInteger numAnnotations = new AtomicInteger();
+    private final AtomicInteger numStops = new AtomicInteger();
+    private ThriftTestServer server;
+
+    /**
+     * Serve on a free port in a background thread
+     *
+     * @return the port
+     */
+    public int serve() throws TTransportException {
+        server = ThriftTestServer.serve(new ActiveLearnerServerService.Processor<>(this));
+        return server.getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    public int getBatchCount() {
+        return numBatches.get();
+    }
+
+    public int getAnnotationCount() {
+        return numAnnotations.get();
+    }
+
+    public int getStopCount() {
+        return numStops.get();
+    }
+
+    @Override
+    public boolean start(UUID sessionId, AnnotationTask task, AsyncContactInfo contact) throws TException {
+        return true;
+    }
+
+    @Override
+    public void stop(UUID sessionId) throws TException {
+        numStops.incrementAndGet();
+    }
+
+    @Override
+    public void addAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+        numAnnotations.addAndGet(annotations.size());
+        numBatches.incrementAndGet();
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo(this.getClass().getSimpleName(), "1.0.0");
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.logging;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RequestLogTest {
+
+    @Test
+    public void testSummaryOnlyWhenInfoEnabled() {
+        Logger logger = mock(Logger.class);
+        RequestLog log = new RequestLog(logger, "Fetch");
+
+        log.summary(System.nanoTime(), 10, 8, "communications");
+        verify(logger, never()).info(anyString());
+
+        when(logger.isInfoEnabled()).thenReturn(true);
+        log.summary(System.nanoTime(), 10, 8, "communications");
+        verify(logger).info(startsWith("Fetch: 8 of 10 communications in "));
+        new RequestLog(logger, "Search").summary(System.nanoTime(), 3, "results", "cats");
+        verify(logger).info(startsWith("Search: 3 results for \"cats\" in "));
+    }
+
+    @Test
+    public void testNoDetailWhenDebugDisabled() {
+        Logger logger = mock(Logger.class);
+        RequestLog log = new RequestLog(logger, "Fetch");
+        for (int i = 0; i < 10; i++) {
+            assertFalse(log.sampleDetail());
+        }
+    }
+
+    @Test
+    public void testNoAllocationWhenDebugDisabled() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        // slf4j-simple defaults to the production levels: INFO on, DEBUG off
+        Logger logger = LoggerFactory.getLogger(RequestLogTest.class);
+        assertTrue(logger.isInfoEnabled());
+        assertFalse(logger.isDebugEnabled());
+        RequestLog log = new RequestLog(logger, "Fetch");
+        log.setSampleRate(4);
+        String[] ids = {"a", "b", "c"};
+        int iterations = 100000;
+        for (int i = 0; i < iterations; i++) {
+            logDetail(log, ids);
+        }
+
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < iterations; i++) {
+            logDetail(log, ids);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // one byte per call would already be far over this
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void logDetail(RequestLog log, String[] ids) {
+        if (log.sampleDetail()) {
+            for (String id : ids) {
+                fail("logged " + id + " with DEBUG disabled");
+            }
+        }
+    }
+
+    @Test
+    public void testDetailSampling() {
+        Logger logger = mock(Logger.class);
+        when(logger.isDebugEnabled()).thenReturn(true);
+        RequestLog log = new RequestLog(logger, "Search");
+        assertTrue(log.sampleDetail());
+        assertTrue(log.sampleDetail());
+
+        log.setSampleRate(4);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (log.sampleDetail()) {
+                sampled++;
+            }
+        }
+        assertEquals(25, sampled);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new RequestLog(mock(Logger.class), "Fetch").setSampleRate(0);
+    }
+}
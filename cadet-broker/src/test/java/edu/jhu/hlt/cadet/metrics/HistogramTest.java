@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.index(value);
+            assertTrue(value + " above its bucket", value <= Histogram.upperBound(index));
+            if (index > 0) {
+                assertTrue(value + " below its bucket", value > Histogram.upperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        // within the 1/16 bucket width
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 < 500000 * 17 / 16);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 < 990000 * 17 / 16);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    private static String render(MetricsRegistry registry) {
+        StringWriter sw = new StringWriter();
+        registry.write(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    @Test
+    public void testSameLabelsShareMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter a = registry.counter("requests_total", "Requests", "handler", "fetch");
+        Counter b = registry.counter("requests_total", "Requests", "handler", "fetch");
+        Counter c = registry.counter("requests_total", "Requests", "handler", "search");
+        assertSame(a, b);
+        assertNotSame(a, c);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeMismatch() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests", "Requests");
+        registry.histogram("requests", "Requests");
+    }
+
+    @Test
+    public void testTextFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("cadet_hits_total", "Cache hits", "cache", "fetch").add(3);
+        registry.gauge("cadet_sessions_active", "Sessions", () -> 2);
+        registry.gauge("cadet_flush_seconds", "Flush time", () -> TimeUnit.MILLISECONDS.toNanos(1500));
+        Histogram latency = registry.histogram("cadet_request_seconds", "Latency", "method", "fetch");
+        latency.record(TimeUnit.MILLISECONDS.toNanos(250));
+
+        String text = render(registry);
+        assertTrue(text.contains("# TYPE cadet_hits_total counter\n"));
+        assertTrue(text.contains("cadet_hits_total{cache=\"fetch\"} 3\n"));
+        assertTrue(text.contains("# TYPE cadet_sessions_active gauge\n"));
+        assertTrue(text.contains("cadet_sessions_active 2\n"));
+        assertTrue(text.contains("cadet_flush_seconds 1.5\n"));
+        assertTrue(text.contains("# TYPE cadet_request_seconds summary\n"));
+        assertTrue(text.contains("cadet_request_seconds{method=\"fetch\",quantile=\"0.99\"} 0.2"));
+        assertTrue(text.contains("cadet_request_seconds_sum{method=\"fetch\"} 0.25\n"));
+        assertTrue(text.contains("cadet_request_seconds_count{method=\"fetch\"} 1\n"));
+    }
+
+    @Test
+    public void testLabelValuesEscaped() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("errors_total", "Errors", "message", "a \"quoted\" value").increment();
+        assertTrue(render(registry).contains("errors_total{message=\"a \\\"quoted\\\" value\"} 1"));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.pool;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAtFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 10, 4, 60000L);
+        // too few calls to judge the service
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        for (int i = 0; i < 5; i++) {
+            breaker.recordSuccess();
+        }
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        // not open long enough to try again
+        assertFalse(breaker.halfOpen());
+    }
+
+    @Test
+    public void testWindowForgetsOldCalls() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 4, 4, 60000L);
+        breaker.recordFailure();
+        for (int i = 0; i < 10; i++) {
+            breaker.recordSuccess();
+        }
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+        breaker.recordFailure();
+        assertEquals(0.25, breaker.getFailureRate(), 0.0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenAllowsOneTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1.0, 1, 1, 1L);
+        assertTrue(breaker.recordFailure());
+        Thread.sleep(5);
+        assertTrue(breaker.halfOpen());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(5);
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        assertEquals(5, breaker.getTransitions().size());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getTransitions().get(0).getFrom());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getTransitions().get(4).getTo());
+    }
+
+    @Test
+    public void testFromConfig() {
+        assertNull(CircuitBreaker.fromConfig("test", ConfigFactory.parseString("breaker.enabled = false")));
+        CircuitBreaker breaker = CircuitBreaker.fromConfig("test",
+                        ConfigFactory.parseString("breaker.open_time = 3s"));
+        assertEquals(3000L, breaker.getOpenTime());
+        assertEquals("test", breaker.getName());
+    }
+}
@@ -7,42 +7,46 @@ package edu.jhu.hlt.cadet.pool;
 
 import static org.junit.Assert.*;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.server.TThreadPoolServer;
-import org.apache.thrift.server.TThreadPoolServer.Args;
-import org.apache.thrift.transport.TFramedTransport;
-import org.apache.thrift.transport.TServerSocket;
-import org.apache.thrift.transport.TServerTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import edu.jhu.hlt.cadet.ThriftTestServer;
+import edu.jhu.hlt.cadet.fetch.SlowFetchService;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.cadet.pool.service.EchoServiceHandler;
 import edu.jhu.hlt.cadet.pool.service.EchoService;
 import edu.jhu.hlt.cadet.pool.service.EchoService.Processor;
+import edu.jhu.hlt.concrete.access.FetchCommunicationService;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.services.ServicesException;
 
 public class ClientPoolTest {
-    private static final int port = 9494;
+    private static int port;
 
     @BeforeClass
     public static void setUp() throws InterruptedException, TTransportException {
-        TServerTransport serverTransport = new TServerSocket(port);
-
-        Args processor = new TThreadPoolServer.Args(serverTransport)
-                    .inputTransportFactory(new TFramedTransport.Factory())
-                    .protocolFactory(new TCompactProtocol.Factory())
-                    .outputTransportFactory(new TFramedTransport.Factory())
-                    .processor(new Processor<>(new EchoServiceHandler()));
-        TThreadPoolServer server = new TThreadPoolServer(processor);
-        new Thread(server::serve).start();
+        port = ThriftTestServer.serve(new Processor<>(new EchoServiceHandler())).getPort();
     }
 
     @Test
     public void test() throws TException {
         PoolConfig pc = new PoolConfig(10, 1000L);
         ServiceConfig sc = new ServiceConfig("localhost", port);
-        ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>(pc, sc,
+        ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>("echo", pc, sc,
                         transport -> new EchoService.Client(new TCompactProtocol(transport)));
 
         EchoService.Client client = clientPool.borrowClient();
@@ -50,4 +54,283 @@ public class ClientPoolTest {
         assertEquals("hello", ans);
     }
 
+    @Test
+    public void testPoolsOnOneServerHaveTheirOwnMetrics() throws TException {
+        ServiceConfig sc = new ServiceConfig("localhost", port);
+        ClientPool<EchoService.Client> first = new ClientPool<EchoService.Client>("first", new PoolConfig(2, 1000L),
+                        sc, transport -> new EchoService.Client(new TCompactProtocol(transport)));
+        ClientPool<EchoService.Client> second = new ClientPool<EchoService.Client>("second", new PoolConfig(2, 1000L),
+                        sc, transport -> new EchoService.Client(new TCompactProtocol(transport)));
+        first.returnClient(first.borrowClient());
+
+        StringWriter sw = new StringWriter();
+        MetricsRegistry.getShared().write(new PrintWriter(sw));
+        String text = sw.toString();
+        assertTrue(text.contains("cadet_pool_borrowed_total{service=\"first\"} 1\n"));
+        assertTrue(text.contains("cadet_pool_borrowed_total{service=\"second\"} 0\n"));
+        first.close();
+        second.close();
+    }
+
+    private ClientPool<EchoService.Client> createPool(PoolConfig pc, ClientProbe<EchoService.Client> probe) {
+        ServiceConfig sc = new ServiceConfig("localhost", port);
+        return new ClientPool<EchoService.Client>("echo", pc, sc,
+                        transport -> new EchoService.Client(new TCompactProtocol(transport)), probe);
+    }
+
+    @Test
+    public void testTimeoutWhenFull() throws ServicesException {
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(2, 20L), null);
+        EchoService.Client c1 = clientPool.borrowClient();
+        EchoService.Client c2 = clientPool.borrowClient();
+        assertNotNull(c1);
+        assertNotNull(c2);
+        assertNull(clientPool.borrowClient());
+        assertEquals(1, clientPool.getStats().getTimeoutCount());
+        assertEquals(2, clientPool.getStats().getBorrowCount());
+
+        clientPool.returnClient(c1);
+        assertSame(c1, clientPool.borrowClient());
+        assertEquals(2, clientPool.getClientCount());
+        clientPool.close();
+    }
+
+    @Test
+    public void testInvalidateFreesSlotForWaiter() throws Exception {
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(1, 2000L), null);
+        EchoService.Client client = clientPool.borrowClient();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<EchoService.Client> waiter = executor.submit(clientPool::borrowClient);
+            Thread.sleep(50);
+            clientPool.invalidateClient(client);
+            EchoService.Client replacement = waiter.get(1, TimeUnit.SECONDS);
+            assertNotNull(replacement);
+            assertNotSame(client, replacement);
+            assertEquals("hi", replacement.echo("hi"));
+            assertEquals(1, clientPool.getClientCount());
+        } finally {
+            executor.shutdownNow();
+            clientPool.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentBorrowNeverExceedsSize() throws Exception {
+        final int size = 4;
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(size, 5000L), null);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch done = new CountDownLatch(16);
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            executor.execute(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        EchoService.Client client = clientPool.borrowClient();
+                        assertTrue(clientPool.getClientCount() <= size);
+                        assertEquals("x", client.echo("x"));
+                        clientPool.returnClient(client);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(clientPool.getClientCount() <= size);
+        assertEquals(16 * 50, clientPool.getStats().getBorrowCount());
+        assertEquals(0, clientPool.getStats().getTimeoutCount());
+        assertTrue(clientPool.getStats().getWaitPercentile(50) <= clientPool.getStats().getWaitPercentile(99));
+        clientPool.close();
+    }
+
+    @Test
+    public void testStartPrewarmsMinIdle() {
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(5, 1000L, 3, 60000L, 0L), null);
+        clientPool.start();
+        assertEquals(3, clientPool.getIdleCount());
+        assertEquals(3, clientPool.getClientCount());
+        clientPool.close();
+        assertEquals(0, clientPool.getClientCount());
+    }
+
+    @Test
+    public void testMaintainEvictsIdleClients() throws Exception {
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(5, 1000L, 1, 10L, 0L), null);
+        List<EchoService.Client> clients = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            clients.add(clientPool.borrowClient());
+        }
+        clients.forEach(clientPool::returnClient);
+        Thread.sleep(30);
+
+        clientPool.maintain();
+        assertEquals(1, clientPool.getClientCount());
+        assertEquals(1, clientPool.getIdleCount());
+        assertEquals(3, clientPool.getStats().getInvalidatedCount());
+        clientPool.close();
+    }
+
+    @Test
+    public void testMaintainDropsClientsThatFailProbe() throws Exception {
+        ClientPool<EchoService.Client> clientPool = createPool(new PoolConfig(5, 1000L, 2, 60000L, 1L),
+                        client -> false);
+        clientPool.borrowClient();
+        EchoService.Client idle = clientPool.borrowClient();
+        clientPool.returnClient(idle);
+        Thread.sleep(5);
+
+        clientPool.maintain();
+        // the dead idle client is replaced while the borrowed client is untouched
+        assertEquals(1, clientPool.getStats().getInvalidatedCount());
+        assertEquals(2, clientPool.getIdleCount());
+        assertEquals(3, clientPool.getClientCount());
+        assertNotSame(idle, clientPool.borrowClient());
+        clientPool.close();
+    }
+
+    @Test
+    public void testProbeOfHungServiceTimesOut() throws Exception {
+        // accepts connections but never answers
+        try (ServerSocket hung = new ServerSocket(0)) {
+            ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>("echo",
+                            new PoolConfig(2, 1000L, 0, 60000L, 1L, 100L),
+                            new ServiceConfig("localhost", hung.getLocalPort()),
+                            transport -> new EchoService.Client(new TCompactProtocol(transport)),
+                            client -> client.echo("ping").equals("ping"));
+            clientPool.returnClient(clientPool.borrowClient());
+            Thread.sleep(5);
+
+            long start = System.currentTimeMillis();
+            clientPool.maintain();
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(0, clientPool.getClientCount());
+            assertEquals(1, clientPool.getStats().getInvalidatedCount());
+            clientPool.close();
+        }
+    }
+
+    @Test
+    public void testUnreachableService() {
+        ServiceConfig sc = new ServiceConfig("localhost", 1);
+        ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>("echo",
+                        new PoolConfig(2, 100L), sc,
+                        transport -> new EchoService.Client(new TCompactProtocol(transport)));
+        try {
+            clientPool.borrowClient();
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertEquals(0, clientPool.getClientCount());
+        }
+        clientPool.close();
+    }
+
+    @Test
+    public void testOpenBreakerFailsFast() throws Exception {
+        ServiceConfig sc = new ServiceConfig("localhost", 1);
+        CircuitBreaker breaker = new CircuitBreaker("echo", 0.5, 4, 2, 60000L);
+        ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>("echo",
+                        new PoolConfig(2, 100L), sc,
+                        transport -> new EchoService.Client(new TCompactProtocol(transport)), null, breaker);
+        clientPool.start();
+        assertTrue(CircuitBreaker.getRegistered().contains(breaker));
+        for (int i = 0; i < 2; i++) {
+            try {
+                clientPool.borrowClient();
+                fail("expected ServicesException");
+            } catch (ServicesException e) {
+                assertTrue(e.getMessage().startsWith("Unable to contact"));
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            clientPool.borrowClient();
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertTrue(e.getMessage().startsWith("Circuit breaker open"));
+        }
+        assertEquals(1, clientPool.getStats().getRejectedCount());
+        clientPool.close();
+        assertFalse(CircuitBreaker.getRegistered().contains(breaker));
+    }
+
+    @Test
+    public void testProbeClosesBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("echo", 0.5, 4, 2, 1L);
+        ServiceConfig sc = new ServiceConfig("localhost", port);
+        ClientPool<EchoService.Client> clientPool = new ClientPool<EchoService.Client>("echo",
+                        new PoolConfig(2, 100L), sc,
+                        transport -> new EchoService.Client(new TCompactProtocol(transport)),
+                        client -> client.echo("ping").equals("ping"), breaker);
+        breaker.open("test");
+        try {
+            clientPool.borrowClient();
+            fail("expected ServicesException");
+        } catch (ServicesException e) {
+            assertEquals(1, clientPool.getStats().getRejectedCount());
+        }
+
+        Thread.sleep(5);
+        clientPool.recover();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // the probed client is kept for the next request
+        assertEquals(1, clientPool.getIdleCount());
+        assertEquals("hello", clientPool.borrowClient().echo("hello"));
+        clientPool.close();
+    }
+
+    @Test
+    public void testServiceErrorsDoNotOpenBreaker() throws Exception {
+        SlowFetchService service = new SlowFetchService(0);
+        int fetchPort = service.serve();
+        Thread.sleep(100);
+        CircuitBreaker breaker = new CircuitBreaker("fetch", 0.5, 4, 2, 60000L);
+        ClientPool<FetchCommunicationService.Client> clientPool = new ClientPool<>("fetch",
+                        new PoolConfig(2, 1000L),
+                        new ServiceConfig("localhost", fetchPort),
+                        transport -> new FetchCommunicationService.Client(new TCompactProtocol(transport)),
+                        null, breaker);
+        try {
+            FetchRequest request = new FetchRequest();
+            request.addToCommunicationIds("fail1");
+            for (int i = 0; i < 5; i++) {
+                FetchCommunicationService.Client client = clientPool.borrowClient();
+                try {
+                    client.fetch(request);
+                    fail("expected ServicesException");
+                } catch (ServicesException e) {
+                    clientPool.releaseClient(client, e);
+                }
+            }
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            // the connection is still good so it is reused
+            assertEquals(1, clientPool.getClientCount());
+            assertEquals(0, clientPool.getStats().getInvalidatedCount());
+        } finally {
+            clientPool.close();
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testWaitPercentiles() {
+        PoolStats stats = new PoolStats();
+        assertEquals(0, stats.getWaitPercentile(99));
+        for (int i = 0; i < 99; i++) {
+            stats.recordBorrow(0);
+        }
+        stats.recordBorrow(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(0, stats.getWaitPercentile(50));
+        assertEquals(0, stats.getWaitPercentile(99));
+        long p100 = stats.getWaitPercentile(100);
+        assertTrue(p100 >= 5000 && p100 < 10000);
+    }
+
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class AnnotationPipelineTest {
+
+    private Config config(int capacity, int maxAttempts) {
+        return ConfigFactory.empty()
+                        .withValue("pipeline.durable", ConfigValueFactory.fromAnyRef(false))
+                        .withValue("pipeline.capacity", ConfigValueFactory.fromAnyRef(capacity))
+                        .withValue("pipeline.max_attempts", ConfigValueFactory.fromAnyRef(maxAttempts))
+                        .withValue("pipeline.backoff", ConfigValueFactory.fromAnyRef("1ms"))
+                        .withValue("pipeline.enqueue_timeout", ConfigValueFactory.fromAnyRef("50ms"));
+    }
+
+    private Config durableConfig() throws IOException {
+        File dir = Files.createTempDirectory("cadet-pipeline").toFile();
+        dir.deleteOnExit();
+        return config(10, 3)
+                        .withValue("pipeline.durable", ConfigValueFactory.fromAnyRef(true))
+                        .withValue("log.dir", ConfigValueFactory.fromAnyRef(dir.getPath()));
+    }
+
+    private void submit(AnnotationPipeline pipeline, String session, String id) throws ServicesException {
+        // the durable log only keeps communications with every required field set
+        Communication communication = new RandomConcreteFactory().communication();
+        communication.setId(id);
+        pipeline.submit(new UUID(session), new AnnotationUnitIdentifier(id), communication);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testLogIsRequiredByDefault() {
+        new AnnotationPipeline(config(10, 3).withoutPath("pipeline.durable"));
+    }
+
+    @Test
+    public void testDeliversToEveryStage() throws Exception {
+        List<String> stored = new CopyOnWriteArrayList<>();
+        List<String> learned = new CopyOnWriteArrayList<>();
+        AnnotationPipeline pipeline = new AnnotationPipeline(config(10, 3));
+        pipeline.addStage("store", (s, u, c) -> stored.add(c.getId()), AnnotationPipeline.Route.COMMUNICATION);
+        pipeline.addStage("learn", (s, u, c) -> learned.add(c.getId()), AnnotationPipeline.Route.SESSION);
+        pipeline.start();
+
+        submit(pipeline, "s1", "a");
+        submit(pipeline, "s1", "b");
+        submit(pipeline, "s2", "c");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+
+        assertEquals(3, stored.size());
+        // one session is routed to one worker so its order is kept
+        assertTrue(learned.indexOf("a") < learned.indexOf("b"));
+        assertEquals(3, pipeline.getStage("store").getProcessedCount());
+        assertEquals(3, pipeline.getStage("learn").getProcessedCount());
+        assertEquals(0, pipeline.getPending(new UUID("s1")).size());
+        pipeline.close();
+    }
+
+    @Test
+    public void testRetriesFailedDelivery() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AnnotationPipeline pipeline = new AnnotationPipeline(config(10, 5));
+        pipeline.addStage("store", (s, u, c) -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new TException("store is down");
+            }
+        }, AnnotationPipeline.Route.COMMUNICATION);
+        pipeline.start();
+
+        submit(pipeline, "s1", "a");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+
+        AnnotationPipeline.Stage stage = pipeline.getStage("store");
+        assertEquals(1, stage.getProcessedCount());
+        assertEquals(2, stage.getRetryCount());
+        assertEquals(0, stage.getFailedCount());
+        pipeline.close();
+    }
+
+    @Test
+    public void testRetryOnlyHoldsItsKey() throws Exception {
+        AtomicInteger failuresLeft = new AtomicInteger(2);
+        List<String> learned = new CopyOnWriteArrayList<>();
+        Config config = config(10, 5)
+                        .withValue("pipeline.threads", ConfigValueFactory.fromAnyRef(1))
+                        .withValue("pipeline.backoff", ConfigValueFactory.fromAnyRef("200ms"));
+        AnnotationPipeline pipeline = new AnnotationPipeline(config);
+        pipeline.addStage("learn", (s, u, c) -> {
+            if (c.getId().equals("a") && failuresLeft.getAndDecrement() > 0) {
+                throw new TException("learner is down");
+            }
+            learned.add(c.getId());
+        }, AnnotationPipeline.Route.SESSION);
+        pipeline.start();
+
+        submit(pipeline, "s1", "a");
+        submit(pipeline, "s1", "b");
+        submit(pipeline, "s2", "c");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+
+        // the other session is not stuck behind the backoff and the failed session keeps its order
+        assertEquals(Arrays.asList("c", "a", "b"), learned);
+        AnnotationPipeline.Stage stage = pipeline.getStage("learn");
+        assertEquals(2, stage.getRetryCount());
+        assertEquals(0, stage.getParkedCount());
+        pipeline.close();
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AnnotationPipeline pipeline = new AnnotationPipeline(config(10, 3));
+        pipeline.addStage("store", (s, u, c) -> {
+            calls.incrementAndGet();
+            throw new TException("store is down");
+        }, AnnotationPipeline.Route.COMMUNICATION);
+        pipeline.start();
+
+        submit(pipeline, "s1", "a");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+
+        assertEquals(3, calls.get());
+        assertEquals(1, pipeline.getStage("store").getFailedCount());
+        assertEquals(0, pipeline.getPendingCount());
+        pipeline.close();
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AnnotationPipeline pipeline = new AnnotationPipeline(config(1, 1));
+        pipeline.addStage("store", (s, u, c) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, AnnotationPipeline.Route.COMMUNICATION);
+        pipeline.start();
+
+        submit(pipeline, "s1", "a");
+        try {
+            submit(pipeline, "s1", "b");
+            fail("Full pipeline accepted an annotation");
+        } catch (ServicesException e) {
+            // expected
+        }
+        assertEquals(1, pipeline.getRejectedCount());
+        assertEquals(1, pipeline.getPending(new UUID("s1")).size());
+        assertEquals("a", pipeline.getPending(new UUID("s1")).get(0).getCommunicationId());
+
+        release.countDown();
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+        submit(pipeline, "s1", "b");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void testResumesLoggedWork() throws Exception {
+        Config config = durableConfig();
+        AnnotationPipeline stuck = new AnnotationPipeline(config);
+        stuck.addStage("store", (s, u, c) -> {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                // the pipeline was closed before the annotation was delivered
+                Thread.currentThread().interrupt();
+                throw new TException("stopped");
+            }
+        }, AnnotationPipeline.Route.COMMUNICATION);
+        stuck.start();
+        submit(stuck, "s1", "a");
+        stuck.close();
+
+        // a new pipeline on the same log picks up the undelivered annotation
+        List<String> stored = new CopyOnWriteArrayList<>();
+        AnnotationPipeline resumed = new AnnotationPipeline(config);
+        resumed.addStage("store", (s, u, c) -> stored.add(c.getId()), AnnotationPipeline.Route.COMMUNICATION);
+        resumed.start();
+        assertTrue(resumed.drain(5, TimeUnit.SECONDS));
+        assertEquals(1, stored.size());
+        assertEquals("a", stored.get(0));
+        resumed.close();
+    }
+
+    @Test
+    public void testDeliveredWorkIsNotResumed() throws Exception {
+        Config config = durableConfig();
+        AnnotationPipeline pipeline = new AnnotationPipeline(config);
+        pipeline.addStage("store", (s, u, c) -> {}, AnnotationPipeline.Route.COMMUNICATION);
+        pipeline.start();
+        submit(pipeline, "s1", "a");
+        submit(pipeline, "s1", "b");
+        assertTrue(pipeline.drain(5, TimeUnit.SECONDS));
+        pipeline.close();
+
+        List<String> redelivered = new CopyOnWriteArrayList<>();
+        AnnotationPipeline restarted = new AnnotationPipeline(config);
+        restarted.addStage("store", (s, u, c) -> redelivered.add(c.getId()), AnnotationPipeline.Route.COMMUNICATION);
+        restarted.start();
+        assertEquals(0, restarted.getPendingCount());
+        assertTrue(restarted.drain(5, TimeUnit.SECONDS));
+        restarted.close();
+        assertTrue("Delivered twice: " + redelivered, redelivered.isEmpty());
+    }
+}
@@ -96,11 +96,59 @@ public class AnnotationSessionTest {
     public void testBadUpdateSort() {
         List<AnnotationUnitIdentifier> newSort = new ArrayList<>();
         newSort.add(createAUI("1"));
-        newSort.add(createAUI("2"));
+        newSort.add(createAUI("8"));
+
+        assertFalse(session.updateSort(newSort));
+
+        newSort = new ArrayList<>();
+        newSort.add(createAUI("1"));
+        newSort.add(createAUI("1"));
 
         assertFalse(session.updateSort(newSort));
     }
 
+    @Test
+    public void testUpdateSortWithRepeatedUnit() {
+        SearchResult results = new SearchResult(new UUID("repeated"), new SearchQuery());
+        results.addToSearchResultItems(createItem("1"));
+        results.addToSearchResultItems(createItem("2"));
+        results.addToSearchResultItems(createItem("1"));
+        results.addToSearchResultItems(createItem("3"));
+        AnnotationSession repeated = new AnnotationSession(results, 1000);
+        try {
+            List<AnnotationUnitIdentifier> newSort = new ArrayList<>();
+            newSort.add(createAUI("3"));
+            newSort.add(createAUI("1"));
+            newSort.add(createAUI("2"));
+            newSort.add(createAUI("1"));
+
+            assertTrue(repeated.updateSort(newSort));
+
+            List<AnnotationUnitIdentifier> data = repeated.getNext(4);
+            assertEquals(3, data.size());
+            assertEquals("3", data.get(0).getCommunicationId());
+            assertEquals("1", data.get(1).getCommunicationId());
+            assertEquals("2", data.get(2).getCommunicationId());
+        } finally {
+            repeated.close();
+        }
+    }
+
+    @Test
+    public void testPartialUpdateSort() {
+        List<AnnotationUnitIdentifier> newSort = new ArrayList<>();
+        newSort.add(createAUI("6"));
+        newSort.add(createAUI("3"));
+
+        assertTrue(session.updateSort(newSort));
+
+        List<AnnotationUnitIdentifier> data = session.getNext(4);
+        assertEquals("6", data.get(0).getCommunicationId());
+        assertEquals("3", data.get(1).getCommunicationId());
+        assertEquals("1", data.get(2).getCommunicationId());
+        assertEquals("2", data.get(3).getCommunicationId());
+    }
+
     @Test
     public void testUpdateSortAfterFirstChunk() {
         List<AnnotationUnitIdentifier> data = session.getNext(2);
@@ -123,4 +171,47 @@ public class AnnotationSessionTest {
         assertEquals("4", data.get(1).getCommunicationId());
     }
 
+    @Test
+    public void testExpiredItemsReturnToQueue() throws InterruptedException {
+        AnnotationSession shortSession = new AnnotationSession(session.getSearchResults(), 100);
+        List<AnnotationUnitIdentifier> data = shortSession.getNext(2);
+        shortSession.addAnnotation(data.get(0), null);
+        Thread.sleep(400);
+
+        // the item that was not annotated is handed out again ahead of the rest
+        data = shortSession.getNext(2);
+        assertEquals("2", data.get(0).getCommunicationId());
+        assertEquals("3", data.get(1).getCommunicationId());
+        shortSession.close();
+    }
+
+    @Test
+    public void testSessionsDoNotStartThreads() {
+        int threads = Thread.activeCount();
+        List<AnnotationSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            AnnotationSession s = new AnnotationSession(session.getSearchResults(), 1000);
+            s.getNext(2);
+            sessions.add(s);
+        }
+        // at most the shared timer thread is added
+        assertTrue(Thread.activeCount() <= threads + 1);
+        sessions.forEach(AnnotationSession::close);
+    }
+
+    @Test
+    public void testIdleTime() throws InterruptedException {
+        Thread.sleep(50);
+        assertTrue(session.getIdleTime() >= 50);
+        session.getNext(1);
+        assertTrue(session.getIdleTime() < 50);
+    }
+
+    @Test
+    public void testSortUpdateIsNotActivity() throws InterruptedException {
+        Thread.sleep(50);
+        session.updateSort(session.getOrderedItems());
+        session.getAnnotations(true);
+        assertTrue(session.getIdleTime() >= 50);
+    }
 }
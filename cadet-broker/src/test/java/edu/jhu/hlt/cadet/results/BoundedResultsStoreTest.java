@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.cadet.results.ResultsStore.Item;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class BoundedResultsStoreTest extends IndexedResultsStoreTest {
+
+    @Override
+    protected ResultsStore createStore() {
+        // nothing stays resident so the inherited tests read back from disk
+        // (max_entries would also cap the listings they check)
+        return createStore("cadet.results.max_bytes = 1");
+    }
+
+    @After
+    public void tearDown() {
+        ((BoundedResultsStore) store).close();
+    }
+
+    private BoundedResultsStore createStore(String config) {
+        BoundedResultsStore store = new BoundedResultsStore();
+        store.init(ConfigFactory.parseString(config));
+        return store;
+    }
+
+    private SearchResult createResult(String id, String user) {
+        SearchQuery q = new SearchQuery();
+        q.setUserId(user);
+        q.setRawQuery("query " + id);
+        q.setType(SearchType.COMMUNICATIONS);
+        return new SearchResult(new UUID(id), q);
+    }
+
+    @Test
+    public void testEvictAndReload() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_entries = 2");
+        for (int i = 0; i < 10; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+        assertEquals(2, store.getResidentCount());
+        assertEquals(8, store.getEvictionCount());
+        assertEquals(0, store.getReloadCount());
+
+        Item item = store.getByID(new UUID("r0"));
+        assertEquals("query r0", item.results.getSearchQuery().getRawQuery());
+        assertEquals("amy", item.userId);
+        assertTrue(item.tasks.contains(AnnotationTaskType.NER));
+        assertEquals(1, store.getReloadCount());
+        assertEquals(2, store.getResidentCount());
+        store.close();
+    }
+
+    @Test
+    public void testUnlimitedListingStaysWithinMaxEntries() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_entries = 2");
+        for (int i = 0; i < 10; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+        // use the oldest results so the listing has to read them back
+        store.getByID(new UUID("r0"));
+        store.getByID(new UUID("r1"));
+
+        List<SearchResult> list = store.getByTask(AnnotationTaskType.NER, 0);
+        assertEquals(2, list.size());
+        assertEquals(new UUID("r9"), list.get(0).getUuid());
+        assertTrue(store.getResidentCount() <= 2);
+        assertEquals(2, store.getByUser(AnnotationTaskType.NER, "amy", 0).size());
+        assertEquals(1, store.getByUser(AnnotationTaskType.NER, "amy", 1).size());
+        assertTrue(store.getResidentCount() <= 2);
+        store.close();
+    }
+
+    @Test
+    public void testAddTaskToSpilledResult() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_entries = 1");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r0", "amy"), AnnotationTaskType.TRANSLATION);
+
+        List<SearchResult> list = store.getByUser(AnnotationTaskType.TRANSLATION, "amy", 0);
+        assertEquals(1, list.size());
+        assertEquals(new UUID("r0"), list.get(0).getUuid());
+        store.add(createResult("r2", "amy"), AnnotationTaskType.NER);
+        assertTrue(store.getByID(new UUID("r0")).tasks.contains(AnnotationTaskType.TRANSLATION));
+        store.close();
+    }
+
+    @Test
+    public void testMaxBytes() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_bytes = 1");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        assertEquals(0, store.getResidentCount());
+        assertEquals(0, store.getResidentBytes());
+        assertEquals(new UUID("r0"), store.getLatest("amy").results.getUuid());
+        store.close();
+    }
+
+    @Test
+    public void testMaxAge() throws ServicesException, InterruptedException {
+        BoundedResultsStore store = createStore("cadet.results.max_age = 10ms");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        Thread.sleep(20);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+        assertEquals(1, store.getResidentCount());
+        assertEquals(1, store.getEvictionCount());
+        store.close();
+    }
+
+    @Test
+    public void testRecentlyUsedResultStaysResident() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_entries = 2");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+        store.getByID(new UUID("r0"));
+        store.add(createResult("r2", "amy"), AnnotationTaskType.NER);
+
+        // r1 is the least recently used so it is the one dropped
+        store.getByID(new UUID("r0"));
+        assertEquals(0, store.getReloadCount());
+        store.getByID(new UUID("r1"));
+        assertEquals(1, store.getReloadCount());
+        store.close();
+    }
+
+    @Test
+    public void testMaxAgeCountsFromLastUse() throws ServicesException, InterruptedException {
+        BoundedResultsStore store = createStore("cadet.results.max_age = 200ms");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            store.getByID(new UUID("r0"));
+        }
+        assertEquals(0, store.getEvictionCount());
+        store.close();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testReadAfterClose() throws ServicesException {
+        BoundedResultsStore store = createStore("cadet.results.max_entries = 1");
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+        store.close();
+        store.getByID(new UUID("r0"));
+    }
+
+    @Test
+    public void testNoLimits() throws ServicesException {
+        BoundedResultsStore store = createStore("");
+        for (int i = 0; i < 10; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+        assertEquals(10, store.getResidentCount());
+        assertEquals(0, store.getEvictionCount());
+        store.close();
+    }
+}
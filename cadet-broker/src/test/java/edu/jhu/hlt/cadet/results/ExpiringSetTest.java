@@ -7,6 +7,7 @@ package edu.jhu.hlt.cadet.results;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
 import java.util.Set;
 
 import org.junit.Test;
@@ -46,4 +47,64 @@ public class ExpiringSetTest {
         assertEquals(item2, es.iterator().next());
     }
 
+    @Test
+    public void test_expire_with_clock() {
+        long[] now = {1000};
+        ExpiringSet es = new ExpiringSet(30, () -> now[0]);
+        AnnotationUnitIdentifier item1 = new AnnotationUnitIdentifier("test1");
+        AnnotationUnitIdentifier item2 = new AnnotationUnitIdentifier("test2");
+        AnnotationUnitIdentifier item3 = new AnnotationUnitIdentifier("test3");
+        es.add(item1);
+        now[0] = 1010;
+        es.add(item2);
+        es.add(item3);
+
+        now[0] = 1030;
+        assertTrue(es.expire().isEmpty());
+
+        now[0] = 1031;
+        Set<AnnotationUnitIdentifier> expiredItems = es.expire();
+        assertEquals(1, expiredItems.size());
+        assertTrue(expiredItems.contains(item1));
+
+        now[0] = 1041;
+        expiredItems = es.expire();
+        assertEquals(2, expiredItems.size());
+        assertTrue(es.isEmpty());
+    }
+
+    @Test
+    public void test_readd_after_remove() {
+        long[] now = {0};
+        ExpiringSet es = new ExpiringSet(30, () -> now[0]);
+        AnnotationUnitIdentifier item1 = new AnnotationUnitIdentifier("test1");
+        AnnotationUnitIdentifier item2 = new AnnotationUnitIdentifier("test2");
+        es.add(item1);
+        es.add(item2);
+        assertFalse(es.add(item1));
+
+        // item1 goes to the back with a new deadline
+        now[0] = 20;
+        es.remove(item1);
+        es.add(item1);
+
+        now[0] = 40;
+        Set<AnnotationUnitIdentifier> expiredItems = es.expire();
+        assertEquals(1, expiredItems.size());
+        assertTrue(expiredItems.contains(item2));
+        assertTrue(es.contains(item1));
+    }
+
+    @Test
+    public void test_retain_all() {
+        ExpiringSet es = new ExpiringSet(30, () -> 0);
+        AnnotationUnitIdentifier item1 = new AnnotationUnitIdentifier("test1");
+        AnnotationUnitIdentifier item2 = new AnnotationUnitIdentifier("test2");
+        es.add(item1);
+        es.add(item2);
+
+        assertTrue(es.retainAll(Collections.singleton(item2)));
+        assertEquals(1, es.size());
+        assertTrue(es.contains(item2));
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class IndexedResultsStoreTest extends MemoryResultsStoreTest {
+
+    @Override
+    protected ResultsStore createStore() {
+        return new IndexedResultsStore();
+    }
+
+    private SearchResult createResult(String id, String user) {
+        SearchQuery q = new SearchQuery();
+        q.setUserId(user);
+        q.setRawQuery("query " + id);
+        return new SearchResult(new UUID(id), q);
+    }
+
+    @Test
+    public void testOrderWithoutDelay() throws ServicesException {
+        ResultsStore store = createStore();
+        for (int i = 0; i < 100; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+
+        List<SearchResult> list = store.getByUser(AnnotationTaskType.NER, "amy", 3);
+        assertEquals(3, list.size());
+        assertEquals(new UUID("r99"), list.get(0).getUuid());
+        assertEquals(new UUID("r98"), list.get(1).getUuid());
+        assertEquals(new UUID("r97"), list.get(2).getUuid());
+        assertEquals(new UUID("r99"), store.getLatest("amy").results.getUuid());
+    }
+
+    @Test
+    public void testAddTaskKeepsOriginalOrder() throws ServicesException {
+        // test1 was registered first so stays the oldest after picking up a new task
+        store.add(createResult("test1", "bob"), AnnotationTaskType.TRANSLATION);
+
+        List<SearchResult> list = store.getByTask(AnnotationTaskType.TRANSLATION, 0);
+        assertEquals(2, list.size());
+        assertEquals(new UUID("test4"), list.get(0).getUuid());
+        assertEquals(new UUID("test1"), list.get(1).getUuid());
+        assertEquals(new UUID("test2"), store.getLatest("bob").results.getUuid());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        IndexedResultsStore store = new IndexedResultsStore();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<String> users = new ArrayList<>();
+        for (int u = 0; u < 8; u++) {
+            users.add("user" + u);
+        }
+        for (String user : users) {
+            executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    store.add(createResult(user + "-" + i, user), AnnotationTaskType.NER);
+                    store.getByTask(AnnotationTaskType.NER, 10);
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        assertEquals(4000, store.size());
+        assertEquals(4000, store.getByTask(AnnotationTaskType.NER, 0).size());
+        for (String user : users) {
+            assertEquals(500, store.getByUser(AnnotationTaskType.NER, user, 0).size());
+            assertEquals(new UUID(user + "-499"), store.getLatest(user).results.getUuid());
+        }
+    }
+}
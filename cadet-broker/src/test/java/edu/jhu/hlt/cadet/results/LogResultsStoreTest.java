@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import edu.jhu.hlt.cadet.results.ResultsStore.Item;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.AnnotationTaskType;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class LogResultsStoreTest {
+    private File dir;
+    private Config config;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cadet-log").toFile();
+        dir.deleteOnExit();
+        config = ConfigFactory.empty()
+                        .withValue("cadet.results.log.dir", ConfigValueFactory.fromAnyRef(dir.getPath()));
+    }
+
+    private LogResultsStore open() {
+        LogResultsStore store = new LogResultsStore();
+        store.init(config);
+        return store;
+    }
+
+    private SearchResult createResult(String id, String user) {
+        SearchQuery q = new SearchQuery();
+        q.setUserId(user);
+        q.setRawQuery("query " + id);
+        q.setType(SearchType.COMMUNICATIONS);
+        return new SearchResult(new UUID(id), q);
+    }
+
+    @Test
+    public void testReplayLog() throws ServicesException {
+        LogResultsStore store = open();
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r0", "amy"), AnnotationTaskType.TRANSLATION);
+        Item original = store.getByID(new UUID("r0"));
+        // simulates a crash by not closing the store
+
+        LogResultsStore restored = open();
+        assertEquals(2, restored.size());
+        Item item = restored.getByID(new UUID("r0"));
+        assertEquals("query r0", item.results.getSearchQuery().getRawQuery());
+        assertTrue(item.tasks.contains(AnnotationTaskType.TRANSLATION));
+        assertEquals(original.timestamp.toEpochMilli(), item.timestamp.toEpochMilli());
+        assertEquals(new UUID("r1"), restored.getLatest("amy").results.getUuid());
+        restored.close();
+    }
+
+    @Test
+    public void testReplaySnapshot() throws ServicesException {
+        LogResultsStore store = open();
+        for (int i = 0; i < 10; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+        store.snapshot();
+        store.add(createResult("r10", "amy"), AnnotationTaskType.NER);
+        store.close();
+
+        assertEquals(1, dir.toPath().resolve("results").toFile().list((d, name) -> name.endsWith(".snap")).length);
+        LogResultsStore restored = open();
+        assertEquals(11, restored.size());
+        List<SearchResult> list = restored.getByUser(AnnotationTaskType.NER, "amy", 2);
+        assertEquals(new UUID("r10"), list.get(0).getUuid());
+        assertEquals(new UUID("r9"), list.get(1).getUuid());
+        restored.close();
+    }
+
+    @Test
+    public void testTornRecord() throws ServicesException, IOException {
+        LogResultsStore store = open();
+        store.add(createResult("r0", "amy"), AnnotationTaskType.NER);
+        store.add(createResult("r1", "amy"), AnnotationTaskType.NER);
+
+        File segment = new File(new File(dir, "results"), "segment-0.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        LogResultsStore restored = open();
+        assertEquals(1, restored.size());
+        restored.add(createResult("r2", "amy"), AnnotationTaskType.NER);
+        restored.close();
+
+        LogResultsStore reopened = open();
+        assertEquals(2, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testSnapshotAfterRecordLimit() throws ServicesException, InterruptedException {
+        config = config.withValue("cadet.results.log.snapshot_records", ConfigValueFactory.fromAnyRef(5));
+        LogResultsStore store = open();
+        for (int i = 0; i < 12; i++) {
+            store.add(createResult("r" + i, "amy"), AnnotationTaskType.NER);
+        }
+
+        // the snapshot is written in the background without closing the store
+        File results = new File(dir, "results");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (results.list((d, name) -> name.endsWith(".snap")).length == 0
+                        && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(results.list((d, name) -> name.endsWith(".snap")).length > 0);
+
+        LogResultsStore restored = open();
+        assertEquals(12, restored.size());
+        restored.close();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.Annotation;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+public class LogSessionStoreTest {
+    private Config config;
+
+    @Before
+    public void setUp() throws IOException {
+        File dir = Files.createTempDirectory("cadet-log").toFile();
+        dir.deleteOnExit();
+        config = ConfigFactory.empty()
+                        .withValue("cadet.results.log.dir", ConfigValueFactory.fromAnyRef(dir.getPath()));
+    }
+
+    private LogSessionStore open() {
+        LogSessionStore store = new LogSessionStore();
+        store.init(config);
+        return store;
+    }
+
+    private AnnotationSession createSession(String id) {
+        SearchQuery query = new SearchQuery();
+        query.setType(SearchType.COMMUNICATIONS);
+        SearchResult results = new SearchResult(new UUID(id), query);
+        for (int i = 1; i <= 5; i++) {
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId(id + "_" + i);
+            results.addToSearchResultItems(item);
+        }
+        return new AnnotationSession(results, 60 * 1000);
+    }
+
+    private static Communication createCommunication(String id) {
+        // the log only keeps communications with every required field set
+        return new RandomConcreteFactory().communication().setId(id);
+    }
+
+    @Test
+    public void testReplayAddAndRemove() {
+        LogSessionStore store = open();
+        AnnotationSession s1 = createSession("one");
+        AnnotationSession s2 = createSession("two");
+        store.add(s1);
+        store.add(s2);
+        store.remove(s1);
+
+        LogSessionStore restored = open();
+        assertEquals(1, restored.list().size());
+        assertNull(restored.get(s1.getId()));
+        assertEquals(new UUID("two"), restored.get(s2.getId()).getSearchResults().getUuid());
+        restored.close();
+        s1.close();
+        s2.close();
+    }
+
+    @Test
+    public void testSnapshotKeepsBookkeeping() {
+        LogSessionStore store = open();
+        AnnotationSession session = createSession("one");
+        store.add(session);
+
+        List<AnnotationUnitIdentifier> chunk = session.getNext(3);
+        session.addAnnotation(chunk.get(0), null);
+        session.getAnnotations(true);
+        store.close();
+        session.close();
+
+        LogSessionStore restored = open();
+        AnnotationSession copy = restored.get(session.getId());
+        // the 2 items that were out for annotation are available again
+        List<AnnotationUnitIdentifier> next = copy.getNext(10);
+        assertEquals(4, next.size());
+        assertEquals("one_2", next.get(0).getCommunicationId());
+        copy.close();
+        restored.close();
+    }
+
+    @Test
+    public void testReplayBookkeepingWithoutSnapshot() {
+        LogSessionStore store = open();
+        AnnotationSession session = createSession("one");
+        store.add(session);
+
+        session.updateSort(Arrays.asList(new AnnotationUnitIdentifier("one_4"),
+                        new AnnotationUnitIdentifier("one_5")));
+        List<AnnotationUnitIdentifier> chunk = session.getNext(1);
+        session.addAnnotation(chunk.get(0), createCommunication("annotated"));
+        session.addAnnotation(new AnnotationUnitIdentifier("one_1"), null);
+        session.getAnnotations(true);
+        session.addAnnotation(new AnnotationUnitIdentifier("one_2"), createCommunication("kept"));
+        // simulates a crash by not closing the store
+
+        LogSessionStore restored = open();
+        AnnotationSession copy = restored.get(session.getId());
+        assertTrue(copy.getCompletedItems().contains(new AnnotationUnitIdentifier("one_4")));
+        Set<Annotation> annotations = copy.getAnnotations(false);
+        assertEquals(1, annotations.size());
+        assertEquals("kept", annotations.iterator().next().getCommunication().getId());
+        List<AnnotationUnitIdentifier> next = copy.getNext(10);
+        assertEquals(2, next.size());
+        assertEquals("one_5", next.get(0).getCommunicationId());
+        assertEquals("one_3", next.get(1).getCommunicationId());
+        copy.close();
+        restored.close();
+        session.close();
+    }
+}
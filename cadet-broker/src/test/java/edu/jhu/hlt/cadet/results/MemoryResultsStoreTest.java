@@ -22,11 +22,15 @@ import edu.jhu.hlt.concrete.services.AnnotationTaskType;
 import edu.jhu.hlt.concrete.services.ServicesException;
 
 public class MemoryResultsStoreTest {
-    private ResultsStore store;
+    protected ResultsStore store;
+
+    protected ResultsStore createStore() {
+        return new MemoryResultsStore();
+    }
 
     @Before
     public void setUp() throws InterruptedException, ServicesException {
-        store = new MemoryResultsStore();
+        store = createStore();
 
         SearchQuery q1 = new SearchQuery();
         q1.setUserId("bob");
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
+
+public class RankQueueTest {
+    private RankQueue queue;
+
+    @Before
+    public void setUp() {
+        List<AnnotationUnitIdentifier> units = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            units.add(unit(i));
+        }
+        queue = new RankQueue(units);
+    }
+
+    private static AnnotationUnitIdentifier unit(int i) {
+        return new AnnotationUnitIdentifier(Integer.toString(i));
+    }
+
+    @Test
+    public void testPollInOrder() {
+        assertEquals(Arrays.asList(unit(0), unit(1)), queue.poll(2));
+        assertEquals(Arrays.asList(unit(2), unit(3), unit(4), unit(5)), queue.poll(10));
+        assertTrue(queue.poll(2).isEmpty());
+    }
+
+    @Test
+    public void testAddReturnsToRank() {
+        queue.poll(4);
+        assertTrue(queue.add(unit(1)));
+        assertEquals(Arrays.asList(unit(1), unit(4)), queue.poll(2));
+        assertFalse(queue.add(unit(99)));
+    }
+
+    @Test
+    public void testRemove() {
+        queue.remove(unit(0));
+        assertFalse(queue.isAvailable(unit(0)));
+        assertEquals(Arrays.asList(unit(1)), queue.poll(1));
+    }
+
+    @Test
+    public void testFullSortKeepsAvailability() {
+        queue.poll(2);
+        assertTrue(queue.moveToTop(Arrays.asList(unit(5), unit(0), unit(4), unit(1), unit(3), unit(2))));
+        assertEquals(Arrays.asList(unit(5), unit(4), unit(3)), queue.poll(3));
+        assertTrue(queue.add(unit(0)));
+        assertEquals(Arrays.asList(unit(0), unit(2)), queue.poll(2));
+    }
+
+    @Test
+    public void testPreparedOrderUsesCurrentAvailability() {
+        RankQueue.Order order = queue.prepareOrder(Arrays.asList(unit(5), unit(4), unit(3), unit(2), unit(1), unit(0)));
+        // units handed out after the order was built stay out
+        assertEquals(Arrays.asList(unit(0), unit(1)), queue.poll(2));
+        queue.reorder(order);
+        assertEquals(Arrays.asList(unit(5), unit(4), unit(3), unit(2), unit(1), unit(0)), queue.toList());
+        assertEquals(Arrays.asList(unit(5), unit(4), unit(3), unit(2)), queue.poll(10));
+        assertTrue(queue.add(unit(0)));
+        assertTrue(queue.add(unit(1)));
+        assertEquals(Arrays.asList(unit(1), unit(0)), queue.poll(10));
+    }
+
+    @Test
+    public void testInvalidPreparedOrder() {
+        assertNull(queue.prepareOrder(Arrays.asList(unit(0), unit(1))));
+        assertNull(queue.prepareOrder(Arrays.asList(unit(0), unit(1), unit(2), unit(3), unit(4), unit(4))));
+        assertNull(queue.prepareOrder(Arrays.asList(unit(0), unit(1), unit(2), unit(3), unit(4), unit(99))));
+    }
+
+    @Test
+    public void testMoveToTop() {
+        queue.poll(1);
+        assertTrue(queue.moveToTop(Arrays.asList(unit(3), unit(0))));
+        assertEquals(Arrays.asList(unit(3), unit(0), unit(1), unit(2), unit(4), unit(5)), queue.toList());
+        // 0 is still out for annotation
+        assertEquals(Arrays.asList(unit(3), unit(1), unit(2)), queue.poll(3));
+        assertTrue(queue.add(unit(0)));
+        assertEquals(Arrays.asList(unit(0), unit(4)), queue.poll(2));
+    }
+
+    @Test
+    public void testInvalidSortIsRejected() {
+        assertFalse(queue.moveToTop(Arrays.asList(unit(1), unit(1))));
+        assertFalse(queue.moveToTop(Arrays.asList(unit(1), unit(99))));
+        assertFalse(queue.moveToTop(new ArrayList<>()));
+        assertEquals(Arrays.asList(unit(0), unit(1), unit(2), unit(3), unit(4), unit(5)), queue.toList());
+    }
+
+    @Test
+    public void testRepeatedUnitsAreDropped() {
+        RankQueue repeated = new RankQueue(Arrays.asList(unit(0), unit(1), unit(0), unit(2), unit(1)));
+        assertEquals(3, repeated.size());
+        assertEquals(Arrays.asList(unit(0), unit(1), unit(2)), repeated.toList());
+        assertTrue(repeated.moveToTop(Arrays.asList(unit(2), unit(1), unit(0))));
+        assertEquals(Arrays.asList(unit(2), unit(1), unit(0)), repeated.poll(10));
+        assertTrue(repeated.add(unit(0)));
+        assertEquals(Arrays.asList(unit(0)), repeated.poll(10));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentLogTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cadet-segments").toFile();
+        dir.deleteOnExit();
+    }
+
+    private static byte[] record(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> replay(SegmentLog log) throws IOException {
+        List<String> records = new ArrayList<>();
+        log.replay(record -> records.add(new String(record, StandardCharsets.UTF_8)));
+        return records;
+    }
+
+    @Test
+    public void testTornTailOfLastSegmentIsDropped() throws IOException {
+        SegmentLog log = new SegmentLog(dir, 1 << 20, false);
+        replay(log);
+        log.append(record("one"));
+        log.append(record("two"));
+        log.close();
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "segment-0.log"), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        SegmentLog restored = new SegmentLog(dir, 1 << 20, false);
+        assertEquals(Arrays.asList("one"), replay(restored));
+        restored.append(record("three"));
+        restored.close();
+
+        // the torn segment is no longer the last one so it has to be whole
+        SegmentLog reopened = new SegmentLog(dir, 1 << 20, false);
+        assertEquals(Arrays.asList("one", "three"), replay(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void testCorruptEarlierSegmentFailsReplay() throws IOException {
+        // every record starts a new segment
+        SegmentLog log = new SegmentLog(dir, 1, false);
+        replay(log);
+        log.append(record("one"));
+        log.append(record("two"));
+        log.append(record("three"));
+        log.close();
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, "segment-1.log"), "rw")) {
+            file.seek(file.length() - 1);
+            file.write('x');
+        }
+
+        SegmentLog restored = new SegmentLog(dir, 1, false);
+        try {
+            replay(restored);
+            fail("replay should fail on a corrupt record before the last segment");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            restored.close();
+        }
+    }
+}
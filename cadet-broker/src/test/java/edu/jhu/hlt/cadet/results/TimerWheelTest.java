@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.jhu.hlt.cadet.results.TimerWheel.Timeout;
+
+public class TimerWheelTest {
+    private TimerWheel timer = new TimerWheel("test-timer", 5, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testRunsAtDeadline() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] elapsed = new long[1];
+        timer.schedule(() -> {
+            elapsed[0] = System.nanoTime() - start;
+            latch.countDown();
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testDelayLongerThanWheel() throws InterruptedException {
+        // 8 buckets of 5 ms so this goes around the wheel several times
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(latch::countDown, 150, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        Timeout timeout = timer.schedule(count::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        timer.schedule(count::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        Thread.sleep(100);
+
+        assertEquals(1, count.get());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.isExpired());
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchCapability;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class CachingSearchProviderTest {
+    private CountingProvider backend;
+    private CachingSearchProvider provider;
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.close();
+        }
+    }
+
+    private void create(long delay, long ttl, long stale, int maxEntries) {
+        backend = new CountingProvider(delay);
+        provider = new CachingSearchProvider();
+        provider.init(backend, ttl, stale, maxEntries, 1024 * 1024);
+    }
+
+    private SearchQuery query(String text) {
+        SearchQuery query = new SearchQuery();
+        query.setRawQuery(text);
+        query.setType(SearchType.COMMUNICATIONS);
+        return query;
+    }
+
+    @Test
+    public void testCachedResultsGetNewUuids() throws TException {
+        create(0, 60000, 0, 10);
+        SearchResult first = provider.search(query("who is there?"));
+        SearchResult second = provider.search(query("who is there?"));
+
+        assertEquals(1, backend.calls.get());
+        assertEquals(1, provider.getHitCount());
+        assertNotEquals(first.getUuid(), second.getUuid());
+        assertEquals(first.getSearchResultItems(), second.getSearchResultItems());
+    }
+
+    @Test
+    public void testCallerKeepsItsOwnQuery() throws TException {
+        create(0, 60000, 0, 10);
+        SearchQuery mine = query("who is there?");
+        mine.setUserId("me");
+        SearchQuery yours = query("who is there?");
+        yours.setUserId("you");
+        provider.search(mine);
+
+        assertEquals("you", provider.search(yours).getSearchQuery().getUserId());
+        assertEquals(1, backend.calls.get());
+    }
+
+    @Test
+    public void testQueriesAreNormalized() {
+        SearchQuery a = query("  who   is there? ");
+        a.setTerms(Arrays.asList("there", "who"));
+        SearchQuery b = query("who is there?");
+        b.setTerms(Arrays.asList("who", "there"));
+        assertEquals(CachingSearchProvider.key(a, false), CachingSearchProvider.key(b, false));
+
+        b.setK(10);
+        assertNotEquals(CachingSearchProvider.key(a, false), CachingSearchProvider.key(b, false));
+        SearchQuery c = query("who is there?");
+        c.setCorpus("other");
+        assertNotEquals(CachingSearchProvider.key(query("who is there?"), false), CachingSearchProvider.key(c, false));
+    }
+
+    @Test
+    public void testCaseIsKeptUnlessIgnored() {
+        SearchQuery upper = query("Who is there?");
+        upper.setTerms(Arrays.asList("Who"));
+        SearchQuery lower = query("who is there?");
+        lower.setTerms(Arrays.asList("who"));
+        assertNotEquals(CachingSearchProvider.key(upper, false), CachingSearchProvider.key(lower, false));
+        assertEquals(CachingSearchProvider.key(upper, true), CachingSearchProvider.key(lower, true));
+    }
+
+    @Test
+    public void testConcurrentSearchesShareOneBackendCall() throws Exception {
+        create(200, 60000, 0, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<SearchResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> provider.search(query("burst"))));
+        }
+        for (Future<SearchResult> future : futures) {
+            assertEquals(1, future.get().getSearchResultItemsSize());
+        }
+        executor.shutdown();
+
+        assertEquals(1, backend.calls.get());
+    }
+
+    @Test
+    public void testExpiredResultsAreSearchedAgain() throws Exception {
+        create(0, 50, 0, 10);
+        provider.search(query("q"));
+        Thread.sleep(100);
+        provider.search(query("q"));
+
+        assertEquals(2, backend.calls.get());
+        assertEquals(2, provider.getMissCount());
+    }
+
+    @Test
+    public void testStaleResultsAreRefreshedInTheBackground() throws Exception {
+        create(300, 50, 60000, 10);
+        provider.search(query("q"));
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        provider.search(query("q"));
+        assertTrue(System.currentTimeMillis() - start < 200);
+        assertEquals(1, provider.getStaleHitCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backend.calls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvicted() throws TException {
+        create(0, 60000, 0, 2);
+        provider.search(query("a"));
+        provider.search(query("b"));
+        provider.search(query("a"));
+        provider.search(query("c"));
+
+        assertEquals(2, provider.getCachedCount());
+        assertEquals(1, provider.getEvictionCount());
+        provider.search(query("a"));
+        assertEquals(3, backend.calls.get());
+    }
+
+    @Test(expected=ServicesException.class)
+    public void testFailuresAreNotCached() throws TException {
+        create(0, 60000, 0, 10);
+        backend.fail = true;
+        try {
+            provider.search(query("q"));
+        } catch (ServicesException e) {
+            // expected
+        }
+        assertEquals(0, provider.getCachedCount());
+        provider.search(query("q"));
+    }
+
+    /**
+     * Search provider that counts its searches
+     */
+    private static class CountingProvider implements SearchProvider {
+        private final long delay;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean fail;
+
+        CountingProvider(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void init(Config config) {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public SearchResult search(SearchQuery searchQuery) throws ServicesException, TException {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (fail) {
+                throw new ServicesException("Search is broken");
+            }
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId(searchQuery.getRawQuery());
+            item.setScore(1.0);
+            SearchResult result = new SearchResult(new UUID("result"), searchQuery);
+            result.addToSearchResultItems(item);
+            return result;
+        }
+
+        @Override
+        public boolean alive() throws TException {
+            return true;
+        }
+
+        @Override
+        public ServiceInfo about() throws TException {
+            return new ServiceInfo("CountingProvider", "1.0.0");
+        }
+
+        @Override
+        public List<SearchCapability> getCapabilities() throws ServicesException, TException {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<String> getCorpora() throws ServicesException, TException {
+            return new ArrayList<>();
+        }
+    }
+}
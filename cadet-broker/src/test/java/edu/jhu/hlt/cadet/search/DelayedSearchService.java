@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+
+import edu.jhu.hlt.cadet.ThriftTestServer;
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchCapability;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.search.SearchService;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+/**
+ * Search service for tests that delays each query by a time chosen from the query
+ *
+ * The single result item has the query name as its communication id so callers can
+ * check that they got the answer to their own query.
+ */
+public class DelayedSearchService implements SearchService.Iface {
+    private final ToLongFunction<SearchQuery> delay;
+    private ThriftTestServer server;
+
+    /**
+     * @param delay  time in milliseconds to answer a query
+     */
+    public DelayedSearchService(ToLongFunction<SearchQuery> delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Serve on a free port in a background thread
+     *
+     * @return the port
+     */
+    public int serve() throws TTransportException {
+        server = ThriftTestServer.serve(new SearchService.Processor<>(this));
+        return server.getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Override
+    public SearchResult search(SearchQuery query) throws ServicesException, TException {
+        try {
+            Thread.sleep(delay.applyAsLong(query));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        SearchResultItem item = new SearchResultItem();
+        item.setCommunicationId(query.getName());
+        item.setScore(1.0);
+        SearchResult result = new SearchResult(new UUID(java.util.UUID.randomUUID().toString()), query);
+        result.addToSearchResultItems(item);
+        return result;
+    }
+
+    @Override
+    public List<SearchCapability> getCapabilities() throws ServicesException, TException {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<String> getCorpora() throws ServicesException, TException {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo(this.getClass().getSimpleName(), "1.0.0");
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.search.SearchCapability;
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
+import edu.jhu.hlt.concrete.search.SearchType;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+
+public class FederatedSearchProviderTest {
+    private FederatedSearchProvider federated;
+
+    @Before
+    public void setUp() {
+        federated = new FederatedSearchProvider();
+        federated.init(ConfigFactory.empty().withValue("deadline", ConfigValueFactory.fromAnyRef("500ms")));
+    }
+
+    @After
+    public void tearDown() {
+        federated.close();
+    }
+
+    private SearchQuery query() {
+        SearchQuery query = new SearchQuery();
+        query.setRawQuery("who is there?");
+        query.setType(SearchType.COMMUNICATIONS);
+        return query;
+    }
+
+    private List<String> ids(SearchResult result) {
+        List<String> ids = new ArrayList<>();
+        for (SearchResultItem item : result.getSearchResultItems()) {
+            ids.add(item.getCommunicationId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testMergeKeepsTopK() throws TException {
+        federated.addProvider("a", new StubProvider(0).add("c1", 10).add("c2", 5).add("c3", 0));
+        federated.addProvider("b", new StubProvider(0).add("c4", 2).add("c5", 1));
+        SearchQuery query = query();
+        query.setK(2);
+
+        SearchResult result = federated.search(query);
+        assertEquals(2, result.getSearchResultItemsSize());
+    }
+
+    @Test
+    public void testMergesAndNormalizesScores() throws TException {
+        federated.addProvider("a", new StubProvider(0).add("c1", 10).add("c2", 5).add("c3", 0));
+        federated.addProvider("b", new StubProvider(0).add("c2", 2).add("c4", 1));
+
+        SearchResult result = federated.search(query());
+
+        // c2 is found by both so its normalized scores add up
+        assertEquals("c2", ids(result).get(0));
+        assertEquals(1.5, result.getSearchResultItems().get(0).getScore(), 0.0001);
+        assertEquals("c1", ids(result).get(1));
+        assertEquals(4, result.getSearchResultItemsSize());
+        assertEquals("who is there?", result.getSearchQuery().getRawQuery());
+    }
+
+    @Test
+    public void testUnscoredResultsAreRankedByPosition() throws TException {
+        federated.addProvider("a", new StubProvider(0).add("c1").add("c2"));
+        federated.addProvider("b", new StubProvider(0).add("c3", 1).add("c4", 2));
+
+        SearchResult result = federated.search(query());
+
+        assertEquals(1.0, result.getSearchResultItems().get(0).getScore(), 0.0001);
+        assertEquals(0.5, result.getSearchResultItems().get(ids(result).indexOf("c2")).getScore(), 0.0001);
+        assertEquals(0.0, result.getSearchResultItems().get(ids(result).indexOf("c3")).getScore(), 0.0001);
+    }
+
+    @Test
+    public void testSentencesAreNotMergedAcrossEachOther() throws TException {
+        StubProvider a = new StubProvider(0).add("c1", 1);
+        a.items.get(0).setSentenceId(new UUID("s1"));
+        StubProvider b = new StubProvider(0).add("c1", 1);
+        b.items.get(0).setSentenceId(new UUID("s2"));
+        federated.addProvider("a", a);
+        federated.addProvider("b", b);
+
+        assertEquals(2, federated.search(query()).getSearchResultItemsSize());
+    }
+
+    @Test
+    public void testProvidersAreSearchedInParallel() throws TException {
+        federated.addProvider("a", new StubProvider(300).add("c1", 1));
+        federated.addProvider("b", new StubProvider(300).add("c2", 1));
+        federated.addProvider("c", new StubProvider(300).add("c3", 1));
+
+        long start = System.currentTimeMillis();
+        SearchResult result = federated.search(query());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(3, result.getSearchResultItemsSize());
+        assertTrue("Took " + elapsed + " ms", elapsed < 700);
+    }
+
+    @Test
+    public void testSlowProviderIsLeftOut() throws TException {
+        federated.addProvider("fast", new StubProvider(0).add("c1", 1));
+        federated.addProvider("slow", new StubProvider(5000).add("c2", 1));
+
+        long start = System.currentTimeMillis();
+        SearchResult result = federated.search(query());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(1, result.getSearchResultItemsSize());
+        assertEquals("c1", ids(result).get(0));
+        assertTrue("Took " + elapsed + " ms", elapsed < 2000);
+        assertEquals(1, federated.getPartialResultCount());
+    }
+
+    @Test
+    public void testFailingProviderIsLeftOut() throws TException {
+        federated.addProvider("ok", new StubProvider(0).add("c1", 1));
+        federated.addProvider("broken", new StubProvider(0).fail());
+
+        assertEquals(1, federated.search(query()).getSearchResultItemsSize());
+    }
+
+    @Test
+    public void testHungProviderDoesNotStarveOthers() throws TException {
+        federated.close();
+        federated = new FederatedSearchProvider();
+        federated.init(ConfigFactory.empty()
+                        .withValue("deadline", ConfigValueFactory.fromAnyRef("200ms"))
+                        .withValue("concurrency", ConfigValueFactory.fromAnyRef(2)));
+        CountDownLatch release = new CountDownLatch(1);
+        federated.addProvider("healthy", new StubProvider(0).add("c1", 1));
+        federated.addProvider("hung", new StubProvider(0).hang(release));
+        try {
+            // more searches than the hung provider has threads
+            for (int i = 0; i < 6; i++) {
+                SearchResult result = federated.search(query());
+                assertEquals(Arrays.asList("c1"), ids(result));
+            }
+            assertEquals(6, federated.getPartialResultCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(expected=ServicesException.class)
+    public void testThrowsWhenNoProviderAnswers() throws TException {
+        federated.addProvider("broken", new StubProvider(0).fail());
+        federated.addProvider("slow", new StubProvider(5000).add("c2", 1));
+
+        federated.search(query());
+    }
+
+    /**
+     * Search provider that answers with fixed results after a delay
+     */
+    private static class StubProvider implements SearchProvider {
+        private final long delay;
+        private final List<SearchResultItem> items = new ArrayList<>();
+        private boolean fail;
+        private CountDownLatch hang;
+
+        StubProvider(long delay) {
+            this.delay = delay;
+        }
+
+        StubProvider add(String id, double score) {
+            add(id);
+            items.get(items.size() - 1).setScore(score);
+            return this;
+        }
+
+        StubProvider add(String id) {
+            SearchResultItem item = new SearchResultItem();
+            item.setCommunicationId(id);
+            items.add(item);
+            return this;
+        }
+
+        StubProvider fail() {
+            fail = true;
+            return this;
+        }
+
+        /**
+         * Block until released and ignore interrupts, like a read from a hung socket
+         */
+        StubProvider hang(CountDownLatch release) {
+            hang = release;
+            return this;
+        }
+
+        @Override
+        public void init(Config config) {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public SearchResult search(SearchQuery searchQuery) throws ServicesException, TException {
+            while (hang != null && hang.getCount() > 0) {
+                try {
+                    hang.await();
+                } catch (InterruptedException e) {
+                    // keep waiting
+                }
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (fail) {
+                throw new ServicesException("Search is broken");
+            }
+            SearchResult result = new SearchResult(new UUID("result"), searchQuery);
+            for (SearchResultItem item : items) {
+                result.addToSearchResultItems(new SearchResultItem(item));
+            }
+            return result;
+        }
+
+        @Override
+        public boolean alive() throws TException {
+            return true;
+        }
+
+        @Override
+        public ServiceInfo about() throws TException {
+            return new ServiceInfo("StubProvider", "1.0.0");
+        }
+
+        @Override
+        public List<SearchCapability> getCapabilities() throws ServicesException, TException {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<String> getCorpora() throws ServicesException, TException {
+            return new ArrayList<>();
+        }
+    }
+}
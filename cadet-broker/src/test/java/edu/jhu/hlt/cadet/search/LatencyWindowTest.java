@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+    @Test
+    public void testPercentile() {
+        LatencyWindow window = new LatencyWindow(10);
+        assertEquals(-1, window.getPercentile(50));
+        for (int i = 1; i <= 20; i++) {
+            window.record(i);
+        }
+        // only the last 10 are kept
+        assertEquals(10, window.size());
+        assertEquals(15, window.getPercentile(50));
+        assertEquals(20, window.getPercentile(100));
+    }
+
+    @Test
+    public void testCachedPercentileRefreshesAfterInterval() {
+        LatencyWindow window = new LatencyWindow(10);
+        for (int i = 0; i < 10; i++) {
+            window.record(10);
+        }
+        assertEquals(10, window.getCachedPercentile(50, 4, 0));
+        for (int i = 0; i < 3; i++) {
+            window.record(100);
+        }
+        assertEquals(10, window.getCachedPercentile(50, 4, 0));
+        window.record(100);
+        window.record(100);
+        window.record(100);
+        assertEquals(100, window.getCachedPercentile(50, 4, 0));
+        // another percentile is computed straight away
+        assertEquals(10, window.getCachedPercentile(0, 4, 0));
+    }
+
+    @Test
+    public void testCachedPercentileHasMinimum() {
+        LatencyWindow window = new LatencyWindow(10);
+        assertEquals(-1, window.getCachedPercentile(95, 4, 100));
+        // sub-millisecond replies recorded in nanoseconds
+        for (int i = 0; i < 10; i++) {
+            window.record(TimeUnit.MICROSECONDS.toNanos(40));
+        }
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(100),
+                        window.getCachedPercentile(95, 1, TimeUnit.MICROSECONDS.toNanos(100)));
+        // whole milliseconds would have given a delay of 0
+        assertEquals(0, TimeUnit.NANOSECONDS.toMillis(window.getPercentile(95)));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.search.SearchQuery;
+import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchType;
+
+public class RemoteSearchProviderTest {
+    private static final int numQueries = 100;
+    private static final long slowDelay = 500;
+
+    private DelayedSearchService serviceA;
+    private DelayedSearchService serviceB;
+    private int portA;
+    private int portB;
+    private RemoteSearchProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        // each replica stalls on a different tenth of the queries
+        serviceA = new DelayedSearchService(q -> number(q) % 10 == 0 ? slowDelay : 5);
+        portA = serviceA.serve();
+        serviceB = new DelayedSearchService(q -> number(q) % 10 == 5 ? slowDelay : 5);
+        portB = serviceB.serve();
+    }
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.close();
+        }
+        serviceA.stop();
+        serviceB.stop();
+    }
+
+    private static int number(SearchQuery query) {
+        return Integer.parseInt(query.getName());
+    }
+
+    private static SearchQuery query(int number) {
+        SearchQuery query = new SearchQuery();
+        query.setName(Integer.toString(number));
+        query.addToTerms("term" + number);
+        query.setType(SearchType.COMMUNICATIONS);
+        return query;
+    }
+
+    private RemoteSearchProvider createProvider(String settings) {
+        RemoteSearchProvider rsp = new RemoteSearchProvider();
+        rsp.init(ConfigFactory.parseString("host = localhost\n"
+                        + "port = " + portA + "\n"
+                        + "replicas = [\"localhost:" + portB + "\"]\n"
+                        + "deadline = 5s\n" + settings));
+        return rsp;
+    }
+
+    /**
+     * Run the queries one after the other and return the 99th percentile latency in ms
+     */
+    private long p99(RemoteSearchProvider rsp) throws TException {
+        long[] latencies = new long[numQueries];
+        for (int i = 0; i < numQueries; i++) {
+            long start = System.nanoTime();
+            SearchResult result = rsp.search(query(i));
+            latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(Integer.toString(i), result.getSearchResultItems().get(0).getCommunicationId());
+        }
+        Arrays.sort(latencies);
+        return latencies[(int) Math.ceil(0.99 * numQueries) - 1];
+    }
+
+    @Test
+    public void testHedgingReducesTailLatency() throws TException {
+        provider = createProvider("");
+        long unhedged = p99(provider);
+        provider.close();
+
+        provider = createProvider("hedge.enabled = true\nhedge.delay = 50ms");
+        long hedged = p99(provider);
+
+        assertTrue("unhedged p99 " + unhedged, unhedged >= slowDelay - 100);
+        assertTrue("hedged p99 " + hedged + " vs unhedged " + unhedged, hedged < slowDelay / 2);
+        // only the stalled queries go to a second replica and it answers them first
+        assertTrue(provider.getHedgeCount() >= numQueries / 5);
+        assertTrue(provider.getHedgeWinCount() >= numQueries / 5);
+        assertTrue(provider.getHedgeCount() < numQueries / 2);
+    }
+
+    @Test
+    public void testAdaptiveHedgeDelay() throws TException {
+        provider = createProvider("hedge.enabled = true\nhedge.percentile = 75");
+        p99(provider);
+
+        // hedges are not sent until enough latencies are known to estimate the delay
+        assertTrue(provider.getHedgeCount() > 0);
+        assertTrue(provider.getLatencyPercentile(75) < slowDelay);
+    }
+
+    @Test
+    public void testNoHedgingWithOneReplica() throws TException {
+        provider = new RemoteSearchProvider();
+        provider.init(ConfigFactory.parseString("host = localhost\n"
+                        + "port = " + portA + "\n"
+                        + "hedge.enabled = true\nhedge.delay = 50ms"));
+        for (int i = 0; i < 20; i++) {
+            provider.search(query(i));
+        }
+        assertEquals(0, provider.getHedgeCount());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        DelayedSearchService slow = new DelayedSearchService(q -> 2000);
+        int portSlow = slow.serve();
+        try {
+            provider = new RemoteSearchProvider();
+            provider.init(ConfigFactory.parseString("host = localhost\n"
+                            + "port = " + portSlow + "\n"
+                            + "deadline = 300ms"));
+            long start = System.nanoTime();
+            try {
+                provider.search(query(1));
+                fail("search should miss its deadline");
+            } catch (TException e) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue("gave up after " + elapsed + " ms", elapsed < 1500);
+            }
+        } finally {
+            slow.stop();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.thrift.TException;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.cadet.fetch.FileFetchProvider;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.access.FetchRequest;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.serialization.CompactCommunicationSerializer;
+import edu.jhu.hlt.concrete.util.ConcreteException;
+
+public class FileStoreProviderTest {
+    private Path directory;
+    private Communication comm;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cadet-store");
+        comm = new RandomConcreteFactory().communication();
+        comm.setId("comm1");
+        Files.write(getPath("comm1"), new byte[0]);
+    }
+
+    private Path getPath(String id) {
+        return directory.resolve(id + "." + FileStoreProvider.EXTENSION);
+    }
+
+    private FileStoreProvider createProvider(String settings) {
+        FileStoreProvider provider = new FileStoreProvider();
+        provider.init(ConfigFactory.parseString("cadet.files { data.dir = \"" + directory + "\", "
+                        + settings + " }"));
+        return provider;
+    }
+
+    private Communication read(String id) throws ConcreteException {
+        return new CompactCommunicationSerializer().fromPath(getPath(id));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testStoreReplacesFile() throws TException, ConcreteException, IOException {
+        for (String durability : new String[] {"none", "flush", "fsync"}) {
+            FileStoreProvider provider = createProvider("store.durability = " + durability);
+            comm.setText(durability);
+            provider.store(comm);
+            assertEquals(comm, read("comm1"));
+            // no temporary files are left behind
+            assertEquals(1, countFiles());
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testDoesNotCreateFiles() throws TException, IOException {
+        FileStoreProvider provider = createProvider("");
+        Communication other = new RandomConcreteFactory().communication();
+        other.setId("comm2");
+        provider.store(other);
+        assertFalse(Files.exists(getPath("comm2")));
+        provider.close();
+    }
+
+    @Test
+    public void testWriteBehindCoalesces() throws TException, ConcreteException, IOException {
+        FileStoreProvider provider = createProvider("store.write_behind = true, store.flush_interval = 1h");
+        comm.setText("first");
+        provider.store(comm);
+        comm.setText("second");
+        provider.store(comm);
+        assertEquals(1, provider.getQueueDepth());
+        assertEquals(1, provider.getCoalescedCount());
+        assertEquals(0, Files.size(getPath("comm1")));
+
+        provider.close();
+        assertEquals(0, provider.getQueueDepth());
+        assertEquals(1, provider.getFlushCount());
+        assertEquals("second", read("comm1").getText());
+    }
+
+    @Test
+    public void testWriteBehindFlushesInBackground() throws TException, ConcreteException, InterruptedException {
+        FileStoreProvider provider = createProvider("store.write_behind = true, store.flush_interval = 10ms");
+        provider.store(comm);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (provider.getFlushCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(provider.getFlushCount() > 0);
+        assertEquals(comm, read("comm1"));
+        provider.close();
+    }
+
+    @Test
+    public void testFetchReadsQueuedWrites() throws TException {
+        FileStoreProvider provider = createProvider("store.write_behind = true, store.flush_interval = 1h");
+        FileFetchProvider fetchProvider = new FileFetchProvider();
+        fetchProvider.init(ConfigFactory.parseString("cadet.files.data.dir = \"" + directory + "\""));
+        comm.setText("queued");
+        provider.store(comm);
+        FetchRequest request = new FetchRequest();
+        request.addToCommunicationIds("comm1");
+        assertEquals("queued", fetchProvider.fetch(request).getCommunications().get(0).getText());
+
+        List<String> flushed = new ArrayList<>();
+        provider.addFlushListener(flushed::add);
+        provider.flush();
+        assertEquals(Arrays.asList("comm1"), flushed);
+        assertEquals("queued", fetchProvider.fetch(request).getCommunications().get(0).getText());
+        fetchProvider.close();
+        provider.close();
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() throws TException, ConcreteException, IOException {
+        FileStoreProvider provider = createProvider("store.write_behind = true, store.flush_interval = 1h");
+        provider.store(comm);
+        Files.delete(getPath("comm1"));
+        Files.delete(directory);
+
+        provider.flush();
+        assertEquals(1, provider.getQueueDepth());
+
+        Files.createDirectory(directory);
+        Files.write(getPath("comm1"), new byte[0]);
+        provider.flush();
+        assertEquals(0, provider.getQueueDepth());
+        assertEquals(comm, read("comm1"));
+        provider.close();
+    }
+
+    @Test
+    public void testKeepsPermissions() throws TException, IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(getPath("comm1"), permissions);
+        FileStoreProvider provider = createProvider("");
+        provider.store(comm);
+        assertEquals(permissions, Files.getPosixFilePermissions(getPath("comm1")));
+        provider.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownDurability() {
+        createProvider("store.durability = sometimes");
+    }
+}
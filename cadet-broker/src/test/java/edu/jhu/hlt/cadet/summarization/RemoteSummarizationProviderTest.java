@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.summarization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import edu.jhu.hlt.concrete.summarization.SummarizationRequest;
+import edu.jhu.hlt.concrete.summarization.Summary;
+
+public class RemoteSummarizationProviderTest {
+    private static final int poolSize = 4;
+
+    private SlowSummarizationService service;
+    private int port;
+    private RemoteSummarizationProvider provider;
+
+    @Before
+    public void setUp() throws TTransportException {
+        service = new SlowSummarizationService(50);
+        port = service.serve();
+        provider = new RemoteSummarizationProvider();
+        provider.init(ConfigFactory.parseString("cadet.summarization.host = localhost\n"
+                        + "cadet.summarization.port = " + port + "\n"
+                        + "cadet.summarization.pool.size = " + poolSize + "\n"
+                        + "cadet.summarization.pool.timeout = 10s"));
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+        service.stop();
+    }
+
+    private SummarizationRequest request(String term) {
+        SummarizationRequest request = new SummarizationRequest();
+        request.setQueryTerms(Collections.singletonList(term));
+        return request;
+    }
+
+    @Test
+    public void testParallelSummarize() throws Exception {
+        int numRequests = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<Summary>> futures = new ArrayList<>();
+        for (int i = 0; i < numRequests; i++) {
+            String term = "term" + i;
+            futures.add(executor.submit(() -> provider.summarize(request(term))));
+        }
+        for (int i = 0; i < numRequests; i++) {
+            // every caller gets the answer to its own request
+            assertEquals("term" + i, futures.get(i).get().getSummaryCommunication().getId());
+        }
+        executor.shutdown();
+
+        assertTrue(service.getMaxInFlight() > 1);
+        assertTrue(service.getMaxInFlight() <= poolSize);
+        // connections are kept open between requests
+        assertTrue(service.getConnectionCount() <= poolSize);
+        assertEquals(0, provider.getPoolStats().getInvalidatedCount());
+        assertEquals(numRequests, provider.getPoolStats().getBorrowCount());
+    }
+
+    @Test
+    public void testAliveAndAboutShareThePool() throws Exception {
+        assertTrue(provider.alive());
+        assertEquals("SlowSummarizationService", provider.about().getName());
+        provider.summarize(request("one"));
+        assertEquals(1, service.getConnectionCount());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet.summarization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.TProcessorFactory;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import edu.jhu.hlt.cadet.ThriftTestServer;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+import edu.jhu.hlt.concrete.services.ServiceInfo;
+import edu.jhu.hlt.concrete.services.ServicesException;
+import edu.jhu.hlt.concrete.summarization.SummarizationCapability;
+import edu.jhu.hlt.concrete.summarization.SummarizationRequest;
+import edu.jhu.hlt.concrete.summarization.SummarizationService;
+import edu.jhu.hlt.concrete.summarization.Summary;
+
+/**
+ * Summarization service for tests that takes a fixed time to answer each request
+ *
+ * The summary communication is named after the first query term so callers can
+ * check that they got the answer to their own request.
+ */
+public class SlowSummarizationService implements SummarizationService.Iface {
+    private final long delay;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger numConnections = new AtomicInteger();
+    private ThriftTestServer server;
+
+    /**
+     * @param delay  time each request takes in milliseconds
+     */
+    public SlowSummarizationService(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Serve on a free port in a background thread
+     *
+     * @return the port
+     */
+    public int serve() throws TTransportException {
+        server = ThriftTestServer.serve(new TProcessorFactory(null) {
+            @Override
+            public TProcessor getProcessor(TTransport transport) {
+                numConnections.incrementAndGet();
+                return new SummarizationService.Processor<>(SlowSummarizationService.this);
+            }
+        });
+        return server.getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Get the largest number of requests that were running at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Get the number of connections that were accepted
+     */
+    public int getConnectionCount() {
+        return numConnections.get();
+    }
+
+    @Override
+    public Summary summarize(SummarizationRequest query) throws ServicesException, TException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        Communication comm = new RandomConcreteFactory().communication();
+        comm.setId(query.getQueryTerms().get(0));
+        Summary summary = new Summary();
+        summary.setSummaryCommunication(comm);
+        return summary;
+    }
+
+    @Override
+    public List<SummarizationCapability> getCapabilities() throws ServicesException, TException {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public ServiceInfo about() throws TException {
+        return new ServiceInfo(this.getClass().getSimpleName(), "1.0.0");
+    }
+
+    @Override
+    public boolean alive() throws TException {
+        return true;
+    }
+}
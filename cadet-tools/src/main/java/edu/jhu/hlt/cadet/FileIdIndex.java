@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jhu.hlt.cadet.fetch.IdPages;
+
+/**
+ * Sorted index of the communication IDs in a directory of <comm id>.<extension> files
+ *
+ * The count is O(1) and a page of IDs is O(page size). The index can be saved to a file
+ * that is loaded on the next start instead of scanning, as long as the directory has not
+ * changed since it was scanned. The index file's mtime is set to the time the scan started,
+ * truncated to the second, and the index is only used while the directory mtime is strictly
+ * older. File systems with 1 second mtimes give a change during the scan's first second the
+ * same mtime as the mark, so an equal mtime means a rescan.
+ *
+ * The index file is rewritten in place rather than renamed so that saving it does not change
+ * the mtime of a directory that holds it (after the save that creates it). The mark is also
+ * written in the file, so a save that did not finish fails to load and causes a rescan.
+ * When watching, files that are added or removed are merged into the index in batches and
+ * the index file is rewritten. The directory is watched from before the index is loaded or
+ * scanned, so a file added meanwhile is picked up by the events queued for it.
+ */
+class FileIdIndex implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(FileIdIndex.class);
+
+    private static final int MAGIC = 0x43494458; // CIDX
+    private static final int VERSION = 2;
+    // coarsest mtime that is expected (ext3, HFS+)
+    private static final long MTIME_GRANULARITY = 1000;
+
+    private final Path directory;
+    private final String suffix;
+    private final Path indexFile;
+    private volatile String[] ids;
+    private WatchService watcher;
+    private Thread watchThread;
+
+    /**
+     * Load or build the index
+     *
+     * @param directory  directory of communication files
+     * @param extension  file extension without the dot
+     * @param indexFile  where the index is saved (null to keep it in memory only)
+     */
+    FileIdIndex(Path directory, String extension, Path indexFile) throws IOException {
+        this(directory, extension, indexFile, false);
+    }
+
+    /**
+     * Load or build the index
+     *
+     * @param directory  directory of communication files
+     * @param extension  file extension without the dot
+     * @param indexFile  where the index is saved (null to keep it in memory only)
+     * @param watch  keep the index up to date as files are added and removed
+     */
+    FileIdIndex(Path directory, String extension, Path indexFile, boolean watch) throws IOException {
+        this.directory = directory;
+        this.suffix = "." + extension;
+        this.indexFile = indexFile;
+
+        if (watch) {
+            // registered first so nothing added during the scan is missed
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        try {
+            ids = loadOrScan();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (watch) {
+            // the events queued during the scan are merged like any others
+            watchThread = new Thread(this::processEvents, "file-id-index");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
+
+    private String[] loadOrScan() throws IOException {
+        long start = System.currentTimeMillis();
+        if (isIndexCurrent()) {
+            try {
+                String[] loaded = load();
+                logger.info("Loaded " + loaded.length + " IDs from " + indexFile + " in "
+                                + (System.currentTimeMillis() - start) + " ms");
+                return loaded;
+            } catch (IOException e) {
+                logger.warn("Unable to load " + indexFile + ", scanning " + directory, e);
+            }
+        }
+        FileTime scanned = now();
+        String[] scannedIds = scan();
+        logger.info("Indexed " + scannedIds.length + " files in " + directory + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+        save(scanned, scannedIds);
+        return scannedIds;
+    }
+
+    /**
+     * Get the number of communications
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Get a page of communication IDs in sorted order
+     *
+     * @param offset  zero-based offset
+     * @param count  maximum number of IDs
+     */
+    List<String> getIds(long offset, long count) {
+        return IdPages.get(ids, offset, count);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                List<String> added = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                boolean overflow = false;
+                // gather what arrives in a short window so a bulk copy is one update
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                            continue;
+                        }
+                        String id = toId(((Path) event.context()).getFileName().toString());
+                        if (id == null) {
+                            continue;
+                        }
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            added.add(id);
+                        } else {
+                            removed.add(id);
+                        }
+                    }
+                    key.reset();
+                    key = watcher.poll(100, TimeUnit.MILLISECONDS);
+                }
+                FileTime scanned = now();
+                if (overflow) {
+                    ids = scan();
+                } else if (!added.isEmpty() || !removed.isEmpty()) {
+                    apply(added, removed);
+                } else {
+                    continue;
+                }
+                save(scanned, ids);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        } catch (IOException e) {
+            logger.error("Stopped updating the ID index of " + directory, e);
+        }
+    }
+
+    /**
+     * Merge a batch of changes into the sorted IDs in one pass
+     */
+    private void apply(List<String> added, List<String> removed) {
+        // whether a file is there now decides, so a file created and then deleted ends up removed
+        Set<String> touched = new HashSet<>(added);
+        touched.addAll(removed);
+        String[] changed = touched.toArray(new String[touched.size()]);
+        Arrays.sort(changed);
+
+        String[] current = ids;
+        List<String> merged = new ArrayList<>(current.length + changed.length);
+        int i = 0;
+        for (String id : changed) {
+            while (i < current.length && current[i].compareTo(id) < 0) {
+                merged.add(current[i++]);
+            }
+            if (i < current.length && current[i].equals(id)) {
+                i++;
+            }
+            if (Files.exists(directory.resolve(id + suffix))) {
+                merged.add(id);
+            }
+        }
+        while (i < current.length) {
+            merged.add(current[i++]);
+        }
+        ids = merged.toArray(new String[merged.size()]);
+    }
+
+    private String toId(String filename) {
+        if (!filename.endsWith(suffix)) {
+            return null;
+        }
+        return filename.substring(0, filename.length() - suffix.length());
+    }
+
+    private String[] scan() throws IOException {
+        List<String> list = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                list.add(toId(path.getFileName().toString()));
+            }
+        }
+        String[] sorted = list.toArray(new String[list.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private boolean isIndexCurrent() throws IOException {
+        return indexFile != null && Files.exists(indexFile)
+                        && Files.getLastModifiedTime(directory).compareTo(Files.getLastModifiedTime(indexFile)) < 0;
+    }
+
+    /**
+     * Get the current time truncated to the mtime granularity
+     */
+    private static FileTime now() {
+        long millis = System.currentTimeMillis();
+        return FileTime.fromMillis(millis - millis % MTIME_GRANULARITY);
+    }
+
+    private String[] load() throws IOException {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(indexFile), 1 << 16))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException(indexFile + " is not an ID index");
+            }
+            if (data.readLong() != Files.getLastModifiedTime(indexFile).toMillis()) {
+                throw new IOException("Saving " + indexFile + " did not finish");
+            }
+            String[] loaded = new String[data.readInt()];
+            for (int i = 0; i < loaded.length; i++) {
+                loaded[i] = data.readUTF();
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Write the index and mark it with the time of the scan it reflects
+     *
+     * @param scanned  truncated time from before the IDs were collected
+     * @param current  the IDs
+     */
+    private synchronized void save(FileTime scanned, String[] current) {
+        if (indexFile == null) {
+            return;
+        }
+        try {
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(indexFile), 1 << 16))) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(scanned.toMillis());
+                data.writeInt(current.length);
+                for (String id : current) {
+                    data.writeUTF(id);
+                }
+            }
+            // a directory changed since the scan has an mtime at or after the mark
+            Files.setLastModifiedTime(indexFile, scanned);
+        } catch (IOException e) {
+            logger.warn("Unable to save the ID index to " + indexFile, e);
+        }
+    }
+}
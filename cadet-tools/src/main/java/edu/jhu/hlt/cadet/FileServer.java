@@ -6,10 +6,9 @@
 package edu.jhu.hlt.cadet;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.apache.thrift.TException;
@@ -42,15 +41,30 @@ public class FileServer {
 
     private final int port;
     private final String dataDir;
+    private final Path indexFile;
+    private final boolean watch;
     private FetchCommunicationService.Processor<FetchCommunicationService.Iface> processor;
 
     public FileServer(int port, String dataDir) {
+        this(port, dataDir, null, false);
+    }
+
+    /**
+     * @param port  port to listen on
+     * @param dataDir  directory of communication files
+     * @param indexFile  where the ID index is saved between runs (null to rebuild on every start)
+     * @param watch  whether to update the ID index as files are added and removed
+     */
+    public FileServer(int port, String dataDir, Path indexFile, boolean watch) {
         this.port = port;
         this.dataDir = dataDir;
+        this.indexFile = indexFile;
+        this.watch = watch;
     }
 
     public void start() {
-        processor = new FetchCommunicationService.Processor<FetchCommunicationService.Iface>(new Handler(dataDir));
+        processor = new FetchCommunicationService.Processor<FetchCommunicationService.Iface>(
+                        new Handler(dataDir, indexFile, watch));
         Runnable task = new Runnable() {
             @Override
             public void run() {
@@ -79,10 +93,15 @@ public class FileServer {
     class Handler implements FetchCommunicationService.Iface {
         private final String dataDir;
         private final CompactCommunicationSerializer serializer;
+        private final FileIdIndex index;
 
         public static final String EXTENSION = "concrete";
 
         public Handler(String dataDir) {
+            this(dataDir, null, false);
+        }
+
+        public Handler(String dataDir, Path indexFile, boolean watch) {
             this.serializer = new CompactCommunicationSerializer();
 
             if (dataDir.charAt(dataDir.length() - 1) != File.separatorChar) {
@@ -97,6 +116,12 @@ public class FileServer {
             if (!file.isDirectory()) {
                 throw new RuntimeException(this.dataDir + " is not a directory");
             }
+
+            try {
+                index = new FileIdIndex(file.toPath(), EXTENSION, indexFile, watch);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to index " + this.dataDir, e);
+            }
         }
 
         @Override
@@ -118,33 +143,13 @@ public class FileServer {
 
         @Override
         public long getCommunicationCount() throws NotImplementedException, TException {
-            File dir = new File(this.dataDir);
-            return dir.listFiles(new ConcreteFileFilter()).length;
+            return index.size();
         }
 
         @Override
         public List<String> getCommunicationIDs(long offset, long count)
                         throws NotImplementedException, TException {
-            List<String> ids = new ArrayList<String>();
-            File dir = new File(this.dataDir);
-            File[] files = dir.listFiles(new ConcreteFileFilter());
-
-            int from = (int)offset;
-            if (from >= files.length) {
-                return ids;
-            }
-
-            int to = from + (int)count;
-            if (to > files.length) {
-                to = files.length;
-            }
-
-            files = Arrays.copyOfRange(files, from, to);
-            for (File file : files) {
-                ids.add(file.getName().replace("." + EXTENSION, ""));
-            }
-
-            return ids;
+            return index.getIds(offset, count);
         }
 
         @Override
@@ -156,18 +161,6 @@ public class FileServer {
         public boolean alive() throws TException {
             return true;
         }
-
-        private class ConcreteFileFilter implements FileFilter {
-
-            @Override
-            public boolean accept(File pathname) {
-                String suffix = "." + EXTENSION;
-                if (pathname.getName().endsWith(suffix)) {
-                    return true;
-                }
-                return false;
-            }
-        }
     }
 
     private static class Opts {
@@ -179,6 +172,18 @@ public class FileServer {
                 description = "Path to the data directory with the concrete comms.")
         String dataDir;
 
+        @Parameter(names = {"--index", "-i"},
+                description = "File for saving the ID index between runs (default: .cadet-ids in the data directory).")
+        String indexFile;
+
+        @Parameter(names = {"--no-index"},
+                description = "Rebuild the ID index on every start.")
+        boolean noIndex;
+
+        @Parameter(names = {"--watch", "-w"},
+                description = "Update the ID index as files are added and removed.")
+        boolean watch;
+
         @Parameter(names = {"--help", "-h"},
                 help = true, description = "Print the usage information and exit.")
         boolean help;
@@ -199,7 +204,11 @@ public class FileServer {
             return;
         }
 
-        FileServer server = new FileServer(opts.port, opts.dataDir);
+        Path indexFile = null;
+        if (!opts.noIndex) {
+            indexFile = opts.indexFile != null ? Paths.get(opts.indexFile) : Paths.get(opts.dataDir, ".cadet-ids");
+        }
+        FileServer server = new FileServer(opts.port, opts.dataDir, indexFile, opts.watch);
         server.start();
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+import edu.jhu.hlt.cadet.fetch.CommunicationPackWriter;
+import edu.jhu.hlt.cadet.fetch.FileFetchProvider;
+import edu.jhu.hlt.concrete.Communication;
+
+/**
+ * Builds a communication pack for the PackFetchProvider
+ *
+ * The input is either a directory of <comm id>.concrete files (the layout used by
+ * the FileFetchProvider and the file server) or a tar.gz archive of compact serialized
+ * communications. Every file is parsed as a communication before its bytes are copied,
+ * and files that do not parse are skipped and reported on standard error.
+ */
+public class PackTool {
+    private final CommunicationPackWriter writer;
+    private final TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+    private int numSkipped = 0;
+
+    public PackTool(Path output, long segmentSize) throws IOException {
+        writer = new CommunicationPackWriter(output, segmentSize);
+    }
+
+    /**
+     * Add every <comm id>.concrete file in a directory
+     */
+    public void addDirectory(Path directory) throws IOException {
+        String suffix = "." + FileFetchProvider.EXTENSION;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String id = name.substring(0, name.length() - suffix.length());
+                byte[] bytes = Files.readAllBytes(path);
+                // the fetch providers look communications up by file name so keep it as the ID
+                if (parse(name, bytes) != null) {
+                    writer.add(id, bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add every communication in a tar.gz archive
+     */
+    public void addTarGz(Path archive) throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive), 1 << 16));
+             TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                if (!entry.isFile()) {
+                    continue;
+                }
+                byte[] bytes = IOUtils.toByteArray(tar);
+                // the entry name is not always the ID so read it from the communication
+                Communication comm = parse(entry.getName(), bytes);
+                if (comm != null) {
+                    writer.add(comm.getId(), bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a compact serialized communication
+     *
+     * @return communication or null if the bytes are not one (the file is reported and counted)
+     */
+    private Communication parse(String name, byte[] bytes) {
+        Communication comm = new Communication();
+        try {
+            deserializer.deserialize(comm, bytes);
+        } catch (TException e) {
+            System.err.println("Skipping " + name + ": not a compact serialized communication");
+            numSkipped++;
+            return null;
+        }
+        return comm;
+    }
+
+    public int getCount() {
+        return writer.getCount();
+    }
+
+    /**
+     * Get the number of files that were not communications
+     */
+    public int getSkippedCount() {
+        return numSkipped;
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static class Opts {
+        @Parameter(names = {"--input", "-i"}, required = true,
+                description = "Directory of .concrete files or a tar.gz archive of communications.")
+        String input;
+
+        @Parameter(names = {"--output", "-o"}, required = true,
+                description = "Directory for the communication pack.")
+        String output;
+
+        @Parameter(names = {"--segment-size", "-s"},
+                description = "Maximum size of a segment file in megabytes.")
+        long segmentSize = CommunicationPackWriter.DEFAULT_SEGMENT_SIZE >> 20;
+
+        @Parameter(names = {"--help", "-h"},
+                help = true, description = "Print the usage information and exit.")
+        boolean help;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Opts opts = new Opts();
+        JCommander jc = new JCommander(opts);
+        jc.setProgramName("./pack.sh");
+        try {
+            jc.parse(args);
+        } catch (ParameterException e) {
+            jc.usage();
+            System.exit(-1);
+        }
+        if (opts.help) {
+            jc.usage();
+            return;
+        }
+
+        Path input = Paths.get(opts.input);
+        long start = System.currentTimeMillis();
+        PackTool tool = new PackTool(Paths.get(opts.output), opts.segmentSize << 20);
+        if (Files.isDirectory(input)) {
+            tool.addDirectory(input);
+        } else {
+            tool.addTarGz(input);
+        }
+        tool.close();
+        System.out.println("Packed " + tool.getCount() + " communications in "
+                        + (System.currentTimeMillis() - start) + " ms, skipped " + tool.getSkippedCount());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileIdIndexTest {
+    private Path directory;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cadet-files");
+        indexFile = directory.resolve(".cadet-ids");
+        for (String id : new String[] {"b", "c", "a"}) {
+            Files.write(directory.resolve(id + ".concrete"), new byte[0]);
+        }
+        Files.write(directory.resolve("notes.txt"), new byte[0]);
+    }
+
+    @Test
+    public void testPaging() throws IOException {
+        FileIdIndex index = new FileIdIndex(directory, "concrete", null);
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("a", "b", "c"), index.getIds(0, 10));
+        assertEquals(Arrays.asList("b"), index.getIds(1, 1));
+        assertTrue(index.getIds(3, 10).isEmpty());
+        assertEquals(Arrays.asList("b", "c"), index.getIds(1, Long.MAX_VALUE));
+        assertFalse(Files.exists(indexFile));
+    }
+
+    @Test
+    public void testLoadsSavedIndex() throws IOException {
+        new FileIdIndex(directory, "concrete", indexFile).close();
+        assertTrue(Files.exists(indexFile));
+
+        // a file removed behind the index's back shows the saved copy is used
+        Files.delete(directory.resolve("c.concrete"));
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(0));
+        FileIdIndex index = new FileIdIndex(directory, "concrete", indexFile);
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testRescansWhenDirectoryChanged() throws IOException {
+        new FileIdIndex(directory, "concrete", indexFile).close();
+        Files.write(directory.resolve("d.concrete"), new byte[0]);
+        Files.setLastModifiedTime(indexFile, FileTime.fromMillis(0));
+
+        FileIdIndex index = new FileIdIndex(directory, "concrete", indexFile);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), index.getIds(0, 10));
+    }
+
+    @Test
+    public void testIndexMarkedWithScanTime() throws IOException {
+        Path outside = Files.createTempDirectory("cadet-index").resolve("ids");
+        long before = System.currentTimeMillis();
+        new FileIdIndex(directory, "concrete", outside).close();
+        long mark = Files.getLastModifiedTime(outside).toMillis();
+        assertEquals(0, mark % 1000);
+        assertTrue(mark > before - 1000 && mark <= System.currentTimeMillis());
+
+        // a file added in the second of the scan gets the same mtime on a file system with 1s mtimes
+        Files.write(directory.resolve("d.concrete"), new byte[0]);
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(mark));
+        FileIdIndex index = new FileIdIndex(directory, "concrete", outside);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), index.getIds(0, 10));
+    }
+
+    @Test
+    public void testUnfinishedSaveRescans() throws IOException {
+        new FileIdIndex(directory, "concrete", indexFile).close();
+        Files.write(directory.resolve("d.concrete"), new byte[0]);
+        // the contents were written but the mark was not set
+        Files.setLastModifiedTime(indexFile, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+
+        FileIdIndex index = new FileIdIndex(directory, "concrete", indexFile);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), index.getIds(0, 10));
+    }
+
+    @Test
+    public void testWatch()throws IOException, InterruptedException {
+        FileIdIndex index = new FileIdIndex(directory, "concrete", indexFile, true);
+        Files.write(directory.resolve("d.concrete"), new byte[0]);
+        Files.delete(directory.resolve("a.concrete"));
+
+        // polling file systems can take several seconds to report changes
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!index.getIds(0, 10).equals(Arrays.asList("b", "c", "d"))
+                        && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(Arrays.asList("b", "c", "d"), index.getIds(0, 10));
+        index.close();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Test;
+
+import edu.jhu.hlt.cadet.fetch.CommunicationPack;
+import edu.jhu.hlt.cadet.fetch.CommunicationPackWriter;
+import edu.jhu.hlt.concrete.Communication;
+import edu.jhu.hlt.concrete.random.RandomConcreteFactory;
+
+public class PackToolTest {
+
+    /**
+     * Write compact serialized communications named <id>.concrete to a new directory
+     */
+    private static Path writeCommunications(String... ids) throws IOException, TException {
+        Path directory = Files.createTempDirectory("cadet-pack-input");
+        RandomConcreteFactory factory = new RandomConcreteFactory();
+        TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+        for (String id : ids) {
+            Communication comm = factory.communication().setId(id);
+            Files.write(directory.resolve(id + ".concrete"), serializer.serialize(comm));
+        }
+        return directory;
+    }
+
+    @Test
+    public void testDirectory() throws IOException, TException {
+        Path input = writeCommunications("123", "456", "789");
+        Path output = Files.createTempDirectory("cadet-pack").resolve("pack");
+
+        PackTool tool = new PackTool(output, CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        tool.addDirectory(input);
+        tool.close();
+
+        CommunicationPack pack = new CommunicationPack(output);
+        assertEquals(3, pack.size());
+        assertEquals(Arrays.asList("123", "456", "789"), pack.getIds(0, 10));
+        assertArrayEquals(Files.readAllBytes(input.resolve("123.concrete")), pack.getBytes("123"));
+        assertEquals(0, tool.getSkippedCount());
+    }
+
+    @Test
+    public void testDirectorySkipsBadFiles() throws IOException, TException {
+        Path input = writeCommunications("123");
+        Files.write(input.resolve("corrupt.concrete"), new byte[] {1, 2, 3});
+        Path output = Files.createTempDirectory("cadet-pack").resolve("pack");
+
+        PackTool tool = new PackTool(output, CommunicationPackWriter.DEFAULT_SEGMENT_SIZE);
+        tool.addDirectory(input);
+        tool.close();
+
+        CommunicationPack pack = new CommunicationPack(output);
+        assertEquals(Arrays.asList("123"), pack.getIds(0, 10));
+        assertEquals(1, tool.getSkippedCount());
+    }
+
+}
@@ -10,12 +10,16 @@ import edu.jhu.hlt.cadet.learn.SortReceiverHandler;
 import edu.jhu.hlt.cadet.learn.SortReceiverServer;
 import edu.jhu.hlt.cadet.feedback.FeedbackHandler;
 import edu.jhu.hlt.cadet.feedback.store.FeedbackStore;
+import edu.jhu.hlt.cadet.fetch.CachingFetchProvider;
 import edu.jhu.hlt.cadet.fetch.FetchHandler;
 import edu.jhu.hlt.cadet.fetch.FetchProvider;
 import edu.jhu.hlt.cadet.results.MemorySessionStore;
 import edu.jhu.hlt.cadet.results.MemoryResultsStore;
 import edu.jhu.hlt.cadet.results.ResultsHandler;
 import edu.jhu.hlt.cadet.results.ResultsPlugin;
+import edu.jhu.hlt.cadet.results.ResultsStore;
+import edu.jhu.hlt.cadet.results.SessionStore;
+import edu.jhu.hlt.cadet.search.FederatedSearchProvider;
 import edu.jhu.hlt.cadet.search.SearchProvider;
 import edu.jhu.hlt.cadet.search.SearchProxyHandler;
 import edu.jhu.hlt.cadet.store.StoreProvider;
@@ -25,8 +29,11 @@ import edu.jhu.hlt.cadet.summarization.SummarizationHandler;
 
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.thrift.transport.TTransportException;
@@ -104,6 +111,10 @@ public class ConfigManager {
      */
     public void close() {
         logger.info("Shutting down the ConfigManager and freeing its resources");
+        if (resultsHandler != null) {
+            // deliver queued annotations while the providers are still open
+            resultsHandler.close();
+        }
         for (Provider provider : providers) {
             provider.close();
         }
@@ -179,6 +190,14 @@ public class ConfigManager {
 
         createResultsServer();
         createSearchProxyHandler();
+
+        if (config.hasPath(CadetConfig.REQUEST_LOG_DETAIL_SAMPLE)) {
+            int sampleRate = config.getInt(CadetConfig.REQUEST_LOG_DETAIL_SAMPLE);
+            fetchHandler.getRequestLog().setSampleRate(sampleRate);
+            if (searchProxyHandler != null) {
+                searchProxyHandler.getRequestLog().setSampleRate(sampleRate);
+            }
+        }
     }
 
     private void createResultsServer() {
@@ -191,6 +210,10 @@ public class ConfigManager {
         storeHandler = new StoreHandler();
         String spName = config.getString(CadetConfig.STORE_PROVIDER);
         StoreProvider storeProvider = (StoreProvider) constructProvider(spName);
+        if (fetchProvider instanceof CachingFetchProvider) {
+            // annotated communications must not be served stale from the fetch cache
+            storeProvider = ((CachingFetchProvider) fetchProvider).invalidateOnStore(storeProvider);
+        }
         storeHandler.init(storeProvider);
         resultsHandler.setStoreProvider(storeProvider);
         String clientName = config.getString(CadetConfig.LEARN_PROVIDER);
@@ -198,8 +221,17 @@ public class ConfigManager {
         if (isLearningOn) {
             resultsHandler.setActiveLearningClient(client);
         }
-        resultsHandler.setResultsStore(new MemoryResultsStore());
-        resultsHandler.setSessionStore(new MemorySessionStore());
+        String rsName = MemoryResultsStore.class.getName();
+        if (config.hasPath(CadetConfig.RESULTS_STORE)) {
+            rsName = config.getString(CadetConfig.RESULTS_STORE);
+        }
+        resultsHandler.setResultsStore((ResultsStore)constructObject(rsName));
+        String ssName = MemorySessionStore.class.getName();
+        if (config.hasPath(CadetConfig.RESULTS_SESSION)) {
+            ssName = config.getString(CadetConfig.RESULTS_SESSION);
+        }
+        resultsHandler.setSessionStore((SessionStore)constructObject(ssName));
+        resultsHandler.start();
 
         if (config.hasPath(CadetConfig.RESULTS_PLUGINS)) {
             List<String> pluginNames = config.getStringList(CadetConfig.RESULTS_PLUGINS);
@@ -225,6 +257,7 @@ public class ConfigManager {
     private void createSearchProxyHandler() {
         if (config.hasPath(CadetConfig.SEARCH_PROVIDERS)) {
             searchProxyHandler = new SearchProxyHandler();
+            Map<String, SearchProvider> searchProviders = new LinkedHashMap<>();
 
             ConfigObject providersConfig = config.getObject(CadetConfig.SEARCH_PROVIDERS);
             for (String providerName : providersConfig.keySet()) {
@@ -238,8 +271,41 @@ public class ConfigManager {
                 String spName = providerConfig.getString("provider");
                 SearchProvider sp = (SearchProvider)constructProvider(spName, providerConfig);
                 searchProxyHandler.addProvider(providerName, sp);
+                searchProviders.put(providerName, sp);
+            }
+
+            if (config.hasPath(CadetConfig.SEARCH_FEDERATED)) {
+                createFederatedSearchProvider(searchProviders);
+            }
+        }
+    }
+
+    /**
+     * Register a provider that searches several of the configured providers at once
+     */
+    private void createFederatedSearchProvider(Map<String, SearchProvider> searchProviders) {
+        Config federatedConfig = config.getConfig(CadetConfig.SEARCH_FEDERATED);
+        FederatedSearchProvider federated = (FederatedSearchProvider)constructProvider(
+                        FederatedSearchProvider.class.getName(), federatedConfig);
+
+        List<String> names = new ArrayList<>(searchProviders.keySet());
+        if (federatedConfig.hasPath(CadetConfig.SEARCH_FEDERATED_PROVIDERS)) {
+            names = federatedConfig.getStringList(CadetConfig.SEARCH_FEDERATED_PROVIDERS);
+        }
+        for (String providerName : names) {
+            SearchProvider sp = searchProviders.get(providerName);
+            if (sp == null) {
+                throw new RuntimeException("Unknown search provider for federated search: " + providerName);
             }
+            federated.addProvider(providerName, sp);
+        }
+
+        String name = "federated";
+        if (federatedConfig.hasPath(CadetConfig.SEARCH_FEDERATED_NAME)) {
+            name = federatedConfig.getString(CadetConfig.SEARCH_FEDERATED_NAME);
         }
+        logger.info("Federated search provider " + name + " over " + names);
+        searchProxyHandler.addProvider(name, federated);
     }
 
     /**
@@ -262,6 +328,27 @@ public class ConfigManager {
         }
     }
 
+    /**
+     * Construct objects that may optionally be providers
+     *
+     * Providers are initialized with the config and closed on shutdown.
+     * @param clazz  full qualified class name
+     * @return constructed object
+     */
+    private Object constructObject(String clazz) {
+        try {
+            Object object = Class.forName(clazz).getConstructor().newInstance();
+            if (object instanceof Provider) {
+                ((Provider)object).init(config);
+                providers.add((Provider)object);
+            }
+            return object;
+        } catch (ClassNotFoundException | IllegalAccessException | InvocationTargetException
+                        | InstantiationException | NoSuchMethodException ex) {
+            throw new RuntimeException("Cannot construct " + clazz, ex);
+        }
+    }
+
     private static boolean fileExists(String filename) {
         File f = new File(filename);
         return f.exists();
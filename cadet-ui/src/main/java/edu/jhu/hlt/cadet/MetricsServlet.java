@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+
+/**
+ * Serves the broker's metrics in the Prometheus text exposition format
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 6120374385528147311L;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        PrintWriter out = response.getWriter();
+
+        MetricsRegistry.getShared().write(out);
+
+        out.close();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2017 Johns Hopkins University HLTCOE. All rights reserved.
+ * This software is released under the 2-clause BSD license.
+ * See LICENSE in the project root directory.
+ */
+package edu.jhu.hlt.cadet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.joda.time.Instant;
+import org.joda.time.LocalTime;
+
+import edu.jhu.hlt.cadet.pool.CircuitBreaker;
+
+/**
+ * Lists the circuit breakers of the remote services with their recent state changes
+ */
+public class ViewBreakersServlet extends HttpServlet {
+    private static final long serialVersionUID = -3816094781553317285L;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        List<CircuitBreaker> breakers = CircuitBreaker.getRegistered();
+        if (breakers.isEmpty()) {
+            out.println("No circuit breakers at " + LocalTime.now().toString());
+        } else {
+            for (CircuitBreaker breaker : breakers) {
+                out.println(breaker);
+                for (CircuitBreaker.Transition t : breaker.getTransitions()) {
+                    out.println("    " + new Instant(t.getTime()) + " " + t);
+                }
+            }
+        }
+
+        out.close();
+    }
+}
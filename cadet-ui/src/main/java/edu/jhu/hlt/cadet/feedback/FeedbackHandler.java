@@ -12,6 +12,8 @@ import org.apache.thrift.TException;
 
 import edu.jhu.hlt.cadet.feedback.store.FeedbackException;
 import edu.jhu.hlt.cadet.feedback.store.FeedbackStore;
+import edu.jhu.hlt.cadet.metrics.Histogram;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.concrete.UUID;
 import edu.jhu.hlt.concrete.search.FeedbackService;
 import edu.jhu.hlt.concrete.search.SearchFeedback;
@@ -25,6 +27,9 @@ public class FeedbackHandler implements FeedbackService.Iface {
 
     private FeedbackStore store;
 
+    private final Histogram startLatency = MetricsRegistry.getShared().requestLatency("feedback", "startFeedback");
+    private final Histogram feedbackLatency = MetricsRegistry.getShared().requestLatency("feedback", "addFeedback");
+
     public FeedbackHandler(FeedbackStore store) {
         this.store = store;
     }
@@ -40,30 +45,39 @@ public class FeedbackHandler implements FeedbackService.Iface {
     @Override
     public void startFeedback(SearchResult results) throws TException {
         logger.info("Enrolling " + results.getUuid().getUuidString() + " into feedback storage");
+        long start = System.nanoTime();
         try {
             store.addSearchResults(results);
         } catch (ConcreteException ex) {
             throw new TException(ex);
+        } finally {
+            startLatency.recordSince(start);
         }
     }
 
     @Override
     public void addCommunicationFeedback(UUID uuid, String commId, SearchFeedback feedback) throws ServicesException, TException {
         logger.info("Adding feedback for commId " + commId);
+        long start = System.nanoTime();
         try {
             store.addFeedback(uuid, commId, feedback);
         } catch (FeedbackException ex) {
             throw new TException(ex);
+        } finally {
+            feedbackLatency.recordSince(start);
         }
     }
 
     @Override
     public void addSentenceFeedback(UUID uuid, String commId, UUID sentId, SearchFeedback feedback) throws ServicesException, TException {
         logger.info("Adding feedback for commId " + commId + " and sentenceId " + sentId.getUuidString());
+        long start = System.nanoTime();
         try {
             store.addFeedback(uuid, commId, sentId, feedback);
         } catch (FeedbackException ex) {
             throw new TException(ex);
+        } finally {
+            feedbackLatency.recordSince(start);
         }
     }
 
@@ -8,7 +8,6 @@ package edu.jhu.hlt.cadet.fetch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.thrift.TException;
@@ -20,12 +19,20 @@ import edu.jhu.hlt.concrete.services.ServicesException;
 import edu.jhu.hlt.concrete.access.FetchResult;
 import edu.jhu.hlt.concrete.access.FetchRequest;
 import edu.jhu.hlt.cadet.fetch.FetchProvider;
+import edu.jhu.hlt.cadet.logging.RequestLog;
+import edu.jhu.hlt.cadet.metrics.Histogram;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.concrete.Communication;
 
 public class FetchHandler implements FetchCommunicationService.Iface {
     private static Logger logger = LoggerFactory.getLogger(FetchHandler.class);
 
     private FetchProvider fetchProvider;
+    private final RequestLog requestLog = new RequestLog(logger, "Fetch");
+
+    private final Histogram fetchLatency = MetricsRegistry.getShared().requestLatency("fetch", "fetch");
+    private final Histogram fetchSize = MetricsRegistry.getShared().histogram("cadet_fetch_communications",
+                    "Communications returned by a fetch");
 
     public FetchHandler() {}
 
@@ -40,14 +47,26 @@ public class FetchHandler implements FetchCommunicationService.Iface {
 
     @Override
     public FetchResult fetch(FetchRequest request) throws ServicesException, TException {
-
-        logFetchRequest(request);
-
-        FetchResult results = fetchProvider.fetch(request);
-
-        logFetchResult(results);
-
-        return results;
+        long start = System.nanoTime();
+        try {
+            boolean detail = requestLog.sampleDetail();
+            if (detail) {
+                logFetchRequest(request);
+            }
+
+            FetchResult results = fetchProvider.fetch(request);
+            fetchSize.record(results.getCommunicationsSize());
+
+            requestLog.summary(start, request.getCommunicationIdsSize(), results.getCommunicationsSize(),
+                            "communications");
+            if (detail) {
+                logFetchResult(results);
+            }
+
+            return results;
+        } finally {
+            fetchLatency.recordSince(start);
+        }
     }
 
     @Override
@@ -60,21 +79,26 @@ public class FetchHandler implements FetchCommunicationService.Iface {
         return fetchProvider.getCommunicationIDs(offset, count);
     }
 
-    protected static void logFetchRequest(FetchRequest request) {
-        logger.info("Fetch: requesting " + request.getCommunicationIdsSize() + " communications");
+    /**
+     * Get the request log to change its sampling
+     */
+    public RequestLog getRequestLog() {
+        return requestLog;
+    }
 
-        Iterator<String> commIterator = request.getCommunicationIdsIterator();
-        while (commIterator.hasNext()) {
-            logger.debug("CommId: " + commIterator.next());
+    protected static void logFetchRequest(FetchRequest request) {
+        if (request.isSetCommunicationIds()) {
+            for (String id : request.getCommunicationIds()) {
+                logger.debug("Requested CommId: {}", id);
+            }
         }
     }
 
     protected static void logFetchResult(FetchResult results) {
-        logger.info("Fetch: returning " + results.getCommunicationsSize() + " communications");
-
-        Iterator<Communication> communicationIterator = results.getCommunicationsIterator();
-        while (communicationIterator.hasNext()) {
-            logger.debug("CommId: " + communicationIterator.next().getId());
+        if (results.isSetCommunications()) {
+            for (Communication communication : results.getCommunications()) {
+                logger.debug("Returned CommId: {}", communication.getId());
+            }
         }
     }
 
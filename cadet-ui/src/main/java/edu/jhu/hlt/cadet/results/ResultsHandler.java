@@ -7,6 +7,10 @@ package edu.jhu.hlt.cadet.results;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
@@ -17,6 +21,9 @@ import com.typesafe.config.Config;
 import edu.jhu.hlt.cadet.CadetConfig;
 import edu.jhu.hlt.cadet.learn.ActiveLearningClient;
 import edu.jhu.hlt.cadet.learn.SortReceiverCallback;
+import edu.jhu.hlt.cadet.metrics.Counter;
+import edu.jhu.hlt.cadet.metrics.Histogram;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
 import edu.jhu.hlt.cadet.results.ResultsStore.Item;
 import edu.jhu.hlt.cadet.store.StoreProvider;
 import edu.jhu.hlt.concrete.Communication;
@@ -39,11 +46,28 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
 
     private int chunkSize = 5;
     private long deadline = 20 * 60 * 1000L;
+    private long idleTimeout = 8 * 60 * 60 * 1000L;
     private ResultsStore resultsStore;
     private SessionStore sessionStore;
     private StoreProvider storeProvider;
     private ActiveLearningClient client;
     private List<ResultsPlugin> plugins = new ArrayList<ResultsPlugin>();
+    private AnnotationPipeline pipeline;
+    // idle sessions are stopped off the timer thread since that calls the learner
+    private ExecutorService reaper;
+    private volatile TimerWheel.Timeout reaperTimeout;
+    private volatile boolean closed = false;
+
+    private final Histogram registerLatency = MetricsRegistry.getShared()
+                    .requestLatency("results", "registerSearchResult");
+    private final Histogram startLatency = MetricsRegistry.getShared().requestLatency("results", "startSession");
+    private final Histogram chunkLatency = MetricsRegistry.getShared().requestLatency("results", "getNextChunk");
+    private final Histogram annotationLatency = MetricsRegistry.getShared()
+                    .requestLatency("results", "submitAnnotation");
+    private final Histogram resultsSize = MetricsRegistry.getShared().histogram("cadet_registered_result_items",
+                    "Result items in a registered search result");
+    private final Counter sessionsStarted = MetricsRegistry.getShared().counter("cadet_sessions_started_total",
+                    "Annotation sessions started");
 
     public ResultsHandler(Config config) {
         if (config.hasPath(CadetConfig.RESULTS_CHUNK_SIZE)) {
@@ -57,6 +81,80 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
                 logger.warn("Overriding annotation deadline as being too small");
             }
         }
+        if (config.hasPath(CadetConfig.RESULTS_SESSION_IDLE_TIMEOUT)) {
+            // 0 turns off closing idle sessions
+            idleTimeout = config.getDuration(CadetConfig.RESULTS_SESSION_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        if (idleTimeout > 0) {
+            reaper = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "cadet-session-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduleReaper();
+        }
+        if (config.hasPath(CadetConfig.RESULTS_PIPELINE_ENABLED)
+                        && config.getBoolean(CadetConfig.RESULTS_PIPELINE_ENABLED)) {
+            pipeline = new AnnotationPipeline(config);
+        }
+        MetricsRegistry.getShared().gauge("cadet_sessions_active", "Annotation sessions in progress",
+                        () -> sessionStore == null ? 0 : sessionStore.list().size());
+    }
+
+    /**
+     * Start delivering annotations in the background if the pipeline is enabled
+     *
+     * Must be called after the store provider and active learning client are set.
+     */
+    public void start() {
+        if (pipeline == null) {
+            return;
+        }
+        pipeline.addStage(AnnotationPipeline.STORE_STAGE,
+                        (sessionId, unitId, communication) -> storeProvider.store(communication),
+                        AnnotationPipeline.Route.COMMUNICATION);
+        if (client != null) {
+            pipeline.addStage(AnnotationPipeline.LEARN_STAGE,
+                            (sessionId, unitId, communication) -> client.deliverAnnotations(sessionId,
+                                            createAnnotations(unitId, communication)),
+                            AnnotationPipeline.Route.SESSION);
+        }
+        pipeline.start();
+    }
+
+    /**
+     * Stop the annotation pipeline and the closing of idle sessions
+     */
+    public void close() {
+        closed = true;
+        if (reaperTimeout != null) {
+            reaperTimeout.cancel();
+        }
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * @return the annotation pipeline or null if annotations are delivered synchronously
+     */
+    public AnnotationPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Annotations of a session that have not yet reached the store or learner
+     *
+     * @param sessionId  session identifier
+     */
+    public List<AnnotationUnitIdentifier> getPendingAnnotations(UUID sessionId) {
+        if (pipeline == null) {
+            return new ArrayList<>();
+        }
+        return pipeline.getPending(sessionId);
     }
 
     public void setResultsStore(ResultsStore store) {
@@ -98,6 +196,16 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
     @Override
     public void registerSearchResult(SearchResult results, AnnotationTaskType taskType)
                     throws ServicesException, TException {
+        long start = System.nanoTime();
+        try {
+            register(results, taskType);
+        } finally {
+            registerLatency.recordSince(start);
+        }
+    }
+
+    private void register(SearchResult results, AnnotationTaskType taskType)
+                    throws ServicesException, TException {
         logger.info("Results Server: registering search results "
                         + results.getUuid().getUuidString() + " for " + taskType.name());
 
@@ -119,6 +227,7 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
 
         if (storeFlag) {
             resultsStore.add(results, taskType);
+            resultsSize.record(results.getSearchResultItemsSize());
         }
     }
 
@@ -195,6 +304,16 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
 
     @Override
     public UUID startSession(UUID searchResultsId, AnnotationTaskType taskType) throws ServicesException, TException {
+        long start = System.nanoTime();
+        try {
+            return createSession(searchResultsId, taskType);
+        } finally {
+            startLatency.recordSince(start);
+        }
+    }
+
+    private UUID createSession(UUID searchResultsId, AnnotationTaskType taskType)
+                    throws ServicesException, TException {
         Item item = resultsStore.getByID(searchResultsId);
         if (item == null) {
             throw new ServicesException("Unknown search result id: " + searchResultsId.getUuidString());
@@ -203,6 +322,7 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
         SearchResult searchResult = item.results;
         AnnotationSession session = new AnnotationSession(searchResult, deadline);
         sessionStore.add(session);
+        sessionsStarted.increment();
 
         logger.info("Results server: starting annotation session on "
                         + searchResultsId.getUuidString() + " with session id "
@@ -237,6 +357,10 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
     @Override
     public void stopSession(UUID sessionId) throws ServicesException, TException {
         logger.info("Results server: stopping session " + sessionId.getUuidString());
+        AnnotationSession session = sessionStore.get(sessionId);
+        if (session != null) {
+            session.close();
+        }
         sessionStore.remove(sessionId);
         if (client != null) {
             client.stop(sessionId);
@@ -246,16 +370,31 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
     @Override
     public List<AnnotationUnitIdentifier> getNextChunk(UUID sessionId) throws ServicesException, TException {
         logger.info("Results server: getting next chunk of data for session " + sessionId.getUuidString());
-        AnnotationSession session = sessionStore.get(sessionId);
-        if (session == null) {
-            throw new ServicesException("Unknown session: " + sessionId.getUuidString());
+        long start = System.nanoTime();
+        try {
+            AnnotationSession session = sessionStore.get(sessionId);
+            if (session == null) {
+                throw new ServicesException("Unknown session: " + sessionId.getUuidString());
+            }
+            return session.getNext(chunkSize);
+        } finally {
+            chunkLatency.recordSince(start);
         }
-        return session.getNext(chunkSize);
     }
 
     @Override
     public void submitAnnotation(UUID sessionId, AnnotationUnitIdentifier unitId,
                     Communication communication) throws ServicesException, TException {
+        long start = System.nanoTime();
+        try {
+            annotate(sessionId, unitId, communication);
+        } finally {
+            annotationLatency.recordSince(start);
+        }
+    }
+
+    private void annotate(UUID sessionId, AnnotationUnitIdentifier unitId,
+                    Communication communication) throws ServicesException, TException {
         logger.info("Results server: received annotation on session " + sessionId.getUuidString());
         AnnotationSession session = sessionStore.get(sessionId);
         if (session == null) {
@@ -264,10 +403,13 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
 
         session.addAnnotation(unitId, communication);
 
+        if (pipeline != null) {
+            pipeline.submit(sessionId, unitId, communication);
+            return;
+        }
+
         if (client != null) {
-            List<Annotation> anns = new ArrayList<Annotation>();
-            anns.add(new Annotation(unitId, communication));
-            client.addAnnotations(sessionId, anns);
+            sendToLearner(sessionId, unitId, communication);
         }
 
         try {
@@ -277,6 +419,55 @@ public class ResultsHandler implements ResultsServerService.Iface, SortReceiverC
         }
     }
 
+    private void sendToLearner(UUID sessionId, AnnotationUnitIdentifier unitId, Communication communication) {
+        client.addAnnotations(sessionId, createAnnotations(unitId, communication));
+    }
+
+    private static List<Annotation> createAnnotations(AnnotationUnitIdentifier unitId, Communication communication) {
+        List<Annotation> anns = new ArrayList<Annotation>();
+        anns.add(new Annotation(unitId, communication));
+        return anns;
+    }
+
+    private void scheduleReaper() {
+        if (closed) {
+            return;
+        }
+        long period = Math.min(idleTimeout, 60 * 1000L);
+        reaperTimeout = TimerWheel.getShared().schedule(() -> {
+            try {
+                reaper.execute(this::reapIdleSessions);
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the sessions that have not been used within the idle timeout
+     */
+    private void reapIdleSessions() {
+        try {
+            if (sessionStore != null) {
+                for (AnnotationSession session : sessionStore.list()) {
+                    if (closed) {
+                        return;
+                    }
+                    if (session.getIdleTime() > idleTimeout) {
+                        logger.info("Results server: session " + session.getId().getUuidString() + " is idle");
+                        try {
+                            stopSession(session.getId());
+                        } catch (TException | RuntimeException e) {
+                            logger.warn("Failed to stop idle session " + session.getId().getUuidString(), e);
+                        }
+                    }
+                }
+            }
+        } finally {
+            scheduleReaper();
+        }
+    }
+
     public List<AnnotationSession> getActiveSessions() {
         return sessionStore.list();
     }
@@ -7,7 +7,6 @@ package edu.jhu.hlt.cadet.search;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -16,6 +15,10 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.thrift.TException;
 
+import edu.jhu.hlt.cadet.logging.RequestLog;
+import edu.jhu.hlt.cadet.metrics.Histogram;
+import edu.jhu.hlt.cadet.metrics.MetricsRegistry;
+
 import edu.jhu.hlt.concrete.search.SearchCapability;
 import edu.jhu.hlt.concrete.search.SearchProxyService;
 import edu.jhu.hlt.concrete.search.SearchQuery;
@@ -28,6 +31,11 @@ public class SearchProxyHandler implements SearchProxyService.Iface {
     private static Logger logger = LoggerFactory.getLogger(RemoteSearchProvider.class);
 
     Map<String, SearchProvider> providerMap = new HashMap<String, SearchProvider>();
+    private final RequestLog requestLog = new RequestLog(logger, "Search");
+
+    private final Histogram searchLatency = MetricsRegistry.getShared().requestLatency("search", "search");
+    private final Histogram searchSize = MetricsRegistry.getShared().histogram("cadet_search_result_items",
+                    "Result items returned by a search");
 
     public void addProvider(String providerName, SearchProvider provider) {
         providerMap.put(providerName, provider);
@@ -77,49 +85,56 @@ public class SearchProxyHandler implements SearchProxyService.Iface {
             throw new ServicesException("Unable to find configuration for SearchProvider named " + providerName);
         }
 
-        logSearchQuery(query);
+        long start = System.nanoTime();
+        try {
+            boolean detail = requestLog.sampleDetail();
+            if (detail) {
+                logSearchQuery(query);
+            }
 
-        SearchResult result = searchProvider.search(query);
+            SearchResult result = searchProvider.search(query);
+            searchSize.record(result.getSearchResultItemsSize());
+
+            requestLog.summary(start, result.getSearchResultItemsSize(), "results", query.getRawQuery());
+            if (detail) {
+                logSearchResults(result);
+            }
 
-        logSearchResults(result);
+            return result;
+        } finally {
+            searchLatency.recordSince(start);
+        }
+    }
 
-        return result;
+    /**
+     * Get the request log to change its sampling
+     */
+    public RequestLog getRequestLog() {
+        return requestLog;
     }
 
     protected static void logSearchQuery(SearchQuery searchQuery) {
-        logger.info("Search query: " + searchQuery.getRawQuery());
-
-        Iterator<String> questionIterator = searchQuery.getQuestionsIterator();
-        Iterator<String> termIterator = searchQuery.getTermsIterator();
-
-        if (searchQuery.getTermsSize() == 0) {
-            logger.debug("No Terms provided");
-        } else {
-            logger.debug(searchQuery.getTermsSize() + " Term(s) provided");
-            while (termIterator.hasNext()) {
-                logger.debug("Term: " + termIterator.next());
+        logger.debug("{} term(s) and {} question(s) provided", searchQuery.getTermsSize(),
+                        searchQuery.getQuestionsSize());
+        if (searchQuery.isSetTerms()) {
+            for (String term : searchQuery.getTerms()) {
+                logger.debug("Term: {}", term);
             }
         }
-
-        if (searchQuery.getQuestionsSize() == 0) {
-            logger.debug("No questions provided");
-        } else {
-            logger.debug(searchQuery.getQuestionsSize() + " question(s) provided");
-            while (questionIterator.hasNext()) {
-                logger.debug("Question: " + questionIterator.next());
+        if (searchQuery.isSetQuestions()) {
+            for (String question : searchQuery.getQuestions()) {
+                logger.debug("Question: {}", question);
             }
         }
     }
 
     protected static void logSearchResults(SearchResult searchResults) {
-        Iterator<SearchResultItem> searchResultsIterator = searchResults.getSearchResultItemsIterator();
-
-        if (searchResults.getSearchResultItemsSize() == 0) {
-            logger.info("Search: No results returned");
-        } else {
-            logger.info("Search: " + searchResults.getSearchResultItemsSize() + " result(s) provided");
-            while (searchResultsIterator.hasNext()) {
-                logger.debug("SearchResult: " + searchResultsIterator.next());
+        if (searchResults.isSetSearchResultItems()) {
+            for (SearchResultItem item : searchResults.getSearchResultItems()) {
+                // only the identifying fields; the whole item can hold a large token list
+                logger.debug("SearchResult: {} {} score={}", item.getCommunicationId(),
+                                item.isSetSentenceId() ? item.getSentenceId().getUuidString() : "-",
+                                item.getScore());
             }
         }
     }
@@ -7,9 +7,12 @@ package edu.jhu.hlt.cadet.results;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.thrift.TException;
 import org.junit.Test;
@@ -18,9 +21,14 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
 import edu.jhu.hlt.cadet.fetch.FetchProvider;
+import edu.jhu.hlt.cadet.learn.SimpleMockActiveLearningClient;
+import edu.jhu.hlt.cadet.store.MockStoreProvider;
+import edu.jhu.hlt.concrete.Communication;
 import edu.jhu.hlt.concrete.UUID;
+import edu.jhu.hlt.concrete.learn.Annotation;
 import edu.jhu.hlt.concrete.search.SearchQuery;
 import edu.jhu.hlt.concrete.search.SearchResult;
+import edu.jhu.hlt.concrete.search.SearchResultItem;
 import edu.jhu.hlt.concrete.services.AnnotationTaskType;
 import edu.jhu.hlt.concrete.services.AnnotationUnitIdentifier;
 import edu.jhu.hlt.concrete.services.ServicesException;
@@ -149,6 +157,48 @@ public class ResultsHandlerTest {
         assertNull(store.getByID(new UUID("test")));
     }
 
+    @Test
+    public void testPipelineRetriesFailedLearner() throws Exception {
+        Config config = ConfigFactory.parseString("pipeline { enabled = true, durable = false, backoff = 1ms, "
+                        + "max_attempts = 3 }");
+        ResultsHandler handler = new ResultsHandler(config);
+        handler.setSessionStore(new MemorySessionStore());
+        handler.setStoreProvider(new MockStoreProvider());
+        FailingLearner learner = new FailingLearner();
+        handler.setActiveLearningClient(learner);
+        handler.start();
+        try {
+            SearchResult r = new SearchResult(new UUID("test"), new SearchQuery());
+            r.addToSearchResultItems(new SearchResultItem().setCommunicationId("1"));
+            AnnotationSession session = new AnnotationSession(r, 60 * 1000);
+            handler.getSessionStore().add(session);
+
+            handler.submitAnnotation(session.getId(), new AnnotationUnitIdentifier("1"),
+                            new Communication().setId("1"));
+
+            AnnotationPipeline.Stage stage = handler.getPipeline().getStage(AnnotationPipeline.LEARN_STAGE);
+            long end = System.currentTimeMillis() + 10 * 1000;
+            while (stage.getFailedCount() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, stage.getFailedCount());
+            assertTrue(stage.getRetryCount() > 0);
+            assertEquals(3, learner.attempts.get());
+        } finally {
+            handler.close();
+        }
+    }
+
+    private static class FailingLearner extends SimpleMockActiveLearningClient {
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public void deliverAnnotations(UUID sessionId, List<Annotation> annotations) throws TException {
+            attempts.incrementAndGet();
+            throw new ServicesException("learner is down");
+        }
+    }
+
     private class NoFilter implements ResultsPlugin {
         @Override
         public void init(Config config) {}